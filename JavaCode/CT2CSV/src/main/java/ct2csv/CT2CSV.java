@@ -26,8 +26,6 @@ import java.io.File;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 
@@ -123,52 +121,29 @@ public class CT2CSV {
 		
 		new File(outFolder).mkdirs();
 
-		// loop thru sources and channels, build TimeNameValue ArrayList for each source
+		// loop thru sources and channels, merge channel data by time for each source
 		int nout=0;
 		for(String source : slist) {								// for each source
 			csvout = new PrintWriter(outFolder+File.separator+source+".csv");
 			
 			System.err.println("Processing source: "+source);
 //			output(source+"\n");
-			ArrayList<TimeNameValue> TNV = new ArrayList<TimeNameValue>();
 			ArrayList<String> clist = ctreader.listChans(rootFolder+File.separator+source);
 			if(clist == null) {
 				System.err.println("Warning:  no channels in source: "+source);
 				continue;
 			}
 			
+			// stream each channel via cursor, merge by time (memory bounded by one block per channel)
+			ArrayList<ChanStream> streams = new ArrayList<ChanStream>();
 			boolean warnonce=true;
 			for(String chan : clist) {															// for each channel in source
-				CTdata tdata = ctreader.getData(source,chan,tstart,tduration,"oldest");	// get all data 
-				if(tdata != null) {		// got data
-					tdata.setSwap(swapFlag);
-					double time[] = tdata.getTime();
-					int numData = time.length;
-					if(numData > MaxDat) {
-						if(warnonce) {
-							System.err.println(source+": limiting output lines: "+MaxDat+" (use option -n to change)");
-							warnonce=false;
-						}
-						numData = MaxDat;
-					}
-					char ftype = CTinfo.fileType(chan);
-
-					String[] dstring = tdata.getDataAsString(ftype);
-					if(dstring != null) {
-						for(int i=0; i<numData; i++) {
-							TNV.add(new TimeNameValue(time[i], chan, dstring[i]));
-						}
-					}
-					else {
-						System.err.println(source+"/"+chan+": "+chan+", unrecognized type: "+ftype);
-					}	
-				}	
+				CTcursor cursor = ctreader.getCursor(source,chan,tstart,tduration,"oldest");	// get all data 
+				ChanStream cs = new ChanStream(source, chan, cursor, swapFlag);
+				if(cs.advance()) streams.add(cs);
 			}	
 			
-			// now re-sort by time and spit out in CSV format
-			Collections.sort(TNV, new TNVsort());
-			
-			if(TNV.size() == 0) {
+			if(streams.size() == 0) {
 				System.err.println("Warning:  No data processed from source: "+source);
 				continue;
 			}
@@ -178,16 +153,26 @@ public class CT2CSV {
 			for(int i=0; i<clist.size(); i++) output(","+clist.get(i));
 			output("\n");
 
-			double told=TNV.get(0).time;			// initialize	
+			double told=nextStream(streams).time();			// initialize	
 			HashMap<String,String>vmap = new HashMap<String,String>();
 
-			for(TimeNameValue tnv:TNV) {
-				if(tnv.time > told) {					// output line if time advances past prior
+			while(streams.size() > 0) {
+				ChanStream cs = nextStream(streams);
+				if(cs.time() > told) {					// output line if time advances past prior
 					printLine(clist, formatTime(told), vmap);
-					told = tnv.time;
+					told = cs.time();
 					vmap.clear();
 				}
-				vmap.put(tnv.name, tnv.value);
+				vmap.put(cs.chan, cs.value());
+				if(cs.count == MaxDat) {
+					if(cs.advance() && warnonce) {
+						System.err.println(source+": limiting output lines: "+MaxDat+" (use option -n to change)");
+						warnonce=false;
+					}
+					cs.cursor.close();
+					streams.remove(cs);
+				}
+				else if(!cs.advance()) streams.remove(cs);
 			}
 			printLine(clist, formatTime(told), vmap);		// last line
 			csvout.close();
@@ -197,6 +182,14 @@ public class CT2CSV {
 		else	   System.err.println("Warning:  no data processed.");
 	}
 
+	//---------------------------------------------------------------------------------	
+	// stream with oldest current point (first listed on tie)
+	private static ChanStream nextStream(ArrayList<ChanStream> streams) {
+		ChanStream next = streams.get(0);
+		for(ChanStream cs:streams) if(cs.time() < next.time()) next = cs;
+		return next;
+	}
+	
 	//---------------------------------------------------------------------------------	
 	// print a CSV line of values	
 	private static void printLine(ArrayList<String>clist, String time, HashMap<String,String>vmap) {
@@ -235,27 +228,44 @@ public class CT2CSV {
  }
 
 //---------------------------------------------------------------------------------	
-//  time name value triple data object
-class TimeNameValue {
-	double time;
-    String name;
-    String value;
+//  channel data stream:  cursor plus current block as time, string-value arrays
+class ChanStream {
+	final String source, chan;
+	final CTcursor cursor;
+	private final char ftype;
+	private final boolean swap;
+	private double[] times = null;
+	private String[] values = null;
+	private int index = -1;
+	int count = 0;						// points consumed
 
-    TimeNameValue(double time, String name, String value) {
-    	this.time = time;
-        this.name = name;
-        this.value = value;
-    }
-}
+	ChanStream(String source, String chan, CTcursor cursor, boolean swap) {
+		this.source = source;
+		this.chan = chan;
+		this.cursor = cursor;
+		this.swap = swap;
+		ftype = CTinfo.fileType(chan);
+	}
 
-// sort TimeNameValue ArrayList first by time, then by chanName
-class TNVsort implements Comparator<TimeNameValue> {
-	@Override
-	public int compare(TimeNameValue tnv1, TimeNameValue tnv2) {
-		if(tnv1.time > tnv2.time) 	return 1;
-		else if(tnv1.time == tnv2.time) {
-			return tnv1.name.compareTo(tnv2.name);
+	// advance to next point, reading next block as needed.  false if done
+	boolean advance() throws Exception {
+		while(times == null || ++index >= times.length) {
+			if(!cursor.next()) return false;
+			CTdata tdata = cursor.getData();
+			tdata.setSwap(swap);
+			values = tdata.getDataAsString(ftype);
+			if(values == null) {
+				System.err.println(source+"/"+chan+": "+chan+", unrecognized type: "+ftype);
+				cursor.close();
+				return false;
+			}
+			times = tdata.getTime();
+			index = -1;
 		}
-		else						return -1;
+		count++;
+		return true;
 	}
-}
\ No newline at end of file
+
+	double time() 	{ return times[index]; }
+	String value() 	{ return values[index]; }
+}
@@ -20,6 +20,7 @@
 package ctblocktest;
 
 import java.io.File;
+import java.util.Arrays;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -154,6 +155,12 @@ public class CTblocktest {
 						errCount++;
 					}
 				}
+				if(j==0) {													// first channel
+					double[] v = new double[dd.length];
+					for(int i=0; i<dd.length; i++) v[i] = dd[i];
+					errCount += cursorCheck(ctr, modeName, chan, t, data.getData());
+					errCount += aggregateCheck(ctr, modeName, chan, t, v);
+				}
 				j++;
 			}
 		} catch(Exception e) {
@@ -165,6 +172,79 @@ public class CTblocktest {
 		return errCount;
 	}
 	
+	//--------------------------------------------------------------------------------------------------------
+	// CTcursor must return the points of all data (t, d) in [start, start+duration], for any batch size.
+	// ranges start on and between points, across block and segment boundaries
+	static int cursorCheck(CTreader ctr, String modeName, String chan, double[] t, byte[][] d) throws Exception {
+		int errCount=0;
+		double t0 = 1460000000.;
+		double[] durations = { 0.05*dt, 0.5*dt, 0.6*dt, dt, 2.5*dt, blockPts*dt, 3.5*blockPts*dt };
+		for(int k=0; k<4*(3*blockPts+1); k++) {				// quarter-point steps:  exact on point times
+			double start = t0 - dt + 0.25*k*dt;
+			for(double duration:durations) {
+				int istart = 0, iend = t.length;
+				while(istart < iend && t[istart] < start) istart++;
+				while(iend > istart && t[iend-1] > start+duration) iend--;
+				for(int batch=1; batch<=4; batch++) {
+					CTcursor cursor = ctr.getCursor(modeName, chan, start, duration, "absolute");
+					cursor.setBatchSize(batch);
+					int i=istart;
+					while(cursor.nextPoint()) {
+						if(i >= iend || cursor.getTime() != t[i] || !Arrays.equals(cursor.getBytes(), d[i])) break;
+						i++;
+					}
+					if(i != iend || cursor.nextPoint()) {
+						if(debug) System.err.println(modeName+": cursorCheck error, chan: "+chan+", start: "+start+", duration: "+duration+", batch: "+batch+", matched: "+(i-istart)+" of "+(iend-istart));
+						errCount++;
+					}
+					cursor.close();
+				}
+			}
+		}
+		return errCount;
+	}
+	
+	//--------------------------------------------------------------------------------------------------------
+	// getAggregate must equal the same windows aggregated from all data (t, v) in [start, start+duration]
+	static int aggregateCheck(CTreader ctr, String modeName, String chan, double[] t, double[] v) throws Exception {
+		int errCount=0;
+		double t0 = 1460000000.;
+		double[] windows = { 0., 2.5*dt, blockPts*dt, 7*blockPts*dt };
+		for(int k=0; k<4*(3*blockPts+1); k+=3) {
+			double start = t0 - dt + 0.25*k*dt;
+			for(double duration:new double[] { 0.5*dt, 2.5*dt, 3.5*blockPts*dt, 2*segBlocks*blockPts*dt }) {
+				int istart = 0, iend = t.length;
+				while(istart < iend && t[istart] < start) istart++;
+				while(iend > istart && t[iend-1] > start+duration) iend--;
+				for(double window:windows) {
+					CTaggregate agg = ctr.getAggregate(modeName, chan, start, duration, "absolute", window);
+					double[] wt = agg.getTime();
+					long[] count = agg.getCount();
+					double[] min = agg.getMin(), max = agg.getMax(), sum = agg.getSum();
+					int w = -1;
+					double wstart = Double.NaN, wmin = 0., wmax = 0., wsum = 0.;
+					long wcount = 0;
+					boolean ok = true;
+					for(int i=istart; i<=iend && ok; i++) {
+						double ws = (i == iend) ? Double.NaN : ((window > 0.) ? Math.floor(t[i] / window) * window : t[istart]);
+						if(i == iend || ws != wstart) {		// close previous window
+							if(w >= 0) ok = (w < wt.length && wt[w] == wstart && count[w] == wcount && min[w] == wmin && max[w] == wmax && Math.abs(sum[w]-wsum) <= 1e-9*Math.abs(wsum));
+							if(i == iend) break;
+							w++;	wstart = ws;	wcount = 0;	wsum = 0.;	wmin = wmax = v[i];
+						}
+						wcount++;	wsum += v[i];
+						wmin = Math.min(wmin, v[i]);	wmax = Math.max(wmax, v[i]);
+					}
+					if(!ok || w+1 != wt.length) {
+						if(debug) System.err.println(modeName+": aggregateCheck error, chan: "+chan+", start: "+start+", duration: "+duration+", window: "+window+", windows: "+wt.length+" vs "+(w+1));
+						errCount++;
+					}
+				}
+			}
+		}
+		return errCount;
+	}
+	
 	//--------------------------------------------------------------------------------------------------------
 	// Argument processing using Apache Commons CLI
 	private boolean parseArgs(String[] args) {
@@ -63,9 +63,11 @@ class CTFile extends File {
 //	private boolean isFile=false;		// internal zip file 
 	private String  myPath=null;
 	private String 	myZipFile=null;
+	private String	gzFile=null;			// in-memory gzip:  .zip.gz file holding myZipFile
 	private String[] myFiles=null;
 	private Map<String, String[]> zipMap;
 	private double myTime= -1.;
+	private int codecInfo = -1;				// CTcodec.extraInfo of zip entry, -1 if not yet known
 	
 	enum FileType {
 		FILE,						// regular file or folder
@@ -87,9 +89,15 @@ class CTFile extends File {
 	 * @param path file path to new CTFile
 	 */
 	CTFile(String path) {
-		super(path = convertGzip(path));
+		this(path, path.endsWith(".gz") && CTcache.gzipInMemory(path));
+	}
+	
+	// gzipMemory:  in-memory .zip.gz, use logical .zip path with data inflated from .gz
+	private CTFile(String path, boolean gzipMemory) {
+		super(path = (gzipMemory ? path.substring(0, path.length()-3) : convertGzip(path)));
 //		System.err.println("new CTFile path: "+path);
 		myPath = new String(path);
+		if(gzipMemory) gzFile = path + ".gz";
 
 		if(path.endsWith(".zip") || path.endsWith(".gz")) fileType = FileType.ZIP;
 		if(isTFILE()) fileType = FileType.TFOLDER;		// need better filter
@@ -128,6 +136,18 @@ class CTFile extends File {
 //		if(files == null) isFile=true;		// top-level files in zip
 //		else			  isEntry=true;
 	}
+
+	/**
+	 * New CTFile for zip-entry, e.g. from CTindex record
+	 * @param zip parent zip file
+	 * @param entry zip-entry name (point/chan)
+	 * @return CTFile of type ZFILE
+	 */
+	static CTFile zipEntry(CTFile zip, String entry) {
+		CTFile zentry = new CTFile(entry, zip.myZipFile, entry);
+		zentry.gzFile = zip.gzFile;
+		return zentry;
+	}
 /*
 	@Override
 	public int compareTo(File compareFile) {
@@ -137,7 +157,7 @@ class CTFile extends File {
 	}
 */	
 	//---------------------------------------------------------------------------------	
-	// convert .gz to .zip
+	// convert .gz to .zip (temp file, for gzip blocks too big to hold in memory)
 	private static String convertGzip(String path) {
 		if(path.endsWith(".gz")) {
 			path = gunzip(path);
@@ -154,6 +174,11 @@ class CTFile extends File {
 		return myZipFile;
 	}
 	
+	// on-disk block file of zip entry:  .zip, or .zip.gz if inflated in memory
+	String getBlockFile() {
+		return (gzFile != null) ? gzFile : myZipFile;
+	}
+	
 	public String getParent() {
 		if(myZipFile!=null) return myZipFile;
 		else				return super.getParent();
@@ -237,7 +262,9 @@ class CTFile extends File {
 				String[] files = zipMap.get(sfiles[i]);
 //				System.err.println("ZIP file: "+sfiles[i]+", files.len: "+files.length);
 				clist[i] = new CTFile((String) sfiles[i], files, myZipFile);	
+				clist[i].gzFile = gzFile;
 			}
+			presetTimes(clist, zipBase());
 			
 //			CTinfo.debugPrint(cacheProfile,"unsorted zips, length: "+clist.length+", time: "+((System.nanoTime()-startTime)/1000000.));
 			// Arrays.sort is expensive as it is called lots at lowest level loop
@@ -257,7 +284,9 @@ class CTFile extends File {
 				String fname = myFiles[i].split(File.pathSeparator)[0];		// Java 1.6 compat
 //				System.err.println("ZENTRY, myFiles["+i+"]: "+myFiles[i]+", fname: "+fname);
 				clist[i] = new CTFile(fname,myZipFile,myFiles[i]);
+				clist[i].gzFile = gzFile;
 			}
+			presetTimes(clist, zipBase());
 			
 			// clist built from myFiles which is side-effect of listFiles-type-ZIP above.  Sorted TreeMap.
 //			Arrays.sort(clist, fileTimeComparator);			// zip files in order of write, not guaranteed time-sorted
@@ -284,7 +313,8 @@ class CTFile extends File {
 			for(int i=0; i<clist.length; i++) {
 				clist[i] = new CTFile(flist[i].getPath());
 			}
-			Arrays.sort(clist, fileTimeComparator);		// make sure sorted (newTime etc presumes)
+			presetTimes(clist, getMyPath());
+			sortByTime(clist);		// make sure sorted (newTime etc presumes)
 			return clist;		// wrap in CTFile class
 		}
 		
@@ -463,7 +493,13 @@ class CTFile extends File {
 //			CTinfo.debugPrint(cacheProfile, "DataCache hit: "+cacheKey+", cacheSize: "+CTcache.DataCache.size()+", dt: "+((System.nanoTime()-startTime)/1000000.));
 			return data;					// use cached data
 		}
-		else CTinfo.debugPrint(cacheProfile, "DataCache miss: "+cacheKey+", cacheSize: "+CTcache.DataCache.size());
+		else if(cacheProfile) CTinfo.debugPrint("DataCache miss: "+cacheKey+", cacheSize: "+CTcache.DataCache.size());
+		
+		data = CTcache.OffHeapCache.get(cacheKey);						// second tier (if enabled)
+		if(data != null) {
+			CTcache.DataCache.put(cacheKey, data);						// promote
+			return data;
+		}
 		
 //		if(myData!=null) return myData;		// cache
 		switch(fileType) {
@@ -474,26 +510,22 @@ class CTFile extends File {
 		case ZFILE:			// zipoutput
 			//		if(isFile) {		
 			try {
-				synchronized(CTcache.cacheLock) {		// don't let cache close while in use
+				String mypathfs = zipEntryName();
+				if(gzFile != null || CTcache.mappedZip) {	// in-memory gzip block, or alternate backend:  mapped zip central directory
+					CTmappedZip mz = (gzFile != null) ? CTcache.cachedGzipZip(gzFile) : CTcache.cachedMappedZip(myZipFile);
+					data = mz.getBytes(mypathfs);
+					if(data == null) throw new IOException("Null ZipEntry, zipfile: "+((gzFile != null) ? gzFile : myZipFile)+", entry: "+mypathfs);
+					data = decodeEntry(data, mz.getExtra(mypathfs));
+					break;
+				}
+				
+				CTzipPool.Handle zh = CTcache.ZipPool.acquire(myZipFile);		// don't let pool close while in use
+				try {
 					//				thisTime = System.nanoTime(); System.err.println("ckp1: "+((thisTime-startTime)/1000000.)); startTime = thisTime;
-					ZipFile thisZipFile = CTcache.cachedZipFile(myZipFile);
+					ZipFile thisZipFile = zh.zipFile();
 					//				ZipFile thisZipFile = new ZipFile(myZipFile);
 					//				thisTime = System.nanoTime(); System.err.println("ckp2: "+((thisTime-startTime)/1000000.)); startTime = thisTime;
 
-					// note:  myPath for zip-entry is not full-path as it is with other CTFile...  <---FIXED and adjusted right below!
-					String mypathfs = myPath.replace('\\','/');		// myPath with fwd slash
-
-					// strip leading file path to get just the zip-entry part!  always will be time/name format.
-					String[] subDirs = mypathfs.split(Pattern.quote("/"));
-					
-/*			// following code to enable multi-tier zip entries		
-					String leadingPath = myZipFile.substring(0,myZipFile.lastIndexOf(".zip")) + "/";
-					mypathfs = mypathfs.replace(leadingPath, "");
-					System.err.println("ZIP mypathfs: "+mypathfs+", myZipFile: "+myZipFile+", leadingPath: "+leadingPath+", myPath: "+myPath);
-*/
-					if(subDirs.length >= 2) mypathfs = subDirs[subDirs.length-2] + "/" + subDirs[subDirs.length-1];
-					else					System.err.println("WARNING!!!  Unexpected zip-entry format: "+mypathfs);
-
 					ZipEntry ze = thisZipFile.getEntry(mypathfs);			// need fullpath!
 					//				thisTime = System.nanoTime(); System.err.println("ckp3: "+((thisTime-startTime)/1000000.)); startTime = thisTime;
 
@@ -509,9 +541,12 @@ class CTFile extends File {
 					while ((len = zis.read(data,nread,zsize-nread)) > 0) nread+=len;
 					//		    		System.err.println("zip nread: "+nread+", ze.size: "+ze.getSize());
 					zis.close();
+					data = decodeEntry(data, ze.getExtra());
 					//				thisTime = System.nanoTime(); System.err.println("ckp4: "+((thisTime-startTime)/1000000.)); startTime = thisTime;
 
 					//				thisZipFile.close();
+				} finally {
+					CTcache.ZipPool.release(zh);
 				}
 			} catch(Exception e) {
 				System.err.println("CTFile.read: "+e /* +", zipfile: "+myZipFile+", entry: "+myPath */);
@@ -534,12 +569,69 @@ class CTFile extends File {
 		}
 				
 		if(data!=null /* && data.length <= MAX_FILESIZE */) {
-			CTcache.DataCache.put(cacheKey, data);		// only cache small files
-			CTinfo.debugPrint(cacheProfile, "DataCache put: "+cacheKey+", datasize: "+data.length+", cacheLen: "+CTcache.DataCache.size());
+			CTcache.DataCache.put(cacheKey, data);		// only caches up to max entry size
+			CTcache.OffHeapCache.put(cacheKey, data);
+			if(cacheProfile) CTinfo.debugPrint("DataCache put: "+cacheKey+", datasize: "+data.length+", cacheLen: "+CTcache.DataCache.size());
 		}
 		return data;
 	}
 	
+	// decode CTcodec frame entry.  encrypted frames are decoded by CTreader after decrypt
+	private byte[] decodeEntry(byte[] data, byte[] extra) throws IOException {
+		codecInfo = CTcodec.extraInfo(extra);
+		if(codecInfo == CTcodec.FRAME) return CTcodec.decodeFrame(data);
+		return data;
+	}
+	
+	/**
+	 * Zip entry codec info, as recorded by the writer in the entry extra field
+	 * @return CTcodec.NONE, FRAME or ENCRYPTED_FRAME (NONE if not a zip entry)
+	 */
+	int codecInfo() {
+		if(codecInfo >= 0) return codecInfo;			// known from read() (not on cache hit)
+		if(fileType != FileType.ZFILE) return CTcodec.NONE;
+		try {
+			String mypathfs = zipEntryName();
+			byte[] extra;
+			if(gzFile != null || CTcache.mappedZip) {
+				CTmappedZip mz = (gzFile != null) ? CTcache.cachedGzipZip(gzFile) : CTcache.cachedMappedZip(myZipFile);
+				extra = mz.getExtra(mypathfs);
+			}
+			else {
+				CTzipPool.Handle zh = CTcache.ZipPool.acquire(myZipFile);
+				try {
+					ZipEntry ze = zh.zipFile().getEntry(mypathfs);
+					extra = (ze == null) ? null : ze.getExtra();
+				} finally {
+					CTcache.ZipPool.release(zh);
+				}
+			}
+			codecInfo = CTcodec.extraInfo(extra);
+		} catch(Exception e) {
+			System.err.println("CTFile.codecInfo: "+e);
+			return CTcodec.NONE;
+		}
+		return codecInfo;
+	}
+	
+	// zip entry name (time/name) for this zip-entry CTFile
+	private String zipEntryName() {
+		// note:  myPath for zip-entry is not full-path as it is with other CTFile...  <---FIXED and adjusted right below!
+		String mypathfs = myPath.replace('\\','/');		// myPath with fwd slash
+
+		// strip leading file path to get just the zip-entry part!  always will be time/name format.
+		String[] subDirs = mypathfs.split(Pattern.quote("/"));
+		
+/*			// following code to enable multi-tier zip entries		
+		String leadingPath = myZipFile.substring(0,myZipFile.lastIndexOf(".zip")) + "/";
+		mypathfs = mypathfs.replace(leadingPath, "");
+		System.err.println("ZIP mypathfs: "+mypathfs+", myZipFile: "+myZipFile+", leadingPath: "+leadingPath+", myPath: "+myPath);
+*/
+		if(subDirs.length >= 2) mypathfs = subDirs[subDirs.length-2] + "/" + subDirs[subDirs.length-1];
+		else					System.err.println("WARNING!!!  Unexpected zip-entry format: "+mypathfs);
+		return mypathfs;
+	}
+	
 	//---------------------------------------------------------------------------------	
 	// ZipMap:  create index of zipped folder/files.  
 	// Map keys are timestamp-folders, map values are string-arrays of channels per folder
@@ -557,18 +649,27 @@ class CTFile extends File {
 		try{		//get the zip file content
 			int numEntries=0;
 			String[] entry;
-			synchronized(CTcache.cacheLock) {			// no cache-close while in use
-				ZipFile zfile = CTcache.cachedZipFile(zipfile);		// this can throw exception being created in RT
-				//	ZipFile zfile = new ZipFile(zipfile);		// just open zipfile, let ZipMap itself do the caching
+			if(gzFile != null || CTcache.mappedZip) {			// in-memory gzip or mapped zip:  names pre-sorted
+				entry = (gzFile != null) ? CTcache.cachedGzipZip(gzFile).names() : CTcache.cachedMappedZip(zipfile).names();
+				numEntries = entry.length;
+			}
+			else {
+				CTzipPool.Handle zh = CTcache.ZipPool.acquire(zipfile);		// this can throw exception being created in RT
+				try {														// no pool-close while in use
+					ZipFile zfile = zh.zipFile();
+					//	ZipFile zfile = new ZipFile(zipfile);		// just open zipfile, let ZipMap itself do the caching
 
-				Enumeration<? extends ZipEntry> zenum = zfile.entries();
-				numEntries = zfile.size();		// convert to array, easier loop control
-				entry = new String[numEntries];
-				//			System.err.println("Building ZipMap for: "+myPath+", numEntries: "+numEntries);
+					Enumeration<? extends ZipEntry> zenum = zfile.entries();
+					numEntries = zfile.size();		// convert to array, easier loop control
+					entry = new String[numEntries];
+					//			System.err.println("Building ZipMap for: "+myPath+", numEntries: "+numEntries);
 
-				for(int i=0; i<numEntries; i++) entry[i] = zenum.nextElement().getName();
+					for(int i=0; i<numEntries; i++) entry[i] = zenum.nextElement().getName();
+				} finally {
+					CTcache.ZipPool.release(zh);
+				}
+				Arrays.sort(entry);				// sort so that following add-logic gets all channels in same timestamp folder
 			}
-			Arrays.sort(entry);				// sort so that following add-logic gets all channels in same timestamp folder
 
 			String thisfolder=null;
 			ArrayList<String>flist=null;
@@ -849,6 +950,53 @@ class CTFile extends File {
   	    }
   	};
   	
+    //---------------------------------------------------------------------------------	
+  	// sort folder list by file time:  primitive keys and stable index merge sort (vs Comparator calls per compare)
+  	
+  	private static void sortByTime(CTFile[] clist) {
+  		int n = clist.length;
+  		double[] ftime = new double[n];
+  		boolean sorted = true;
+  		for(int i=0; i<n; i++) {
+  			ftime[i] = clist[i].fileTime();
+  			if(i>0 && Double.compare(ftime[i-1], ftime[i]) > 0) sorted = false;
+  		}
+  		if(sorted) return;				// typical:  file system lists in time order
+  		
+  		int[] idx = new int[n], tmp = new int[n];
+  		for(int i=0; i<n; i++) idx[i] = i;
+  		for(int width=1; width<n; width*=2) {		// bottom-up merge
+  			for(int lo=0; lo<n-width; lo+=2*width) {
+  				int mid = lo+width, hi = Math.min(lo+2*width, n);
+  				int a=lo, b=mid, k=lo;
+  				while(a<mid && b<hi) tmp[k++] = (Double.compare(ftime[idx[b]], ftime[idx[a]]) < 0) ? idx[b++] : idx[a++];
+  				while(a<mid) tmp[k++] = idx[a++];
+  				while(b<hi)  tmp[k++] = idx[b++];
+  				System.arraycopy(tmp, lo, idx, lo, hi-lo);
+  			}
+  		}
+  		CTFile[] slist = clist.clone();
+  		for(int i=0; i<n; i++) clist[i] = slist[idx[i]];
+  	}
+  	
+  	// set entry times from shared folder time base (parse common path prefix once per folder, not per entry)
+  	private static void presetTimes(CTFile[] clist, String folder) {
+  		long[] base = CTinfo.timeBase(folder);
+  		if(base == null) return;
+  		int plen = folder.length();
+  		for(CTFile cf:clist) {
+  			if(cf.fileType==FileType.TFOLDER || cf.fileType==FileType.TFILE) continue;	// time from name (tfolderTime)
+  			String path = cf.getMyPath();
+  			if(path.length() > plen+1 && path.startsWith(folder) && CTinfo.isSeparator(path.charAt(plen)))
+  				cf.myTime = CTinfo.fileTime(base, path, plen+1);
+  		}
+  	}
+  	
+  	// effective folder path of zip entries (see zip entry constructors)
+  	private String zipBase() {
+  		return myZipFile.substring(0,myZipFile.lastIndexOf('.'));
+  	}
+  	
     //---------------------------------------------------------------------------------	
   	// To sort by file name
   	Comparator<CTFile> fileNameComparator = new Comparator<CTFile>() {
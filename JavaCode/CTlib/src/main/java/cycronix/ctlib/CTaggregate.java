@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * CloudTurbine windowed aggregates:  count, min, max, sum and mean of numeric data per time window.
+ * <p>
+ * Windows are aligned to multiples of the window duration (e.g. 60 sec windows start on the minute);
+ * a window duration of 0 aggregates the whole request as one window.  Only windows with data are kept.
+ * Values are accumulated into primitive arrays as blocks are read (see CTreader.getAggregate);
+ * NaN values are skipped.
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+public class CTaggregate {
+
+	private final double window;			// window duration (sec), 0 for one window
+	private double[] time = new double[16];	// window start times
+	private long[] count = new long[16];
+	private double[] min = new double[16];
+	private double[] max = new double[16];
+	private double[] sum = new double[16];
+	private int nwin = 0;
+
+	//---------------------------------------------------------------------------------
+	// constructor (see CTreader.getAggregate)
+
+	CTaggregate(double window) {
+		this.window = (window > 0.) ? window : 0.;
+	}
+
+	// add one value
+	void add(double t, double v) {
+		if(Double.isNaN(v)) return;
+		double wstart = (window > 0.) ? (Math.floor(t / window) * window) : ((nwin > 0) ? time[0] : t);
+
+		int w = nwin - 1;
+		while(w >= 0 && time[w] > wstart) w--;		// data arrive in time order:  normally last window
+		if(w < 0 || time[w] != wstart) {
+			w++;
+			insert(w, wstart);
+		}
+		if(count[w] == 0) {
+			min[w] = max[w] = v;
+		}
+		else {
+			if(v < min[w]) min[w] = v;
+			if(v > max[w]) max[w] = v;
+		}
+		sum[w] += v;
+		count[w]++;
+	}
+
+	// open new (empty) window at index w
+	private void insert(int w, double wstart) {
+		if(nwin == time.length) {
+			int n = 2 * nwin;
+			time = Arrays.copyOf(time, n);	count = Arrays.copyOf(count, n);
+			min = Arrays.copyOf(min, n);		max = Arrays.copyOf(max, n);
+			sum = Arrays.copyOf(sum, n);
+		}
+		if(w < nwin) {
+			System.arraycopy(time, w, time, w+1, nwin-w);	System.arraycopy(count, w, count, w+1, nwin-w);
+			System.arraycopy(min, w, min, w+1, nwin-w);		System.arraycopy(max, w, max, w+1, nwin-w);
+			System.arraycopy(sum, w, sum, w+1, nwin-w);
+		}
+		time[w] = wstart;	count[w] = 0;	min[w] = max[w] = sum[w] = 0.;
+		nwin++;
+	}
+
+	//---------------------------------------------------------------------------------
+	// results
+
+	/**
+	 * @return number of windows with data
+	 */
+	public int size() {
+		return nwin;
+	}
+
+	/**
+	 * @return window duration (sec), 0 if one window
+	 */
+	public double getWindow() {
+		return window;
+	}
+
+	/**
+	 * @return window start times (sec)
+	 */
+	public double[] getTime() {
+		return Arrays.copyOf(time, nwin);
+	}
+
+	public long[] getCount() {
+		return Arrays.copyOf(count, nwin);
+	}
+
+	public double[] getMin() {
+		return Arrays.copyOf(min, nwin);
+	}
+
+	public double[] getMax() {
+		return Arrays.copyOf(max, nwin);
+	}
+
+	public double[] getSum() {
+		return Arrays.copyOf(sum, nwin);
+	}
+
+	public double[] getMean() {
+		double[] mean = new double[nwin];
+		for(int i=0; i<nwin; i++) mean[i] = sum[i] / count[i];
+		return mean;
+	}
+
+	/**
+	 * Get one statistic by name
+	 * @param stat "count", "min", "max", "sum", or "mean"
+	 * @return values per window, null if unknown stat
+	 */
+	public double[] get(String stat) {
+		if(stat.equals("min")) 	return getMin();
+		if(stat.equals("max")) 	return getMax();
+		if(stat.equals("sum")) 	return getSum();
+		if(stat.equals("mean")) return getMean();
+		if(stat.equals("count")) {
+			double[] dcount = new double[nwin];
+			for(int i=0; i<nwin; i++) dcount[i] = count[i];
+			return dcount;
+		}
+		return null;
+	}
+
+	/**
+	 * Get one statistic as CTdata of float64 (little-endian) words, one point per window
+	 * @param stat "count", "min", "max", "sum", or "mean"
+	 * @return CTdata, null if unknown stat
+	 */
+	public CTdata toCTdata(String stat) {
+		double[] values = get(stat);
+		if(values == null) return null;
+		CTdata ctd = new CTdata();
+		for(int i=0; i<nwin; i++)
+			ctd.add(time[i], ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putDouble(values[i]).array());
+		return ctd;
+	}
+}
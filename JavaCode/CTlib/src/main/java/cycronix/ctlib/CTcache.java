@@ -19,96 +19,310 @@
 
 package cycronix.ctlib;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.zip.ZipFile;
+import java.util.zip.GZIPInputStream;
 
 /**
  * CloudTurbine utility class that provides caching storage and access functions
  * <p>
+ * Data and ZipMap caches are concurrent, bounded by total bytes, with hit/miss/eviction statistics (see CTcacheMap).
+ * An optional off-heap data cache tier holds (compressed) data outside the Java heap (see CTcacheArena).
+ * Open zip files are pooled and reference counted (see CTzipPool).
+ * Limits are set via the public static methods of this class.
+ * <p>
  * @author Matt Miller (MJM), Cycronix
  * @version 2017/07/05
  * 
 */
 
-class CTcache {
+public class CTcache {
 
 	//---------------------------------------------------------------
 	// cache functions
 	
 //	private byte[] myData=null;				// cache?
 //	static private TreeMap<String, byte[]> DataCache = new TreeMap<String, byte[]>();		// cache (need logic to cap size)
-	// cache limits, max entries, max filesize any entry, jvm size at which to dump old cache...
-	private static final int MAX_ENTRIES = 100000;			// limit total entries in data cache	(10K led to "too many open files"?)
+	// cache limits (defaults), total bytes per cache, max size any entry
+	private static final double DATA_MEMUSE = 0.25;			// fraction max JVM memory for data cache
 	private static final int MAX_FILESIZE = 20000000;		// 20MB.  max size any individual entry
-//	private static final int MAX_JVMSIZE = 2000000000;		// 200MB. max overall JVM memory use at which to dump old entries  (2GB?)
-	private static final double MAX_MEMUSE = 0.7;			// fraction available JVM memory to use before limiting cache
+	private static final long ZIPMAP_BYTES = 64000000;		// 64MB.  total size constructed ZipMaps
+	private static final double GZIP_MEMUSE = 0.125;		// fraction max JVM memory for inflated gzip blocks
+	private static final int MAX_GZIPSIZE = 64000000;		// 64MB.  larger gzip blocks are gunzip'd to temp file
 	private static final int MAX_ZIPFILES = 100;			// max number open zip files
-	private static final int MAX_ZIPMAPS = 100000;			// max number constructed ZipMaps
+	private static final int CONCURRENCY = 16;				// number of independently locked cache stripes
+	private static final int ZIPMAP_CONCURRENCY = 1;		// zip-map caches:  one stripe, so one big zip map (many entries) fits
 
-	private static boolean cacheProfile = false;
-	public static Object cacheLock = new Object();
-	
 	// ZipMapCache has small effect versus rebuilding map every time (versus caching zipmap file object itself)
-	static Map<String, Map<String, String[]>>ZipMapCache = new LinkedHashMap<String, Map<String, String[]>>() {
-		 protected synchronized boolean removeEldestEntry(Map.Entry  eldest) {
-			 	CTinfo.debugPrint(cacheProfile, "ZipMapCache size: "+size()+", remove: "+(size()>MAX_ZIPFILES));
-	            return size() >  MAX_ZIPMAPS;
-	         }
-	};		
+	static final CTcacheMap<String, Map<String, String[]>>ZipMapCache = new CTcacheMap<String, Map<String, String[]>>(
+			"ZipMapCache", ZIPMAP_BYTES, ZIPMAP_BYTES, ZIPMAP_CONCURRENCY,
+			new CTcacheMap.Weigher<String, Map<String, String[]>>() {
+				public long weigh(String key, Map<String, String[]> zipMap) {
+					long w = 64 + 2*key.length();
+					for(Map.Entry<String, String[]> e : zipMap.entrySet()) {		// per entry overhead + strings
+						w += 64 + 2*e.getKey().length();
+						if(e.getValue() != null) for(String v : e.getValue()) w += 48 + 2*v.length();
+					}
+					return w;
+				}
+			});
 	
 	// DataCache supplants OS/disk caching for full-file reads
-	static LinkedHashMap<String, byte[]> DataCache = new LinkedHashMap<String, byte[]>() {
-		 protected synchronized boolean removeEldestEntry(Map.Entry  eldest) {
-			 	Runtime runtime = Runtime.getRuntime();
-			 	long usedmem = runtime.totalMemory() - runtime.freeMemory();
-			 	long availableMem = runtime.maxMemory(); 
-			 	double usedMemFraction = (double)usedmem / (double)availableMem;
-			 	CTinfo.debugPrint(cacheProfile, "DataCache stats, usedmem: "+usedmem+", size: "+size()+", availableMem: "+availableMem+", usedMemPerc: "+usedMemFraction);
-	            return ((size() >  MAX_ENTRIES) || (usedMemFraction > MAX_MEMUSE));
-	         }
-	};		
+	static final CTcacheMap<String, byte[]> DataCache = new CTcacheMap<String, byte[]>(
+			"DataCache", (long)(DATA_MEMUSE * Runtime.getRuntime().maxMemory()), MAX_FILESIZE, CONCURRENCY,
+			new CTcacheMap.Weigher<String, byte[]>() {
+				public long weigh(String key, byte[] data) {
+					return 96 + 2*key.length() + data.length;		// entry overhead + key chars + data
+				}
+			});
 
+	// OffHeapCache is second data cache tier, off by default (see setOffHeapCacheSize)
+	static final CTcacheArena OffHeapCache = new CTcacheArena("OffHeapCache");
 
-	// ZipFileCache caches open zip files; these take significant overhead to open/close on each use
-	static LinkedHashMap<String, ZipFile> ZipFileCache = new LinkedHashMap<String, ZipFile>() {
-		 protected synchronized boolean removeEldestEntry(Map.Entry<String, ZipFile>  eldest) {
-//			 	System.err.println("ZipFileCache size: "+size());
-			 	
-			 // explicitly loop through close and release entries (return true not reliable?)
-			 if(size() > MAX_ZIPFILES) {
-				 synchronized(cacheLock) {		// don't close while in use
-					 for (Map.Entry<String, ZipFile> entry : ZipFileCache.entrySet()) {
-						 try{ entry.getValue().close(); } catch(Exception e){};  	// explicit close
-						 //			 			System.err.println("ZipFileCache remove key: "+entry.getKey());
-						 ZipFileCache.remove(entry.getKey());						// explicit remove
-						 if(size() <= MAX_ZIPFILES) break;
-					 }
-				 }
-				 //				 	System.err.println("ZipFileCache >remove size: "+ZipFileCache.size());
-			 }
-			 	return false;
-//	            return ((size() >  MAX_FILES));
-	         }
-	};		
-
-	// ZipFileCache getter
-	static synchronized ZipFile cachedZipFile(String myZipFile) throws Exception {
-		ZipFile thisZipFile = ZipFileCache.get(myZipFile);
-		if(thisZipFile == null) {
-			CTinfo.debugPrint(cacheProfile,"ZipCache MISS: "+myZipFile);
-//			System.err.println("OPEN ZIPFILE: "+myZipFile);
-			thisZipFile = new ZipFile(myZipFile);
-			ZipFileCache.put(myZipFile, thisZipFile);
+	// MappedZipCache holds memory-mapped zip files (alternate backend, see setMappedZip)
+	static volatile boolean mappedZip = false;
+	static final CTcacheMap<String, CTmappedZip> MappedZipCache = new CTcacheMap<String, CTmappedZip>(
+			"MappedZipCache", ZIPMAP_BYTES, ZIPMAP_BYTES, ZIPMAP_CONCURRENCY,
+			new CTcacheMap.Weigher<String, CTmappedZip>() {
+				public long weigh(String key, CTmappedZip mzip) {
+					long w = 64 + 2*key.length();
+					for(String name : mzip.names()) w += 64 + 2*name.length();		// per entry name + arrays
+					return w;
+				}
+			});
+	
+	// MappedZipCache getter.  called before each mapped read:  re-maps a file changed since mapped (see CTmappedZip.isStale)
+	static CTmappedZip cachedMappedZip(String myZipFile) throws IOException {
+		CTmappedZip mzip = MappedZipCache.get(myZipFile);
+		if(mzip != null && mzip.isStale()) {
+			CTinfo.debugPrint("MappedZipCache, file changed since mapped: "+myZipFile);
+			MappedZipCache.remove(myZipFile);
+			ZipMapCache.remove(myZipFile);
+			mzip = null;
+		}
+		if(mzip == null) {
+			mzip = new CTmappedZip(myZipFile);		// concurrent first use may map twice, harmless
+			MappedZipCache.put(myZipFile, mzip);
+		}
+		return mzip;
+	}
+	
+	// GzipCache holds inflated .zip.gz blocks in memory, shared by all readers
+	static volatile long maxGzipSize = MAX_GZIPSIZE;
+	static final CTcacheMap<String, CTmappedZip> GzipCache = new CTcacheMap<String, CTmappedZip>(
+			"GzipCache", (long)(GZIP_MEMUSE * Runtime.getRuntime().maxMemory()), Long.MAX_VALUE, CONCURRENCY,
+			new CTcacheMap.Weigher<String, CTmappedZip>() {
+				public long weigh(String key, CTmappedZip gzip) {
+					long w = 64 + 2*key.length() + gzip.capacity();
+					for(String name : gzip.names()) w += 64 + 2*name.length();
+					return w;
+				}
+			});
+	
+	// GzipCache getter:  inflate .zip.gz file to memory on first use
+	static CTmappedZip cachedGzipZip(String gzFile) throws IOException {
+		CTmappedZip gzip = GzipCache.get(gzFile);
+		if(gzip == null) {
+			long isize = gzipSize(gzFile);
+			byte[] data = new byte[(int)Math.min(Math.max(isize+1, 1024), Integer.MAX_VALUE-8)];		// +1:  no regrow at exact fill
+			int len, nread = 0;
+			GZIPInputStream gzis = new GZIPInputStream(new FileInputStream(gzFile), 65536);
+			try {
+				while((len = gzis.read(data, nread, data.length-nread)) > 0) {
+					nread += len;
+					if(nread == data.length) data = Arrays.copyOf(data, 2*data.length);		// isize is mod 2^32, can be short
+				}
+			} finally {
+				gzis.close();
+			}
+			gzip = new CTmappedZip(gzFile, ByteBuffer.wrap(data, 0, nread));
+			GzipCache.put(gzFile, gzip);
+		}
+		return gzip;
+	}
+	
+	// inflated size of gzip file, from (mod 2^32) gzip trailer
+	static long gzipSize(String gzFile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(gzFile, "r");
+		try {
+			long flen = raf.length();
+			if(flen < 4) return 0;
+			raf.seek(flen-4);
+			return Integer.reverseBytes(raf.readInt()) & 0xffffffffL;		// little-endian ISIZE
+		} finally {
+			raf.close();
 		}
-		else
-			CTinfo.debugPrint(cacheProfile,"ZipCache HIT: "+myZipFile);
-
-		return thisZipFile;
 	}
 	
-	static HashMap<String,CTFile[]> fileListByChan = new HashMap<String,CTFile[]>();				// provide way to reset?
+	// read gzip file in memory?  (else gunzip to temp file)
+	// only if GzipCache can hold it, else every read would inflate it again
+	static boolean gzipInMemory(String gzFile) {
+		if(GzipCache.get(gzFile) != null) return true;
+		try {
+			long isize = gzipSize(gzFile);
+			long weight = 2*isize + 128 + 2*gzFile.length();		// names weigh less than their zip headers:  at most isize
+			return isize <= maxGzipSize && weight <= GzipCache.getMaxEntryWeight();
+		} catch(IOException e) {
+			return false;
+		}
+	}
+	
+	// ZipPool holds open zip files; these take significant overhead to open/close on each use
+	static final CTzipPool ZipPool = new CTzipPool(MAX_ZIPFILES);
+	
+	static HashMap<String,CTindex> IndexCache = new HashMap<String,CTindex>();				// per-source time index, by full source path
+	static HashMap<String,CTrollup> RollupCache = new HashMap<String,CTrollup>();			// per-source rollups, by full source path
+	
+	static Map<String,CTFile[]> fileListByChan = Collections.synchronizedMap(new HashMap<String,CTFile[]>());	// provide way to reset?
+	
+	//---------------------------------------------------------------
+	// public cache configuration and statistics
+	
+	/**
+	 * Set data cache size limit
+	 * @param bytes max total bytes (default 25% of max JVM memory)
+	 */
+	public static void setDataCacheSize(long bytes) {
+		DataCache.setMaxWeight(bytes);
+	}
+	
+	/**
+	 * Set data cache single-entry size limit; bigger files are read but not cached.
+	 * Capped at 1/16 of the data cache size (one cache stripe).
+	 * @param bytes max bytes any one entry (default 20MB)
+	 */
+	public static void setDataCacheEntrySize(long bytes) {
+		DataCache.setMaxEntryWeight(bytes);
+	}
+	
+	/**
+	 * Set off-heap data cache size.  Data read from disk is also stored here, outside the Java heap,
+	 * and promoted back into the (on-heap) data cache when read again.
+	 * With a large off-heap cache, the on-heap data cache can be set small (see setDataCacheSize),
+	 * which reduces garbage collection with big heaps.
+	 * @param bytes max total bytes (default 0, disabled).  Entries over 1/16 of this are not cached.
+	 */
+	public static void setOffHeapCacheSize(long bytes) {
+		OffHeapCache.setMaxBytes(bytes);
+	}
 	
-	// TO DO:  getter/setters/config/reset methods for each cache type
+	/**
+	 * Keep off-heap data cache in a memory-mapped temp file, paged by the OS, rather than direct memory
+	 * @param folder folder for temp file, null for direct memory (default)
+	 */
+	public static void setOffHeapCacheFolder(String folder) {
+		OffHeapCache.setMapFolder(folder);
+	}
+	
+	/**
+	 * Compress off-heap data cache entries (LZ4).  More data fits, at some CPU cost per hit.
+	 * @param compress true/false compress (default true)
+	 */
+	public static void setOffHeapCacheCompress(boolean compress) {
+		OffHeapCache.setCompress(compress);
+	}
+	
+	/**
+	 * @return off-heap data cache, for statistics
+	 */
+	public static CTcacheArena getOffHeapCache() {
+		return OffHeapCache;
+	}
+	
+	/**
+	 * Set zip-map (zip file index) cache size limit.  Any one zip map can use all of this.
+	 * @param bytes max total (estimated) bytes (default 64MB)
+	 */
+	public static void setZipMapCacheSize(long bytes) {
+		ZipMapCache.setMaxWeight(bytes);
+		ZipMapCache.setMaxEntryWeight(bytes);
+	}
+	
+	/**
+	 * @return data cache, for statistics (hitCount, missCount, evictionCount, size, weightedSize)
+	 */
+	public static CTcacheMap<String, byte[]> getDataCache() {
+		return DataCache;
+	}
+	
+	/**
+	 * @return zip-map cache, for statistics
+	 */
+	public static CTcacheMap<String, Map<String, String[]>> getZipMapCache() {
+		return ZipMapCache;
+	}
+	
+	/**
+	 * Set open zip file budget; idle zip files over this number are closed
+	 * @param max max number open zip files (default 100)
+	 */
+	public static void setMaxOpenZipFiles(int max) {
+		ZipPool.setMaxOpen(max);
+	}
+	
+	/**
+	 * @return zip file pool, for statistics (openCount, hitCount, waitCount, closeCount)
+	 */
+	public static CTzipPool getZipPool() {
+		return ZipPool;
+	}
+	
+	/**
+	 * Set in-memory gzip block cache size limit
+	 * @param bytes max total inflated bytes (default 12.5% of max JVM memory)
+	 */
+	public static void setGzipCacheSize(long bytes) {
+		GzipCache.setMaxWeight(bytes);
+	}
+	
+	/**
+	 * Set size above which gzip (.zip.gz) blocks are gunzip'd to a temp file rather than held in memory.
+	 * Blocks too big for the gzip cache (1/16 of setGzipCacheSize, less per-entry overhead) also use a temp file.
+	 * @param bytes max inflated bytes of an in-memory gzip block (default 64MB)
+	 */
+	public static void setMaxGzipSize(long bytes) {
+		maxGzipSize = bytes;
+	}
+	
+	/**
+	 * Select zip reader backend.  Mapped:  zip files are memory-mapped and their central directory parsed once,
+	 * stored entries are read without per-lookup entry objects or streams.  Default:  java.util.zip.ZipFile.
+	 * <p>
+	 * Use only where zip files are not truncated or rewritten in place while mapped.  Reading a mapping
+	 * whose file shrank crashes the JVM (SIGBUS) or throws InternalError, not IOException.  Each read
+	 * first checks file length and modify time against the mapping and re-maps a changed file,
+	 * but a change between that check and the read is not caught.
+	 * On Windows a mapped file cannot be deleted until the mapping is garbage collected,
+	 * so trimming (CTwriter trimTime, dotrim) of files being read can fail.
+	 * @param mapped true/false use memory-mapped zip reader
+	 */
+	public static void setMappedZip(boolean mapped) {
+		mappedZip = mapped;
+		ZipMapCache.clear();
+	}
+	
+	/**
+	 * @return one-line summary per cache
+	 */
+	public static String cacheStats() {
+		return DataCache + "\n" + OffHeapCache + "\n" + ZipMapCache + "\n" + ZipPool + "\n" + MappedZipCache + "\n" + GzipCache;
+	}
+	
+	/**
+	 * Empty data and zip-map caches, close idle zip files
+	 */
+	public static void clearCache() {
+		DataCache.clear();
+		OffHeapCache.clear();
+		ZipMapCache.clear();
+		ZipPool.clear();
+		MappedZipCache.clear();
+		GzipCache.clear();
+	}
 }
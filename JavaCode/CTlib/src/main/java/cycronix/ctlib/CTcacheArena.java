@@ -0,0 +1,363 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CloudTurbine off-heap cache tier, bounded by total bytes.
+ * <p>
+ * Entries are stored outside the Java heap, in direct ByteBuffers or in slabs of a memory-mapped temp file,
+ * so a large cache adds nothing to GC work.  Entries are LZ4 compressed (see CTlz4) unless incompressible.
+ * <p>
+ * Storage is a ring of fixed-size slabs filled in order.  When the ring wraps, the oldest slab is recycled:
+ * entries read since they were stored are compacted to the front of the slab and kept (second chance),
+ * the rest are evicted.  Entries bigger than one slab are not cached.
+ * <p>
+ * Used as the second tier of the data cache:  CTFile.read looks here after a DataCache (on-heap) miss,
+ * and promotes hits back into DataCache.
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+public class CTcacheArena {
+
+	private static final int NSLAB = 16;					// slabs per arena (eviction granularity)
+	private static final long MAX_SLAB = 256*1024*1024;		// max bytes per slab (int-addressed buffers)
+	private static final int MIN_COMPRESS = 64;				// smaller entries stored as-is
+
+	private final String name;
+	private volatile long maxBytes = 0;		// 0 is disabled
+	private boolean compress = true;
+	private File mapFolder = null;			// null for direct memory
+
+	private ByteBuffer[] slabs = new ByteBuffer[0];			// allocated on first use
+	private ArrayList<ArrayList<Loc>> slabEntries = new ArrayList<ArrayList<Loc>>();	// entries by slab, in storage order
+	private int slabSize = 0;
+	private int head = 0;					// slab being filled
+	private int headPos = 0;				// next write position in head slab
+	private final HashMap<String,Loc> index = new HashMap<String,Loc>();
+	private long storedBytes = 0;			// live entries, as stored
+	private long rawBytes = 0;				// live entries, uncompressed
+	private RandomAccessFile mapFile = null;
+	private File mapPath = null;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	// stored entry location
+	private static class Loc {
+		final String key;
+		int slab, pos;
+		final int len;			// stored length
+		final int rawLen;		// uncompressed length
+		boolean hit = false;	// read since stored or last compaction
+
+		Loc(String key, int slab, int pos, int len, int rawLen) {
+			this.key = key; this.slab = slab; this.pos = pos; this.len = len; this.rawLen = rawLen;
+		}
+
+		boolean compressed() { return len != rawLen; }
+	}
+
+	//---------------------------------------------------------------------------------
+	// constructor
+
+	CTcacheArena(String name) {
+		this.name = name;
+	}
+
+	//---------------------------------------------------------------------------------
+	// cache access
+
+	/**
+	 * Get copy of cached data
+	 * @param key cache key
+	 * @return data, null if not cached
+	 */
+	byte[] get(String key) {
+		if(maxBytes <= 0) return null;		// unsynchronized peek:  disabled
+		byte[] stored;
+		Loc loc;
+		synchronized(this) {
+			loc = index.get(key);
+			if(loc == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			loc.hit = true;
+			stored = new byte[loc.len];
+			ByteBuffer b = slabs[loc.slab].duplicate();
+			b.position(loc.pos);
+			b.get(stored);
+		}
+		hits.incrementAndGet();
+		if(!loc.compressed()) return stored;
+
+		byte[] data = new byte[loc.rawLen];		// decompress outside lock
+		try {
+			CTlz4.decompress(stored, 0, stored.length, data, 0, data.length);
+		} catch(IOException e) {
+			CTinfo.warnPrint(name+" corrupt entry, removed: "+key+", "+e);
+			remove(key);
+			return null;
+		}
+		return data;
+	}
+
+	/**
+	 * Store data (copied).  Replaces any existing entry; evicts as needed.
+	 * @param key cache key
+	 * @param data data to cache
+	 */
+	void put(String key, byte[] data) {
+		if(maxBytes <= 0 || data == null) return;
+		byte[] stored = data;
+		int len = data.length;
+		if(compress && data.length >= MIN_COMPRESS) {			// compress outside lock
+			byte[] c = new byte[CTlz4.maxCompressedLength(data.length)];
+			int clen = CTlz4.compress(data, 0, data.length, c, 0);
+			if(clen < data.length - data.length/8) {			// worth it
+				stored = c;
+				len = clen;
+			}
+		}
+
+		synchronized(this) {
+			removeLoc(index.remove(key));					// old value is stale either way
+			if(len > slabSize || maxBytes <= 0) return;		// too big (or disabled meanwhile)
+			try {
+				if(!reserve(len)) return;
+			} catch(IOException e) {
+				CTinfo.warnPrint(name+" cannot allocate, disabled: "+e);
+				reset(0);
+				return;
+			}
+			ByteBuffer b = slabs[head].duplicate();
+			b.position(headPos);
+			b.put(stored, 0, len);
+			Loc loc = new Loc(key, head, headPos, len, data.length);
+			index.put(key, loc);
+			slabEntries.get(head).add(loc);
+			headPos += len;
+			storedBytes += len;
+			rawBytes += data.length;
+		}
+	}
+
+	void remove(String key) {
+		synchronized(this) { removeLoc(index.remove(key)); }
+	}
+
+	/**
+	 * Remove all entries.  Storage is kept for reuse.
+	 */
+	public synchronized void clear() {
+		index.clear();
+		for(ArrayList<Loc> list:slabEntries) list.clear();
+		head = 0;
+		headPos = 0;
+		storedBytes = 0;
+		rawBytes = 0;
+	}
+
+	// account for removed entry (space is reclaimed when its slab is recycled)
+	private void removeLoc(Loc loc) {
+		if(loc == null) return;
+		storedBytes -= loc.len;
+		rawBytes -= loc.rawLen;
+	}
+
+	// make room for len bytes at head, advancing to (and recycling) next slab as needed.  call with lock
+	private boolean reserve(int len) throws IOException {
+		if(slabs[head] == null) allocate(head);
+		for(int i=0; headPos + len > slabSize; i++) {
+			if(i > 2*slabs.length) return false;		// every slab full of hot entries twice over (hit flags clear each pass)
+			head = (head + 1) % slabs.length;
+			recycle(head);
+		}
+		return true;
+	}
+
+	// recycle slab:  compact entries read since stored to front of slab, evict the rest.  call with lock
+	private void recycle(int s) throws IOException {
+		headPos = 0;
+		if(slabs[s] == null) {
+			allocate(s);
+			return;
+		}
+		ArrayList<Loc> keep = new ArrayList<Loc>();
+		byte[] chunk = null;
+		int nevict = 0;
+		for(Loc loc:slabEntries.get(s)) {
+			if(index.get(loc.key) != loc) continue;		// replaced or removed
+			if(!loc.hit) {
+				index.remove(loc.key);
+				removeLoc(loc);
+				nevict++;
+				continue;
+			}
+			if(loc.pos != headPos) {					// move down:  ascending chunk copy is safe as headPos < pos
+				if(chunk == null) chunk = new byte[65536];
+				ByteBuffer src = slabs[s].duplicate();
+				ByteBuffer dst = slabs[s].duplicate();
+				for(int off=0; off<loc.len; off+=chunk.length) {
+					int n = Math.min(chunk.length, loc.len - off);
+					src.position(loc.pos + off);
+					src.get(chunk, 0, n);
+					dst.position(headPos + off);
+					dst.put(chunk, 0, n);
+				}
+				loc.pos = headPos;
+			}
+			loc.hit = false;
+			headPos += loc.len;
+			keep.add(loc);
+		}
+		slabEntries.set(s, keep);
+		if(nevict > 0) evictions.addAndGet(nevict);
+	}
+
+	// allocate slab storage.  call with lock
+	private void allocate(int s) throws IOException {
+		if(mapFolder == null) {
+			try {
+				slabs[s] = ByteBuffer.allocateDirect(slabSize);
+			} catch(OutOfMemoryError e) {		// direct memory limit (-XX:MaxDirectMemorySize)
+				throw new IOException("direct memory: "+e.getMessage());
+			}
+		}
+		else {
+			if(mapFile == null) {
+				mapPath = File.createTempFile("CTcache", ".arena", mapFolder);
+				mapPath.deleteOnExit();
+				mapFile = new RandomAccessFile(mapPath, "rw");
+			}
+			slabs[s] = mapFile.getChannel().map(FileChannel.MapMode.READ_WRITE, (long)s * slabSize, slabSize);
+		}
+		CTinfo.debugPrint(name+" slab "+s+" allocated, bytes: "+slabSize);
+	}
+
+	// drop all entries and storage, set new size.  call with lock
+	private void reset(long bytes) {
+		clear();
+		slabs = new ByteBuffer[0];
+		slabEntries = new ArrayList<ArrayList<Loc>>();
+		if(mapFile != null) {
+			try { mapFile.close(); } catch(IOException e) {}
+			mapPath.delete();			// can fail while mapped (Windows), then deleted on exit
+			mapFile = null;
+		}
+
+		maxBytes = bytes;
+		if(bytes <= 0) {
+			maxBytes = 0;
+			slabSize = 0;
+			return;
+		}
+		long size = Math.min(MAX_SLAB, Math.max(1, bytes / NSLAB));
+		int nslab = (int)Math.max(1, bytes / size);
+		slabSize = (int)size;
+		slabs = new ByteBuffer[nslab];
+		for(int i=0; i<nslab; i++) slabEntries.add(new ArrayList<Loc>());
+	}
+
+	//---------------------------------------------------------------------------------
+	// configuration
+
+	/**
+	 * Set total storage (bytes).  Drops all entries.
+	 * @param bytes max total bytes, 0 to disable
+	 */
+	public synchronized void setMaxBytes(long bytes) {
+		reset(bytes);
+	}
+
+	/**
+	 * Keep storage in a memory-mapped temp file (paged by the OS) instead of direct memory.  Drops all entries.
+	 * @param folder folder for temp file, null for direct memory
+	 */
+	public synchronized void setMapFolder(String folder) {
+		mapFolder = (folder == null) ? null : new File(folder);
+		reset(maxBytes);
+	}
+
+	/**
+	 * Compress stored entries (default true).  Applies to new entries.
+	 * @param compress true/false LZ4 compress entries
+	 */
+	public synchronized void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+	public synchronized long getMaxBytes() 	{ return maxBytes; }
+	public synchronized int getMaxEntryBytes() 	{ return slabSize; }
+
+	//---------------------------------------------------------------------------------
+	// statistics
+
+	public long hitCount() 		{ return hits.get(); }
+	public long missCount() 	{ return misses.get(); }
+	public long evictionCount() { return evictions.get(); }
+
+	public void resetStats() {
+		hits.set(0); misses.set(0); evictions.set(0);
+	}
+
+	/**
+	 * @return number of cached entries
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return bytes of cached entries, as stored (compressed)
+	 */
+	public synchronized long storedSize() {
+		return storedBytes;
+	}
+
+	/**
+	 * @return bytes of cached entries, uncompressed
+	 */
+	public synchronized long rawSize() {
+		return rawBytes;
+	}
+
+	public String toString() {
+		long h = hitCount(), m = missCount();
+		long stored, raw, max;
+		int n;
+		synchronized(this) { stored = storedBytes; raw = rawBytes; max = maxBytes; n = index.size(); }
+		return name+": entries="+n+", stored="+stored+"/"+max+", raw="+raw
+				+", hits="+h+", misses="+m+", evictions="+evictionCount()
+				+", hitRate="+((h+m)>0 ? ((double)h/(h+m)) : 0.);
+	}
+}
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CloudTurbine concurrent, size-bounded cache.
+ * <p>
+ * Keys are striped across independently locked segments.  Each segment is a segmented-LRU:
+ * new entries go to a probation list, entries hit again are promoted to a protected list,
+ * and eviction takes the least-recently-used probation entry first.  One-time scans thus
+ * do not flush frequently used entries.  Size is bounded by total weight (e.g. bytes) as
+ * computed by a Weigher.  Each segment holds an equal share of the total, so no single entry
+ * can weigh more than maxWeight/segments (see setMaxEntryWeight).
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+public class CTcacheMap<K,V> {
+
+	/**
+	 * Entry weight (e.g. bytes) calculator
+	 */
+	interface Weigher<K,V> {
+		long weigh(K key, V value);
+	}
+
+	private static final double PROTECTED_FRACTION = 0.8;		// fraction of each segment reserved for re-used entries
+
+	private final String name;
+	private final Weigher<K,V> weigher;
+	private final Segment[] segments;
+	private volatile long maxWeight;
+	private volatile long maxEntryWeight;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	//---------------------------------------------------------------------------------
+	// constructor
+
+	@SuppressWarnings({"unchecked","rawtypes"})
+	CTcacheMap(String name, long maxWeight, long maxEntryWeight, int concurrency, Weigher<K,V> weigher) {
+		this.name = name;
+		this.weigher = weigher;
+		this.maxWeight = maxWeight;
+		this.maxEntryWeight = maxEntryWeight;
+		int nseg = 1;
+		while(nseg < concurrency) nseg <<= 1;		// power of two for mask
+		segments = new CTcacheMap.Segment[nseg];
+		for(int i=0; i<nseg; i++) segments[i] = new Segment();
+	}
+
+	//---------------------------------------------------------------------------------
+	// cache access
+
+	V get(K key) {
+		Segment seg = segmentFor(key);
+		V value;
+		synchronized(seg) { value = seg.get(key); }
+		if(value == null) 	misses.incrementAndGet();
+		else				hits.incrementAndGet();
+		return value;
+	}
+
+	void put(K key, V value) {
+		if(value == null) return;
+		long weight = weigher.weigh(key, value);
+		Segment seg = segmentFor(key);
+		if(weight > getMaxEntryWeight()) {		// too big to cache
+			synchronized(seg) { seg.remove(key); }
+			return;
+		}
+		int nevict;
+		synchronized(seg) { nevict = seg.put(key, value, weight); }
+		if(nevict > 0) evictions.addAndGet(nevict);
+	}
+
+	void remove(K key) {
+		Segment seg = segmentFor(key);
+		synchronized(seg) { seg.remove(key); }
+	}
+
+	/**
+	 * Remove all entries
+	 */
+	public void clear() {
+		for(Segment seg:segments) synchronized(seg) { seg.clear(); }
+	}
+
+	//---------------------------------------------------------------------------------
+	// configuration
+
+	/**
+	 * Set total cache size limit (weight, e.g. bytes).  Evicts as needed.
+	 * @param weight max total weight
+	 */
+	public void setMaxWeight(long weight) {
+		maxWeight = weight;
+		long nevict = 0;
+		for(Segment seg:segments) synchronized(seg) { nevict += seg.evict(); }
+		evictions.addAndGet(nevict);
+	}
+
+	/**
+	 * Set size limit for any single entry (weight, e.g. bytes).  Bigger entries are not cached.
+	 * The limit is capped at one segment's share of the total weight (see getMaxEntryWeight).
+	 * @param weight max entry weight
+	 */
+	public void setMaxEntryWeight(long weight) {
+		maxEntryWeight = weight;
+	}
+
+	public long getMaxWeight() 		{ return maxWeight; }
+
+	/**
+	 * @return effective single-entry limit:  as set, capped at max weight / number of segments
+	 */
+	public long getMaxEntryWeight() { return Math.min(maxEntryWeight, segmentWeight()); }
+
+	//---------------------------------------------------------------------------------
+	// statistics
+
+	public long hitCount() 		{ return hits.get(); }
+	public long missCount() 	{ return misses.get(); }
+	public long evictionCount() { return evictions.get(); }
+
+	public void resetStats() {
+		hits.set(0); misses.set(0); evictions.set(0);
+	}
+
+	/**
+	 * @return number of cached entries
+	 */
+	public int size() {
+		int n = 0;
+		for(Segment seg:segments) synchronized(seg) { n += seg.probation.size() + seg.protect.size(); }
+		return n;
+	}
+
+	/**
+	 * @return total weight (e.g. bytes) of cached entries
+	 */
+	public long weightedSize() {
+		long w = 0;
+		for(Segment seg:segments) synchronized(seg) { w += seg.probationWeight + seg.protectWeight; }
+		return w;
+	}
+
+	public String toString() {
+		long h = hitCount(), m = missCount();
+		return name+": entries="+size()+", weight="+weightedSize()+"/"+maxWeight
+				+", hits="+h+", misses="+m+", evictions="+evictionCount()
+				+", hitRate="+((h+m)>0 ? ((double)h/(h+m)) : 0.);
+	}
+
+	//---------------------------------------------------------------------------------
+	// segment (stripe) of cache, guarded by its own monitor
+
+	private Segment segmentFor(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);			// spread high bits
+		return segments[h & (segments.length-1)];
+	}
+
+	private long segmentWeight() {
+		return maxWeight / segments.length;
+	}
+
+	private class Segment {
+		// access-ordered, eldest first
+		final LinkedHashMap<K,Node<V>> probation = new LinkedHashMap<K,Node<V>>(16, 0.75f, true);
+		final LinkedHashMap<K,Node<V>> protect = new LinkedHashMap<K,Node<V>>(16, 0.75f, true);
+		long probationWeight = 0;
+		long protectWeight = 0;
+
+		V get(K key) {
+			Node<V> node = protect.get(key);			// moves to MRU
+			if(node != null) return node.value;
+			node = probation.remove(key);
+			if(node == null) return null;
+			probationWeight -= node.weight;				// promote on re-use
+			protect.put(key, node);
+			protectWeight += node.weight;
+			long protectMax = (long)(PROTECTED_FRACTION * segmentWeight());
+			Iterator<Map.Entry<K,Node<V>>> it = protect.entrySet().iterator();
+			while(protectWeight > protectMax && it.hasNext()) {		// demote eldest protected back to probation
+				Map.Entry<K,Node<V>> e = it.next();
+				if(e.getKey().equals(key)) break;
+				it.remove();
+				protectWeight -= e.getValue().weight;
+				probation.put(e.getKey(), e.getValue());
+				probationWeight += e.getValue().weight;
+			}
+			return node.value;
+		}
+
+		int put(K key, V value, long weight) {
+			remove(key);
+			probation.put(key, new Node<V>(value, weight));
+			probationWeight += weight;
+			return evict();
+		}
+
+		void remove(K key) {
+			Node<V> node = probation.remove(key);
+			if(node != null) probationWeight -= node.weight;
+			node = protect.remove(key);
+			if(node != null) protectWeight -= node.weight;
+		}
+
+		void clear() {
+			probation.clear();		protect.clear();
+			probationWeight = 0;	protectWeight = 0;
+		}
+
+		// evict LRU entries (probation first) until within segment weight.  returns number evicted
+		int evict() {
+			int nevict = 0;
+			long max = segmentWeight();
+			Iterator<Map.Entry<K,Node<V>>> it = probation.entrySet().iterator();
+			while((probationWeight+protectWeight) > max && it.hasNext()) {
+				probationWeight -= it.next().getValue().weight;
+				it.remove();
+				nevict++;
+			}
+			it = protect.entrySet().iterator();
+			while((probationWeight+protectWeight) > max && it.hasNext()) {
+				protectWeight -= it.next().getValue().weight;
+				it.remove();
+				nevict++;
+			}
+			return nevict;
+		}
+	}
+
+	private static class Node<V> {
+		final V value;
+		final long weight;
+		Node(V value, long weight) { this.value = value; this.weight = weight; }
+	}
+}
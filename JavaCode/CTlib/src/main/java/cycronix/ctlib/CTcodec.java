@@ -0,0 +1,367 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CloudTurbine block codec (plug-in compression for zip block entries).
+ * <p>
+ * CTwriter (see setZipMode(boolean,String)) encodes each block entry into a frame:
+ * 4-byte magic, codec id, file type, uncompressed size, codec payload.
+ * Frames are STORED in the zip with an extra field (id 0x4354 "CT") marking the entry,
+ * so CTFile/CTreader decode them automatically by codec id.  Encryption, if any, is applied to the frame.
+ * <p>
+ * Built-in codecs:
+ * <ul>
+ * <li>"lz4":  LZ4 block format, fast
+ * <li>"high":  byte-shuffle by word size, then deflate level 9; high ratio, slower
+ * <li>"xor":  packed numeric channels (f32, f64, i16, i32, i64).  Floats XOR'd with previous word,
+ * integers delta-of-delta (zigzag, so small negatives have zero high bytes), then byte-shuffled and LZ4 compressed
+ * </ul>
+ * Additional codecs can be added with register(), using ids 128-255.
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+public abstract class CTcodec {
+
+	static final int EXTRA_ID = 0x4354;					// zip extra field header id
+	private static final int MAGIC = 0x43546301;		// "CTc" + version 1
+	private static final int HEADER = 10;				// magic(4), id(1), ftype(1), size(4)
+
+	private static final CTcodec[] byId = new CTcodec[256];
+	private static final HashMap<String,CTcodec> byName = new HashMap<String,CTcodec>();
+
+	private final int id;
+	private final String name;
+
+	static {
+		register(new LZ4());
+		register(new High());
+		register(new XOR());
+	}
+
+	//---------------------------------------------------------------------------------
+	// codec SPI
+
+	/**
+	 * @param id codec id recorded in each frame, 1-255 (128-255 for non-built-in codecs)
+	 * @param name codec name, as given to CTwriter.setZipMode
+	 */
+	protected CTcodec(int id, String name) {
+		if(id < 1 || id > 255) throw new IllegalArgumentException("CTcodec id must be 1-255: "+id);
+		this.id = id;
+		this.name = name;
+	}
+
+	public int id() 		{ return id; }
+	public String name() 	{ return name; }
+
+	/**
+	 * Encode data
+	 * @param data entry data
+	 * @param ftype file type code (see CTinfo.fileType)
+	 * @return encoded data, or null if codec does not apply to this file type
+	 * @throws IOException on encode error
+	 */
+	public abstract byte[] encode(byte[] data, char ftype) throws IOException;
+
+	/**
+	 * Decode data
+	 * @param data encoded data buffer
+	 * @param offset start of encoded data
+	 * @param length length of encoded data
+	 * @param size decoded size
+	 * @param ftype file type code as given to encode
+	 * @return decoded data (size bytes)
+	 * @throws IOException on corrupt data
+	 */
+	public abstract byte[] decode(byte[] data, int offset, int length, int size, char ftype) throws IOException;
+
+	/**
+	 * Register codec for writers (by name) and readers (by id)
+	 * @param codec codec
+	 */
+	public static void register(CTcodec codec) {
+		synchronized(byName) {
+			CTcodec old = byId[codec.id];
+			if(old != null && old != codec) CTinfo.warnPrint("CTcodec replacing id "+codec.id+": "+old.name+" with: "+codec.name);
+			byId[codec.id] = codec;
+			byName.put(codec.name, codec);
+		}
+	}
+
+	/**
+	 * @param name codec name
+	 * @return registered codec, null if none
+	 */
+	public static CTcodec forName(String name) {
+		synchronized(byName) { return byName.get(name); }
+	}
+
+	static CTcodec forId(int id) {
+		synchronized(byName) { return byId[id & 0xff]; }
+	}
+
+	//---------------------------------------------------------------------------------
+	// frames
+
+	/**
+	 * Encode data into frame
+	 * @return frame, or null if codec does not apply or does not shrink data
+	 */
+	static byte[] encodeFrame(CTcodec codec, byte[] data, char ftype) throws IOException {
+		byte[] enc = codec.encode(data, ftype);
+		if(enc == null || enc.length+HEADER >= data.length) return null;
+		ByteBuffer frame = ByteBuffer.allocate(enc.length+HEADER).order(ByteOrder.LITTLE_ENDIAN);
+		frame.putInt(MAGIC).put((byte)codec.id).put((byte)ftype).putInt(data.length).put(enc);
+		return frame.array();
+	}
+
+	/**
+	 * @return true if data starts with frame header
+	 */
+	static boolean isFrame(byte[] data) {
+		return data != null && data.length >= HEADER
+				&& ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getInt(0) == MAGIC;
+	}
+
+	/**
+	 * Decode frame
+	 * @return decoded data
+	 * @throws IOException if not a frame, unknown codec, or corrupt
+	 */
+	static byte[] decodeFrame(byte[] frame) throws IOException {
+		if(!isFrame(frame)) throw new IOException("CTcodec, not a codec frame");
+		ByteBuffer b = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+		int cid = b.get(4) & 0xff;
+		char ftype = (char)(b.get(5) & 0xff);
+		int size = b.getInt(6);
+		CTcodec codec = forId(cid);
+		if(codec == null) throw new IOException("CTcodec, unknown codec id: "+cid);
+		if(size < 0) throw new IOException("CTcodec, corrupt frame size: "+size);
+		return codec.decode(frame, HEADER, frame.length-HEADER, size, ftype);
+	}
+
+	/**
+	 * Zip extra field marking codec frame entry
+	 * @param encrypted true if frame is encrypted (decode after decrypt)
+	 */
+	static byte[] extra(CTcodec codec, boolean encrypted) {
+		return new byte[] { (byte)EXTRA_ID, (byte)(EXTRA_ID>>8), 2, 0, (byte)codec.id, (byte)(encrypted?1:0) };
+	}
+
+	static final int NONE = 0;				// extraInfo() results
+	static final int FRAME = 1;
+	static final int ENCRYPTED_FRAME = 2;
+
+	/**
+	 * @param extra zip entry extra field (may be null)
+	 * @return NONE, FRAME or ENCRYPTED_FRAME
+	 */
+	static int extraInfo(byte[] extra) {
+		if(extra == null) return NONE;
+		for(int i=0; i+4 <= extra.length; ) {
+			int hid = (extra[i] & 0xff) | (extra[i+1] & 0xff) << 8;
+			int len = (extra[i+2] & 0xff) | (extra[i+3] & 0xff) << 8;
+			if(hid == EXTRA_ID && len >= 2 && i+4+len <= extra.length) return (extra[i+5] != 0) ? ENCRYPTED_FRAME : FRAME;
+			i += 4 + len;
+		}
+		return NONE;
+	}
+
+	//---------------------------------------------------------------------------------
+	// helpers:  numeric word size, byte shuffle (transpose bytes of words, keeps tail bytes)
+
+	static int numericSize(char ftype) {
+		switch(ftype) {
+		case 'f':	case 'i':	return 4;
+		case 'F':	case 'I':	return 8;
+		case 'j':				return 2;
+		default:				return 1;
+		}
+	}
+
+	static byte[] shuffle(byte[] in, int w) {
+		if(w <= 1) return in;
+		int nw = in.length / w;
+		byte[] out = new byte[in.length];
+		for(int i=0; i<nw; i++)
+			for(int k=0; k<w; k++) out[k*nw + i] = in[i*w + k];
+		System.arraycopy(in, nw*w, out, nw*w, in.length - nw*w);
+		return out;
+	}
+
+	static byte[] unshuffle(byte[] in, int w) {
+		if(w <= 1) return in;
+		int nw = in.length / w;
+		byte[] out = new byte[in.length];
+		for(int i=0; i<nw; i++)
+			for(int k=0; k<w; k++) out[i*w + k] = in[k*nw + i];
+		System.arraycopy(in, nw*w, out, nw*w, in.length - nw*w);
+		return out;
+	}
+
+	//---------------------------------------------------------------------------------
+	// built-in codecs
+
+	static class LZ4 extends CTcodec {
+		LZ4() { super(1, "lz4"); }
+
+		public byte[] encode(byte[] data, char ftype) {
+			return CTlz4.compress(data);
+		}
+
+		public byte[] decode(byte[] data, int offset, int length, int size, char ftype) throws IOException {
+			byte[] out = new byte[size];
+			CTlz4.decompress(data, offset, length, out, 0, size);
+			return out;
+		}
+	}
+
+	static class High extends CTcodec {
+		High() { super(2, "high"); }
+
+		public byte[] encode(byte[] data, char ftype) {
+			byte[] in = shuffle(data, numericSize(ftype));
+			Deflater def = new Deflater(9, true);
+			try {
+				def.setInput(in);
+				def.finish();
+				byte[] out = new byte[in.length + (in.length>>7) + 64];
+				int nout = 0;
+				while(!def.finished()) {
+					if(nout == out.length) out = Arrays.copyOf(out, 2*out.length);
+					nout += def.deflate(out, nout, out.length-nout);
+				}
+				return Arrays.copyOf(out, nout);
+			} finally {
+				def.end();
+			}
+		}
+
+		public byte[] decode(byte[] data, int offset, int length, int size, char ftype) throws IOException {
+			byte[] out = new byte[size];
+			Inflater inf = new Inflater(true);
+			try {
+				inf.setInput(data, offset, length);
+				int nout = 0;
+				while(nout < size) {
+					int n = inf.inflate(out, nout, size-nout);
+					if(n == 0 && (inf.finished() || inf.needsInput() || inf.needsDictionary())) break;
+					nout += n;
+				}
+				if(nout != size) throw new IOException("CTcodec high, short data: "+nout+"/"+size);
+			} catch(DataFormatException e) {
+				throw new IOException("CTcodec high, corrupt data: "+e.getMessage());
+			} finally {
+				inf.end();
+			}
+			return unshuffle(out, numericSize(ftype));
+		}
+	}
+
+	static class XOR extends CTcodec {
+		XOR() { super(3, "xor"); }
+
+		public byte[] encode(byte[] data, char ftype) {
+			int w = numericSize(ftype);
+			if(w == 1) return null;							// not packed numeric
+			boolean isFloat = (ftype == 'f' || ftype == 'F');
+			ByteBuffer in = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+			ByteBuffer out = ByteBuffer.allocate(data.length).order(ByteOrder.LITTLE_ENDIAN);
+			long prev = 0, prevDelta = 0;
+			int nw = data.length / w;
+			for(int i=0; i<nw; i++) {
+				long v = get(in, i*w, w);
+				long r;
+				if(isFloat) 	r = v ^ prev;
+				else {
+					long delta = v - prev;
+					long dd = signed(delta - prevDelta, w);
+					r = (dd << 1) ^ (dd >> 63);			// zigzag
+					prevDelta = delta;
+				}
+				prev = v;
+				put(out, i*w, w, r);
+			}
+			System.arraycopy(data, nw*w, out.array(), nw*w, data.length - nw*w);
+			return CTlz4.compress(shuffle(out.array(), w));
+		}
+
+		public byte[] decode(byte[] data, int offset, int length, int size, char ftype) throws IOException {
+			int w = numericSize(ftype);
+			boolean isFloat = (ftype == 'f' || ftype == 'F');
+			byte[] shuffled = new byte[size];
+			CTlz4.decompress(data, offset, length, shuffled, 0, size);
+			byte[] raw = unshuffle(shuffled, w);
+			ByteBuffer buf = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+			long prev = 0, prevDelta = 0;
+			int nw = size / w;
+			long mask = (w == 8) ? -1L : ((1L << (8*w)) - 1);
+			for(int i=0; i<nw; i++) {
+				long r = get(buf, i*w, w);
+				long v;
+				if(isFloat) 	v = r ^ prev;
+				else {
+					long zz = r & mask;
+					long delta = prevDelta + ((zz >>> 1) ^ -(zz & 1));
+					v = prev + delta;
+					prevDelta = delta;
+				}
+				prev = v;
+				put(buf, i*w, w, v);
+			}
+			return raw;
+		}
+
+		// sign-extend low w bytes
+		private static long signed(long v, int w) {
+			int shift = 64 - 8*w;
+			return (v << shift) >> shift;
+		}
+
+		// word arithmetic wraps at word size (put truncates), so encode/decode round trip exactly
+		private static long get(ByteBuffer b, int i, int w) {
+			switch(w) {
+			case 8:		return b.getLong(i);
+			case 4:		return b.getInt(i);
+			default:	return b.getShort(i);
+			}
+		}
+
+		private static void put(ByteBuffer b, int i, int w, long v) {
+			switch(w) {
+			case 8:		b.putLong(i, v);		break;
+			case 4:		b.putInt(i, (int)v);	break;
+			default:	b.putShort(i, (short)v);	break;
+			}
+		}
+	}
+}
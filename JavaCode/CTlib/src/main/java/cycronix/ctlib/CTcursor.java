@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CloudTurbine streaming reader:  pull-based cursor over one channel time range.
+ * <p>
+ * Files (blocks) are read a batch at a time, in time order, and trimmed to the requested
+ * range [start, start+duration], end inclusive.  Only the current batch is held in memory.
+ * Use next()/getData() to step by block, or nextPoint()/getTime()/getBytes() to step by point.
+ * Points are returned in increasing time order; duplicate times at block boundaries are dropped.
+ * Single-point requests (duration 0, "prev", "next") are read as one batch.
+ * <p>
+ * Example:
+ * <pre>
+ * CTcursor cursor = ctreader.getCursor(source, chan, 0., 86400., "oldest");
+ * while(cursor.next()) {
+ *     double[] t = cursor.getData().getTime();
+ *     ...
+ * }
+ * cursor.close();
+ * </pre>
+ * @version 2026/10/18
+ *
+*/
+
+public class CTcursor implements Closeable {
+
+	private CTreader ctreader;
+	private final String chan;
+	private final char ftype;
+	private final int wordSize;
+	private List<CTFile> files;				// candidate files, in time order
+	private final double start, duration;
+	private final String mode;
+	private final boolean streaming;		// batch-wise vs all-at-once
+	private int batchSize;
+	private int nextFile = 0;
+
+	private CTdata block = null;			// current block
+	private int point = -1;					// current point in block
+	private double lastTime = -Double.MAX_VALUE;
+
+	//---------------------------------------------------------------------------------
+	// constructor (see CTreader.getCursor)
+
+	CTcursor(CTreader ctreader, String chan, CTreader.FetchRange range) {
+		this.ctreader = ctreader;
+		this.chan = chan;
+		ftype = CTinfo.fileType(chan);
+		wordSize = CTinfo.wordSize(ftype);
+		if(range == null) {
+			files = new ArrayList<CTFile>();
+			start = duration = 0.;
+			mode = "absolute";
+		}
+		else {
+			files = range.files;
+			start = range.start;
+			duration = range.duration;
+			mode = range.mode;
+		}
+		streaming = mode.equals("absolute") && duration > 0.;
+		batchSize = ctreader.getParallelism();
+	}
+
+	/**
+	 * Set number of files (blocks) read per batch.  Batches are read on up to CTreader.getParallelism() threads.
+	 * @param nfile files per batch (default: reader parallelism)
+	 */
+	public void setBatchSize(int nfile) {
+		batchSize = Math.max(1, nfile);
+	}
+
+	//---------------------------------------------------------------------------------
+	// block access
+
+	/**
+	 * Advance to next block of data
+	 * @return true if got block, false if done (or closed)
+	 * @throws Exception on file or decrypt error
+	 */
+	public boolean next() throws Exception {
+		block = null;
+		point = -1;
+		while(files != null && nextFile < files.size()) {
+			int n = streaming ? Math.min(batchSize, files.size()-nextFile) : (files.size()-nextFile);
+			List<CTFile> batch = files.subList(nextFile, nextFile+n);
+			nextFile += n;
+			boolean last = (nextFile == files.size());
+
+			CTmap cm = new CTmap(chan);
+			ctreader.getFiles(batch, cm, ctreader.getParallelism());
+			CTdata tdata = cm.get(chan);
+			if(tdata == null || tdata.size() == 0) continue;
+			if(streaming) {		// split whole batch into points, then keep exactly [start, start+duration], no dupes
+				tdata = tdata.timeRange(ftype, 0., Double.MAX_VALUE, mode);
+				double end = start + duration;
+				int istart = 0, iend = tdata.size();
+				while(istart < iend && (tdata.time(istart) < start || tdata.time(istart) <= lastTime)) istart++;
+				while(iend > istart && tdata.time(iend-1) > end) iend--;
+				boolean done = (iend < tdata.size()) || last;		// past end:  no later batch can have points in range
+				if(istart == iend) {
+					if(done) close();
+					continue;
+				}
+				if(istart > 0 || iend < tdata.size()) tdata = tdata.slice(istart, iend);
+				lastTime = tdata.time(tdata.size()-1);
+				if(done) files = null;								// return this block, then done
+			}
+			else {			// all at once:  as getData
+				tdata = tdata.timeRange(ftype, start, duration, mode);
+				if(tdata.size() == 0) continue;
+			}
+
+			block = tdata;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return current block, null if none
+	 */
+	public CTdata getData() {
+		return block;
+	}
+
+	//---------------------------------------------------------------------------------
+	// point access
+
+	/**
+	 * Advance to next point, reading next block as needed
+	 * @return true if got point, false if done (or closed)
+	 * @throws Exception on file or decrypt error
+	 */
+	public boolean nextPoint() throws Exception {
+		if(block != null && (point+1) < block.size()) {
+			point++;
+			return true;
+		}
+		if(!next()) return false;
+		point = 0;
+		return true;
+	}
+
+	/**
+	 * @return current point time (sec)
+	 */
+	public double getTime() {
+		return block.time(point);
+	}
+
+	/**
+	 * @return current point data, null if time-only
+	 */
+	public byte[] getBytes() {
+		return block.data(point);
+	}
+
+	//---------------------------------------------------------------------------------
+	/**
+	 * Stop reading and release data.  Subsequent next() returns false.
+	 */
+	public void close() {
+		files = null;
+		block = null;
+		point = -1;
+	}
+}
@@ -19,18 +19,26 @@
 
 package cycronix.ctlib;//---------------------------------------------------------------------------------	
 
-import java.io.ByteArrayOutputStream;
-
 // Matt Miller, Cycronix
 // 02/18/2014
 
 import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 
 /**
  * CloudTurbine utility class to manage ArrayList of time,data couples
  * <p>
+ * Storage is columnar:  a growable primitive time array plus an offset table into byte buffer "chunks".
+ * Small data (e.g. points split out of packed blocks) is copied into one contiguous, growable chunk; 
+ * large intact frames (e.g. images, full blocks) are referenced without copy.
+ * Typed buffer getters are zero-copy views when data is contiguous.
+ * <p>
  * @author Matt Miller (MJM), Cycronix
  * @version 2014/03/06
  * 
@@ -40,10 +48,23 @@ import java.util.Arrays;
 // CTdata:  ArrayList of time,data couples
 
 public class CTdata {
-	private ArrayList<Double>timelist=new ArrayList<Double>();
-	private ArrayList<byte[]>datalist=new ArrayList<byte[]>();
-	private ArrayList<CTFile>filelist=new ArrayList<CTFile>();
+	private double[] times = new double[16];		// point times
+	private int[] chunkOf = new int[16];			// data chunk index per point
+	private int[] offset = new int[16];				// data offset in chunk per point
+	private int[] length = new int[16];				// data length per point, -1 if null (time-only)
+	private int npoint = 0;
+	
+	private CTFile[] files = new CTFile[16];		// source file per point (can be fewer than points)
+	private int nfile = 0;
 
+	private ArrayList<ByteBuffer>chunks = new ArrayList<ByteBuffer>();		// data storage, shared (read-only) with slices
+	private boolean tailOwned = false;				// last chunk is ours to append to
+	private int tailUsed = 0;						// bytes used in owned tail chunk
+
+	private static final int ADOPT_SIZE = 65536;	// reference (vs copy) data arrays at least this big
+	private static final int CHUNK_SIZE = 4096;		// initial owned-chunk size
+	private static boolean offHeap = false;			// allocate owned chunks as direct (off-heap) buffers
+	
 	private java.nio.ByteOrder border = java.nio.ByteOrder.LITTLE_ENDIAN;	// Intel order (default, most common)
 		
 	CTdata() {}
@@ -67,38 +88,210 @@ public class CTdata {
 //		debug = idebug;
 	}
 	
+	/**
+	 * Allocate CTdata storage off-heap (direct buffers).  Applies to subsequently created data.
+	 * @param direct true/false use direct buffers (default: false)
+	 */
+	public static void setOffHeap(boolean direct) {
+		offHeap = direct;
+	}
+	
 	// add byte array
 	void add(double mytime, byte[] mydata) {
-		timelist.add(mytime);
-		datalist.add(mydata);
+		addPoint(mytime);
+		putData(mydata);
 	}
 	
 	// add byte array
 	void add(double mytime, byte[] mydata, CTFile file) {
 //		if(mydata==null) return;		// firewall
-		timelist.add(mytime);
-		datalist.add(mydata);
-		filelist.add(file);
+		add(mytime, mydata);
+		addFile(file);
 	}
 	
 	// add CTFile (unfinished, for delayed data-read concept)
 	void add(double mytime, CTFile myfile) {
-		timelist.add(mytime);
-		filelist.add(myfile);
+		add(mytime, (byte[])null, myfile);
+	}
+	
+	void add(CTdata tdata) {		// append (data chunks are shared, not copied)
+		if(tdata == null) return;
+		int nchunk = chunks.size();
+		chunks.addAll(tdata.chunks);
+		tailOwned = false;
+		for(int i=0; i<tdata.npoint; i++) {
+			addPoint(tdata.times[i]);
+			chunkOf[npoint-1] = tdata.chunkOf[i] + nchunk;
+			offset[npoint-1] = tdata.offset[i];
+			length[npoint-1] = tdata.length[i];
+		}
+		for(int i=0; i<tdata.nfile; i++) addFile(tdata.files[i]);
 	}
 	
-	void add(CTdata tdata) {		// append 
-		timelist.addAll(tdata.timelist);
-		datalist.addAll(tdata.datalist);
-		filelist.addAll(tdata.filelist);
+	// add point i of other CTdata by reference (no data copy)
+	private void addFrom(CTdata tdata, int i) {
+		if(tdata.length[i] < 0) {						// time only (no data)
+			addPoint(tdata.times[i]);
+			return;
+		}
+		ByteBuffer chunk = tdata.chunks.get(tdata.chunkOf[i]);
+		int ichunk = chunks.size()-1;
+		while(ichunk >= 0 && chunks.get(ichunk) != chunk) ichunk--;		// identity (not content) match
+		if(ichunk < 0) {
+			chunks.add(chunk);
+			ichunk = chunks.size()-1;
+			tailOwned = false;
+		}
+		addPoint(tdata.times[i]);
+		chunkOf[npoint-1] = ichunk;
+		offset[npoint-1] = tdata.offset[i];
+		length[npoint-1] = tdata.length[i];
 	}
 	
-	public int size() {	return datalist.size(); }
+	// add one word out of point i of other CTdata, copied into contiguous owned storage
+	private void addWord(double mytime, CTdata tdata, int i, int woffset, int wordSize) {
+		addPoint(mytime);
+		ByteBuffer src = tdata.chunks.get(tdata.chunkOf[i]);
+		int spos = tdata.offset[i] + woffset;
+		int dpos = reserve(wordSize);
+		ByteBuffer dst = chunks.get(chunks.size()-1);
+		if(src.hasArray() && dst.hasArray())
+			System.arraycopy(src.array(), src.arrayOffset()+spos, dst.array(), dst.arrayOffset()+dpos, wordSize);
+		else
+			for(int k=0; k<wordSize; k++) dst.put(dpos+k, src.get(spos+k));
+		chunkOf[npoint-1] = chunks.size()-1;
+		offset[npoint-1] = dpos;
+		length[npoint-1] = wordSize;
+	}
+	
+	// grow point arrays, add time
+	private void addPoint(double mytime) {
+		if(npoint == times.length) {
+			int n = 2 * npoint;
+			times = Arrays.copyOf(times, n);
+			chunkOf = Arrays.copyOf(chunkOf, n);
+			offset = Arrays.copyOf(offset, n);
+			length = Arrays.copyOf(length, n);
+		}
+		times[npoint] = mytime;
+		length[npoint] = -1;
+		npoint++;
+	}
+	
+	private void addFile(CTFile file) {
+		if(nfile == files.length) files = Arrays.copyOf(files, 2*nfile);
+		files[nfile++] = file;
+	}
+	
+	// set data for last-added point:  big arrays by reference, small ones copied to contiguous storage
+	private void putData(byte[] mydata) {
+		if(mydata == null) return;
+		int i = npoint-1;
+		if(mydata.length >= ADOPT_SIZE) {
+			chunks.add(ByteBuffer.wrap(mydata));
+			tailOwned = false;
+			chunkOf[i] = chunks.size()-1;
+			offset[i] = 0;
+		}
+		else {
+			int dpos = reserve(mydata.length);
+			ByteBuffer dst = chunks.get(chunks.size()-1);
+			if(dst.hasArray()) System.arraycopy(mydata, 0, dst.array(), dst.arrayOffset()+dpos, mydata.length);
+			else {
+				ByteBuffer d = dst.duplicate();
+				d.position(dpos);
+				d.put(mydata);
+			}
+			chunkOf[i] = chunks.size()-1;
+			offset[i] = dpos;
+		}
+		length[i] = mydata.length;
+	}
+	
+	// reserve space in owned tail chunk, growing (or starting new chunk) as needed.  returns offset.
+	private int reserve(int len) {
+		ByteBuffer tail = tailOwned ? chunks.get(chunks.size()-1) : null;
+		if(tail == null || (tail.capacity() - tailUsed) < len) {
+			int size = Math.max(len, (tail==null) ? CHUNK_SIZE : 2*tail.capacity());
+			ByteBuffer newtail = offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+			if(tail != null) {							// grow in place:  same chunk index, same offsets
+				ByteBuffer old = tail.duplicate();
+				old.position(0);	old.limit(tailUsed);
+				newtail.put(old);
+				newtail.clear();
+				chunks.set(chunks.size()-1, newtail);
+			}
+			else {
+				chunks.add(newtail);
+				tailUsed = 0;
+				tailOwned = true;
+			}
+		}
+		int pos = tailUsed;
+		tailUsed += len;
+		return pos;
+	}
+	
+	// point i data as (read-only) view
+	private ByteBuffer view(int i) {
+		ByteBuffer b = chunks.get(chunkOf[i]).duplicate();
+		b.limit(offset[i]+length[i]);
+		b.position(offset[i]);
+		return b.slice().order(border);
+	}
+	
+	// point i data as byte array:  the original array if referenced whole, else a copy
+	byte[] data(int i) {
+		if(length[i] < 0) return null;
+		ByteBuffer b = chunks.get(chunkOf[i]);
+		if(b.hasArray() && b.arrayOffset()==0 && offset[i]==0 && length[i]==b.array().length) return b.array();
+		byte[] d = new byte[length[i]];
+		view(i).get(d);
+		return d;
+	}
+	
+	int dataLength(int i) {
+		return length[i];
+	}
+	
+	private byte dataByte(int i, int k) {
+		return chunks.get(chunkOf[i]).get(offset[i]+k);
+	}
+	
+	// new CTdata sharing data chunks, for points istart (inclusive) to iend (exclusive)
+	CTdata slice(int istart, int iend) {
+		CTdata ctd = new CTdata();
+		int n = Math.max(0, iend-istart);
+		ctd.times = Arrays.copyOfRange(times, istart, istart+Math.max(n,1));
+		ctd.chunkOf = Arrays.copyOfRange(chunkOf, istart, istart+Math.max(n,1));
+		ctd.offset = Arrays.copyOfRange(offset, istart, istart+Math.max(n,1));
+		ctd.length = Arrays.copyOfRange(length, istart, istart+Math.max(n,1));
+		ctd.npoint = n;
+		int fend = Math.min(iend, nfile);
+		if(fend > istart) {
+			ctd.files = Arrays.copyOfRange(files, istart, fend);
+			ctd.nfile = fend-istart;
+		}
+		ctd.chunks = new ArrayList<ByteBuffer>(chunks);
+		ctd.border = border;
+		return ctd;
+	}
+	
+	public int size() {	return npoint; }
+	
+	// point i time
+	double time(int i) { return times[i]; }
 	
 	public double[] getTime() { 
-		double mytime[] = new double[timelist.size()];
-		for(int i=0; i< mytime.length; i++) mytime[i] = timelist.get(i);
-		return mytime;
+		return Arrays.copyOf(times, npoint);
+	}
+	
+	/**
+	 * Times as zero-copy (read-only) view
+	 * @return DoubleBuffer of point times
+	 */
+	public DoubleBuffer getTimeBuffer() {
+		return DoubleBuffer.wrap(times, 0, npoint).slice().asReadOnlyBuffer();
 	}
 	
 //-----------------------------------------------------------------------------------------------------------------------------
@@ -138,20 +331,23 @@ public class CTdata {
 
 		double tend = start + duration;		// for ref
 		CTdata ctd = new CTdata();
-		int nframe = datalist.size();
+		int nframe = npoint;
 		
 //		System.err.println("requested tstart: "+start+", requested duration: "+duration+", tend: "+tend);
-		double Tprev=0;	String Dprev="";		// for duration=0 previous-Point
+		double Tprev=0;							// for duration=0 previous-Point
+		int Dprev=-1, DprevStart=0, DprevEnd=0;	// previous-point field:  point index, byte range
 		
 		for(int i=0; i<nframe; i++) {
-			double tbase = filelist.get(i).baseTime();
-			double time = timelist.get(i);
+			double tbase = files[i].baseTime();
+			double time = times[i];
 			
 //			CTinfo.debugPrint("filelist.get("+i+"): "+filelist.get(i).getMyPath()+", tbase: "+tbase+", time: "+time);
 			
-			String dds = new String(datalist.get(i));				// CSV comma separated string of values
-			String[] ddp = dds.replaceFirst("^,","").split(",");	// skip leading comma if present
-			long count = ddp.length;
+			// CSV comma separated values, scanned in place (no String per block)
+			ByteBuffer b = chunks.get(chunkOf[i]);
+			int dstart = offset[i], dend = offset[i] + Math.max(0, length[i]);
+			int fstart = CTnumeric.csvStart(b, dstart, dend);	// skip leading comma if present
+			long count = CTnumeric.csvCount(b, fstart, dend);
 
 			double dt = 0;
 			if(count>1) {
@@ -161,23 +357,25 @@ public class CTdata {
 			}
 			
 			// not sure all the next/prev/oldest/newest logic is in here...
-//			CTinfo.debugPrint("time("+i+"): "+time+", data: "+dds+", dt: "+dt+", count: "+count+", duration: "+duration);
+//			CTinfo.debugPrint("time("+i+"): "+time+", dt: "+dt+", count: "+count+", duration: "+duration);
 
-			if(i==0) { Tprev = time; Dprev=ddp[0]; }	// initialize
+			if(i==0 && count>0) { Tprev = time; Dprev=i; DprevStart=fstart; DprevEnd=CTnumeric.csvEnd(b, fstart, dend); }	// initialize
 			for(int j=0; j<count; j++) {
+				int fend = CTnumeric.csvEnd(b, fstart, dend);
 				double t = time+j*dt;
 //				System.err.println("t["+j+"]: "+t+", tstart: "+start+", tend: "+tend);
 				if((t>tend && duration==0)) {		// single-point case
-					ctd.add(Tprev, Dprev.getBytes());
-//					System.err.println("d=0 grab t: "+t+", ptime: "+Tprev+", d: "+Dprev+", j: "+j+", count: "+count);
+					if(Dprev >= 0) ctd.addWord(Tprev, this, Dprev, DprevStart-offset[Dprev], DprevEnd-DprevStart);
+//					System.err.println("d=0 grab t: "+t+", ptime: "+Tprev+", j: "+j+", count: "+count);
 				}
 				else if(t>=start && t<=tend) {		// trim to requested start+duration
 					double ptime = time+j*dt;
-					ctd.add(ptime, ddp[j].getBytes());
-//					System.err.println("grab t: "+t+", ptime: "+ptime+", d: "+ddp[j]+", date: "+new Date((long)(t*1000)));
+					ctd.addWord(ptime, this, i, fstart-dstart, fend-fstart);		// copy field bytes
+//					System.err.println("grab t: "+t+", ptime: "+ptime+", date: "+new Date((long)(t*1000)));
 				}
 				Tprev = t;				// save previous 
-				Dprev = ddp[j];
+				Dprev = i;	DprevStart = fstart;	DprevEnd = fend;
+				fstart = fend + 1;
 				
 				if(t >= tend) break;
 			}
@@ -196,14 +394,14 @@ public class CTdata {
 		double incTime = incTimeI;
 		double prevtime=0;
 
-		if(tmode.equals("newest")) start = timelist.get(timelist.size()-1) - duration;		
+		if(tmode.equals("newest")) start = times[npoint-1] - duration;		
 //		if(tmode.equals("oldest")) start = timelist.get(0);		// defer until find first point, may need to deduct block-duration 
 		
 		double end = start + duration;		// presume absolute time provided
-		CTinfo.debugPrint("timeRange, start: "+start+", end: "+end+", duration: "+duration+", timelist(0): "+timelist.get(0)+", wordSize: "+wordSize+", timelist.size: "+timelist.size());
+		CTinfo.debugPrint("timeRange, start: "+start+", end: "+end+", duration: "+duration+", timelist(0): "+times[0]+", wordSize: "+wordSize+", timelist.size: "+npoint);
 	
 		if(start==0. || duration < 0.) end = Double.MAX_VALUE;		// use full range if relative timestamp 
-		int nframe = datalist.size();
+		int nframe = npoint;
 
 		boolean deduceIncTime=true;		// obsolete?  still used for audio.pcm, but audio plays, scrolling is glumpy...	
 		if(deduceIncTime) {
@@ -213,19 +411,19 @@ public class CTdata {
 				int count=0;
 				prevtime = 0;
 				for(int i=0; i<(nframe-1); i++) {
-					double time = timelist.get(i);			// skip dupes
+					double time = times[i];			// skip dupes
 					if(time == prevtime) continue;
 					prevtime = time; 
-					if(datalist.get(i) != null)					// bleh
-						count += datalist.get(i).length;		// count all points (less last frame)
+					if(dataLength(i) > 0)					// bleh
+						count += dataLength(i);		// count all points (less last frame)
 					//				System.err.println("frame time["+i+"]: "+timelist.get(i));
 				}
 				count /= wordSize;
-				double timerange = timelist.get(nframe-1) - timelist.get(0);
+				double timerange = times[nframe-1] - times[0];
 				incTime =  timerange / count;	// avg all frames
 				//			System.err.println("timeRangeNM1: "+timelist.get(nframe-1)+", nframe: "+nframe+", incTime: "+incTime+", count: "+count+", timerange: "+timerange);
 			}
-			if(wordSize>1 && incTime == 0. && filelist.size() < nframe) {		// can happen with single nframe==1 (bleh)
+			if(wordSize>1 && incTime == 0. && nfile < nframe) {		// can happen with single nframe==1 (bleh)
 				System.err.println("WARNING: cannot derive incremental point times, using constant over frame");
 			}	
 		}
@@ -237,17 +435,17 @@ public class CTdata {
 		// step through elements of timelist, datalist Arrays
 
 		// optimize special case for single-point frames:
-		if(duration>0 && tmode.equals("absolute") && datalist!=null && nframe>0 && datalist.get(0)!=null && (datalist.get(0).length==wordSize)) {
+		if(duration>0 && tmode.equals("absolute") && nframe>0 && (dataLength(0)==wordSize)) {
 			boolean canopt = true;				// this is not robust when some but not all frames are single-point!!!
-			for(byte[] d:datalist) if(d.length != wordSize) { canopt = false; break; }
+			for(int i=0; i<nframe; i++) if(dataLength(i) != wordSize) { canopt = false; break; }
 			if(canopt) {
 				int istart = 0;
 				int iend = nframe -1;
 				for(int i=0; i<nframe; i++) {
-					if(timelist.get(i) >= start) { istart = i; break; }
+					if(times[i] >= start) { istart = i; break; }
 				}
 				for(int i=nframe-1; i>=0; i--) {
-					if(timelist.get(i) <= end) { iend = i; break; }
+					if(times[i] <= end) { iend = i; break; }
 				}
 				if(istart==0 && iend==(nframe-1)) {
 					//				System.err.println("quick list!");
@@ -255,21 +453,18 @@ public class CTdata {
 				}
 				else if(iend>istart) {
 					//				System.err.println("sublist!, istart: "+istart+", iend: "+iend+", nframe: "+nframe);
-					timelist = new ArrayList<Double> (timelist.subList(istart, iend));		// faster to sublist than to create new copy?
-					datalist = new ArrayList<byte[]> (datalist.subList(istart, iend));
-					filelist = new ArrayList<CTFile> (filelist.subList(istart, iend));
-					return this;
+					return slice(istart, iend);			// shares data, no copy
 				}
 			}
 		}
 		
 		for(int i=0; i<nframe; i++) {					// multiple frames per arraylist element
-			double time = timelist.get(i);
+			double time = times[i];
 
 			if(time == prevtime) continue;				// skip dupes		
 			
 			int count = 0;
-			try{ count = datalist.get(i).length/wordSize; } catch (Exception e) {};		// for timeonly, data could be nullptr
+			if(dataLength(i) > 0) count = dataLength(i)/wordSize;		// for timeonly, data could be nullptr
 //			CTinfo.debugPrint("wordSize: "+wordSize+", duration: "+duration+", tmode: "+tmode+", i: "+i+", nframe: "+nframe+", time: "+time+", count: "+count);
 			CTinfo.debugPrint("frame: "+i+", tframe: "+time+", nframe: "+nframe+", start: "+start+", end: "+end+", count: "+count);
 //			double ts = timelist.get(0);
@@ -284,10 +479,10 @@ public class CTdata {
 				
 //				if(duration==0 && nframe==1) {		// special single-frame intact-frame case (e.g. images) MJM 8/16
 				if(duration==0 && tmode.equals("absolute")) {					// ensure d=0 gets at-or-BEFORE given time MJM 2/17
-					CTinfo.debugPrint("Zero duration check, i: "+i+", nframe: "+nframe+", time: "+time+", timelist.size: "+timelist.size());
-					if( (timelist.size()>(i+1)) && (i==(nframe-1) || (timelist.get(i+1)>start)) ) {
-						CTinfo.debugPrint("CTdata zero add, time: "+timelist.get(i)+", start: "+start+", timelist(i+1): "+timelist.get(i+1));
-						ctd.add(timelist.get(i), datalist.get(i));
+					CTinfo.debugPrint("Zero duration check, i: "+i+", nframe: "+nframe+", time: "+time+", timelist.size: "+npoint);
+					if( (npoint>(i+1)) && (i==(nframe-1) || (times[i+1]>start)) ) {
+						CTinfo.debugPrint("CTdata zero add, time: "+times[i]+", start: "+start+", timelist(i+1): "+times[i+1]);
+						ctd.addFrom(this, i);
 						break;
 					}
 				}
@@ -300,20 +495,20 @@ public class CTdata {
 				if(duration == 0) {						// single-point case, just return first one BEFORE start time 
 					CTinfo.debugPrint("duration 0, time: "+time+", start: "+start+", tmode: "+tmode);
 					if(tmode.equals("next") && i<(nframe-1)) {
-						while((i<(nframe-1)) && time==timelist.get(i+1)) {
+						while((i<(nframe-1)) && time==times[i+1]) {
 							i++;		// roll past dupe times...
 						}
-						CTinfo.debugPrint("CTdata next add, time: "+timelist.get(i+1)+", t+2: "+(i<(nframe-2)?timelist.get(i+2):null));
-						ctd.add(timelist.get(i+1), datalist.get(i+1));		// index "i" is current point
+						CTinfo.debugPrint("CTdata next add, time: "+times[i+1]+", t+2: "+(i<(nframe-2)?times[i+2]:null));
+						ctd.addFrom(this, i+1);		// index "i" is current point
 					}
 //					else if((i>0) && ((start!=time) || tmode.equals("prev")))
 					else if((i>0) && (tmode.equals("prev"))) {
-						CTinfo.debugPrint("CTdata prev add, time: "+timelist.get(i-1));
-						ctd.add(timelist.get(i-1), datalist.get(i-1));		// index "i-1" is at or one before start
+						CTinfo.debugPrint("CTdata prev add, time: "+times[i-1]);
+						ctd.addFrom(this, i-1);		// index "i-1" is at or one before start
 					}
 					else {
-						CTinfo.debugPrint("CTdata duration=0 add, time: "+timelist.get(i));
-						ctd.add(timelist.get(i), datalist.get(i));			// grab current if none prior or exact match
+						CTinfo.debugPrint("CTdata duration=0 add, time: "+times[i]);
+						ctd.addFrom(this, i);			// grab current if none prior or exact match
 					}
 					break;
 				} 
@@ -322,17 +517,17 @@ public class CTdata {
 				if(time > end) break;
 				
 //				CTinfo.debugPrint("CTdata frame add, time: "+time);
-				ctd.add(time, datalist.get(i));			// add current frame
+				ctd.addFrom(this, i);			// add current frame
 			}
 			else {			//  multi-point blocks
-				int waveHeader = filelist.get(i).getName().endsWith(".wav")?44:0;		// skip audio.wav header (44 bytes)
-				byte[] data = datalist.get(i);
+				int waveHeader = files[i].getName().endsWith(".wav")?44:0;		// skip audio.wav header (44 bytes)
+				int idata = i;							// data frame (may back up one for at-or-before)
 				count = 0;
-				if(data == null) {
+				if(dataLength(idata) < 0) {
 					ctd.add(time, (byte[]) null);			// time-only request
 					return ctd;
 				}
-				else count = (data.length-waveHeader)/wordSize;		// multiple words per frame
+				else count = (dataLength(idata)-waveHeader)/wordSize;		// multiple words per frame
 				double dt = 0.;
 				double refTime = 0.;
 				String thisZipFile=null;
@@ -340,8 +535,8 @@ public class CTdata {
 				// first block in zip, use dt = blockTime - zipFileTime
 				// subsequent blocks in zip, use dt = blockTime(i+1) - blockTime(i)
 				// if dt==0, fall back to old average interval calc (above)
-				if(wordSize>1 && filelist.size() >= nframe) {
-					CTFile file = filelist.get(i);
+				if(wordSize>1 && nfile >= nframe) {
+					CTFile file = files[i];
 					thisZipFile = file.getParent();			// could be zip or folder
 					if(thisZipFile != null) {
 						if(thisZipFile.equals(oldZipFile)) 	refTime = prevtime;						// multi-block per Zip
@@ -358,10 +553,10 @@ public class CTdata {
 				// grab sampleRate out of audio.wav header if available
 				if(waveHeader > 0) {						
 					int offset = 24;									// Wave header sampleRate entry location
-					int value = (data[3+offset] << (Byte.SIZE * 3));
-					value |= (data[2+offset] & 0xFF) << (Byte.SIZE * 2);
-					value |= (data[1+offset] & 0xFF) << (Byte.SIZE * 1);
-					value |= (data[0+offset] & 0xFF);
+					int value = (dataByte(idata, 3+offset) << (Byte.SIZE * 3));
+					value |= (dataByte(idata, 2+offset) & 0xFF) << (Byte.SIZE * 2);
+					value |= (dataByte(idata, 1+offset) & 0xFF) << (Byte.SIZE * 1);
+					value |= (dataByte(idata, 0+offset) & 0xFF);
 					dt = 1. / value;
 					CTinfo.debugPrint("got WaveHeader! sampRate: "+value+", dt: "+dt+", totalcount: "+count);
 				}
@@ -371,7 +566,7 @@ public class CTdata {
 					CTinfo.debugPrint("CTdata, blockdata zero dt, using backup incTime: "+incTime+", count: "+count);
 				}
 				if(dt == 0. && count > 1) System.err.println("Warning, using constant time over data block!");	
-//				System.err.println("thisZip: "+thisZipFile+", time: "+time+", refTime: "+refTime+", prevTime: "+prevtime+", baseTime: "+filelist.get(i).baseTime());
+//				System.err.println("thisZip: "+thisZipFile+", time: "+time+", refTime: "+refTime+", prevTime: "+prevtime+", baseTime: "+files[i].baseTime());
 				time = refTime;		// MJM 7/28/16:  blocks start at 0-relative time for consistency with non-block times
 				
 				if(tmode.equals("oldest") && start==0) { start = time; end = start + duration; }
@@ -385,21 +580,19 @@ public class CTdata {
 					if(time < start) continue;
 					else if(time <= end) {
 						int idx = j + waveHeader/wordSize;
-						byte[] barray = Arrays.copyOfRange(data, idx*wordSize, (idx+1)*wordSize);	// parse bytes into words
-						ctd.add(time, barray);
+						ctd.addWord(time, this, idata, idx*wordSize, wordSize);	// parse bytes into words
 					}
 					else if((duration == 0) && (time > end)) {		// special at-or-before
 						int idx = j-1;
 						if(j==0 && i>0) {
-							data = datalist.get(i-1);
+							idata = i-1;
 							idx = count-2;
 						}
 						if(idx < 0) idx=0;
 						else		time -= dt;
 
 						idx += waveHeader/wordSize;
-						byte[] barray = Arrays.copyOfRange(data, idx*wordSize, (idx+1)*wordSize);
-						ctd.add(time, barray);
+						ctd.addWord(time, this, idata, idx*wordSize, wordSize);
 						break;
 					}
 					
@@ -416,121 +609,203 @@ public class CTdata {
 //-----------------------------------------------------------------------------------------------------------------------------
 // getData as various primitive types
 	
-	public double[] getDataAsFloat64() {
-		int nword = datalist.size();
+	// total data bytes, skipping null (time-only) points
+	private int dataBytes(int wordSize) {
 		int count = 0;
-		for(int i=0; i<nword; i++) count += (datalist.get(i).length / 8);	// pre-pass count total
-		double data[] = new double[count];
-		for(int i=0, k=0; i<nword; i++) {		// multiple words per arraylist element
-			count = datalist.get(i).length/8;
-			for(int j=0; j<count; j++, k++) {
-				data[k] = ByteBuffer.wrap(datalist.get(i), j*8, 8).order(border).getDouble();
-			}
+		for(int i=0; i<npoint; i++) if(length[i] > 0) count += (length[i] / wordSize);
+		return count;
+	}
+	
+	public double[] getDataAsFloat64() {
+		double data[] = new double[dataBytes(8)];	// pre-pass count total
+		for(int i=0, k=0; i<npoint; i++) {			// bulk get per point
+			if(length[i] <= 0) continue;
+			int count = length[i]/8;
+			view(i).asDoubleBuffer().get(data, k, count);
+			k += count;
 		}
 		return data;
 	}
 	
 	public float[] getDataAsFloat32() {
-		int nword = datalist.size();
-		int count = 0;
-		for(int i=0; i<nword; i++) count += (datalist.get(i).length / 4);	// pre-pass count total
-		float data[] = new float[count];
-		for(int i=0, k=0; i<nword; i++) {		// multiple words per arraylist element
-			count = datalist.get(i).length/4;
-			for(int j=0; j<count; j++, k++) {
-				data[k] = ByteBuffer.wrap(datalist.get(i), j*4, 4).order(border).getFloat();
-			}
+		float data[] = new float[dataBytes(4)];
+		for(int i=0, k=0; i<npoint; i++) {
+			if(length[i] <= 0) continue;
+			int count = length[i]/4;
+			view(i).asFloatBuffer().get(data, k, count);
+			k += count;
 		}
 		return data;
 	}
 	
 	public long[] getDataAsInt64() {
-		int nword = datalist.size();
-		int count = 0;
-		for(int i=0; i<nword; i++) count += (datalist.get(i).length / 8);	// pre-pass count total
-		long data[] = new long[count];
-		for(int i=0, k=0; i<nword; i++) {		// multiple words per arraylist element
-			count = datalist.get(i).length/8;
-			for(int j=0; j<count; j++, k++) {
-				data[k] = ByteBuffer.wrap(datalist.get(i), j*8, 8).order(border).getLong();
-			}
+		long data[] = new long[dataBytes(8)];
+		for(int i=0, k=0; i<npoint; i++) {
+			if(length[i] <= 0) continue;
+			int count = length[i]/8;
+			view(i).asLongBuffer().get(data, k, count);
+			k += count;
 		}
 		return data;
 	}
 	
 	public int[] getDataAsInt32() {
-		int nword = datalist.size();
-		int count = 0;
-		for(int i=0; i<nword; i++) count += (datalist.get(i).length / 4);	// pre-pass count total
-		int data[] = new int[count];
-		for(int i=0, k=0; i<nword; i++) {		// multiple words per arraylist element
-			count = datalist.get(i).length/4;
-			for(int j=0; j<count; j++, k++) {
-				data[k] = ByteBuffer.wrap(datalist.get(i), j*4, 4).order(border).getInt();
-			}
+		int data[] = new int[dataBytes(4)];
+		for(int i=0, k=0; i<npoint; i++) {
+			if(length[i] <= 0) continue;
+			int count = length[i]/4;
+			view(i).asIntBuffer().get(data, k, count);
+			k += count;
 		}
 		return data;
 	}
 	
 	public short[] getDataAsInt16() {
-		int nword = datalist.size();
-		int count = 0;
-		for(int i=0; i<nword; i++) count += (datalist.get(i).length / 2);	// pre-pass count total
-		short data[] = new short[count];
-//		System.err.println("getDataAsInt16, nword: "+nword);
-		for(int i=0, k=0; i<nword; i++) {		// multiple words per arraylist element
-			count = datalist.get(i).length/2;
-			for(int j=0; j<count; j++, k++) {
-				data[k] = ByteBuffer.wrap(datalist.get(i), j*2, 2).order(border).getShort();
-			}
+		short data[] = new short[dataBytes(2)];
+		for(int i=0, k=0; i<npoint; i++) {
+			if(length[i] <= 0) continue;
+			int count = length[i]/2;
+			view(i).asShortBuffer().get(data, k, count);
+			k += count;
 		}
 		return data;
 	}
 	
 	public double[] getDataAsNumericF64() {
-		int nword = datalist.size();
-		double data[] = new double[nword];		// presume 1 word per arraylist
-		for(int i=0; i<nword; i++) {
-			data[i] = Double.parseDouble(new String(datalist.get(i)));
+		double data[] = new double[npoint];		// presume 1 word per point
+		for(int i=0; i<npoint; i++) {
+			if(length[i] < 0) { data[i] = Double.NaN; continue; }
+			data[i] = CTnumeric.parseDouble(chunks.get(chunkOf[i]), offset[i], offset[i]+length[i]);	// parse in place
 		}
 		return data;
 	}
 	
 	public float[] getDataAsNumericF32() {
-		int nword = datalist.size();
-		float data[] = new float[nword];		// presume 1 word per arraylist
-		for(int i=0; i<nword; i++) {
-			data[i] = Float.parseFloat(new String(datalist.get(i)));
+		float data[] = new float[npoint];		// presume 1 word per point
+		for(int i=0; i<npoint; i++) {
+			if(length[i] < 0) { data[i] = Float.NaN; continue; }
+			data[i] = CTnumeric.parseFloat(chunks.get(chunkOf[i]), offset[i], offset[i]+length[i]);
 		}
 		return data;
 	}
 	
 	public byte[] getDataAsByteArray() {
-		ByteArrayOutputStream outputStream = new ByteArrayOutputStream(4096);
-		try {
-			for(byte[] b:datalist) {
-				if(b!=null) outputStream.write(b);
-			}
-		} catch(Exception e) {
-			System.err.println("getDataAsByteArray Exception: "+e);
+		byte[] data = new byte[dataBytes(1)];
+		for(int i=0, k=0; i<npoint; i++) {
+			if(length[i] <= 0) continue;
+			view(i).get(data, k, length[i]);
+			k += length[i];
 		}
-		return outputStream.toByteArray();
+		return data;
 	}
 	
 	// get raw (byte[][]) data
 	public byte[][] getData() {
-		int nword = datalist.size();
-		byte[][] data = new byte[nword][];		// presume 1 element per arraylist
-		for(int i=0; i<nword; i++) {
-			data[i] = datalist.get(i);
+		byte[][] data = new byte[npoint][];		// one array per point
+		for(int i=0; i<npoint; i++) {
+			data[i] = data(i);
 		}
 		return data;
 	}
 	
+	//-----------------------------------------------------------------------------------------------------------------------------
+	// aggregate:  accumulate numeric values into windowed aggregates, reading words in place (no per-point buffers)
+	
+	void aggregate(char ftype, CTaggregate agg) {
+		int wsize = CTinfo.wordSize(ftype);
+		boolean text = (ftype == 'N' || ftype == 'n' || ftype == 's');
+		if(!text && wsize == 1) return;						// non-numeric (e.g. binary) types
+		ByteBuffer[] cview = new ByteBuffer[chunks.size()];	// one ordered view per chunk
+		for(int i=0; i<npoint; i++) {
+			if(length[i] <= 0) continue;
+			if(text) {
+				try {
+					agg.add(times[i], CTnumeric.parseDouble(chunks.get(chunkOf[i]), offset[i], offset[i]+length[i]));
+				} catch(NumberFormatException e) {}			// skip non-numeric text
+				continue;
+			}
+			ByteBuffer b = cview[chunkOf[i]];
+			if(b == null) b = cview[chunkOf[i]] = chunks.get(chunkOf[i]).duplicate().order(border);
+			for(int pos=offset[i], end=offset[i]+length[i]; pos+wsize<=end; pos+=wsize) {
+				switch(ftype) {
+				case 'f':	agg.add(times[i], b.getFloat(pos));		break;
+				case 'F':	agg.add(times[i], b.getDouble(pos));	break;
+				case 'j':	agg.add(times[i], b.getShort(pos));		break;
+				case 'i':	agg.add(times[i], b.getInt(pos));		break;
+				case 'I':	agg.add(times[i], b.getLong(pos));		break;
+				}
+			}
+		}
+	}
+	
+	//-----------------------------------------------------------------------------------------------------------------------------
+	// getData as (read-only) buffer views:  zero-copy if data is contiguous, else compacted once
+	
+	public ByteBuffer getDataAsByteBuffer() {
+		if(!contiguous()) compact();
+		if(npoint==0 || chunks.size()==0) return ByteBuffer.allocate(0).order(border);
+		int istart = 0;
+		while(istart < npoint && length[istart] < 0) istart++;
+		if(istart == npoint) return ByteBuffer.allocate(0).order(border);
+		ByteBuffer b = chunks.get(chunkOf[istart]).duplicate();
+		b.limit(offset[istart] + dataBytes(1));
+		b.position(offset[istart]);
+		return b.slice().asReadOnlyBuffer().order(border);
+	}
+	
+	public DoubleBuffer getDataAsFloat64Buffer() {
+		return getDataAsByteBuffer().asDoubleBuffer();
+	}
+	
+	public FloatBuffer getDataAsFloat32Buffer() {
+		return getDataAsByteBuffer().asFloatBuffer();
+	}
+	
+	public LongBuffer getDataAsInt64Buffer() {
+		return getDataAsByteBuffer().asLongBuffer();
+	}
+	
+	public IntBuffer getDataAsInt32Buffer() {
+		return getDataAsByteBuffer().asIntBuffer();
+	}
+	
+	public ShortBuffer getDataAsInt16Buffer() {
+		return getDataAsByteBuffer().asShortBuffer();
+	}
+	
+	// all (non-null) point data back-to-back in one chunk?
+	private boolean contiguous() {
+		int ichunk = -1, next = 0;
+		for(int i=0; i<npoint; i++) {
+			if(length[i] < 0) continue;
+			if(ichunk < 0) ichunk = chunkOf[i];
+			else if(chunkOf[i] != ichunk || offset[i] != next) return false;
+			next = offset[i] + length[i];
+		}
+		return true;
+	}
+	
+	// copy all point data into one new owned chunk
+	private void compact() {
+		byte[] data = getDataAsByteArray();
+		ByteBuffer chunk = offHeap ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.wrap(data);
+		if(offHeap) { chunk.put(data); chunk.clear(); }
+		chunks = new ArrayList<ByteBuffer>();
+		chunks.add(chunk);
+		tailOwned = true;
+		tailUsed = data.length;
+		for(int i=0, k=0; i<npoint; i++) {
+			if(length[i] < 0) continue;
+			chunkOf[i] = 0;
+			offset[i] = k;
+			k += length[i];
+		}
+	}
+	
 	// get any type of numeric data converted to string
 	public String[] getDataAsString(char ftype) {
 		
-		int numData = datalist.size();
+		int numData = npoint;
 		String[] response = new String[numData];
 		
 		switch(ftype) {
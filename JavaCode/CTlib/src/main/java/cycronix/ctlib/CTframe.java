@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * CloudTurbine binary frame decoder:  fixed-layout binary frames (e.g. telemetry packets) to typed CT channels.
+ * <p>
+ * The layout is a list of fields, each <code>channel:offset:type[:order][:scale]</code>, separated by
+ * commas, semicolons or new lines:
+ * <ul>
+ * <li>channel:  CT channel name; its suffix sets the CT type (.f64, .f32, .i64, .i32, .i16; else numeric text)
+ * <li>offset:  byte offset of field in frame
+ * <li>type:  i8, u8, i16, u16, i32, u32, i64, f32, f64
+ * <li>order:  le (little-endian, default) or be (big-endian).  A lone "le" or "be" entry sets the default for following fields.
+ * <li>scale:  multiplier applied to value (needs .f64, .f32 or text channel)
+ * </ul>
+ * A layout starting with "@" is read from that file ("#" comments).
+ * Example:  <code>"be, alt.f32:0:f32, temp.f64:4:i16::0.01, count.i32:6:u16, flags.i16:8:u8:le"</code>
+ * <p>
+ * The layout is compiled once; each frame is decoded straight from its ByteBuffer, without intermediate Strings.
+ * Used by CTudp and CTserial ("-frame" option).
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+public class CTframe {
+
+	// field types
+	private static final int I8=0, U8=1, I16=2, U16=3, I32=4, U32=5, I64=6, F32=7, F64=8;
+	private static final String[] TYPE_NAMES = { "i8", "u8", "i16", "u16", "i32", "u32", "i64", "f32", "f64" };
+	private static final int[] TYPE_SIZES = { 1, 1, 2, 2, 4, 4, 8, 4, 8 };
+	private static final int[] TYPE_BITS = { 8, 8, 16, 17, 32, 33, 64, 0, 0 };		// integer width needed (unsigned +1)
+
+	// channel (put) types
+	private static final int PUT_F64=0, PUT_F32=1, PUT_I64=2, PUT_I32=3, PUT_I16=4, PUT_TEXT=5;
+
+	private final String[] names;
+	private final int[] offsets;
+	private final int[] types;
+	private final boolean[] bigEndian;
+	private final double[] scales;
+	private final int[] puts;
+	private final int frameLength;
+
+	//---------------------------------------------------------------------------------
+	// constructor
+
+	/**
+	 * Compile frame layout
+	 * @param spec layout (see class description), or "@" followed by layout file name
+	 * @throws IllegalArgumentException if layout is invalid
+	 * @throws IOException if layout file cannot be read
+	 */
+	public CTframe(String spec) throws IOException {
+		if(spec.startsWith("@")) spec = readSpec(spec.substring(1));
+
+		ArrayList<String[]> fields = new ArrayList<String[]>();
+		boolean defaultBig = false;
+		ArrayList<Boolean> orders = new ArrayList<Boolean>();
+		for(String entry:spec.split("[,;\n]")) {
+			entry = entry.trim();
+			if(entry.length() == 0) continue;
+			if(entry.equalsIgnoreCase("le") || entry.equalsIgnoreCase("be")) {		// default order
+				defaultBig = entry.equalsIgnoreCase("be");
+				continue;
+			}
+			fields.add(entry.split(":", -1));
+			orders.add(defaultBig);
+		}
+		if(fields.isEmpty()) throw new IllegalArgumentException("CTframe: empty layout");
+
+		int n = fields.size();
+		names = new String[n];
+		offsets = new int[n];
+		types = new int[n];
+		bigEndian = new boolean[n];
+		scales = new double[n];
+		puts = new int[n];
+		int len = 0;
+		for(int i=0; i<n; i++) {
+			String[] f = fields.get(i);
+			String entry = join(f);
+			if(f.length < 3 || f.length > 5 || f[0].trim().length() == 0) throw new IllegalArgumentException("CTframe: expected channel:offset:type[:order][:scale]: "+entry);
+			names[i] = f[0].trim();
+			try {
+				offsets[i] = Integer.parseInt(f[1].trim());
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException("CTframe: bad offset: "+entry);
+			}
+			if(offsets[i] < 0) throw new IllegalArgumentException("CTframe: negative offset: "+entry);
+			types[i] = typeOf(f[2].trim(), entry);
+
+			bigEndian[i] = orders.get(i);
+			String order = (f.length > 3) ? f[3].trim() : "";
+			if(order.equalsIgnoreCase("be")) 		bigEndian[i] = true;
+			else if(order.equalsIgnoreCase("le")) 	bigEndian[i] = false;
+			else if(order.length() > 0) 			throw new IllegalArgumentException("CTframe: order must be le or be: "+entry);
+
+			scales[i] = 1.;
+			if(f.length > 4 && f[4].trim().length() > 0) {
+				try {
+					scales[i] = Double.parseDouble(f[4].trim());
+				} catch(NumberFormatException e) {
+					throw new IllegalArgumentException("CTframe: bad scale: "+entry);
+				}
+			}
+
+			puts[i] = putOf(names[i], types[i], scales[i] != 1., entry);
+			len = Math.max(len, offsets[i] + TYPE_SIZES[types[i]]);
+		}
+		frameLength = len;
+	}
+
+	private static String readSpec(String fileName) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		BufferedReader br = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while((line = br.readLine()) != null) {
+				int c = line.indexOf('#');
+				if(c >= 0) line = line.substring(0, c);
+				sb.append(line).append('\n');
+			}
+		} finally {
+			br.close();
+		}
+		return sb.toString();
+	}
+
+	private static int typeOf(String tname, String entry) {
+		for(int t=0; t<TYPE_NAMES.length; t++) if(TYPE_NAMES[t].equalsIgnoreCase(tname)) return t;
+		throw new IllegalArgumentException("CTframe: unknown type (i8,u8,i16,u16,i32,u32,i64,f32,f64): "+entry);
+	}
+
+	// how to put field to its channel.  integer channels must hold the (unscaled) field without loss
+	private static int putOf(String name, int type, boolean scaled, String entry) {
+		int bits;
+		int put;
+		if(name.endsWith(".f64")) 		return PUT_F64;
+		else if(name.endsWith(".f32")) 	return PUT_F32;
+		else if(name.endsWith(".i64")) 	{ put = PUT_I64;	bits = 64; }
+		else if(name.endsWith(".i32")) 	{ put = PUT_I32;	bits = 32; }
+		else if(name.endsWith(".i16")) 	{ put = PUT_I16;	bits = 16; }
+		else {
+			char ftype = CTinfo.fileType(name);
+			if(ftype != 'N' && ftype != 'n' && ftype != 's') throw new IllegalArgumentException("CTframe: channel must be numeric (.f64,.f32,.i64,.i32,.i16,.csv,.txt or no suffix): "+entry);
+			return PUT_TEXT;
+		}
+		if(scaled) throw new IllegalArgumentException("CTframe: scaled field needs .f64, .f32 or text channel: "+entry);
+		if(TYPE_BITS[type] == 0 || TYPE_BITS[type] > bits) throw new IllegalArgumentException("CTframe: "+TYPE_NAMES[type]+" does not fit channel type: "+entry);
+		return put;
+	}
+
+	private static String join(String[] f) {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<f.length; i++) sb.append(i>0 ? ":" : "").append(f[i]);
+		return sb.toString();
+	}
+
+	//---------------------------------------------------------------------------------
+	// layout
+
+	/**
+	 * @return number of fields (channels)
+	 */
+	public int size() 				{ return names.length; }
+
+	/**
+	 * @return minimum frame length (bytes):  end of last field
+	 */
+	public int frameLength() 		{ return frameLength; }
+
+	public String name(int field) 	{ return names[field]; }
+
+	//---------------------------------------------------------------------------------
+	// decode
+
+	/**
+	 * Field value (scaled)
+	 * @param frame frame data, from position (position and order unchanged)
+	 * @param field field index
+	 * @return value
+	 */
+	public double value(ByteBuffer frame, int field) {
+		int type = types[field];
+		double v = (type == F64) ? getDouble(frame, field)
+				 : (type == F32) ? getFloat(frame, field)
+				 : getLong(frame, field);
+		return (scales[field] == 1.) ? v : (v * scales[field]);
+	}
+
+	/**
+	 * Put each field of frame to its channel, as one batch (no flush splits the frame)
+	 * @param ctw CT writer, time already set
+	 * @param frame frame data, from position (position and order unchanged).  Bytes past the layout are ignored.
+	 * @return false (nothing put) if frame is shorter than frameLength()
+	 * @throws Exception on putData error
+	 */
+	public boolean put(CTwriter ctw, ByteBuffer frame) throws Exception {
+		if(frame.remaining() < frameLength) return false;
+		synchronized(ctw) {
+			for(int i=0; i<names.length; i++) {
+				switch(puts[i]) {
+				case PUT_F64:
+					ctw.putData(names[i], value(frame, i));
+					break;
+				case PUT_F32:
+					if(types[i] == F32 && scales[i] == 1.) 	ctw.putData(names[i], getFloat(frame, i));	// no double rounding
+					else									ctw.putData(names[i], (float)value(frame, i));
+					break;
+				case PUT_I64:
+					ctw.putData(names[i], getLong(frame, i));
+					break;
+				case PUT_I32:
+					ctw.putData(names[i], (int)getLong(frame, i));
+					break;
+				case PUT_I16:
+					ctw.putData(names[i], (short)getLong(frame, i));
+					break;
+				default:
+					if(types[i] == F32 && scales[i] == 1.) 	ctw.putData(names[i], getFloat(frame, i));	// shortest float text
+					else if(types[i] < F32 && scales[i] == 1.) ctw.putData(names[i], getLong(frame, i));
+					else									ctw.putData(names[i], value(frame, i));
+					break;
+				}
+			}
+		}
+		return true;
+	}
+
+	// integer field, sign or zero extended
+	private long getLong(ByteBuffer b, int field) {
+		int i = b.position() + offsets[field];
+		boolean swap = bigEndian[field] != (b.order() == ByteOrder.BIG_ENDIAN);
+		switch(types[field]) {
+		case I8:	return b.get(i);
+		case U8:	return b.get(i) & 0xffL;
+		case I16:	{ short s = b.getShort(i); 	return swap ? Short.reverseBytes(s) : s; }
+		case U16:	{ short s = b.getShort(i); 	return (swap ? Short.reverseBytes(s) : s) & 0xffffL; }
+		case I32:	{ int v = b.getInt(i); 		return swap ? Integer.reverseBytes(v) : v; }
+		case U32:	{ int v = b.getInt(i); 		return (swap ? Integer.reverseBytes(v) : v) & 0xffffffffL; }
+		case I64:	{ long v = b.getLong(i); 	return swap ? Long.reverseBytes(v) : v; }
+		default:	return (long)value(b, field);
+		}
+	}
+
+	private float getFloat(ByteBuffer b, int field) {
+		int i = b.position() + offsets[field];
+		int v = b.getInt(i);
+		if(bigEndian[field] != (b.order() == ByteOrder.BIG_ENDIAN)) v = Integer.reverseBytes(v);
+		return Float.intBitsToFloat(v);
+	}
+
+	private double getDouble(ByteBuffer b, int field) {
+		int i = b.position() + offsets[field];
+		long v = b.getLong(i);
+		if(bigEndian[field] != (b.order() == ByteOrder.BIG_ENDIAN)) v = Long.reverseBytes(v);
+		return Double.longBitsToDouble(v);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("CTframe: "+frameLength+" bytes");
+		for(int i=0; i<names.length; i++) {
+			sb.append("\n  ").append(names[i]).append(':').append(offsets[i]).append(':').append(TYPE_NAMES[types[i]])
+				.append(':').append(bigEndian[i] ? "be" : "le");
+			if(scales[i] != 1.) sb.append(':').append(scales[i]);
+		}
+		return sb.toString();
+	}
+}
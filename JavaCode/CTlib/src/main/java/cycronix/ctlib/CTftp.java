@@ -58,7 +58,29 @@ public class CTftp extends CTwriter {
 	}
 	
 	//------------------------------------------------------------------------------------------------
-	
+
+	// index files are written locally, not via FTP
+	public void setIndexMode(boolean iflag) {
+		if(iflag) CTinfo.warnPrint("CTftp does not support index mode, ignored");
+	}
+
+	// channel manifests are written locally, not via FTP
+	public void setManifest(boolean mflag) {
+		if(mflag) CTinfo.warnPrint("CTftp does not support channel manifests, ignored");
+	}
+
+	// head/tail markers are written locally, not via FTP
+	public void setMarkers(boolean mflag) {
+		if(mflag) CTinfo.warnPrint("CTftp does not support head/tail markers, ignored");
+	}
+
+	// rollups are written locally, not via FTP
+	public void setRollup(int factor, int levels) {
+		if(factor > 1 && levels > 0) CTinfo.warnPrint("CTftp does not support rollups, ignored");
+	}
+
+	//------------------------------------------------------------------------------------------------
+
 	public void login(String host, String user, String pw) throws Exception {
 		login(host, user, pw, false);
 	}
@@ -131,6 +153,7 @@ public class CTftp extends CTwriter {
 
 		} catch (Exception e) {
 			e.printStackTrace();
+			throw (e instanceof IOException) ? (IOException)e : new IOException("CTftp write failed: "+e);
 		}
 	}
 	
@@ -0,0 +1,499 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CloudTurbine utility class to keep a persistent time-index per source.
+ * <p>
+ * The index lives in the CT-hidden "_CTindex" folder under the source folder:  a "chans" file
+ * listing channel names (line number is channel id), plus one append-only file of fixed-size
+ * records per channel.  CTwriter appends records at each flush; CTreader memory-maps the record
+ * files and binary searches them by time instead of walking the time-folder tree.
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+//---------------------------------------------------------------------------------
+// CTindex:  per-source, per-channel time index of CT data files
+
+class CTindex {
+
+	static final String INDEX_FOLDER = "_CTindex";			// "_" is CT-hidden prefix
+	static final String CHANS_FILE = "chans";
+	static final String INDEX_SUFFIX = ".idx";
+
+	// record:  time(double) | source(long) | segment(long) | block(long) | point(long) | offset(int) | length(int) | chanId(int) | flags(int)
+	static final int RECSIZE = 56;
+
+	// record flags
+	static final int ZIP = 1;				// block is a zip file, entry is point/chan
+	static final int GZIP = 2;				// block is a gzip'd zip file (.zip.gz)
+	static final int SEGMENT = 4;			// source has segment folder level
+	static final int PACKED = 8;			// packFlush:  single zip per source (or segment), no block level
+
+	private String sourceFolder;			// full path to source folder
+	private File indexFolder;
+	private ArrayList<String> chanNames = new ArrayList<String>();		// by channel id
+	private HashMap<String,Integer> chanIds = new HashMap<String,Integer>();
+	private long chansLength = -1;			// reader:  reload chans file when length changes
+
+	private HashMap<Integer,ChanIndex> chanIndex = new HashMap<Integer,ChanIndex>();		// reader mapped files
+	private HashMap<Integer,FileOutputStream> chanOutput = new HashMap<Integer,FileOutputStream>();	// writer open files
+	private ArrayList<Object[]> pending = new ArrayList<Object[]>();		// writer records waiting for flush
+
+	private static boolean indexProfile = false;
+
+	//---------------------------------------------------------------------------------
+	// constructor
+
+	private CTindex(String sourceFolder) {
+		this.sourceFolder = sourceFolder;
+		indexFolder = new File(sourceFolder + File.separator + INDEX_FOLDER);
+	}
+
+	/**
+	 * Check if source folder has an index
+	 * @param sourceFolder full path to source folder
+	 * @return true if index exists
+	 */
+	static boolean exists(String sourceFolder) {
+		return new File(sourceFolder + File.separator + INDEX_FOLDER + File.separator + CHANS_FILE).exists();
+	}
+
+	//---------------------------------------------------------------------------------
+	// writer methods
+
+	/**
+	 * Open (or create) index for writing.  An existing source without an index is not indexed,
+	 * as a partial index would hide its older data from CTreader.
+	 * @param sourceFolder full path to source folder
+	 * @return CTindex, or null if source cannot be indexed
+	 */
+	static CTindex forWriter(String sourceFolder) {
+		CTindex ctindex = new CTindex(sourceFolder);
+		if(!exists(sourceFolder)) {
+			File[] files = new File(sourceFolder).listFiles();
+			if(files != null) {
+				for(File f:files) {
+					if(!f.getName().startsWith("_") && !f.isHidden()) {
+						CTinfo.warnPrint("existing source without index, index mode disabled: "+sourceFolder);
+						return null;
+					}
+				}
+			}
+		}
+		try {
+			ctindex.loadChans();
+		} catch(IOException e) {
+			CTinfo.warnPrint("cannot read index, index mode disabled: "+e);
+			return null;
+		}
+		return ctindex;
+	}
+
+	/**
+	 * Queue index record for entry written to current block.  Records are written at commit (flush).
+	 * @param chan channel name
+	 * @param time point time (sec)
+	 * @param point point folder name (as written)
+	 * @param offset offset of entry in zip file (0 if not zip)
+	 * @param length length of entry
+	 */
+	synchronized void add(String chan, double time, long point, int offset, int length) {
+		pending.add(record(chan, time, point, offset, length));
+	}
+
+	// pending record, for add() or commit(list,...)
+	static Object[] record(String chan, double time, long point, int offset, int length) {
+		return new Object[] {chan, time, point, offset, length};
+	}
+
+	/**
+	 * Take queued records (e.g. to commit later from a background flush).
+	 * @return records queued by add() since last commit
+	 */
+	synchronized ArrayList<Object[]> takePending() {
+		ArrayList<Object[]> p = pending;
+		pending = new ArrayList<Object[]>();
+		return p;
+	}
+
+	/**
+	 * Write queued records for just-flushed block.
+	 * @param source source time folder
+	 * @param segment segment folder (ignored unless SEGMENT flag)
+	 * @param block block folder (ignored if PACKED flag)
+	 * @param flags record flags
+	 */
+	synchronized void commit(long source, long segment, long block, int flags) throws IOException {
+		commit(takePending(), source, segment, block, flags);
+	}
+
+	/**
+	 * Write given records for just-flushed block.
+	 * @param pending records, see record()
+	 */
+	synchronized void commit(ArrayList<Object[]> pending, long source, long segment, long block, int flags) throws IOException {
+		if(pending.size() == 0) return;
+
+		HashMap<Integer,ByteBuffer> chanRecords = new HashMap<Integer,ByteBuffer>();
+		HashMap<Integer,Integer> chanCounts = new HashMap<Integer,Integer>();
+		int[] ids = new int[pending.size()];
+		for(int i=0; i<pending.size(); i++) {
+			ids[i] = chanId((String)pending.get(i)[0]);
+			Integer count = chanCounts.get(ids[i]);
+			chanCounts.put(ids[i], count==null ? 1 : count+1);
+		}
+		for(Map.Entry<Integer,Integer> e:chanCounts.entrySet())
+			chanRecords.put(e.getKey(), ByteBuffer.allocate(e.getValue() * RECSIZE).order(ByteOrder.LITTLE_ENDIAN));
+
+		for(int i=0; i<pending.size(); i++) {
+			Object[] p = pending.get(i);
+			ByteBuffer bb = chanRecords.get(ids[i]);
+			bb.putDouble((Double)p[1]).putLong(source).putLong(segment).putLong(block).putLong((Long)p[2]);
+			bb.putInt((Integer)p[3]).putInt((Integer)p[4]).putInt(ids[i]).putInt(flags);
+		}
+
+		// one write per channel per flush, so readers never see a partial block
+		for(Map.Entry<Integer,ByteBuffer> e:chanRecords.entrySet()) {
+			FileOutputStream fos = chanOutput.get(e.getKey());
+			if(fos == null) {
+				fos = new FileOutputStream(chanFile(e.getKey()), true);		// append
+				chanOutput.put(e.getKey(), fos);
+			}
+			fos.write(e.getValue().array());
+		}
+		CTinfo.debugPrint(indexProfile, "commit, source: "+sourceFolder+", block: "+block+", nchan: "+chanRecords.size());
+	}
+
+	/**
+	 * Drop records older than oldTime.  Files are rewritten only once stale records outnumber live ones.
+	 * @param oldTime trim time (sec)
+	 */
+	synchronized void trim(double oldTime) {
+		for(int id=0; id<chanNames.size(); id++) {
+			File cfile = chanFile(id);
+			try {
+				int nrec = (int)(cfile.length() / RECSIZE);
+				if(nrec < 2) continue;
+				RandomAccessFile raf = new RandomAccessFile(cfile, "r");		// quick check middle record before reading all
+				byte[] mid = new byte[8];
+				try {
+					raf.seek((long)(nrec/2) * RECSIZE);
+					raf.readFully(mid);
+				} finally {
+					raf.close();
+				}
+				if(ByteBuffer.wrap(mid).order(ByteOrder.LITTLE_ENDIAN).getDouble() >= oldTime) continue;
+
+				byte[] recs = readFile(cfile);
+				nrec = recs.length / RECSIZE;
+				ByteBuffer bb = ByteBuffer.wrap(recs).order(ByteOrder.LITTLE_ENDIAN);
+				int ikeep = search(bb, nrec, Math.nextAfter(oldTime, Double.NEGATIVE_INFINITY)) + 1;	// first record at or after oldTime
+				if(ikeep < 1) continue;
+
+				FileOutputStream fos = chanOutput.remove(id);
+				if(fos != null) fos.close();
+				File tfile = new File(cfile.getPath()+".tmp");
+				fos = new FileOutputStream(tfile);
+				fos.write(recs, ikeep*RECSIZE, (nrec-ikeep)*RECSIZE);
+				fos.close();
+				if(!tfile.renameTo(cfile)) {		// rename over in-use file can fail (Windows)
+					cfile.delete();
+					if(!tfile.renameTo(cfile)) throw new IOException("cannot rename: "+tfile);
+				}
+				CTinfo.debugPrint(indexProfile, "trim index: "+cfile+", dropped: "+ikeep+", kept: "+(nrec-ikeep));
+			} catch(IOException e) {
+				CTinfo.warnPrint("index trim failed: "+e);
+			}
+		}
+	}
+
+	/**
+	 * Close open index files
+	 */
+	synchronized void close() {
+		for(FileOutputStream fos:chanOutput.values()) {
+			try { fos.close(); } catch(IOException e) {};
+		}
+		chanOutput.clear();
+	}
+
+	// get channel id, adding new channels to chans file
+	private int chanId(String chan) throws IOException {
+		Integer id = chanIds.get(chan);
+		if(id != null) return id;
+
+		indexFolder.mkdirs();
+		FileOutputStream fos = new FileOutputStream(new File(indexFolder, CHANS_FILE), true);
+		fos.write((chan+"\n").getBytes("UTF-8"));
+		fos.close();
+		id = chanNames.size();
+		chanNames.add(chan);
+		chanIds.put(chan, id);
+		return id;
+	}
+
+	//---------------------------------------------------------------------------------
+	// reader methods
+
+	/**
+	 * Get (cached) index for reading
+	 * @param sourceFolder full path to source folder
+	 * @return CTindex, or null if source has no index
+	 */
+	static CTindex forReader(String sourceFolder) {
+		CTindex ctindex;
+		synchronized(CTcache.IndexCache) {
+			ctindex = CTcache.IndexCache.get(sourceFolder);
+			if(ctindex == null) {
+				if(!exists(sourceFolder)) return null;
+				ctindex = new CTindex(sourceFolder);
+				CTcache.IndexCache.put(sourceFolder, ctindex);
+			}
+		}
+
+		try {
+			ctindex.refreshChans();
+		} catch(IOException e) {
+			CTinfo.warnPrint("cannot read index, use folder walk: "+e);
+			synchronized(CTcache.IndexCache) { CTcache.IndexCache.remove(sourceFolder); }
+			return null;
+		}
+		return ctindex;
+	}
+
+	/**
+	 * Check if channel is in index
+	 * @param chan channel name
+	 * @return true if indexed
+	 */
+	synchronized boolean hasChan(String chan) {
+		return chanIds.containsKey(chan);
+	}
+
+	/**
+	 * Oldest time of channel:  base (start) time of its first live block
+	 * @param chan channel name
+	 * @return time (sec), 0 if none
+	 */
+	double oldTime(String chan) {
+		ChanIndex ci = chanIndex(chan);
+		if(ci == null) return 0.;
+		ByteBuffer bb = ci.buffer;
+		int i = firstLive(bb, ci.nrec);
+		if(i >= ci.nrec) return 0.;
+		return ctFile(bb, i, chan).baseTime();
+	}
+
+	/**
+	 * Newest time of channel:  time of its last record
+	 * @param chan channel name
+	 * @return time (sec), 0 if none
+	 */
+	double newTime(String chan) {
+		ChanIndex ci = chanIndex(chan);
+		if(ci == null || ci.nrec == 0) return 0.;
+		return ci.buffer.getDouble((ci.nrec-1)*RECSIZE);
+	}
+
+	/**
+	 * List of CTFile's bracketing requested time range, in time order.
+	 * Includes one file before the at-or-before start file (for "prev") and one after end (for "next").
+	 * @param chan channel name
+	 * @param tstart start time (sec)
+	 * @param tend end time (sec)
+	 * @return array of files, null if none
+	 */
+	CTFile[] fileList(String chan, double tstart, double tend) {
+		ChanIndex ci = chanIndex(chan);
+		if(ci == null || ci.nrec == 0) return null;
+		ByteBuffer bb = ci.buffer;
+		int nrec = ci.nrec;
+
+		int ifirst = firstLive(bb, nrec);
+		if(ifirst >= nrec) return null;
+		int istart = Math.max(ifirst, search(bb, nrec, tstart) - 1);
+		int iend = Math.min(nrec-1, search(bb, nrec, tend) + 1);
+		if(iend < istart) iend = istart;
+
+		CTFile[] flist = new CTFile[iend-istart+1];
+		for(int i=istart; i<=iend; i++) flist[i-istart] = ctFile(bb, i, chan);
+		CTinfo.debugPrint(indexProfile, "fileList, chan: "+chan+", tstart: "+tstart+", tend: "+tend+", istart: "+istart+", iend: "+iend+", nrec: "+nrec);
+		return flist;
+	}
+
+	// reload channel list if chans file changed
+	private synchronized void refreshChans() throws IOException {
+		long len = new File(indexFolder, CHANS_FILE).length();
+		if(len == chansLength) return;
+		loadChans();
+		chansLength = len;
+	}
+
+	private void loadChans() throws IOException {
+		chanNames.clear();	chanIds.clear();
+		File cfile = new File(indexFolder, CHANS_FILE);
+		if(!cfile.exists()) return;
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(cfile), "UTF-8"));
+		try {
+			String line;
+			while((line = br.readLine()) != null) {
+				chanIds.put(line, chanNames.size());
+				chanNames.add(line);
+			}
+		} finally {
+			br.close();
+		}
+	}
+
+	// mapped record file for one channel
+	private class ChanIndex {
+		File file;
+		long length = -1;
+		long modified = -1;
+		ByteBuffer buffer = null;
+		int nrec = 0;
+	}
+
+	// get channel index, re-mapping if file has changed (appended or trimmed)
+	private synchronized ChanIndex chanIndex(String chan) {
+		Integer id = chanIds.get(chan);
+		if(id == null) return null;
+		ChanIndex ci = chanIndex.get(id);
+		if(ci == null) {
+			ci = new ChanIndex();
+			ci.file = chanFile(id);
+			chanIndex.put(id, ci);
+		}
+
+		long len = ci.file.length();
+		long mod = ci.file.lastModified();
+		if(len != ci.length || mod != ci.modified) {
+			try {
+				RandomAccessFile raf = new RandomAccessFile(ci.file, "r");
+				try {
+					len = raf.length();
+					MappedByteBuffer mbb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, len);
+					ci.buffer = mbb.order(ByteOrder.LITTLE_ENDIAN);
+				} finally {
+					raf.close();				// mapping remains valid after close
+				}
+				ci.length = len;
+				ci.modified = mod;
+				ci.nrec = (int)(len / RECSIZE);	// ignore any partially-written trailing record
+			} catch(IOException e) {
+				CTinfo.warnPrint("cannot map index: "+ci.file+", "+e);
+				return null;
+			}
+		}
+
+		// return snapshot so concurrent re-map doesn't change buffer/nrec pairing
+		ChanIndex snap = new ChanIndex();
+		snap.buffer = ci.buffer;	snap.nrec = ci.nrec;
+		return snap;
+	}
+
+	// binary search for record at or before time.  returns -1 if all records after time.
+	private static int search(ByteBuffer bb, int nrec, double time) {
+		int lo = 0, hi = nrec-1, found = -1;
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if(bb.getDouble(mid*RECSIZE) <= time) { found = mid; lo = mid+1; }
+			else 								   hi = mid-1;
+		}
+		return found;
+	}
+
+	// first record whose file still exists (older files may be trimmed ahead of index trim)
+	private int firstLive(ByteBuffer bb, int nrec) {
+		if(nrec == 0 || exists(bb, 0)) return 0;
+		int lo = 1, hi = nrec;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(exists(bb, mid)) hi = mid;
+			else				lo = mid+1;
+		}
+		return lo;
+	}
+
+	private boolean exists(ByteBuffer bb, int irec) {
+		return new File(blockPath(bb, irec)).exists();
+	}
+
+	// path to block file (zip) or point folder (non-zip) of record
+	private String blockPath(ByteBuffer bb, int irec) {
+		int pos = irec * RECSIZE;
+		int flags = bb.getInt(pos+52);
+		StringBuilder path = new StringBuilder(sourceFolder);
+		path.append(File.separator).append(bb.getLong(pos+8));
+		if((flags & SEGMENT) != 0) path.append(File.separator).append(bb.getLong(pos+16));
+		if((flags & PACKED) == 0)  path.append(File.separator).append(bb.getLong(pos+24));
+		if((flags & ZIP) != 0) {
+			path.append(".zip");
+			if((flags & GZIP) != 0) path.append(".gz");
+		}
+		else path.append(File.separator).append(bb.getLong(pos+32));
+		return path.toString();
+	}
+
+	// construct CTFile for record
+	private CTFile ctFile(ByteBuffer bb, int irec, String chan) {
+		int pos = irec * RECSIZE;
+		String bpath = blockPath(bb, irec);
+		if((bb.getInt(pos+52) & ZIP) != 0) {
+			CTFile zipfile = new CTFile(bpath);			// logical .zip (or gunzip'd) path if .gz
+			return CTFile.zipEntry(zipfile, bb.getLong(pos+32) + "/" + chan);
+		}
+		else return new CTFile(bpath + File.separator + chan);
+	}
+
+	private File chanFile(int id) {
+		return new File(indexFolder, id + INDEX_SUFFIX);
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int)file.length()];
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			int len, nread=0;
+			while (nread < data.length && (len = fis.read(data,nread,data.length-nread)) > 0) nread+=len;
+		} finally {
+			fis.close();
+		}
+		return data;
+	}
+}
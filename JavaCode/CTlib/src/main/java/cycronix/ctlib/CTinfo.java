@@ -226,6 +226,107 @@ public class CTinfo {
   	 */
   	
   	public static double fileTime(String fname) {
+  		int end = fname.endsWith(".zip") ? (fname.length()-4) : fname.length();		// strip (only) trailing ".zip"
+  		if(!isAscii(fname, 0, end)) return fileTimeSplit(fname);			// non-ASCII digits:  parse per String
+  		
+		// new multi-part timestamp logic:  parse path up from file, sum relative times until first absolute fulltime
+  		long timeResolution = pathResolution(fname, 0, end);
+  		if(timeResolution == 0) timeResolution = 1;
+  		return (double)pathSum(fname, 0, end, timeResolution, 0L) / (double)timeResolution;
+  	}
+  	
+  	/**
+  	 * Time base of folder path, for fileTime(base, path, nameStart) of its entries.
+  	 * Sibling entries share the folder prefix, parsed once here.
+  	 * @param folder folder path (as prefix of entry paths)
+  	 * @return {time resolution (0 if none), relative time sum}, null if not parseable as prefix
+  	 */
+  	static long[] timeBase(String folder) {
+  		if(!isAscii(folder, 0, folder.length())) return null;
+  		long timeResolution = pathResolution(folder, 0, folder.length());
+  		long sumtime = (timeResolution == 0) ? 0L : pathSum(folder, 0, folder.length(), timeResolution, 0L);
+  		return new long[] { timeResolution, sumtime };
+  	}
+  	
+  	/**
+  	 * Parse file-time of folder entry given folder time base, same result as fileTime(path)
+  	 * @param base folder time base (see timeBase)
+  	 * @param path full path of entry
+  	 * @param nameStart index of entry name (past folder prefix and separator) in path
+  	 * @return double time in seconds
+  	 */
+  	static double fileTime(long[] base, String path, int nameStart) {
+  		int end = path.endsWith(".zip") ? (path.length()-4) : path.length();
+  		if(end < nameStart || !isAscii(path, nameStart, end)) return fileTime(path);
+  		
+  		long timeResolution = base[0];
+  		if(timeResolution == 0) timeResolution = pathResolution(path, nameStart, end);	// no time in folder prefix
+  		if(timeResolution == 0) timeResolution = 1;
+  		return (double)pathSum(path, nameStart, end, timeResolution, base[1]) / (double)timeResolution;
+  	}
+  	
+  	static boolean isSeparator(char c) {
+  		return c == '/' || c == File.separatorChar;		// use either forward or backward slash (forward is used *inside* zip files)
+  	}
+  	
+	private static final long usecTimeCheck = 1000000000000000L;	// usec	(valid trigger if basetime usec > 32 years (2002), msec <31000 years)
+	private static final long msecTimeCheck = 1000000000000L;		// msec (valid trigger if basetime msec > 32 years (2002), sec <31000 years, usec >12 days)
+	
+  	// path part [from,to) as time, -1 if not all digits (or empty, or overflow)
+  	private static long pathPart(String path, int from, int to) {
+  		if(from >= to) return -1L;
+  		long value = 0L;
+  		for(int i=from; i<to; i++) {
+  			int digit = path.charAt(i) - '0';
+  			if(digit < 0 || digit > 9) return -1L;
+  			if(value > (Long.MAX_VALUE - digit) / 10) return -1L;
+  			value = value * 10 + digit;
+  		}
+  		return value;
+  	}
+  	
+	// parse left-to-right to establish base-time units (s, ms, us) from first time part, 0 if none
+  	private static long pathResolution(String path, int from, int to) {
+  		int pstart = from;
+  		for(int i=from; i<=to; i++) {
+  			if(i < to && !isSeparator(path.charAt(i))) continue;
+  			long basetime = pathPart(path, pstart, i);
+  			if(basetime >= 0) {
+  				if		(basetime > usecTimeCheck) 	return 1000000;		// usec
+  				else if	(basetime > msecTimeCheck) 	return 1000;		// msec 
+  				else								return 1;			// sec
+  			}
+  			pstart = i+1;
+  		}
+  		return 0;
+  	}
+  	
+	// parse right to left, adding up relative times from subfolders, then carry (sum of enclosing folders)
+  	private static long pathSum(String path, int from, int to, long timeResolution, long carry) {
+  		long sumtime = 0L;
+  		int pend = to;
+  		for(int i=to-1; i>=from-1; i--) {
+  			if(i >= from && !isSeparator(path.charAt(i))) continue;
+  			long thistime = pathPart(path, i+1, pend);
+  			pend = i;
+  			if(thistime < 0) continue;
+  			sumtime += thistime;							// presume consistent msec or sec times all levels
+  			
+			// following is for legacy (deprecated) absolute-time subfolders with msec timestamps. 
+			// subfolder absolute usec timestamps not supported (would limit usec duration to <11 days).
+			// It will also trigger on top-folder msec (OK).
+  			if(timeResolution==1000 && thistime >= msecTimeCheck) return sumtime;		// stop when hit absolute msec > ~32 years
+  		}
+  		return sumtime + carry;
+  	}
+  	
+  	private static boolean isAscii(String str, int from, int to) {
+  		for(int i=from; i<to; i++) if(str.charAt(i) > 127) return false;
+  		return true;
+  	}
+  	
+  	// legacy String.split parser, for paths with non-ASCII (e.g. Unicode digit) chars
+  	private static double fileTimeSplit(String fname) {
 
   		if(fname.endsWith(".zip")) fname = fname.substring(0,fname.length()-4);		// strip (only) trailing ".zip"
     	
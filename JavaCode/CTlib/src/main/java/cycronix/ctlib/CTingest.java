@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * CloudTurbine multi-producer ingest queue for CTwriter.
+ * <p>
+ * Producers append (time, channel, value) records into striped, bounded ring buffers
+ * without locking (one CAS per record).  A single consumer (the CTwriter flusher)
+ * drains all stripes and returns the records merged in time order (stable, so
+ * same-time records keep arrival order per stripe).  Numeric values are held as
+ * primitive bits, so numeric records allocate nothing.
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+class CTingest {
+
+	// record value types
+	static final byte BYTES = 0;
+	static final byte F64 = 1;
+	static final byte F32 = 2;
+	static final byte I64 = 3;
+	static final byte I32 = 4;
+	static final byte I16 = 5;
+
+	private final Stripe[] stripes;
+
+	// drained records, time-ordered via order[] (reused, consumer only)
+	double[] time = new double[0];
+	String[] chan = new String[0];
+	long[] value = new long[0];
+	byte[] type = new byte[0];
+	byte[][] bytes = new byte[0][];
+	int[] order = new int[0];
+	private int[] scratch = new int[0];
+
+	//---------------------------------------------------------------------------------
+	// constructor
+
+	CTingest(int nstripe, int capacity) {
+		int n = 1;
+		while(n < nstripe) n <<= 1;
+		int cap = 2;
+		while(cap < capacity) cap <<= 1;
+		stripes = new Stripe[n];
+		for(int i=0; i<n; i++) stripes[i] = new Stripe(cap);
+	}
+
+	//---------------------------------------------------------------------------------
+	// producer side
+
+	static final int FULL = 0;			// offer results
+	static final int OK = 1;
+	static final int HALF_FULL = 2;		// added, stripe now at least half full
+
+	/**
+	 * Append record to this thread's stripe.
+	 * @return FULL (not added; caller should drain and retry), OK, or HALF_FULL
+	 */
+	int offer(String name, double t, byte vtype, long v, byte[] b) {
+		long id = Thread.currentThread().getId();
+		Stripe s = stripes[(int)(id ^ (id >>> 16)) & (stripes.length-1)];
+		if(!s.offer(name, t, vtype, v, b)) return FULL;
+		return (s.size() >= (s.mask+1)/2) ? HALF_FULL : OK;
+	}
+
+	/**
+	 * @return number of queued records (approximate while producers are active)
+	 */
+	int size() {
+		int n = 0;
+		for(Stripe s:stripes) n += s.size();
+		return n;
+	}
+
+	//---------------------------------------------------------------------------------
+	// consumer side (single thread at a time)
+
+	/**
+	 * Drain all stripes into time/chan/value/type/bytes arrays, sorted via order[].
+	 * @return number of records drained
+	 */
+	int drain() {
+		long[] tails = new long[stripes.length];			// snapshot:  drain all records claimed before now
+		int n = 0;
+		for(int i=0; i<stripes.length; i++) {
+			tails[i] = stripes[i].tail.get();
+			n += (int)(tails[i] - stripes[i].head);
+		}
+		if(time.length < n) {
+			int cap = Math.max(n, 2*time.length);
+			time = new double[cap];	chan = new String[cap];	value = new long[cap];
+			type = new byte[cap];	bytes = new byte[cap][];	order = new int[cap];	scratch = new int[cap];
+		}
+		int count = 0;
+		for(int i=0; i<stripes.length; i++) count = stripes[i].drainTo(this, count, tails[i]);
+		for(int i=0; i<count; i++) order[i] = i;
+		sort(0, count);
+		return count;
+	}
+
+	/**
+	 * Release references held in drain arrays
+	 */
+	void clear(int count) {
+		for(int i=0; i<count; i++) { chan[i] = null; bytes[i] = null; }
+	}
+
+	// stable merge sort of order[from,to) by time; skips merge of already-ordered runs
+	private void sort(int from, int to) {
+		for(int width=1; width < (to-from); width *= 2) {
+			for(int lo=from; lo < to-width; lo += 2*width) {
+				int mid = lo+width, hi = Math.min(lo+2*width, to);
+				if(time[order[mid-1]] <= time[order[mid]]) continue;		// in order
+				System.arraycopy(order, lo, scratch, lo, hi-lo);
+				int i=lo, j=mid, k=lo;
+				while(i<mid && j<hi) order[k++] = (time[scratch[j]] < time[scratch[i]]) ? scratch[j++] : scratch[i++];
+				while(i<mid) order[k++] = scratch[i++];
+				while(j<hi)  order[k++] = scratch[j++];
+			}
+		}
+	}
+
+	//---------------------------------------------------------------------------------
+	// bounded multi-producer ring buffer (per-slot sequence numbers)
+
+	private static class Stripe {
+		final int mask;
+		final AtomicLongArray seq;			// slot sequence:  == pos free for producer, == pos+1 ready for consumer
+		final AtomicLong tail = new AtomicLong();
+		volatile long head = 0;				// consumer only
+		final double[] time;
+		final String[] chan;
+		final long[] value;
+		final byte[] type;
+		final byte[][] bytes;
+
+		Stripe(int capacity) {
+			mask = capacity-1;
+			seq = new AtomicLongArray(capacity);
+			for(int i=0; i<capacity; i++) seq.set(i, i);
+			time = new double[capacity];	chan = new String[capacity];	value = new long[capacity];
+			type = new byte[capacity];		bytes = new byte[capacity][];
+		}
+
+		boolean offer(String name, double t, byte vtype, long v, byte[] b) {
+			while(true) {
+				long pos = tail.get();
+				int idx = (int)pos & mask;
+				long dif = seq.get(idx) - pos;
+				if(dif == 0) {
+					if(tail.compareAndSet(pos, pos+1)) {
+						time[idx] = t;	chan[idx] = name;	value[idx] = v;	type[idx] = vtype;	bytes[idx] = b;
+						seq.lazySet(idx, pos+1);		// publish
+						return true;
+					}
+				}
+				else if(dif < 0) return false;			// full
+				// else another producer claimed this slot, retry
+			}
+		}
+
+		int size() {
+			return (int)Math.max(0, tail.get() - head);
+		}
+
+		// move records up to position end to ingest arrays starting at count.  returns new count
+		int drainTo(CTingest in, int count, long end) {
+			long pos = head;
+			while(pos < end) {
+				int idx = (int)pos & mask;
+				while(seq.get(idx) != pos+1) Thread.yield();		// claimed, not yet published (brief)
+				in.time[count] = time[idx];	in.chan[count] = chan[idx];	in.value[count] = value[idx];
+				in.type[count] = type[idx];	in.bytes[count] = bytes[idx];
+				chan[idx] = null;	bytes[idx] = null;
+				seq.lazySet(idx, pos+mask+1);			// free slot for next lap
+				pos++;
+				count++;
+			}
+			head = pos;
+			return count;
+		}
+	}
+}
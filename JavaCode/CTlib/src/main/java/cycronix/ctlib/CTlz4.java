@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * CloudTurbine LZ4 block-format compressor (pure Java, no dependencies).
+ * <p>
+ * Greedy single-probe hash matching, as the reference "fast" LZ4 compressor.
+ * Output is a standard LZ4 block (no frame header); the uncompressed size must be known to decompress.
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+class CTlz4 {
+
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;		// block always ends with >= 5 literals
+	private static final int MF_LIMIT = 12;			// last match starts >= 12 bytes before end
+	private static final int MAX_OFFSET = 65535;
+	private static final int HASH_LOG = 14;
+	private static final int SKIP_TRIGGER = 6;		// search acceleration on incompressible data
+
+	private static final ThreadLocal<int[]> tables = new ThreadLocal<int[]>() {
+		protected int[] initialValue() { return new int[1 << HASH_LOG]; }
+	};
+
+	/**
+	 * @return max compressed size of n bytes
+	 */
+	static int maxCompressedLength(int n) {
+		return n + n/255 + 16;
+	}
+
+	/**
+	 * Compress to new exact-size array
+	 */
+	static byte[] compress(byte[] src) {
+		byte[] dst = new byte[maxCompressedLength(src.length)];
+		int n = compress(src, 0, src.length, dst, 0);
+		return Arrays.copyOf(dst, n);
+	}
+
+	/**
+	 * Compress src[srcOff,srcOff+srcLen) to dst, which must have maxCompressedLength(srcLen) room
+	 * @return compressed length
+	 */
+	static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+		int[] table = tables.get();
+		Arrays.fill(table, -1);
+		int end = srcOff + srcLen;
+		int anchor = srcOff;
+		int dp = dstOff;
+
+		if(srcLen > MF_LIMIT) {
+			int limit = end - MF_LIMIT;
+			int matchEnd = end - LAST_LITERALS;
+			int sp = srcOff;
+			int searches = 1 << SKIP_TRIGGER;
+			while(sp < limit) {
+				int seq = readInt(src, sp);
+				int h = hash(seq);
+				int ref = table[h];
+				table[h] = sp;
+				if(ref < 0 || sp-ref > MAX_OFFSET || readInt(src, ref) != seq) {
+					sp += (searches++ >>> SKIP_TRIGGER);
+					continue;
+				}
+				searches = 1 << SKIP_TRIGGER;
+				while(sp > anchor && ref > srcOff && src[sp-1] == src[ref-1]) { sp--; ref--; }		// extend back
+				int len = MIN_MATCH;
+				while(sp+len < matchEnd && src[sp+len] == src[ref+len]) len++;					// extend forward
+				dp = sequence(src, anchor, sp-anchor, sp-ref, len, dst, dp);
+				sp += len;
+				anchor = sp;
+				if(sp-2 < limit) table[hash(readInt(src, sp-2))] = sp-2;
+			}
+		}
+		return sequence(src, anchor, end-anchor, 0, 0, dst, dp);		// last literals
+	}
+
+	// write one sequence:  literals, then match (none if matchLen=0).  returns new dst position
+	private static int sequence(byte[] src, int lit, int litLen, int offset, int matchLen, byte[] dst, int dp) {
+		int token = dp++;
+		int ml = matchLen - MIN_MATCH;
+		dst[token] = (byte)((Math.min(litLen, 15) << 4) | (matchLen > 0 ? Math.min(ml, 15) : 0));
+		if(litLen >= 15) dp = length(litLen-15, dst, dp);
+		System.arraycopy(src, lit, dst, dp, litLen);
+		dp += litLen;
+		if(matchLen > 0) {
+			dst[dp++] = (byte)offset;
+			dst[dp++] = (byte)(offset >>> 8);
+			if(ml >= 15) dp = length(ml-15, dst, dp);
+		}
+		return dp;
+	}
+
+	private static int length(int n, byte[] dst, int dp) {
+		while(n >= 255) { dst[dp++] = (byte)255; n -= 255; }
+		dst[dp++] = (byte)n;
+		return dp;
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xff) | (b[i+1] & 0xff) << 8 | (b[i+2] & 0xff) << 16 | (b[i+3] & 0xff) << 24;
+	}
+
+	private static int hash(int seq) {
+		return (seq * -1640531535) >>> (32 - HASH_LOG);		// Knuth multiplicative
+	}
+
+	//---------------------------------------------------------------------------------
+	/**
+	 * Decompress src[srcOff,srcOff+srcLen) into exactly dstLen bytes at dst[dstOff]
+	 * @throws IOException on corrupt input
+	 */
+	static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) throws IOException {
+		int sp = srcOff, end = srcOff + srcLen;
+		int dp = dstOff, dend = dstOff + dstLen;
+		try {
+			while(sp < end) {
+				int token = src[sp++] & 0xff;
+				int lit = token >>> 4;
+				if(lit == 15) {
+					int b;
+					do { b = src[sp++] & 0xff; lit += b; } while(b == 255);
+				}
+				if(lit > end-sp || lit > dend-dp) throw new IOException("CTlz4, corrupt literals");
+				System.arraycopy(src, sp, dst, dp, lit);
+				sp += lit;	dp += lit;
+				if(sp >= end) break;							// last literals
+
+				int offset = (src[sp] & 0xff) | (src[sp+1] & 0xff) << 8;
+				sp += 2;
+				int len = token & 15;
+				if(len == 15) {
+					int b;
+					do { b = src[sp++] & 0xff; len += b; } while(b == 255);
+				}
+				len += MIN_MATCH;
+				int ref = dp - offset;
+				if(offset == 0 || ref < dstOff || len > dend-dp) throw new IOException("CTlz4, corrupt match");
+				if(offset >= len) System.arraycopy(dst, ref, dst, dp, len);
+				else for(int i=0; i<len; i++) dst[dp+i] = dst[ref+i];		// overlapping (run) copy
+				dp += len;
+			}
+		} catch(ArrayIndexOutOfBoundsException e) {
+			throw new IOException("CTlz4, truncated input");
+		}
+		if(dp != dend) throw new IOException("CTlz4, size mismatch: "+(dp-dstOff)+"/"+dstLen);
+	}
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+/**
+ * CloudTurbine channel manifest:  the channels in one segment (or source-time folder if no segments).
+ * <p>
+ * CTwriter (with setManifest) keeps the CT-hidden "_CTchans" text file in each segment folder,
+ * rewritten at each flush that adds a channel, one channel name per line.
+ * CTreader.listChans reads manifests instead of walking block folders; folders without one
+ * (e.g. older data) are walked as before.  Trimmed channels stay listed until their segment is deleted.
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+class CTmanifest {
+
+	static final String MANIFEST_FILE = "_CTchans";		// "_" is CT-hidden prefix
+
+	private final File file;
+	private final TreeSet<String> chans = new TreeSet<String>();
+	private boolean changed = false;					// channel added since last commit
+
+	//---------------------------------------------------------------------------------
+	// writer methods
+
+	/**
+	 * Manifest for segment folder, merging any existing manifest (e.g. appended segment)
+	 * @param folder full path to segment folder
+	 */
+	CTmanifest(String folder) {
+		file = new File(folder, MANIFEST_FILE);
+		if(!file.exists()) return;
+		try {
+			chans.addAll(readFile(file));
+		} catch(IOException e) {
+			CTinfo.warnPrint("bad channel manifest, rebuilding: "+file+", "+e);
+			chans.clear();
+		}
+	}
+
+	/**
+	 * Note channel data in current block
+	 * @param chan channel name
+	 */
+	synchronized void add(String chan) {
+		if(chans.add(chan)) changed = true;
+	}
+
+	/**
+	 * End of block:  rewrite manifest if block added a channel
+	 * @return true if manifest rewritten
+	 * @throws IOException on write error
+	 */
+	synchronized boolean commit() throws IOException {
+		if(!changed) return false;
+
+		StringBuilder sb = new StringBuilder();
+		for(String chan:chans) sb.append(chan).append('\n');
+		file.getParentFile().mkdirs();				// block may still be queued (background flush)
+		File tfile = new File(file.getPath()+".tmp");
+		FileOutputStream fos = new FileOutputStream(tfile);
+		try {
+			fos.write(sb.toString().getBytes("UTF-8"));
+		} finally {
+			fos.close();
+		}
+		if(!tfile.renameTo(file)) {		// rename over existing file can fail (Windows)
+			file.delete();
+			if(!tfile.renameTo(file)) throw new IOException("cannot rename: "+tfile);
+		}
+		changed = false;
+		return true;
+	}
+
+	//---------------------------------------------------------------------------------
+	// reader methods
+
+	/**
+	 * Channel names from folder manifest
+	 * @param folder segment (or source-time) folder
+	 * @return channel names, null if folder has no (readable) manifest
+	 */
+	static ArrayList<String> readChans(File folder) {
+		File mfile = new File(folder, MANIFEST_FILE);
+		if(!mfile.exists()) return null;
+		try {
+			return new ArrayList<String>(readFile(mfile));
+		} catch(IOException e) {
+			CTinfo.warnPrint("cannot read channel manifest: "+mfile+", "+e);
+			return null;
+		}
+	}
+
+	// parse manifest lines:  channel name (first tab-separated field of older manifests)
+	private static TreeSet<String> readFile(File mfile) throws IOException {
+		TreeSet<String> names = new TreeSet<String>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(mfile), "UTF-8"));
+		try {
+			String line;
+			while((line = br.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				String name = (tab < 0) ? line : line.substring(0, tab);
+				if(name.length() > 0) names.add(name);
+			}
+		} finally {
+			br.close();
+		}
+		return names;
+	}
+}
@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * CloudTurbine memory-mapped zip file reader (alternative to java.util.zip.ZipFile).
+ * <p>
+ * The zip file is mapped once and its central directory parsed into sorted arrays of
+ * name, method, sizes and offset.  Entry data is read straight from the mapping into one new array:
+ * STORED entries are copied once, DEFLATED entries are inflated with pooled Inflaters and input buffers.
+ * Zip64 and files over 2GB are not supported (open throws IOException; use ZipFile).
+ * An in-memory zip (e.g. inflated .zip.gz block) can be parsed the same way.
+ * <p>
+ * Mapped files stay mapped until garbage collected, which can block file deletion on Windows.
+ * A mapped file that is truncated or rewritten in place makes reads of the mapping fail hard
+ * (SIGBUS / InternalError), so the file length and modify time are checked against the mapping
+ * before each read (see isStale, CTcache.cachedMappedZip); a change in between is not caught.
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+class CTmappedZip {
+
+	private static final int EOCD_SIG = 0x06054b50;		// end of central directory
+	private static final int CEN_SIG = 0x02014b50;		// central directory file header
+	private static final int LOC_SIG = 0x04034b50;		// local file header
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int POOL_SIZE = 8;						// max pooled inflaters/buffers
+	private static final ArrayList<Inflater> inflaterPool = new ArrayList<Inflater>();
+	private static final ArrayList<byte[]> bufferPool = new ArrayList<byte[]>();
+
+	private final String path;
+	private final ByteBuffer map;			// mapped file or in-memory zip
+	private final File file;				// mapped file, null if in-memory
+	private final long fileLength, fileModified;		// mapped file, at map time
+	private final String[] names;			// sorted entry names
+	private final int[] method;
+	private final int[] csize;				// compressed size
+	private final int[] usize;				// uncompressed size
+	private final int[] locOffset;			// local header offset
+	private final int[] dataOffset;			// data offset, resolved from local header on first use (-1)
+	private final byte[][] extra;			// central directory extra field, null if none
+
+	//---------------------------------------------------------------------------------
+	// constructors:  map file (or wrap in-memory zip) and parse central directory
+
+	CTmappedZip(String path) throws IOException {
+		this(path, new File(path));
+	}
+
+	private CTmappedZip(String path, File file) throws IOException {
+		this(path, file, file.lastModified(), mapFile(path));		// modify time before map:  a rewrite during map shows as stale
+	}
+
+	CTmappedZip(String path, ByteBuffer zip) throws IOException {
+		this(path, null, 0, zip);
+	}
+
+	private CTmappedZip(String path, File file, long modified, ByteBuffer zip) throws IOException {
+		this.path = path;
+		this.file = file;
+		fileModified = modified;
+		fileLength = zip.capacity();
+		map = zip.slice();
+		map.order(ByteOrder.LITTLE_ENDIAN);
+
+		int eocd = -1;
+		for(int i=map.limit()-22; i>=0 && i>=map.limit()-22-65535; i--) {		// EOCD is followed by <= 64K comment
+			if(map.getInt(i) == EOCD_SIG) { eocd = i; break; }
+		}
+		if(eocd < 0) throw new IOException("CTmappedZip, no central directory: "+path);
+
+		int nentry = map.getShort(eocd+10) & 0xffff;
+		long cenOffset = map.getInt(eocd+16) & 0xffffffffL;
+		if(nentry == 0xffff || cenOffset == 0xffffffffL) throw new IOException("CTmappedZip, Zip64 not supported: "+path);
+
+		Integer[] order = new Integer[nentry];
+		String[] tnames = new String[nentry];
+		int[] tmethod = new int[nentry], tcsize = new int[nentry], tusize = new int[nentry], tloc = new int[nentry];
+		byte[][] textra = new byte[nentry][];
+		int pos = (int)cenOffset;
+		for(int i=0; i<nentry; i++) {
+			if(map.getInt(pos) != CEN_SIG) throw new IOException("CTmappedZip, bad central directory: "+path);
+			tmethod[i] = map.getShort(pos+10) & 0xffff;
+			tcsize[i] = map.getInt(pos+20);
+			tusize[i] = map.getInt(pos+24);
+			int nlen = map.getShort(pos+28) & 0xffff;
+			int elen = map.getShort(pos+30) & 0xffff;
+			int clen = map.getShort(pos+32) & 0xffff;
+			tloc[i] = map.getInt(pos+42);
+			byte[] nbytes = new byte[nlen];
+			ByteBuffer nb = map.duplicate();
+			nb.position(pos+46);
+			nb.get(nbytes);
+			tnames[i] = new String(nbytes, UTF8);
+			if(elen > 0) {
+				textra[i] = new byte[elen];
+				nb.get(textra[i]);
+			}
+			order[i] = i;
+			pos += 46 + nlen + elen + clen;
+		}
+
+		final String[] fnames = tnames;
+		Arrays.sort(order, new java.util.Comparator<Integer>() {
+			public int compare(Integer a, Integer b) { return fnames[a].compareTo(fnames[b]); }
+		});
+		names = new String[nentry];
+		method = new int[nentry];	csize = new int[nentry];	usize = new int[nentry];	locOffset = new int[nentry];
+		dataOffset = new int[nentry];	extra = new byte[nentry][];
+		for(int i=0; i<nentry; i++) {
+			int j = order[i];
+			names[i] = tnames[j];	method[i] = tmethod[j];	csize[i] = tcsize[j];	usize[i] = tusize[j];	locOffset[i] = tloc[j];
+			extra[i] = textra[j];
+			dataOffset[i] = -1;
+		}
+	}
+
+	private static MappedByteBuffer mapFile(String path) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(path, "r");
+		try {
+			FileChannel fc = raf.getChannel();
+			long flen = fc.size();
+			if(flen > Integer.MAX_VALUE) throw new IOException("CTmappedZip, file too big: "+path);
+			return fc.map(FileChannel.MapMode.READ_ONLY, 0, flen);		// mapping stays valid after close
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Mapped file changed (length or modify time) since it was mapped?  Reading a truncated mapping
+	 * crashes, so callers check this before reading and re-map if needed.
+	 * @return true if mapped file changed or is gone, false if unchanged or in-memory zip
+	 */
+	boolean isStale() {
+		if(file == null) return false;
+		return file.length() != fileLength || file.lastModified() != fileModified;
+	}
+
+	//---------------------------------------------------------------------------------
+	// entry access
+
+	/**
+	 * @return sorted entry names
+	 */
+	String[] names() {
+		return names;
+	}
+
+	/**
+	 * @return total bytes of underlying zip
+	 */
+	int capacity() {
+		return map.capacity();
+	}
+
+	/**
+	 * @param name entry name
+	 * @return entry extra field (central directory), null if none
+	 */
+	byte[] getExtra(String name) {
+		int i = Arrays.binarySearch(names, name);
+		return (i < 0) ? null : extra[i];
+	}
+
+	/**
+	 * Entry data as byte array (one copy for STORED entries).
+	 * @param name entry name
+	 * @return data, null if no such entry
+	 * @throws IOException on unsupported compression or corrupt entry
+	 */
+	byte[] getBytes(String name) throws IOException {
+		int i = Arrays.binarySearch(names, name);
+		if(i < 0) return null;
+		if(method[i] == STORED) {
+			byte[] data = new byte[csize[i]];
+			slice(i, csize[i]).get(data);
+			return data;
+		}
+		return inflate(i);
+	}
+
+	// view of entry i raw (compressed) data
+	private ByteBuffer slice(int i, int len) throws IOException {
+		int doff = dataOffset[i];
+		if(doff < 0) {
+			int loc = locOffset[i];
+			if(map.getInt(loc) != LOC_SIG) throw new IOException("CTmappedZip, bad local header: "+path+", entry: "+names[i]);
+			doff = loc + 30 + (map.getShort(loc+26) & 0xffff) + (map.getShort(loc+28) & 0xffff);
+			dataOffset[i] = doff;		// benign race:  same value
+		}
+		ByteBuffer b = map.duplicate();
+		b.limit(doff+len);
+		b.position(doff);
+		return b.slice();
+	}
+
+	// inflate entry i into new exact-size array, using pooled inflater and input buffer
+	private byte[] inflate(int i) throws IOException {
+		if(method[i] != DEFLATED) throw new IOException("CTmappedZip, unsupported compression method: "+method[i]+", entry: "+names[i]);
+		ByteBuffer src = slice(i, csize[i]);
+		byte[] data = new byte[usize[i]];
+		Inflater inf = getInflater();
+		byte[] buf = getBuffer();
+		try {
+			int nout = 0;
+			while(nout < data.length) {
+				if(inf.needsInput()) {
+					int n = Math.min(buf.length, src.remaining());
+					if(n == 0) break;
+					src.get(buf, 0, n);
+					inf.setInput(buf, 0, n);
+				}
+				int n = inf.inflate(data, nout, data.length-nout);
+				if(n == 0 && (inf.finished() || inf.needsDictionary())) break;
+				nout += n;
+			}
+			if(nout != data.length) throw new IOException("CTmappedZip, short entry: "+names[i]+", size: "+nout+"/"+data.length);
+		} catch(DataFormatException e) {
+			throw new IOException("CTmappedZip, corrupt entry: "+names[i]+", "+e.getMessage());
+		} finally {
+			putInflater(inf);
+			putBuffer(buf);
+		}
+		return data;
+	}
+
+	//---------------------------------------------------------------------------------
+	// inflater and input buffer pools
+
+	private static Inflater getInflater() {
+		synchronized(inflaterPool) {
+			if(!inflaterPool.isEmpty()) return inflaterPool.remove(inflaterPool.size()-1);
+		}
+		return new Inflater(true);		// raw deflate (no zlib header) as in zip
+	}
+
+	private static void putInflater(Inflater inf) {
+		inf.reset();
+		synchronized(inflaterPool) {
+			if(inflaterPool.size() < POOL_SIZE) { inflaterPool.add(inf); return; }
+		}
+		inf.end();
+	}
+
+	private static byte[] getBuffer() {
+		synchronized(bufferPool) {
+			if(!bufferPool.isEmpty()) return bufferPool.remove(bufferPool.size()-1);
+		}
+		return new byte[65536];
+	}
+
+	private static void putBuffer(byte[] buf) {
+		synchronized(bufferPool) {
+			if(bufferPool.size() < POOL_SIZE) bufferPool.add(buf);
+		}
+	}
+}
@@ -0,0 +1,394 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * CloudTurbine head and tail markers:  the newest and oldest data file of each channel in a source.
+ * <p>
+ * CTwriter keeps two small text files in the CT-hidden "_CTmarks" folder under the source folder,
+ * "head" (rewritten after each flushed block is on disk) and "tail" (rewritten when the oldest data changes,
+ * e.g. on trim).  One line per channel:  name, first and last point time in the file, block path
+ * (relative to the source folder), and zip entry (empty if not zip), tab separated.
+ * Files are replaced by rename, so readers see a whole old or whole new marker.
+ * <p>
+ * CTreader answers newTime, oldTime and "newest"/"oldest" requests that fall in the end blocks
+ * from one marker read instead of listing time folders.  A missing marker, unknown channel,
+ * or marked file that no longer exists falls back to the folder walk.
+ * The head is trusted only if no time folder on its path was modified after the head was written
+ * (one file-time check per level, no listing), so data appended by a writer without markers (e.g. an older CTlib)
+ * is not hidden by a stale head.  The writer re-dates the head after its own later folder changes (manifest, trim).
+ * With coarse file times (e.g. 1 sec), data appended within the same tick as the head is not detected.
+ * <p>
+ * Markers are opt-in, see CTwriter.setMarkers.
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+class CTmarker {
+
+	static final String MARKER_FOLDER = "_CTmarks";		// "_" is CT-hidden prefix
+	static final String HEAD_FILE = "head";
+	static final String TAIL_FILE = "tail";
+	private static final String COMPLETE = "#complete";		// tail flag:  marked since source start (all channels)
+
+	private final String sourceFolder;		// full path to source folder
+	private final File folder;
+	private final TreeMap<String,Mark> head = new TreeMap<String,Mark>();
+	private final TreeMap<String,Mark> tail = new TreeMap<String,Mark>();
+	private boolean complete = false;		// new channels start their tail at first block
+	private boolean tailChanged = false;
+	private HashMap<String,Mark[]> pending = new HashMap<String,Mark[]>();		// current block:  first, last file per channel
+
+	/**
+	 * One channel's marked file
+	 */
+	static class Mark {
+		final String chan;
+		final double first, last;		// first, last point time in file (sec)
+		final String path;				// block path, relative to source folder ("/" separated)
+		final String entry;				// zip entry (point/chan), "" if not zip
+
+		Mark(String chan, double first, double last, String path, String entry) {
+			this.chan = chan;	this.first = first;		this.last = last;
+			this.path = path;	this.entry = entry;
+		}
+
+		// CTFile of marked file (as CTindex)
+		CTFile file(String sourceFolder) {
+			String bpath = sourceFolder + File.separator + path.replace('/', File.separatorChar);
+			if(entry.length() > 0) return CTFile.zipEntry(new CTFile(bpath), entry);
+			return new CTFile(bpath);
+		}
+
+		boolean exists(String sourceFolder) {
+			return new File(sourceFolder + File.separator + path.replace('/', File.separatorChar)).exists();
+		}
+
+		private String line() {
+			return chan + '\t' + first + '\t' + last + '\t' + path + '\t' + entry + '\n';
+		}
+	}
+
+	//---------------------------------------------------------------------------------
+	// writer methods
+
+	private CTmarker(String sourceFolder) {
+		this.sourceFolder = sourceFolder;
+		folder = new File(sourceFolder, MARKER_FOLDER);
+	}
+
+	/**
+	 * Markers for writing:  loads existing markers.  Call before the first block is written.
+	 * A source with data but no markers gets its tail from the oldest time folder.
+	 * @param sourceFolder full path to source folder
+	 * @return CTmarker
+	 */
+	static CTmarker forWriter(String sourceFolder) {
+		CTmarker marker = new CTmarker(sourceFolder);
+		File tfile = new File(marker.folder, TAIL_FILE);
+		try {
+			if(tfile.exists()) {
+				marker.complete = readFile(tfile, marker.tail);
+				readFile(new File(marker.folder, HEAD_FILE), marker.head);
+				return marker;
+			}
+		} catch(IOException e) {
+			CTinfo.warnPrint("cannot read markers, rebuilding: "+marker.folder+", "+e);
+			marker.tail.clear();	marker.head.clear();
+		}
+
+		marker.complete = !hasData(sourceFolder);
+		if(!marker.complete) marker.oldestFolder();
+		marker.tailChanged = true;
+		return marker;
+	}
+
+	/**
+	 * Note channel file in current block
+	 * @param chan channel name
+	 * @param first first point time in file (sec)
+	 * @param last last point time in file (sec)
+	 * @param path full path to file, or null for zip entry (see commit)
+	 * @param entry zip entry name (point/chan), null if not zip
+	 */
+	synchronized void add(String chan, double first, double last, String path, String entry) {
+		Mark m = new Mark(chan, first, last, path, (entry == null) ? "" : entry);
+		Mark[] fl = pending.get(chan);
+		if(fl == null) pending.put(chan, new Mark[] {m, m});
+		else {
+			if(first < fl[0].first) fl[0] = m;
+			if(last >= fl[1].last) fl[1] = m;
+		}
+	}
+
+	/**
+	 * Take current block's marks (e.g. to commit later from a background flush).
+	 * @return marks noted by add() since last take
+	 */
+	synchronized HashMap<String,Mark[]> takePending() {
+		HashMap<String,Mark[]> p = pending;
+		pending = new HashMap<String,Mark[]>();
+		return p;
+	}
+
+	/**
+	 * Publish block marks, once block is on disk
+	 * @param block marks, see takePending()
+	 * @param zipFile full path to block zip file (.zip or .zip.gz), null if not zip
+	 * @throws IOException on write error
+	 */
+	synchronized void commit(HashMap<String,Mark[]> block, String zipFile) throws IOException {
+		if(block.isEmpty()) return;
+		String zpath = (zipFile == null) ? null : relative(zipFile);
+		for(Map.Entry<String,Mark[]> e:block.entrySet()) {
+			String chan = e.getKey();
+			Mark last = resolve(e.getValue()[1], zpath);
+			Mark prior = head.get(chan);
+			if(prior == null || last.last >= prior.last) head.put(chan, last);
+			if(complete && !tail.containsKey(chan)) {
+				tail.put(chan, resolve(e.getValue()[0], zpath));
+				tailChanged = true;
+			}
+		}
+
+		folder.mkdirs();
+		if(tailChanged) {
+			writeFile(TAIL_FILE, tail, complete);
+			tailChanged = false;
+		}
+		writeFile(HEAD_FILE, head, false);
+	}
+
+	/**
+	 * After trim:  re-mark channels whose tail file was deleted, from the oldest time folder
+	 */
+	synchronized void trim() {
+		boolean dropped = false;
+		for(String chan:new ArrayList<String>(tail.keySet())) {
+			if(!tail.get(chan).exists(sourceFolder)) {
+				tail.remove(chan);
+				dropped = true;
+			}
+		}
+		touch();					// trimmed folders are not newer data
+		if(!dropped) return;
+		oldestFolder();
+		tailChanged = true;
+		try {
+			folder.mkdirs();
+			writeFile(TAIL_FILE, tail, complete);
+			tailChanged = false;
+		} catch(IOException e) {
+			CTinfo.warnPrint("tail marker write failed: "+e);
+		}
+	}
+
+	/**
+	 * Writer changed a folder on the head path after the head was written (e.g. manifest, trim):  re-date head
+	 */
+	synchronized void touch() {
+		File hfile = new File(folder, HEAD_FILE);
+		if(hfile.exists()) hfile.setLastModified(System.currentTimeMillis());
+	}
+
+	// zip entry marks get block path at commit
+	private Mark resolve(Mark m, String zpath) {
+		if(m.path != null) return new Mark(m.chan, m.first, m.last, relative(m.path), m.entry);
+		return new Mark(m.chan, m.first, m.last, zpath, m.entry);
+	}
+
+	// path relative to source folder, "/" separated
+	private String relative(String path) {
+		if(path.startsWith(sourceFolder)) path = path.substring(sourceFolder.length());
+		while(path.startsWith(File.separator)) path = path.substring(1);
+		return path.replace(File.separatorChar, '/');
+	}
+
+	// mark channels of oldest point folder as their tail (if not already marked)
+	private void oldestFolder() {
+		CTFile[] files = oldestFiles(new CTFile(sourceFolder));
+		if(files == null) return;
+		for(CTFile f:files) {
+			if(f.isDirectory()) continue;
+			String chan, path, entry;
+			if(f.fileType == CTFile.FileType.ZFILE) {
+				String zip = f.getMyZipFile();
+				entry = f.getMyPath().substring(zip.lastIndexOf('.')+1);		// zip base path + separator + entry
+				chan = entry.substring(entry.indexOf('/')+1);		// point/chan
+				path = relative(f.getBlockFile());
+			}
+			else {
+				chan = f.getName();
+				File p = f.getParentFile();
+				while(p != null && !isTime(p.getName())) {			// multi-level channel name
+					chan = p.getName() + "/" + chan;
+					p = p.getParentFile();
+				}
+				path = relative(f.getPath());
+				entry = "";
+			}
+			if(!tail.containsKey(chan)) tail.put(chan, new Mark(chan, f.baseTime(), f.fileTime(), path, entry));
+		}
+	}
+
+	// files of first non-empty branch of time folders (and zip blocks), null if none
+	private static CTFile[] oldestFiles(CTFile folder) {
+		CTFile[] list = folder.listFiles();
+		if(list == null || list.length == 0) return null;
+		if(!list[0].isDirectory() || !isTime(list[0].getName().replace(".zip", "").replace(".gz", ""))) return list;
+		for(CTFile f:list) {
+			CTFile[] files = oldestFiles(f);
+			if(files != null) return files;
+		}
+		return null;
+	}
+
+	private static boolean isTime(String name) {
+		if(name.length() == 0) return false;
+		for(int i=0; i<name.length(); i++) if(name.charAt(i) < '0' || name.charAt(i) > '9') return false;
+		return true;
+	}
+
+	// any (non-hidden) data in source
+	private static boolean hasData(String sourceFolder) {
+		File[] files = new File(sourceFolder).listFiles();
+		if(files == null) return false;
+		for(File f:files) if(!f.getName().startsWith("_") && !f.isHidden()) return true;
+		return false;
+	}
+
+	private void writeFile(String name, TreeMap<String,Mark> marks, boolean flag) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		if(flag) sb.append(COMPLETE).append('\n');
+		for(Mark m:marks.values()) sb.append(m.line());
+		File file = new File(folder, name);
+		File tfile = new File(folder, name+".tmp");
+		FileOutputStream fos = new FileOutputStream(tfile);
+		try {
+			fos.write(sb.toString().getBytes("UTF-8"));
+		} finally {
+			fos.close();
+		}
+		if(!tfile.renameTo(file)) {		// rename over existing file can fail (Windows)
+			file.delete();
+			if(!tfile.renameTo(file)) throw new IOException("cannot rename: "+tfile);
+		}
+	}
+
+	//---------------------------------------------------------------------------------
+	// reader methods
+
+	/**
+	 * Newest marked file
+	 * @param sourceFolder full path to source folder
+	 * @param chan channel name, null for newest of any channel
+	 * @return mark, null if not marked (or marked file no longer exists)
+	 */
+	static Mark newest(String sourceFolder, String chan) {
+		return find(sourceFolder, HEAD_FILE, chan, true);
+	}
+
+	/**
+	 * Oldest marked file
+	 * @param sourceFolder full path to source folder
+	 * @param chan channel name, null for oldest of any channel
+	 * @return mark, null if not marked (or marked file no longer exists)
+	 */
+	static Mark oldest(String sourceFolder, String chan) {
+		return find(sourceFolder, TAIL_FILE, chan, false);
+	}
+
+	private static Mark find(String sourceFolder, String name, String chan, boolean newest) {
+		File file = new File(sourceFolder + File.separator + MARKER_FOLDER, name);
+		if(!file.exists()) return null;
+		TreeMap<String,Mark> marks = new TreeMap<String,Mark>();
+		try {
+			readFile(file, marks);
+		} catch(IOException e) {
+			CTinfo.debugPrint("cannot read marker: "+file+", "+e);
+			return null;
+		}
+		Mark mark = null;
+		if(chan != null) mark = marks.get(chan);
+		else {
+			for(Mark m:marks.values()) {
+				if(mark == null || (newest ? (m.last > mark.last) : (m.first < mark.first))) mark = m;
+			}
+		}
+		if(mark == null || !mark.exists(sourceFolder)) return null;
+		if(newest && !newestChain(sourceFolder, mark.path, file.lastModified())) {
+			CTinfo.debugPrint("stale head marker: "+sourceFolder+", chan: "+mark.chan);
+			return null;
+		}
+		return mark;
+	}
+
+	// no time folder of path (or the source folder) changed after head was written (at headTime).
+	// false if newer data may exist, e.g. appended by a writer without markers
+	private static boolean newestChain(String sourceFolder, String path, long headTime) {
+		File dir = new File(sourceFolder);
+		for(String part:path.split("/")) {
+			if(timeName(part) == null) break;		// channel (sub)folder or file
+			if(dir.lastModified() > headTime) return false;
+			dir = new File(dir, part);
+		}
+		return true;
+	}
+
+	// time folder or block name without .zip/.gz, null if not a time
+	private static String timeName(String name) {
+		if(name.endsWith(".gz")) name = name.substring(0, name.length()-3);
+		if(name.endsWith(".zip")) name = name.substring(0, name.length()-4);
+		return isTime(name) ? name : null;
+	}
+
+	// parse marker lines by channel name.  returns true if complete flag set
+	private static boolean readFile(File mfile, TreeMap<String,Mark> marks) throws IOException {
+		if(!mfile.exists()) return false;
+		boolean flag = false;
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(mfile), "UTF-8"));
+		try {
+			String line;
+			while((line = br.readLine()) != null) {
+				if(line.equals(COMPLETE)) { flag = true; continue; }
+				String[] f = line.split("\t", -1);
+				if(f.length < 5) continue;			// skip partial line
+				try {
+					marks.put(f[0], new Mark(f[0], Double.parseDouble(f[1]), Double.parseDouble(f[2]), f[3], f[4]));
+				} catch(NumberFormatException e) {}
+			}
+		} finally {
+			br.close();
+		}
+		return flag;
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * CloudTurbine in-process block notifications:  CTwriter announces each block once it is on disk,
+ * waking CTsubscriptions on the same source without waiting for a file-system event or poll.
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+class CTnotify {
+
+	private static final HashMap<String,ArrayList<CTsubscription>> listeners = new HashMap<String,ArrayList<CTsubscription>>();
+	private static volatile boolean active = false;		// any listeners (skip lookup when none)
+
+	private CTnotify() {}
+
+	// canonical key for source folder path
+	static String key(String sourceFolder) {
+		return new File(sourceFolder).getAbsoluteFile().toPath().normalize().toString();
+	}
+
+	static void register(String sourceFolder, CTsubscription sub) {
+		String key = key(sourceFolder);
+		synchronized(listeners) {
+			ArrayList<CTsubscription> subs = listeners.get(key);
+			if(subs == null) {
+				subs = new ArrayList<CTsubscription>();
+				listeners.put(key, subs);
+			}
+			subs.add(sub);
+			active = true;
+		}
+	}
+
+	static void unregister(String sourceFolder, CTsubscription sub) {
+		String key = key(sourceFolder);
+		synchronized(listeners) {
+			ArrayList<CTsubscription> subs = listeners.get(key);
+			if(subs == null) return;
+			subs.remove(sub);
+			if(subs.isEmpty()) listeners.remove(key);
+			active = !listeners.isEmpty();
+		}
+	}
+
+	/**
+	 * Announce new block in source (called by CTwriter after block is on disk)
+	 * @param sourceFolder full path to source folder
+	 */
+	static void blockWritten(String sourceFolder) {
+		if(!active || sourceFolder == null) return;
+		CTsubscription[] subs;
+		synchronized(listeners) {
+			ArrayList<CTsubscription> list = listeners.get(key(sourceFolder));
+			if(list == null) return;
+			subs = list.toArray(new CTsubscription[list.size()]);
+		}
+		for(CTsubscription sub:subs) sub.signal();
+	}
+}
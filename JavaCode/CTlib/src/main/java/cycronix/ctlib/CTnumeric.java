@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.nio.ByteBuffer;
+
+/**
+ * CloudTurbine numeric text ("N", "n" CSV) scanner:  fields and numbers read directly from block bytes,
+ * without intermediate Strings.
+ * <p>
+ * CSV blocks follow CTdata.timeRangeNumeric conventions:  one optional leading comma is skipped,
+ * and trailing empty fields are dropped (as String.split).
+ * Plain decimal numbers that are exactly representable via one multiply or divide by a power of ten
+ * (the common case, up to 15 significant digits) are converted in place, correctly rounded;
+ * anything else (long mantissas, big exponents, NaN, hex, etc.) falls back to Double.parseDouble
+ * or Float.parseFloat, so results and exceptions are identical to parsing a String.
+ * <p>
+ * Also used by CT applications that parse CSV packets (e.g. CTudp -csplit).
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+public class CTnumeric {
+
+	private static final long MAX_EXACT_DOUBLE = 1L << 53;		// integers exactly representable
+	private static final long MAX_EXACT_FLOAT = 1L << 24;
+	private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };		// exact doubles
+	private static final float[] POW10F = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };	// exact floats
+
+	private CTnumeric() {}
+
+	//---------------------------------------------------------------------------------
+	// CSV fields
+
+	/**
+	 * Start of CSV fields:  skip one leading comma if present
+	 * @param b data buffer (absolute positions)
+	 * @param from start position
+	 * @param to end position (exclusive)
+	 * @return position of first field
+	 */
+	static int csvStart(ByteBuffer b, int from, int to) {
+		return (from < to && b.get(from) == ',') ? (from+1) : from;
+	}
+
+	/**
+	 * Number of CSV fields (as String.split(","):  trailing empty fields dropped, empty data is one empty field)
+	 * @param b data buffer
+	 * @param from position of first field (see csvStart)
+	 * @param to end position (exclusive)
+	 * @return field count
+	 */
+	public static int csvCount(ByteBuffer b, int from, int to) {
+		if(from >= to) return 1;
+		int nfield = 0, count = 0;
+		int fstart = from;
+		for(int i=from; i<=to; i++) {
+			if(i < to && b.get(i) != ',') continue;
+			nfield++;
+			if(i > fstart) count = nfield;		// last non-empty field
+			fstart = i+1;
+		}
+		return count;
+	}
+
+	/**
+	 * End of CSV field
+	 * @param b data buffer
+	 * @param from position of field
+	 * @param to end position (exclusive)
+	 * @return position of field-ending comma, or end position
+	 */
+	public static int csvEnd(ByteBuffer b, int from, int to) {
+		while(from < to && b.get(from) != ',') from++;
+		return from;
+	}
+
+	/**
+	 * Parse CSV numbers (each field trimmed)
+	 * @param b data buffer
+	 * @param from start position (leading comma skipped)
+	 * @param to end position (exclusive)
+	 * @return values, one per field
+	 * @throws NumberFormatException if any field is not a number
+	 */
+	static double[] parseCSV(ByteBuffer b, int from, int to) throws NumberFormatException {
+		from = csvStart(b, from, to);
+		double[] values = new double[csvCount(b, from, to)];
+		for(int j=0; j<values.length; j++) {
+			int fend = csvEnd(b, from, to);
+			values[j] = parseDouble(b, from, fend);
+			from = fend+1;
+		}
+		return values;
+	}
+
+	//---------------------------------------------------------------------------------
+	// numbers
+
+	/**
+	 * Parse number, same result as Double.parseDouble(new String(bytes))
+	 * @param b data buffer
+	 * @param from start position
+	 * @param to end position (exclusive)
+	 * @return value
+	 * @throws NumberFormatException if not a number
+	 */
+	public static double parseDouble(ByteBuffer b, int from, int to) throws NumberFormatException {
+		while(from < to && (b.get(from) & 0xff) <= ' ') from++;			// trim (as parseDouble)
+		while(to > from && (b.get(to-1) & 0xff) <= ' ') to--;
+		long state = scan(b, from, to);
+		if(state != NO_FAST) {
+			long mantissa = state >> 8;
+			int exp10 = (byte)state;
+			boolean neg = b.get(from) == '-';
+			if(mantissa <= MAX_EXACT_DOUBLE && exp10 >= -22 && exp10 <= 22) {		// exact operands, one rounding
+				double value;
+				if(mantissa == 0) 		value = 0.;
+				else if(exp10 >= 0)		value = (double)mantissa * POW10[exp10];
+				else					value = (double)mantissa / POW10[-exp10];
+				return neg ? -value : value;
+			}
+		}
+		return Double.parseDouble(text(b, from, to));
+	}
+
+	/**
+	 * Parse number, same result as Float.parseFloat(new String(bytes))
+	 * @param b data buffer
+	 * @param from start position
+	 * @param to end position (exclusive)
+	 * @return value
+	 * @throws NumberFormatException if not a number
+	 */
+	public static float parseFloat(ByteBuffer b, int from, int to) throws NumberFormatException {
+		while(from < to && (b.get(from) & 0xff) <= ' ') from++;
+		while(to > from && (b.get(to-1) & 0xff) <= ' ') to--;
+		long state = scan(b, from, to);
+		if(state != NO_FAST) {
+			long mantissa = state >> 8;
+			int exp10 = (byte)state;
+			boolean neg = b.get(from) == '-';
+			if(mantissa <= MAX_EXACT_FLOAT && exp10 >= -10 && exp10 <= 10) {
+				float value;
+				if(mantissa == 0) 		value = 0.f;
+				else if(exp10 >= 0)		value = (float)mantissa * POW10F[exp10];
+				else					value = (float)mantissa / POW10F[-exp10];
+				return neg ? -value : value;
+			}
+		}
+		return Float.parseFloat(text(b, from, to));
+	}
+
+	private static final long NO_FAST = Long.MIN_VALUE;
+
+	// scan plain decimal [sign]digits[.digits][(e|E)[sign]digits]:
+	// returns (mantissa << 8 | (exp10 & 0xff)), or NO_FAST if not plain or out of fast range
+	private static long scan(ByteBuffer b, int from, int to) {
+		int i = from;
+		if(i < to && (b.get(i) == '-' || b.get(i) == '+')) i++;
+		long mantissa = 0;
+		int exp10 = 0, ndigit = 0, nsig = 0;
+		boolean dot = false;
+		for(; i<to; i++) {
+			int c = b.get(i);
+			if(c == '.') {
+				if(dot) return NO_FAST;
+				dot = true;
+				continue;
+			}
+			int digit = c - '0';
+			if(digit < 0 || digit > 9) break;
+			ndigit++;
+			if(mantissa == 0 && digit == 0) {			// leading zero
+				if(dot) exp10--;
+				continue;
+			}
+			if(++nsig > 16) return NO_FAST;		// mantissa < 2^54 (fits state)
+			mantissa = mantissa * 10 + digit;
+			if(dot) exp10--;
+		}
+		if(ndigit == 0) return NO_FAST;
+		if(i < to) {
+			int c = b.get(i++);
+			if(c != 'e' && c != 'E') return NO_FAST;		// e.g. "d", "f" suffix, "NaN"
+			boolean eneg = false;
+			if(i < to && (b.get(i) == '-' || b.get(i) == '+')) eneg = b.get(i++) == '-';
+			if(i == to) return NO_FAST;
+			int exp = 0;
+			for(; i<to; i++) {
+				int digit = b.get(i) - '0';
+				if(digit < 0 || digit > 9 || exp > 1000) return NO_FAST;
+				exp = exp * 10 + digit;
+			}
+			exp10 += eneg ? -exp : exp;
+		}
+		if(mantissa == 0) exp10 = 0;
+		if(exp10 < -100 || exp10 > 100) return NO_FAST;
+		return (mantissa << 8) | (exp10 & 0xff);
+	}
+
+	// bytes as String (platform charset, as new String(byte[]))
+	private static String text(ByteBuffer b, int from, int to) {
+		byte[] d = new byte[to-from];
+		for(int i=0; i<d.length; i++) d[i] = b.get(from+i);
+		return new String(d);
+	}
+}
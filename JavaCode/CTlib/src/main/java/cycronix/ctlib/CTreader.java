@@ -32,8 +32,12 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.nio.file.attribute.BasicFileAttributes;
 
 /**
@@ -56,6 +60,8 @@ public class CTreader {
 	private static String rootFolder = null;
 	private CTcrypto ctcrypto=null;		// optional encryption class
 	private static boolean readProfile = false;
+	private int parallelism = 1;							// max threads per getDataMap call
+	private static ForkJoinPool queryPool = null;			// shared by all readers, see parallelFor
 
 //---------------------------------------------------------------------------------	
  // constructor for CTread.get() method
@@ -87,6 +93,20 @@ public class CTreader {
 //		CTinfo.debugPrint("debug: "+debug);
 	}
 	
+	/**
+	 * Set parallel fetch:  getDataMap reads channels, and blocks within channels, on up to
+	 * this many threads (the caller plus a shared, bounded fork-join pool).  
+	 * Results are the same as with serial fetch.
+	 * @param maxThreads max threads per getDataMap call (default: 1, serial)
+	 */
+	public void setParallelism(int maxThreads) {
+		parallelism = Math.max(1, maxThreads);
+	}
+	
+	public int getParallelism() {
+		return parallelism;
+	}
+	
 	boolean timeOnly=false;
 	public void setTimeOnly(boolean tflag) {		// clumsy...  
 		timeOnly = tflag;							// doesn't work for blockdata where time is derived from block-interval/points
@@ -134,6 +154,130 @@ public class CTreader {
 		CTdata tdata = ctmap.get(chan);		// already trimmed in getDataMap
 		return tdata;	
 	}
+	
+	// getData for block (one file per point) channels, times only:  files are listed, not read.  (see CTsubscription.setTimeOnly)
+	CTdata getTimes(String source, String chan, double tget, double tdur, String tmode) throws Exception {
+		String sourceFolder = (source == null) ? rootFolder : rootFolder+File.separator+source;
+		FetchRange range = fetchRange(sourceFolder, chan, tget, tdur, tmode);
+		if(range == null) return null;
+		CTmap ctmap = new CTmap(chan);
+		for(CTFile file:range.files) 
+			if(wantFile(file, ctmap)) ctmap.add(file.getName(), new CTdata(file.fileTime(), null, file));
+		ctmap.trim(range.start, range.duration, range.mode);
+		return ctmap.get(chan);
+	}
+	
+	/**
+	 * Get data reduced to about maxPoints points, using source rollups (see CTwriter.setRollup).
+	 * Returns full data if the source or channel has no rollups, if full data fits in maxPoints,
+	 * or for single-point (duration 0, "prev", "next") requests; otherwise one mean value per
+	 * bucket of the finest rollup level that fits.  Newest points not yet rolled up are omitted.
+	 * @param source	source folder (relative to root folder)
+	 * @param chan		channel name
+	 * @param tget		start time (sec), per tmode
+	 * @param tdur		duration (sec)
+	 * @param tmode		time mode, as getData
+	 * @param maxPoints	target max number of points, 0 for full data
+	 * @return data, in channel type and byte order
+	 * @throws Exception on file or decrypt error
+	 */
+	public CTdata getData(String source, String chan, double tget, double tdur, String tmode, int maxPoints) throws Exception {
+		return getData(source, chan, tget, tdur, tmode, maxPoints, "mean");
+	}
+	
+	/**
+	 * Get data reduced to about maxPoints points, as above, with choice of rollup statistic.
+	 * @param stat		"min", "max", "mean", or "count" per rollup bucket
+	 * @see #getData(String, String, double, double, String, int)
+	 */
+	public CTdata getData(String source, String chan, double tget, double tdur, String tmode, int maxPoints, String stat) throws Exception {
+		String sourceFolder = (source == null) ? rootFolder : rootFolder+File.separator+source;
+		CTrollup rollup = (maxPoints > 0 && tdur > 0.) ? CTrollup.forReader(sourceFolder) : null;
+		if(rollup == null || !rollup.hasChan(chan) || tmode.equals("prev") || tmode.equals("next")) 
+			return getData(source, chan, tget, tdur, tmode);
+
+		FetchRange range = fetchRange(sourceFolder, chan, tget, tdur, tmode);		// relative modes to absolute
+		int level = (range == null) ? 0 : rollup.level(chan, range.start, range.start+range.duration, maxPoints);
+		CTinfo.debugPrint("getData, chan: "+chan+", maxPoints: "+maxPoints+", rollup level: "+level);
+		if(level == 0) return getData(source, chan, tget, tdur, tmode);
+		return rollup.getData(chan, level, range.start, range.start+range.duration, stat);
+	}
+	
+	/**
+	 * Streaming alternative to getData:  a cursor that reads the requested time range
+	 * a few blocks at a time, in time order.  Memory use is bounded by the blocks in hand
+	 * (see {@link CTcursor#setBatchSize(int)}), not by the duration requested.
+	 * Close the cursor to stop early.
+	 * @param source	source folder (relative to root folder)
+	 * @param chan		channel name
+	 * @param tget		start time (sec), per tmode
+	 * @param tdur		duration (sec)
+	 * @param tmode		time mode, as getData
+	 * @return cursor positioned before the first block
+	 * @throws Exception on file or decrypt error
+	 */
+	public CTcursor getCursor(String source, String chan, double tget, double tdur, String tmode) throws Exception {
+		String sourceFolder = (source == null) ? rootFolder : rootFolder+File.separator+source;
+		return new CTcursor(this, chan, fetchRange(sourceFolder, chan, tget, tdur, tmode));
+	}
+		
+	/**
+	 * Windowed aggregates (count, min, max, sum, mean) of a numeric channel, computed as blocks are read
+	 * so that only the per-window results are kept.  Blocks are fetched in parallel batches (see getCursor);
+	 * accumulation into windows is serial, in time order.  Results equal the same windows over getData.
+	 * @param source	source folder (relative to root folder)
+	 * @param chan		channel name
+	 * @param tget		start time (sec), per tmode
+	 * @param tdur		duration (sec)
+	 * @param tmode		time mode, as getData
+	 * @param window	window duration (sec), 0 for one window over whole request
+	 * @param swap		binary data is big-endian (see CTdata.setSwap)
+	 * @return aggregates, empty if no data (or non-numeric channel)
+	 * @throws Exception on file or decrypt error
+	 */
+	public CTaggregate getAggregate(String source, String chan, double tget, double tdur, String tmode, double window, boolean swap) throws Exception {
+		CTaggregate agg = new CTaggregate(window);
+		char ftype = CTinfo.fileType(chan);
+		CTcursor cursor = getCursor(source, chan, tget, tdur, tmode);
+		try {
+			while(cursor.next()) {
+				CTdata tdata = cursor.getData();
+				tdata.setSwap(swap);
+				tdata.aggregate(ftype, agg);
+			}
+		} finally {
+			cursor.close();
+		}
+		return agg;
+	}
+	
+	public CTaggregate getAggregate(String source, String chan, double tget, double tdur, String tmode, double window) throws Exception {
+		return getAggregate(source, chan, tget, tdur, tmode, window, false);
+	}
+		
+	/**
+	 * Follow a source:  receive new data for matching channels as it is written,
+	 * instead of polling with "after" requests.  Close the subscription when done.
+	 * @param source		source folder (relative to root folder)
+	 * @param chanPattern	channel name glob (e.g. "*.f32"), or comma-separated globs, null or "*" for all
+	 * @return running subscription, starting from newest data now
+	 * @see CTsubscription
+	 */
+	public CTsubscription subscribe(String source, String chanPattern) {
+		return subscribe(source, chanPattern, 64, 1000);
+	}
+	
+	/**
+	 * Follow a source, as above
+	 * @param queueSize		max queued updates before fetching waits for the subscriber
+	 * @param pollMsec		poll interval (msec), for file systems without change events
+	 */
+	public CTsubscription subscribe(String source, String chanPattern, int queueSize, long pollMsec) {
+		String sourceFolder = (source == null) ? rootFolder : rootFolder+File.separator+source;
+		CTsubscription sub = new CTsubscription(this, source, sourceFolder, chanPattern, queueSize, pollMsec);
+		sub.start();
+		return sub;
+	}
 		
 //---------------------------------------------------------------------------------	
 // timeLimits:  get oldest, newest time limits in one-pass from cache
@@ -147,6 +291,21 @@ public class CTreader {
 			return tlimits;
 		}
 
+		CTindex ctindex = CTindex.forReader(rootFolder + File.separator + sourceFolder);
+		if(ctindex != null && ctindex.hasChan(chan)) {				// indexed source, no folder walk
+			tlimits[0] = ctindex.oldTime(chan);
+			tlimits[1] = ctindex.newTime(chan);
+			return tlimits;
+		}
+		
+		String sourcePath = rootFolder + File.separator + sourceFolder;
+		CTmarker.Mark oldest = CTmarker.oldest(sourcePath, chan), newest = CTmarker.newest(sourcePath, chan);
+		if(oldest != null && newest != null) {								// head/tail markers, no folder walk
+			tlimits[0] = oldest.file(sourcePath).baseTime();
+			tlimits[1] = newest.file(sourcePath).fileTime();
+			return tlimits;
+		}
+		
 		String thisChanKey = chan2key(sourceFolder + File.separator + chan);			// this is single channel function
 
 		CTFile[] listOfFiles = CTcache.fileListByChan.get(thisChanKey);				// get existing cached limits
@@ -159,30 +318,35 @@ public class CTreader {
 		return tlimits;
 	}
 	
+	// full path of source folder:  prepend rootFolder (if it is defined)
+	private String sourcePath(String sourceFolder) {
+		if(rootFolder == null) 						return sourceFolder;
+		if(sourceFolder.startsWith(File.separator))	return rootFolder + sourceFolder;
+		return rootFolder + File.separator + sourceFolder;
+	}
+	
 //---------------------------------------------------------------------------------	
 // oldTime:  find oldest time for this source (neglects block-duration)
 	
 	// NOTE: sourceFolder is NOT full path (ie, isn't prepended by rootFolder)
 	public double oldTime(String sourceFolder) {
 //		System.err.println("oldTime sourceFolder: "+sourceFolder);
+		CTmarker.Mark mark = CTmarker.oldest(sourcePath(sourceFolder), null);		// tail marker vs folder walk
+		if(mark != null) return mark.file(sourcePath(sourceFolder)).baseTime();
 		return oldTime(sourceFolder, (CTmap)null);
 	}
 	
 	// NOTE: sourceFolder is NOT full path (ie, isn't prepended by rootFolder)
 	public double oldTime(String sourceFolder, String chan) {
+		CTmarker.Mark mark = CTmarker.oldest(sourcePath(sourceFolder), chan);
+		if(mark != null) return mark.file(sourcePath(sourceFolder)).baseTime();
 		return oldTime(sourceFolder, new CTmap(chan));
 	}
 	
 	// NOTE: sourceFolder is NOT full path (ie, isn't prepended by rootFolder)
 	//       in this method we prepend sourceFolder with rootFolder (if it is defined)
 	public double oldTime(String sourceFolder, CTmap ctmap) {
-		String sourceFolder_fullpath = sourceFolder;
-		if (rootFolder != null) {
-			if(sourceFolder.startsWith(File.separator))
-					sourceFolder_fullpath = new String(rootFolder + sourceFolder);
-			else	sourceFolder_fullpath = new String(rootFolder + File.separator + sourceFolder);
-		}
-		CTFile basefolder = new CTFile(sourceFolder_fullpath);
+		CTFile basefolder = new CTFile(sourcePath(sourceFolder));
 		CTFile[] listOfFolders = basefolder.listFiles();
 //		System.err.println("oldTime, sfolder_fullpath: "+sourceFolder_fullpath+", listlen: "+listOfFolders.length);
 		if(listOfFolders == null) return 0.;
@@ -254,24 +418,22 @@ public class CTreader {
 	// NOTE: sourceFolder is NOT full path (ie, isn't prepended by rootFolder)
 	public double newTime(String sourceFolder) {
 //		System.err.println("newTime: "+sourceFolder);
+		CTmarker.Mark mark = CTmarker.newest(sourcePath(sourceFolder), null);		// head marker vs folder walk
+		if(mark != null) return mark.file(sourcePath(sourceFolder)).fileTime();
 		return newTime(sourceFolder, (CTmap)null);
 	}
 	
 	// NOTE: sourceFolder is NOT full path (ie, isn't prepended by rootFolder)
 	public double newTime(String sourceFolder, String chan) {
+		CTmarker.Mark mark = CTmarker.newest(sourcePath(sourceFolder), chan);
+		if(mark != null) return mark.file(sourcePath(sourceFolder)).fileTime();
 		return newTime(sourceFolder, new CTmap(chan));
 	}
 	
 	// NOTE: sourceFolder is NOT full path (ie, isn't prepended by rootFolder)
 	//       in this method we prepend sourceFolder with rootFolder (if it is defined)
 	public double newTime(String sourceFolder, CTmap ctmap) {
-		String sourceFolder_fullpath = sourceFolder;
-		if (rootFolder != null) {
-			if(sourceFolder.startsWith(File.separator))
-				sourceFolder_fullpath = new String(rootFolder + sourceFolder);
-			else	sourceFolder_fullpath = new String(rootFolder + File.separator + sourceFolder);
-		}
-		CTFile basefolder = new CTFile(sourceFolder_fullpath);
+		CTFile basefolder = new CTFile(sourcePath(sourceFolder));
 		CTFile[] listOfFolders = basefolder.listFiles();
 		if(listOfFolders == null) return 0.;
 		return(newTime(listOfFolders, ctmap));
@@ -371,7 +533,20 @@ public class CTreader {
 	// buildChanList:  build list of channels in all folders (private utility of registerChans)
 	
 	private void buildChanList(CTFile sourceFolder, ArrayList<String>ChanList, boolean fastSearch) {
-
+		buildChanList(sourceFolder, ChanList, fastSearch, 0);
+	}
+	
+	// depth 0 is source-time folder, 1 is segment (or block) folder:  check these for channel manifest
+	private void buildChanList(CTFile sourceFolder, ArrayList<String>ChanList, boolean fastSearch, int depth) {
+
+		if(depth <= 1) {
+			ArrayList<String> mchans = CTmanifest.readChans(sourceFolder);
+			if(mchans != null) {
+				for(String chan:mchans) if(ChanList.indexOf(chan) < 0) ChanList.add(chan);
+				return;
+			}
+		}
+		
 		CTFile[] listOfFiles = sourceFolder.listFiles();
 		if(listOfFiles == null) return;
 //		CTinfo.debugPrint("buildChanList, folder: "+sourceFolder+", listOfFiles.length: "+listOfFiles.length);
@@ -392,7 +567,7 @@ public class CTreader {
 			if(thisFile.isDirectory() && thisFile.fileTime()>0) {
 //				System.err.println("Folder: "+i+"/"+last+", file: "+thisFile.getAbsolutePath());
 //				buildChanList(thisFile,ChanList,fastSearch&&!thisFile.isFileFolder());		// recursive, no expedite channel name list themselves
-				buildChanList(thisFile,ChanList,fastSearch);		// recursive, defer isFileFolder check until in folder (is slow)
+				buildChanList(thisFile,ChanList,fastSearch,depth+1);		// recursive, defer isFileFolder check until in folder (is slow)
 			}
 			else {
 				if(thisFile.length() > 0) {
@@ -512,19 +687,74 @@ public class CTreader {
 	// do the file checking and return CTmap channel map of Time-Data
 	
 	public CTmap getDataMap(CTmap ctmap, String source, double getftime, double duration, String rmode) throws Exception {
+		return getDataMap(ctmap, source, getftime, duration, rmode, parallelism);
+	}
+	
+	/**
+	 * Get data for channels in ctmap, with per-call parallelism limit.  See {@link #setParallelism(int)}.
+	 * @param maxThreads max threads used for this call (1 for serial)
+	 */
+	public CTmap getDataMap(CTmap ctmap, String source, final double getftime, final double duration, final String rmode, int maxThreads) throws Exception {
 		// arg source is relative path source, sourceFolder is abs path
-		String sourceFolder;
+		final String sourceFolder;
 		if(source == null) 	sourceFolder = rootFolder;
 		else				sourceFolder = rootFolder+File.separator+source;
 
-		for(String chan : ctmap.keySet()) {
-//			  System.out.println("ctmap: "+chan);
-			  addChanToDataMap(ctmap, sourceFolder, chan, getftime, duration, rmode);
+		if(maxThreads <= 1 || ctmap.hasData()) {
+			for(String chan : ctmap.keySet()) {
+//				  System.out.println("ctmap: "+chan);
+				addChanToDataMap(ctmap, sourceFolder, chan, getftime, duration, rmode, 1);
+			}
+			return ctmap;
+		}
+		
+		// parallel:  fetch each channel to own map, then merge in channel order
+		final String[] chans = ctmap.keySet().toArray(new String[0]);
+		final CTmap[] chanMaps = new CTmap[chans.length];
+		final FetchRange[] windows = new FetchRange[chans.length];
+		int nchan = Math.min(maxThreads, chans.length);
+		final int nblock = Math.max(1, maxThreads / Math.max(1, nchan));		// threads per channel for block reads
+		parallelFor(chans.length, nchan, new Body() {
+			public void run(int i) throws Exception {
+				chanMaps[i] = new CTmap(chans[i]);
+				windows[i] = addChanToDataMap(chanMaps[i], sourceFolder, chans[i], getftime, duration, rmode, nblock);
 			}
+		});
+		for(int i=0; i<chans.length; i++) {			// serial fetch trims all prior channels to each channel's window:  same here
+			if(windows[i] != null) ctmap.trim(windows[i].start, windows[i].duration, windows[i].mode);
+			ctmap.put(chans[i], chanMaps[i].get(chans[i]));
+		}
 		return ctmap;
 	}
 	
-	private CTmap addChanToDataMap(CTmap ctmap, String rootfolder, String chan, double getftime, double duration, String rmode) throws Exception {
+	// candidate files and absolute time window for a channel fetch
+	static class FetchRange {
+		final ArrayList<CTFile> files;
+		final double start, duration;
+		final String mode;
+		FetchRange(ArrayList<CTFile> files, double start, double duration, String mode) {
+			this.files = files;		this.start = start;		this.duration = duration;	this.mode = mode;
+		}
+	}
+	
+	// returns fetch range ctmap was trimmed to, null if none (no files)
+	private FetchRange addChanToDataMap(CTmap ctmap, String rootfolder, String chan, double getftime, double duration, String rmode, int nthread) throws Exception {
+		FetchRange range = fetchRange(rootfolder, chan, getftime, duration, rmode);
+		if(range == null) return null;
+		try {
+			getFiles(range.files, ctmap, nthread);		// individual files
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw e;
+		}
+
+		// prune ctdata to timerange (vs ctreader.getdata, ctplugin.CT2PImap)
+		ctmap.trim(range.start,  range.duration, range.mode);	
+		return range;
+	}
+	
+	// find files for channel fetch, converting relative modes to absolute time.  null if none
+	FetchRange fetchRange(String rootfolder, String chan, double getftime, double duration, String rmode) throws Exception {
 //		long startTime = System.nanoTime();	
 //		String thisChanKey = chan2key(rootfolder + File.separator + ctmap.getName(0));			// this is single channel function
 		String thisChanKey = chan2key(rootfolder + File.separator + chan);			// this is single channel function
@@ -535,46 +765,64 @@ public class CTreader {
 //				clearFileListCache(thisChanKey);							// clean up potentially "stale" data (can happen if insert data with time<end)
 			}
 
-			// get updated list of folders
-			CTFile[] oldList = CTcache.fileListByChan.get(thisChanKey);
-			boolean fileRefresh = false;
-			if(oldList == null || oldList.length==0 || !rmode.equals("absolute") || (getftime+duration) > oldList[oldList.length-1].fileTime()) fileRefresh = true;
-			CTinfo.debugPrint(readProfile,"GET getDataMap!, thisChan: "+thisChanKey+", getftime: "+getftime+", duration: "+duration+", rmode: "+rmode+", fileRefresh: "+fileRefresh+", fileListByChan.length: "+((oldList!=null)?oldList.length:0));
-//			CTFile[] listOfFiles = flatFileList(rootfolder, ctmap, thisChanKey, fileRefresh);
-			CTFile[] listOfFiles = flatFileList(rootfolder, new CTmap(chan), thisChanKey, fileRefresh);
+			// indexed source:  binary search time-index vs walk folders (fall back to walk for un-indexed chans)
+			CTindex ctindex = CTindex.forReader(rootfolder);
+			if(ctindex != null && !ctindex.hasChan(chan)) ctindex = null;
+			CTFile[] listOfFiles = null;
+
+			if(ctindex == null && (rmode.equals("newest") || rmode.equals("oldest"))) {		// in end block:  head/tail marker file
+				FetchRange range = markerRange(rootfolder, chan, getftime, duration, rmode);
+				if(range != null) return range;
+			}
+
+			if(ctindex == null) {
+				// get updated list of folders
+				CTFile[] oldList = CTcache.fileListByChan.get(thisChanKey);
+				boolean fileRefresh = false;
+				if(oldList == null || oldList.length==0 || !rmode.equals("absolute") || (getftime+duration) > oldList[oldList.length-1].fileTime()) fileRefresh = true;
+				CTinfo.debugPrint(readProfile,"GET getDataMap!, thisChan: "+thisChanKey+", getftime: "+getftime+", duration: "+duration+", rmode: "+rmode+", fileRefresh: "+fileRefresh+", fileListByChan.length: "+((oldList!=null)?oldList.length:0));
+//				CTFile[] listOfFiles = flatFileList(rootfolder, ctmap, thisChanKey, fileRefresh);
+				listOfFiles = flatFileList(rootfolder, new CTmap(chan), thisChanKey, fileRefresh);
 
-			if(listOfFiles == null || listOfFiles.length < 1) return ctmap;
+				if(listOfFiles == null || listOfFiles.length < 1) return null;
+			}
 					
 			if(rmode.equals("registration")) {				// handle registration
 				System.err.println("unexpected registration request!");
-				return ctmap;
+				return null;
 			}
 			else if(rmode.equals("oldest")) {				// convert relative to absolute time
-				getftime = oldTime(listOfFiles, null) + getftime;
+				getftime = ((ctindex!=null) ? ctindex.oldTime(chan) : oldTime(listOfFiles, null)) + getftime;
 				CTinfo.debugPrint("getDataMap, oldTime: "+getftime);
 				rmode = "absolute";
 			}
 			else if(rmode.equals("newest")) {
-				getftime = newTime(listOfFiles, null) - duration - getftime;			// listOfFolders filtered, don't waste effort re-filtering ctmap
+				getftime = ((ctindex!=null) ? ctindex.newTime(chan) : newTime(listOfFiles, null)) - duration - getftime;			// listOfFolders filtered, don't waste effort re-filtering ctmap
 				CTinfo.debugPrint("newest getftime: "+getftime);
 				rmode = "absolute";
 			}
 			else if(rmode.equals("after")) {
-				double newtime = newTime(listOfFiles, null);
+				double newtime = (ctindex!=null) ? ctindex.newTime(chan) : newTime(listOfFiles, null);
 				double tdur = newtime - getftime;
 				if(tdur > duration) getftime = newtime - duration;		// galump if nec to get most recent duration
 				getftime += 0.000001;									// microsecond after (no overlap)
 				CTinfo.debugPrint("after duration: "+duration);
 				rmode = "absolute";
 			}
+			
+			if(ctindex != null) {							// just the files bracketing requested time range
+				listOfFiles = ctindex.fileList(chan, getftime, getftime+duration);
+				if(listOfFiles == null || listOfFiles.length < 1) return null;
+			}
 
 			int ifound = fileSearch(listOfFiles, getftime);				// found is at or before getftime
 			if(rmode.equals("prev")) ifound = ifound - 1;
 			if(ifound < 0) ifound = 0;									// firewall
 			
 //			System.err.println("FOUND chan: "+thisChan+", ftime: "+getftime+", index: "+found+", size: "+listOfFiles.length+", searchTime-foundTime: "+(getftime-listOfFiles[found].fileTime()));
+			ArrayList<CTFile> candidates = new ArrayList<CTFile>();
 			if(duration==0 && rmode.equals("absolute")) {
-				getFile(listOfFiles[ifound], ctmap);
+				candidates.add(listOfFiles[ifound]);
 			}
 			else {
 //				int istart = found>0?found-1:found;			// ??
@@ -589,50 +837,141 @@ public class CTreader {
 						if(priorftime > endtime) break;							// done	
 					}
 //					CTinfo.debugPrint("CTreader checking folder["+i+"]: "+folder.getMyPath()+", start: "+getftime+", end: "+endtime);
-					getFile(folder, ctmap);		// individual file
+					candidates.add(folder);
 				}
 			}
+			return new FetchRange(candidates, getftime, duration, rmode);
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw e;
 		}
-
-		// prune ctdata to timerange (vs ctreader.getdata, ctplugin.CT2PImap)
-		ctmap.trim(getftime,  duration, rmode);	
-		return ctmap;				// last folder
 	}
 
+	// fetch range within newest or oldest file of channel per head/tail marker, null if not marked (or not within)
+	private FetchRange markerRange(String sourceFolder, String chan, double getftime, double duration, String rmode) {
+		boolean newest = rmode.equals("newest");
+		CTmarker.Mark mark = newest ? CTmarker.newest(sourceFolder, chan) : CTmarker.oldest(sourceFolder, chan);
+		if(mark == null) return null;
+		CTFile file = mark.file(sourceFolder);
+		double start;
+		if(newest) {
+			double end = file.fileTime();
+			start = end - duration - getftime;
+			if(duration == 0) { if(getftime != 0) return null; }				// newest point
+			else if(start <= mark.first || getftime != 0) return null;		// range in newest block (after prior block)
+		}
+		else {
+			start = file.baseTime() + getftime;
+			if(duration != 0 && (start + duration) >= file.fileTime()) return null;	// range in oldest block (before next block)
+			if(duration == 0 && getftime != 0) return null;
+		}
+		CTinfo.debugPrint(readProfile, "markerRange, chan: "+chan+", rmode: "+rmode+", file: "+file.getMyPath());
+		ArrayList<CTFile> candidates = new ArrayList<CTFile>();
+		candidates.add(file);
+		return new FetchRange(candidates, start, duration, "absolute");
+	}
+	
 	//--------------------------------------------------------------------------------------------------------
 	// get data from CTFile
 	private long getFile(CTFile file, CTmap cm) throws Exception {
-		long hasdata = 0;
-
-		if(file.isFile()) {
-			String fileName =  file.getName();
-//			System.err.println("getFile, checkName: "+fileName+", check: "+cm.checkName(fileName));
-			if(!cm.checkName(fileName)) return 0;		// not a match 
-			byte[] data = null;
-			boolean getdata = !timeOnly || !fileName.toLowerCase().endsWith(".jpg");		// timeOnly only works for images at this point
-			if(getdata) data = file.read();
-
-			if(ctcrypto!=null &&  (data != null && data.length>0)) { 
-				try { data = ctcrypto.decrypt(data); } catch(Exception ee) {
-					System.err.println("WARNING:  could not decrypt: "+fileName);
-					throw ee;
-				}
+		if(!wantFile(file, cm)) return 0;
+		return addFile(file, cm, readFile(file));
+	}
+	
+	// get data from list of CTFiles, reading on up to nthread threads.  added to cm in list order
+	void getFiles(final List<CTFile> files, CTmap cm, int nthread) throws Exception {
+		if(nthread <= 1 || files.size() < 2) {
+			for(CTFile file:files) getFile(file, cm);
+			return;
+		}
+		final byte[][] data = new byte[files.size()][];
+		final boolean[] want = new boolean[files.size()];
+		for(int i=0; i<want.length; i++) want[i] = wantFile(files.get(i), cm);
+		parallelFor(files.size(), nthread, new Body() {
+			public void run(int i) throws Exception {
+				if(want[i]) data[i] = readFile(files.get(i));
 			}
-
-			if(timeOnly || (data != null && data.length>0)) { 
-				if(file.isTFILE()) fileName = file.getName();
-				cm.add(fileName, new CTdata(file.fileTime(), data, file));			// squirrel away CTfile ref for timerange info??
-				if(data != null) hasdata+=data.length;
-				long dlen = data!=null?data.length:0;
-//				CTinfo.debugPrint("Put file: "+file.getPath()+", size: "+dlen+", from zipFile: "+file.getMyZipFile()+", ftime: "+file.fileTime());
+		});
+		for(int i=0; i<want.length; i++) {
+			if(want[i]) addFile(files.get(i), cm, data[i]);
+			data[i] = null;
+		}
+	}
+	
+	// file is data file for a channel in cm
+	private boolean wantFile(CTFile file, CTmap cm) {
+//		System.err.println("getFile, checkName: "+fileName+", check: "+cm.checkName(fileName));
+		return file.isFile() && cm.checkName(file.getName());
+	}
+	
+	// read (and decrypt) file data.  thread-safe
+	private byte[] readFile(CTFile file) throws Exception {
+		String fileName =  file.getName();
+		byte[] data = null;
+		boolean getdata = !timeOnly || !fileName.toLowerCase().endsWith(".jpg");		// timeOnly only works for images at this point
+		if(getdata) data = file.read();
+
+		if(ctcrypto!=null &&  (data != null && data.length>0)) { 
+			try { data = ctcrypto.decrypt(data); } catch(Exception ee) {
+				System.err.println("WARNING:  could not decrypt: "+fileName);
+				throw ee;
 			}
-		} 
+			if(file.codecInfo() == CTcodec.ENCRYPTED_FRAME) data = CTcodec.decodeFrame(data);		// codec frame encoded before encryption
+		}
+		return data;
+	}
+	
+	private long addFile(CTFile file, CTmap cm, byte[] data) {
+		long hasdata = 0;
+		if(timeOnly || (data != null && data.length>0)) { 
+			cm.add(file.getName(), new CTdata(file.fileTime(), data, file));			// squirrel away CTfile ref for timerange info??
+			if(data != null) hasdata+=data.length;
+//			CTinfo.debugPrint("Put file: "+file.getPath()+", size: "+dlen+", from zipFile: "+file.getMyZipFile()+", ftime: "+file.fileTime());
+		}
 		return hasdata;
 	}
 	
+	//--------------------------------------------------------------------------------------------------------
+	// parallelFor:  run body for 0..n-1 on up to nthread threads:  the caller, plus tasks in the shared pool.
+	// items are claimed dynamically; first exception is thrown after all threads finish
+	
+	private interface Body {
+		void run(int i) throws Exception;
+	}
+	
+	private static void parallelFor(final int n, int nthread, final Body body) throws Exception {
+		int nt = Math.min(nthread, n);
+		if(nt <= 1) {
+			for(int i=0; i<n; i++) body.run(i);
+			return;
+		}
+		final AtomicInteger next = new AtomicInteger();
+		final Exception[] error = new Exception[1];
+		Runnable worker = new Runnable() {
+			public void run() {
+				int i;
+				while((i = next.getAndIncrement()) < n) {
+					try { body.run(i); } 
+					catch(Exception e) {
+						synchronized(error) { if(error[0] == null) error[0] = e; }
+						next.set(n);					// stop claiming
+					}
+				}
+			}
+		};
+		ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[nt-1];
+		ForkJoinPool pool = queryPool();
+		for(int t=0; t<tasks.length; t++) tasks[t] = pool.submit(worker);
+		worker.run();
+		for(ForkJoinTask<?> t:tasks) t.join();
+		if(error[0] != null) throw error[0];
+	}
+	
+	private static synchronized ForkJoinPool queryPool() {
+		if(queryPool == null) queryPool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+		return queryPool;
+	}
+	
 	//--------------------------------------------------------------------------------------------------------
 	// flattenFolders:  make list of time/folder as one-deep list
 	
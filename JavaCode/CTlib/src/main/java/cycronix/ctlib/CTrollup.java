@@ -0,0 +1,609 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CloudTurbine utility class to keep multi-resolution rollups (min/max/mean/count) per source.
+ * <p>
+ * Rollups live in the CT-hidden "_CTrollup" folder under the source folder:  an "info" file
+ * (factor, levels, byte order), a "chans" file listing channel names (line number is channel id),
+ * plus one append-only file of fixed-size records per channel per level.  Level k buckets summarize
+ * factor^k consecutive points.  CTwriter feeds packed numeric blocks at each flush;
+ * CTreader memory-maps the record files and picks the level that fits a requested point count.
+ * <p>
+ * Buckets are written when complete (partial buckets at close), so the newest points of a live
+ * source may not yet be rolled up.
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+//---------------------------------------------------------------------------------
+// CTrollup:  per-source, per-channel decimated summaries of numeric data
+
+class CTrollup {
+
+	static final String ROLLUP_FOLDER = "_CTrollup";		// "_" is CT-hidden prefix
+	static final String CHANS_FILE = "chans";
+	static final String INFO_FILE = "info";
+	static final String LEVEL_SUFFIX = ".r";				// record file:  <chanId>.r<level>
+
+	// record:  time(double, bucket start) | min(double) | max(double) | mean(double) | count(long)
+	static final int RECSIZE = 40;
+
+	private String sourceFolder;			// full path to source folder
+	private File rollupFolder;
+	private int factor = 10;
+	private int levels = 0;
+	private boolean bigEndian = false;		// byte order of source (and returned) binary data
+	private ArrayList<String> chanNames = new ArrayList<String>();		// by channel id
+	private HashMap<String,Integer> chanIds = new HashMap<String,Integer>();
+	private long chansLength = -1;			// reader:  reload chans file when length changes
+
+	private HashMap<String,ChanRollup> chanRollup = new HashMap<String,ChanRollup>();			// writer buckets
+	private HashMap<String,FileOutputStream> chanOutput = new HashMap<String,FileOutputStream>();	// writer open files
+	private HashMap<String,LevelRecords> levelRecords = new HashMap<String,LevelRecords>();		// reader mapped files
+
+	private static boolean rollupProfile = false;
+
+	//---------------------------------------------------------------------------------
+	// constructor
+
+	private CTrollup(String sourceFolder) {
+		this.sourceFolder = sourceFolder;
+		rollupFolder = new File(sourceFolder + File.separator + ROLLUP_FOLDER);
+	}
+
+	/**
+	 * Check if source folder has rollups
+	 * @param sourceFolder full path to source folder
+	 * @return true if rollups exist
+	 */
+	static boolean exists(String sourceFolder) {
+		return new File(sourceFolder + File.separator + ROLLUP_FOLDER + File.separator + INFO_FILE).exists();
+	}
+
+	/**
+	 * @param chan channel name
+	 * @return true if channel type can be rolled up:  packed binary (.f32, .f64, .i16, .i32) or CSV numeric
+	 */
+	static boolean rollupType(String chan) {
+		switch(CTinfo.fileType(chan)) {
+		case 'f':	case 'F':	case 'j':	case 'i':	case 'N':	case 'n':
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	int factor() 	{ return factor; }
+	int levels() 	{ return levels; }
+
+	//---------------------------------------------------------------------------------
+	// writer methods
+
+	/**
+	 * Open (or create) rollups for writing.  An existing source without rollups is not rolled up,
+	 * as rollups of only newer data would hide older data from CTreader.
+	 * Existing rollups keep their factor and levels.
+	 * @param sourceFolder full path to source folder
+	 * @param factor points (or lower level buckets) per bucket
+	 * @param levels number of levels
+	 * @param bigEndian byte order of binary data
+	 * @return CTrollup, or null if source cannot be rolled up
+	 */
+	static CTrollup forWriter(String sourceFolder, int factor, int levels, boolean bigEndian) {
+		CTrollup rollup = new CTrollup(sourceFolder);
+		try {
+			if(exists(sourceFolder)) {
+				rollup.loadInfo();
+				if(rollup.factor != factor || rollup.levels != levels)
+					CTinfo.warnPrint("existing rollup, using factor: "+rollup.factor+", levels: "+rollup.levels);
+			}
+			else {
+				File[] files = new File(sourceFolder).listFiles();
+				if(files != null) {
+					for(File f:files) {
+						if(!f.getName().startsWith("_") && !f.isHidden()) {
+							CTinfo.warnPrint("existing source without rollup, rollup mode disabled: "+sourceFolder);
+							return null;
+						}
+					}
+				}
+				rollup.factor = factor;		rollup.levels = levels;		rollup.bigEndian = bigEndian;
+				rollup.rollupFolder.mkdirs();
+				FileOutputStream fos = new FileOutputStream(new File(rollup.rollupFolder, INFO_FILE));
+				fos.write(("factor "+factor+"\nlevels "+levels+"\nbigEndian "+bigEndian+"\n").getBytes("UTF-8"));
+				fos.close();
+			}
+			rollup.loadChans();
+		} catch(Exception e) {
+			CTinfo.warnPrint("cannot open rollup, rollup mode disabled: "+e);
+			return null;
+		}
+		return rollup;
+	}
+
+	/**
+	 * Add packed block of channel data.  Point times are spread over the block as CTreader does:
+	 * first point at block start, last point at block end.
+	 * @param chan channel name
+	 * @param bdata packed binary words or CSV numbers
+	 * @param bigEndian byte order of binary words
+	 * @param tstart block start time (sec)
+	 * @param tend time of last point in block (sec)
+	 */
+	synchronized void add(String chan, byte[] bdata, boolean bigEndian, double tstart, double tend) {
+		if(!rollupType(chan)) return;
+		ChanRollup cr = chanRollup.get(chan);
+		if(cr == null) {
+			cr = new ChanRollup(levels);
+			chanRollup.put(chan, cr);
+		}
+		if(cr.skip) return;
+
+		double[] values;
+		char ftype = CTinfo.fileType(chan);
+		if(ftype == 'N' || ftype == 'n') {
+			try {
+				values = CTnumeric.parseCSV(ByteBuffer.wrap(bdata), 0, bdata.length);		// as CTdata.timeRangeNumeric
+			} catch(NumberFormatException e) {
+				CTinfo.warnPrint("non-numeric data, no rollup for channel: "+chan);
+				cr.skip = true;
+				return;
+			}
+		}
+		else {
+			ByteBuffer bb = ByteBuffer.wrap(bdata).order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+			int wsize = CTinfo.wordSize(ftype);
+			values = new double[bdata.length / wsize];
+			for(int i=0; i<values.length; i++) {
+				switch(ftype) {
+				case 'f':	values[i] = bb.getFloat(i*wsize);	break;
+				case 'F':	values[i] = bb.getDouble(i*wsize);	break;
+				case 'j':	values[i] = bb.getShort(i*wsize);	break;
+				default:	values[i] = bb.getInt(i*wsize);		break;
+				}
+			}
+		}
+
+		int n = values.length;
+		double dt = (n > 1) ? (tend - tstart) / (n-1) : 0.;
+		for(int i=0; i<n; i++) {
+			if(Double.isNaN(values[i])) continue;
+			double t = (n > 1) ? (tstart + i*dt) : tend;
+			feed(cr, 0, t, values[i], values[i], values[i], 1);
+		}
+	}
+
+	// add point or lower-level bucket to level k bucket, emitting when full
+	private void feed(ChanRollup cr, int k, double time, double min, double max, double sum, long count) {
+		Bucket b = cr.bucket[k];
+		if(b.n == 0) {
+			b.time = time;	b.min = min;	b.max = max;	b.sum = sum;	b.count = count;
+		}
+		else {
+			if(min < b.min) b.min = min;
+			if(max > b.max) b.max = max;
+			b.sum += sum;
+			b.count += count;
+		}
+		if(++b.n >= factor) emit(cr, k);
+	}
+
+	// write level k bucket to pending records, feed next level
+	private void emit(ChanRollup cr, int k) {
+		Bucket b = cr.bucket[k];
+		if(b.n == 0) return;
+		ByteBuffer rec = ByteBuffer.allocate(RECSIZE).order(ByteOrder.LITTLE_ENDIAN);
+		rec.putDouble(b.time).putDouble(b.min).putDouble(b.max).putDouble(b.sum / b.count).putLong(b.count);
+		cr.pending[k].write(rec.array(), 0, RECSIZE);
+		b.n = 0;
+		if(k+1 < levels) feed(cr, k+1, b.time, b.min, b.max, b.sum, b.count);
+	}
+
+	/**
+	 * Write completed buckets.  One write per channel per level, so readers never see a partial record.
+	 */
+	synchronized void commit() throws IOException {
+		for(Map.Entry<String,ChanRollup> e:chanRollup.entrySet()) {
+			ChanRollup cr = e.getValue();
+			for(int k=0; k<levels; k++) {
+				if(cr.pending[k].size() == 0) continue;
+				int id = chanId(e.getKey());
+				String key = id + LEVEL_SUFFIX + (k+1);
+				FileOutputStream fos = chanOutput.get(key);
+				if(fos == null) {
+					fos = new FileOutputStream(new File(rollupFolder, key), true);		// append
+					chanOutput.put(key, fos);
+				}
+				cr.pending[k].writeTo(fos);
+				cr.pending[k].reset();
+			}
+		}
+		CTinfo.debugPrint(rollupProfile, "rollup commit, source: "+sourceFolder+", nchan: "+chanRollup.size());
+	}
+
+	/**
+	 * Drop records older than oldTime.  Files are rewritten only once stale records outnumber live ones.
+	 * @param oldTime trim time (sec)
+	 */
+	synchronized void trim(double oldTime) {
+		for(int id=0; id<chanNames.size(); id++) {
+			for(int k=1; k<=levels; k++) {
+				String key = id + LEVEL_SUFFIX + k;
+				File lfile = new File(rollupFolder, key);
+				try {
+					int nrec = (int)(lfile.length() / RECSIZE);
+					if(nrec < 2) continue;
+					RandomAccessFile raf = new RandomAccessFile(lfile, "r");		// quick check middle record before reading all
+					byte[] mid = new byte[8];
+					try {
+						raf.seek((long)(nrec/2) * RECSIZE);
+						raf.readFully(mid);
+					} finally {
+						raf.close();
+					}
+					if(ByteBuffer.wrap(mid).order(ByteOrder.LITTLE_ENDIAN).getDouble() >= oldTime) continue;
+
+					byte[] recs = readFile(lfile);
+					nrec = recs.length / RECSIZE;
+					ByteBuffer bb = ByteBuffer.wrap(recs).order(ByteOrder.LITTLE_ENDIAN);
+					int ikeep = search(bb, nrec, Math.nextAfter(oldTime, Double.NEGATIVE_INFINITY)) + 1;	// first record at or after oldTime
+					if(ikeep < 1) continue;
+
+					FileOutputStream fos = chanOutput.remove(key);
+					if(fos != null) fos.close();
+					File tfile = new File(lfile.getPath()+".tmp");
+					fos = new FileOutputStream(tfile);
+					fos.write(recs, ikeep*RECSIZE, (nrec-ikeep)*RECSIZE);
+					fos.close();
+					if(!tfile.renameTo(lfile)) {		// rename over in-use file can fail (Windows)
+						lfile.delete();
+						if(!tfile.renameTo(lfile)) throw new IOException("cannot rename: "+tfile);
+					}
+					CTinfo.debugPrint(rollupProfile, "trim rollup: "+lfile+", dropped: "+ikeep+", kept: "+(nrec-ikeep));
+				} catch(IOException e) {
+					CTinfo.warnPrint("rollup trim failed: "+e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write partial buckets and close open rollup files
+	 */
+	synchronized void close() {
+		for(ChanRollup cr:chanRollup.values()) {
+			for(int k=0; k<levels; k++) emit(cr, k);		// lower levels first, so each partial feeds the next
+		}
+		try { commit(); } catch(IOException e) {
+			CTinfo.warnPrint("rollup commit failed: "+e);
+		}
+		chanRollup.clear();
+		for(FileOutputStream fos:chanOutput.values()) {
+			try { fos.close(); } catch(IOException e) {};
+		}
+		chanOutput.clear();
+	}
+
+	// get channel id, adding new channels to chans file
+	private int chanId(String chan) throws IOException {
+		Integer id = chanIds.get(chan);
+		if(id != null) return id;
+
+		rollupFolder.mkdirs();
+		FileOutputStream fos = new FileOutputStream(new File(rollupFolder, CHANS_FILE), true);
+		fos.write((chan+"\n").getBytes("UTF-8"));
+		fos.close();
+		id = chanNames.size();
+		chanNames.add(chan);
+		chanIds.put(chan, id);
+		return id;
+	}
+
+	// writer state per channel
+	private static class ChanRollup {
+		final Bucket[] bucket;
+		final ByteArrayOutputStream[] pending;		// completed records per level, written at commit
+		boolean skip = false;						// non-numeric CSV data
+
+		ChanRollup(int levels) {
+			bucket = new Bucket[levels];
+			pending = new ByteArrayOutputStream[levels];
+			for(int k=0; k<levels; k++) {
+				bucket[k] = new Bucket();
+				pending[k] = new ByteArrayOutputStream();
+			}
+		}
+	}
+
+	private static class Bucket {
+		double time, min, max, sum;
+		long count;
+		int n = 0;				// points (or lower level buckets) so far
+	}
+
+	//---------------------------------------------------------------------------------
+	// reader methods
+
+	/**
+	 * Get (cached) rollups for reading
+	 * @param sourceFolder full path to source folder
+	 * @return CTrollup, or null if source has no rollups
+	 */
+	static CTrollup forReader(String sourceFolder) {
+		CTrollup rollup;
+		synchronized(CTcache.RollupCache) {
+			rollup = CTcache.RollupCache.get(sourceFolder);
+			if(rollup == null) {
+				if(!exists(sourceFolder)) return null;
+				rollup = new CTrollup(sourceFolder);
+				try {
+					rollup.loadInfo();
+				} catch(IOException e) {
+					CTinfo.warnPrint("cannot read rollup info: "+e);
+					return null;
+				}
+				CTcache.RollupCache.put(sourceFolder, rollup);
+			}
+		}
+
+		try {
+			rollup.refreshChans();
+		} catch(IOException e) {
+			CTinfo.warnPrint("cannot read rollup, use full data: "+e);
+			synchronized(CTcache.RollupCache) { CTcache.RollupCache.remove(sourceFolder); }
+			return null;
+		}
+		return rollup;
+	}
+
+	/**
+	 * Check if channel has rollups
+	 * @param chan channel name
+	 * @return true if rolled up
+	 */
+	synchronized boolean hasChan(String chan) {
+		return chanIds.containsKey(chan);
+	}
+
+	/**
+	 * Pick coarsest-needed level:  the finest with at most maxPoints buckets in time range.
+	 * Full data (level 0) is estimated as factor points per level 1 bucket.
+	 * @param chan channel name
+	 * @param tstart start time (sec)
+	 * @param tend end time (sec)
+	 * @param maxPoints target max number of points
+	 * @return level, 0 for full data (or no rollups in range), else 1 to levels
+	 */
+	int level(String chan, double tstart, double tend, int maxPoints) {
+		for(int k=1; k<=levels; k++) {
+			LevelRecords lr = levelRecords(chan, k);
+			if(lr == null || lr.nrec == 0) return k-1;						// no coarser data yet
+			int count = count(lr, tstart, tend);
+			if(k == 1 && (count == 0 || (long)count*factor <= maxPoints)) return 0;
+			if(count <= maxPoints) return k;
+		}
+		return levels;
+	}
+
+	/**
+	 * Get rollup records in time range
+	 * @param chan channel name
+	 * @param level 1 to levels
+	 * @param tstart start time (sec), inclusive
+	 * @param tend end time (sec), inclusive
+	 * @return {time, min, max, mean, count} arrays, null if none
+	 */
+	double[][] get(String chan, int level, double tstart, double tend) {
+		LevelRecords lr = levelRecords(chan, level);
+		if(lr == null) return null;
+		ByteBuffer bb = lr.buffer;
+		int istart = search(bb, lr.nrec, Math.nextAfter(tstart, Double.NEGATIVE_INFINITY)) + 1;
+		int iend = search(bb, lr.nrec, tend);
+		int n = Math.max(0, iend-istart+1);
+		double[][] recs = new double[5][n];
+		for(int i=0; i<n; i++) {
+			int pos = (istart+i) * RECSIZE;
+			recs[0][i] = bb.getDouble(pos);		recs[1][i] = bb.getDouble(pos+8);	recs[2][i] = bb.getDouble(pos+16);
+			recs[3][i] = bb.getDouble(pos+24);	recs[4][i] = bb.getLong(pos+32);
+		}
+		CTinfo.debugPrint(rollupProfile, "rollup get, chan: "+chan+", level: "+level+", tstart: "+tstart+", tend: "+tend+", n: "+n);
+		return recs;
+	}
+
+	/**
+	 * Get rollup statistic as CTdata, one point per bucket, encoded as the channel's own type
+	 * (integer types rounded, CSV numeric as text) and byte order.
+	 * @param stat "min", "max", "mean", or "count"
+	 * @return CTdata, null if none
+	 * @throws IOException on unknown stat
+	 */
+	CTdata getData(String chan, int level, double tstart, double tend, String stat) throws IOException {
+		int istat;
+		if		(stat.equals("min"))	istat = 1;
+		else if	(stat.equals("max"))	istat = 2;
+		else if	(stat.equals("mean"))	istat = 3;
+		else if	(stat.equals("count"))	istat = 4;
+		else throw new IOException("unknown rollup statistic: "+stat);
+
+		double[][] recs = get(chan, level, tstart, tend);
+		if(recs == null) return null;
+		char ftype = CTinfo.fileType(chan);
+		ByteOrder order = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+		CTdata ctd = new CTdata();
+		for(int i=0; i<recs[0].length; i++) {
+			double v = recs[istat][i];
+			byte[] bdata;
+			switch(ftype) {
+			case 'F':	bdata = ByteBuffer.allocate(8).order(order).putDouble(v).array();						break;
+			case 'f':	bdata = ByteBuffer.allocate(4).order(order).putFloat((float)v).array();					break;
+			case 'i':	bdata = ByteBuffer.allocate(4).order(order).putInt((int)clamp(v, Integer.MIN_VALUE, Integer.MAX_VALUE)).array();	break;
+			case 'j':	bdata = ByteBuffer.allocate(2).order(order).putShort((short)clamp(v, Short.MIN_VALUE, Short.MAX_VALUE)).array();	break;
+			default:	bdata = String.valueOf(v).getBytes();													break;
+			}
+			ctd.add(recs[0][i], bdata);
+		}
+		return ctd;
+	}
+
+	private static long clamp(double v, long min, long max) {
+		return Math.max(min, Math.min(max, Math.round(v)));
+	}
+
+	// number of records in time range
+	private static int count(LevelRecords lr, double tstart, double tend) {
+		int istart = search(lr.buffer, lr.nrec, Math.nextAfter(tstart, Double.NEGATIVE_INFINITY)) + 1;
+		int iend = search(lr.buffer, lr.nrec, tend);
+		return Math.max(0, iend-istart+1);
+	}
+
+	private void loadInfo() throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(new File(rollupFolder, INFO_FILE)), "UTF-8"));
+		try {
+			String line;
+			while((line = br.readLine()) != null) {
+				String[] kv = line.trim().split("\\s+");
+				if(kv.length != 2) continue;
+				if		(kv[0].equals("factor")) 	factor = Integer.parseInt(kv[1]);
+				else if	(kv[0].equals("levels")) 	levels = Integer.parseInt(kv[1]);
+				else if	(kv[0].equals("bigEndian")) bigEndian = Boolean.parseBoolean(kv[1]);
+			}
+		} catch(NumberFormatException e) {
+			throw new IOException("bad rollup info: "+e.getMessage());
+		} finally {
+			br.close();
+		}
+		if(factor < 2 || levels < 1) throw new IOException("bad rollup info, factor: "+factor+", levels: "+levels);
+	}
+
+	// reload channel list if chans file changed
+	private synchronized void refreshChans() throws IOException {
+		long len = new File(rollupFolder, CHANS_FILE).length();
+		if(len == chansLength) return;
+		loadChans();
+		chansLength = len;
+	}
+
+	private void loadChans() throws IOException {
+		chanNames.clear();	chanIds.clear();
+		File cfile = new File(rollupFolder, CHANS_FILE);
+		if(!cfile.exists()) return;
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(cfile), "UTF-8"));
+		try {
+			String line;
+			while((line = br.readLine()) != null) {
+				chanIds.put(line, chanNames.size());
+				chanNames.add(line);
+			}
+		} finally {
+			br.close();
+		}
+	}
+
+	// mapped record file for one channel level
+	private static class LevelRecords {
+		File file;
+		long length = -1;
+		long modified = -1;
+		ByteBuffer buffer = null;
+		int nrec = 0;
+	}
+
+	// get level records, re-mapping if file has changed (appended or trimmed)
+	private synchronized LevelRecords levelRecords(String chan, int level) {
+		Integer id = chanIds.get(chan);
+		if(id == null || level < 1 || level > levels) return null;
+		String key = id + LEVEL_SUFFIX + level;
+		LevelRecords lr = levelRecords.get(key);
+		if(lr == null) {
+			lr = new LevelRecords();
+			lr.file = new File(rollupFolder, key);
+			levelRecords.put(key, lr);
+		}
+		if(!lr.file.exists()) return null;
+
+		long len = lr.file.length();
+		long mod = lr.file.lastModified();
+		if(len != lr.length || mod != lr.modified) {
+			try {
+				RandomAccessFile raf = new RandomAccessFile(lr.file, "r");
+				try {
+					len = raf.length();
+					MappedByteBuffer mbb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, len);
+					lr.buffer = mbb.order(ByteOrder.LITTLE_ENDIAN);
+				} finally {
+					raf.close();				// mapping remains valid after close
+				}
+				lr.length = len;
+				lr.modified = mod;
+				lr.nrec = (int)(len / RECSIZE);	// ignore any partially-written trailing record
+			} catch(IOException e) {
+				CTinfo.warnPrint("cannot map rollup: "+lr.file+", "+e);
+				return null;
+			}
+		}
+
+		// return snapshot so concurrent re-map doesn't change buffer/nrec pairing
+		LevelRecords snap = new LevelRecords();
+		snap.buffer = lr.buffer;	snap.nrec = lr.nrec;
+		return snap;
+	}
+
+	// binary search for record at or before time.  returns -1 if all records after time.
+	private static int search(ByteBuffer bb, int nrec, double time) {
+		int lo = 0, hi = nrec-1, found = -1;
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if(bb.getDouble(mid*RECSIZE) <= time) { found = mid; lo = mid+1; }
+			else 								   hi = mid-1;
+		}
+		return found;
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int)file.length()];
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			int len, nread=0;
+			while (nread < data.length && (len = fis.read(data,nread,data.length-nread)) > 0) nread+=len;
+		} finally {
+			fis.close();
+		}
+		return data;
+	}
+}
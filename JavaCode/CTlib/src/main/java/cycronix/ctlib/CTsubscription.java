@@ -0,0 +1,369 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * CloudTurbine "follow" subscription:  new data for matching channels of a source, delivered as it lands.
+ * <p>
+ * A background thread fetches data newer than the last delivered time for each channel when woken by
+ * a CTwriter in the same process or by a file-system (WatchService) event.  Without a file watch,
+ * the source is polled every pollMsec instead.  With a watch, a safety poll runs only after events
+ * have been quiet for SAFETY_POLL_MSEC, e.g. on network file systems where watch events may never arrive.
+ * <p>
+ * Updates are delivered through a bounded queue.  When the queue is full the fetch thread waits
+ * (backpressure); data stays on disk and is fetched once the subscriber catches up,
+ * so nothing is dropped unless trimmed first.
+ * <p>
+ * Example:
+ * <pre>
+ * CTsubscription sub = ctreader.subscribe(source, "*.f32");
+ * while(running) {
+ *     CTsubscription.Update u = sub.take();
+ *     double[] t = u.getData().getTime();
+ *     ...
+ * }
+ * sub.close();
+ * </pre>
+ * @version 2026/10/18
+ *
+*/
+
+public class CTsubscription implements Closeable {
+
+	private static final int MAX_WATCH_KEYS = 64;		// watched sub-folders (newest kept)
+	private static final long SETTLE_MSEC = 20;			// coalesce bursts of watch events
+	private static final long SAFETY_POLL_MSEC = 30000;	// poll after this long without events (watched)
+
+	private final CTreader ctreader;
+	private final String source;			// source folder (relative to reader root)
+	private final String sourceFolder;		// full path
+	private volatile Pattern chanPattern;	// null for all channels
+	private volatile boolean timeOnly = false;	// block (binary) channels:  times only
+	private volatile boolean patternChanged = false;
+	private final long pollMsec;
+	private final ArrayBlockingQueue<Update> queue;
+	private final Semaphore wake = new Semaphore(0);
+	private final HashMap<String,Double> lastTime = new HashMap<String,Double>();	// per-channel last delivered time
+	private double startTime;				// newest source time at subscribe
+	private String[] chans = new String[0];
+	private long chansListed = 0;			// msec
+
+	private WatchService watcher = null;
+	private volatile boolean watching = false;	// file watch active:  no timed poll
+	private final LinkedList<WatchKey> folderKeys = new LinkedList<WatchKey>();
+	private Thread fetchThread, watchThread;
+	private volatile boolean closed = false;
+	private volatile Exception error = null;
+
+	/**
+	 * One channel's new data
+	 */
+	public static class Update {
+		private final String chan;
+		private final CTdata data;
+
+		Update(String chan, CTdata data) {
+			this.chan = chan;
+			this.data = data;
+		}
+
+		public String getChan() 	{ return chan; }
+		public CTdata getData() 	{ return data; }
+	}
+
+	//---------------------------------------------------------------------------------
+	// constructor (see CTreader.subscribe)
+
+	CTsubscription(CTreader ctreader, String source, String sourceFolder, String pattern, int queueSize, long pollMsec) {
+		this.ctreader = ctreader;
+		this.source = source;
+		this.sourceFolder = sourceFolder;
+		this.chanPattern = globPattern(pattern);
+		this.pollMsec = Math.max(10, pollMsec);
+		queue = new ArrayBlockingQueue<Update>(Math.max(1, queueSize));
+	}
+
+	// convert comma-separated globs ("*", "?") to regex, null for all
+	private static Pattern globPattern(String globs) {
+		if(globs == null || globs.length() == 0) return null;
+		StringBuilder sb = new StringBuilder();
+		for(String glob:globs.split(",")) {
+			if(glob.equals("*")) return null;
+			if(glob.length() == 0) continue;
+			if(sb.length() > 0) sb.append('|');
+			for(char c:glob.toCharArray()) {
+				if(c == '*') 		sb.append(".*");
+				else if(c == '?') 	sb.append('.');
+				else				sb.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return (sb.length() == 0) ? null : Pattern.compile(sb.toString());
+	}
+
+	/**
+	 * Change channels followed.  Channels added by the new pattern start from their newest data now.
+	 * @param pattern comma-separated channel name globs (e.g. "*.f32,a*"), null or "*" for all
+	 */
+	public void setPattern(String pattern) {
+		chanPattern = globPattern(pattern);
+		patternChanged = true;				// re-list on next fetch
+		signal();
+	}
+
+	/**
+	 * Deliver block channels (one file per point, e.g. images) as times only:  the files are not read,
+	 * and update data is empty.  Packed and numeric channels are unaffected.
+	 * @param tflag true/false times only (default: false)
+	 */
+	public void setTimeOnly(boolean tflag) {
+		timeOnly = tflag;
+	}
+
+	// start following:  from newest data now
+	void start() {
+		startTime = ctreader.newTime(source);
+		CTnotify.register(sourceFolder, this);
+
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+			Path root = new File(sourceFolder).toPath();
+			root.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);	// always watched
+			watchNewest(newestFolder(root.toFile()));
+			watchThread = new Thread(new Runnable() {
+				public void run() { watchLoop(); }
+			}, "CTsubscription-watch");
+			watchThread.setDaemon(true);
+			watching = true;
+			watchThread.start();
+		} catch(Exception e) {		// e.g. unsupported file system:  poll only
+			CTinfo.debugPrint("CTsubscription, no file watch (polling): "+e);
+			closeWatcher();
+		}
+
+		fetchThread = new Thread(new Runnable() {
+			public void run() { fetchLoop(); }
+		}, "CTsubscription");
+		fetchThread.setDaemon(true);
+		fetchThread.start();
+	}
+
+	// wake fetch thread (from CTnotify or watch thread)
+	void signal() {
+		wake.release();
+	}
+
+	//---------------------------------------------------------------------------------
+	// subscriber access
+
+	/**
+	 * Wait for next update
+	 * @return update
+	 * @throws InterruptedException if interrupted (or closed while waiting)
+	 * @throws IOException if fetch failed (subscription is closed)
+	 */
+	public Update take() throws InterruptedException, IOException {
+		while(true) {
+			Update u = queue.poll(pollMsec, TimeUnit.MILLISECONDS);
+			if(u != null) return u;
+			checkClosed();
+		}
+	}
+
+	/**
+	 * Wait up to timeout for next update
+	 * @param timeoutMsec max wait (msec)
+	 * @return update, null if none within timeout
+	 * @throws InterruptedException if interrupted
+	 * @throws IOException if fetch failed (subscription is closed)
+	 */
+	public Update poll(long timeoutMsec) throws InterruptedException, IOException {
+		Update u = queue.poll(timeoutMsec, TimeUnit.MILLISECONDS);
+		if(u == null) checkClosed();
+		return u;
+	}
+
+	/**
+	 * @return number of queued updates
+	 */
+	public int pending() {
+		return queue.size();
+	}
+
+	private void checkClosed() throws InterruptedException, IOException {
+		if(error != null) throw new IOException("CTsubscription fetch failed: "+error);
+		if(closed) throw new InterruptedException("CTsubscription closed");
+	}
+
+	/**
+	 * Stop following and release threads.  Queued updates can still be polled.
+	 */
+	public void close() {
+		if(closed) return;
+		closed = true;
+		CTnotify.unregister(sourceFolder, this);
+		closeWatcher();
+		if(fetchThread != null) fetchThread.interrupt();
+	}
+
+	//---------------------------------------------------------------------------------
+	// fetch thread
+
+	private void fetchLoop() {
+		try {
+			while(!closed) {
+				long wait = watching ? Math.max(pollMsec, SAFETY_POLL_MSEC) : pollMsec;
+				if(wake.tryAcquire(wait, TimeUnit.MILLISECONDS)) {
+					Thread.sleep(SETTLE_MSEC);		// let burst of events settle
+					wake.drainPermits();
+				}
+				fetchNew();
+			}
+		} catch(InterruptedException e) {
+			// closed
+		} catch(Exception e) {
+			if(!closed) {
+				CTinfo.warnPrint("CTsubscription error, source: "+source+", "+e);
+				error = e;
+				close();
+			}
+		}
+	}
+
+	// fetch data after last delivered time for each matching channel, queue as updates
+	private void fetchNew() throws Exception {
+		long now = System.currentTimeMillis();
+		boolean newPattern = patternChanged;
+		if(newPattern || now - chansListed >= pollMsec) {		// pick up new channels at most once per poll
+			patternChanged = false;
+			ArrayList<String> clist = ctreader.listChans(source);
+			if(clist != null) {
+				Pattern p = chanPattern;
+				ArrayList<String> match = new ArrayList<String>();
+				for(String c:clist) {
+					if(p != null && !p.matcher(c).matches()) continue;
+					match.add(c);
+					if(newPattern && !lastTime.containsKey(c) && !Arrays.asList(chans).contains(c))
+						lastTime.put(c, ctreader.newTime(source, c));		// existing channel newly followed:  from now
+				}
+				if(newPattern) lastTime.keySet().retainAll(match);		// dropped channels start over if followed again
+				chans = match.toArray(new String[match.size()]);
+			}
+			chansListed = now;
+		}
+
+		for(String chan:chans) {
+			if(closed) return;
+			Double last = lastTime.get(chan);
+			if(last == null) last = startTime;
+			CTdata tdata = (timeOnly && CTinfo.fileType(chan) == 'B') 
+					? ctreader.getTimes(source, chan, last, Double.MAX_VALUE, "after") 
+					: ctreader.getData(source, chan, last, Double.MAX_VALUE, "after");
+			if(tdata == null) continue;
+			int npoint = tdata.size();
+			int istart = 0;
+			while(istart < npoint && tdata.time(istart) <= last) istart++;		// "after" can return the newest old point
+			if(istart == npoint) continue;
+			if(istart > 0) tdata = tdata.slice(istart, npoint);
+			queue.put(new Update(chan, tdata));		// blocks when full (backpressure)
+			lastTime.put(chan, tdata.time(tdata.size()-1));
+		}
+	}
+
+	//---------------------------------------------------------------------------------
+	// watch thread:  wake fetch thread on file-system events, following new sub-folders
+
+	private void watchLoop() {
+		try {
+			while(!closed) {
+				WatchKey key = watcher.take();
+				for(WatchEvent<?> event:key.pollEvents()) {
+					if(event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+					Path dir = (Path)key.watchable();
+					File f = dir.resolve((Path)event.context()).toFile();
+					if(f.isDirectory() && !f.getName().startsWith("_")) watchNewest(f);
+				}
+				key.reset();
+				signal();
+			}
+		} catch(InterruptedException e) {
+			// closed
+		} catch(ClosedWatchServiceException e) {
+			// closed
+		} finally {
+			watching = false;		// fall back to timed poll
+		}
+	}
+
+	// watch folder and its newest sub-folder chain, where new blocks land
+	private void watchNewest(File folder) {
+		try {
+			while(folder != null && !closed) {
+				synchronized(folderKeys) {
+					folderKeys.add(folder.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY));
+					while(folderKeys.size() > MAX_WATCH_KEYS) folderKeys.removeFirst().cancel();
+				}
+				folder = newestFolder(folder);
+			}
+		} catch(Exception e) {
+			CTinfo.debugPrint("CTsubscription, cannot watch: "+folder+", "+e);
+		}
+	}
+
+	// newest (numerically largest) time sub-folder, null if none
+	private static File newestFolder(File folder) {
+		File[] files = folder.listFiles();
+		if(files == null) return null;
+		File newest = null;
+		double ntime = -1.;
+		for(File f:files) {
+			if(!f.isDirectory()) continue;
+			try {
+				double t = Double.parseDouble(f.getName());
+				if(t > ntime) { ntime = t; newest = f; }
+			} catch(NumberFormatException e) {}		// not a time folder
+		}
+		return newest;
+	}
+
+	private void closeWatcher() {
+		if(watcher == null) return;
+		try { watcher.close(); } catch(IOException e) {}
+		synchronized(folderKeys) { folderKeys.clear(); }
+	}
+}
@@ -33,11 +33,21 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -86,8 +96,35 @@ public class CTwriter {
 	private long thisFtime=0;
 	private double trimTime=0.;				// trim delta time (sec relative to last flush)
 	private int compressLevel=1;			// 1=best_speed, 9=best_compression
+	private int zipParallel=1;				// threads compressing each zip block (>1 uses CTzipBlock)
+	private CTcodec zipCodec=null;			// optional block entry codec (see CTcodec)
 	private boolean timeRelative=true;		// if set, writeData to relative-timestamp subfolders
 	private CTcrypto ctcrypto=null;		// optional encryption class
+	private CTindex ctindex=null;			// optional per-source time index
+	private CTrollup rollup=null;			// optional per-source min/max/mean rollups
+	private boolean manifestMode=false;		// keep per-segment channel manifest (see CTmanifest)
+	private CTmanifest manifest=null;		// manifest of current segment
+	private boolean markerMode=false;		// publish head/tail markers (see CTmarker)
+	private CTmarker marker=null;
+	
+	private volatile CTingest ingest=null;	// optional multi-producer ingest queue (see ingestData)
+	private int ingestStripes=2*Runtime.getRuntime().availableProcessors();
+	private int ingestCapacity=65536;		// records per ingest stripe
+	private boolean inDrain=false;			// draining ingest queue (guards flush recursion)
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+	private final AtomicLong ingestDropped = new AtomicLong();
+	
+	private ExecutorService flushExecutor=null;		// optional background flush (see setFlushQueue)
+	private FlushTask flushBlock=null;				// zip entries of current block, queued for flush (background or parallel zip)
+	private Semaphore flushSlots=null;				// bounded flush queue
+	private int flushQueueMax=0;
+	private long flushWaitMax=0;					// max wait (msec) for flush queue slot, 0=forever
+	private final ConcurrentLinkedQueue<FlushTask> flushPending = new ConcurrentLinkedQueue<FlushTask>();
+	private volatile Exception flushError=null;		// background flush failure, reported on next flush()
+	private final AtomicLong flushCount = new AtomicLong();
+	private final AtomicLong flushWaits = new AtomicLong();
+	private final AtomicLong flushNanos = new AtomicLong();
+	private volatile long flushNanosMax=0;
 	
 	// NOTE:  following timeFactor logic needs to be extended to handle sec/msec/usec/nsec
 	// idea:  deprecate all but double-time public methods, track all internal time in doubles, use enum timeRes to write file name digits
@@ -152,6 +189,54 @@ public class CTwriter {
 		ctcrypto = new CTcrypto(password);
 	}
 	
+	/**
+	 * Set index mode:  maintain a persistent time-index (CT-hidden "_CTindex" folder) in the source,
+	 * so CTreader can binary search for files instead of walking the folder tree.
+	 * <p>Call before first putData.  An existing source without an index is not indexed.
+	 * @param iflag index mode true/false (default: false)
+	 */
+	public void setIndexMode(boolean iflag) {
+		if(ctindex != null) ctindex.close();
+		ctindex = iflag ? CTindex.forWriter(destPath) : null;
+	}
+	
+	/**
+	 * Set rollup mode:  maintain multi-resolution min/max/mean/count summaries (CT-hidden "_CTrollup" folder)
+	 * of packed numeric channels (.f32, .f64, .i16, .i32, CSV numeric), so CTreader can fetch long time
+	 * ranges at reduced resolution.  Level k buckets summarize factor^k points.
+	 * <p>Call before first putData, after setByteSwap.  Applies to block (packed) data.
+	 * An existing source without rollups is not rolled up.
+	 * @param factor points (or lower level buckets) per bucket, e.g. 10
+	 * @param levels number of levels, 0 to disable
+	 */
+	public void setRollup(int factor, int levels) {
+		if(rollup != null) rollup.close();
+		rollup = (factor > 1 && levels > 0) ? CTrollup.forWriter(destPath, factor, levels, byteSwap) : null;
+	}
+	
+	/**
+	 * Set manifest mode:  keep a channel manifest (CT-hidden "_CTchans" file) in each segment folder,
+	 * rewritten when a flush adds a channel, so CTreader.listChans need not walk block folders.
+	 * Opt-in:  all writers of a source should use it, since a folder with a manifest is not walked.
+	 * @param mflag manifest mode true/false (default: false)
+	 */
+	public void setManifest(boolean mflag) {
+		manifestMode = mflag;
+		if(!mflag) manifest = null;
+	}
+	
+	/**
+	 * Set marker mode:  publish head and tail markers (CT-hidden "_CTmarks" folder) per channel,
+	 * updated as blocks are flushed, so CTreader newTime, oldTime and "newest" requests need not walk folders.
+	 * <p>Call before first putData.  Readers check the head marker against the newest time folder,
+	 * so data appended by a writer without markers is still found (by folder walk).
+	 * @param mflag marker mode true/false (default: false)
+	 */
+	public void setMarkers(boolean mflag) {
+		markerMode = mflag;
+		if(!mflag) marker = null;
+	}
+	
 	/**
 	 * Set debug mode.  Deprecated, see CTinfo.setDebug()
 	 * @param dflag boolean true/false debug mode
@@ -283,6 +368,37 @@ public class CTwriter {
 		else			 setZipMode(zipflag, clevel, false);
 	}
 	
+	/** 
+	 * set output files to be zipped, compressing entries of each block in parallel
+	 * <p>Entries are buffered and compressed at flush, using up to parallelism threads (shared fork-join pool).
+	 * Worthwhile for blocks with many channels or large (e.g. image) entries.
+	 * @param zipflag zip mode true/false (default: true)
+	 * @param clevel zip compression level (0=none, 1-fastest, 9-max, 10=auto-gzip).  default=1
+	 * @param parallelism max threads compressing a block, 1 to compress each entry at putData (default)
+	 */
+	public void setZipMode(boolean zipflag, int clevel, int parallelism) {
+		setZipMode(zipflag, clevel);
+		zipParallel = Math.max(1, parallelism);
+	}
+	
+	/** 
+	 * set output files to be zipped, encoding entries with a block codec.
+	 * <p>Encoded entries are stored in the zip marked with their codec, and decoded automatically by CTreader.
+	 * Entries the codec does not apply to, or does not shrink, are compressed as usual.
+	 * @param zipflag zip mode true/false (default: true)
+	 * @param codec codec name (see CTcodec):  "lz4" (fast), "high" (high ratio), "xor" (packed numeric); null for none
+	 * @throws IOException if no such codec
+	 */
+	public void setZipMode(boolean zipflag, String codec) throws IOException {
+		CTcodec c = null;
+		if(codec != null) {
+			c = CTcodec.forName(codec);
+			if(c == null) throw new IOException("CTwriter, unknown codec: "+codec);
+		}
+		zipFlag = zipflag;
+		zipCodec = c;
+	}
+	
 	private void setZipMode(boolean zipflag, int clevel, boolean gzipflag) {
 		zipFlag = zipflag;
 		compressLevel = clevel;
@@ -293,6 +409,8 @@ public class CTwriter {
 	//------------------------------------------------------------------------------------------------
 	// segmentTime:  sets new time segment 
 	private void segmentTime(long iSegmentTime) {
+		commitManifest();									// finish prior segment
+		manifest = null;
 		if(initBaseTime) sourceTime = iSegmentTime;		// one-time set overall source time
 		segmentTime = iSegmentTime;
 		baseTimeStr = "";
@@ -386,37 +504,50 @@ public class CTwriter {
 */
 	
 	public synchronized void flush() throws IOException {
+		if(ingest != null && !inDrain) drainIngestLocked();		// queued ingest data first
+		checkFlushError();
 		try {	
 			// if data has been queued in blocks, write it out once per channel before normal flush
 			for(Entry<String, ByteArrayOutputStream>e: blockData.entrySet()) {	// entry keys are by name; full block per channel per flush
 				long thisTime = timeData.get(e.getKey());			// per packed-channel end-time
 				CTinfo.debugPrint("flush block: "+e.getKey()+" at time: "+thisTime);
-				writeData(thisTime, e.getKey(), e.getValue().toByteArray());	// prior data, prior ftime
+				byte[] bdata = e.getValue().toByteArray();
+				if(rollup != null) rollup.add(e.getKey(), bdata, byteSwap, blockTime/(double)timeFactor, thisTime/(double)timeFactor);
+				writeData(thisTime, e.getKey(), bdata, blockTime);	// prior data, prior ftime
 			}
 			blockData.clear(); timeData.clear();
+			if(rollup != null) rollup.commit();
 			
-			if(zos != null) {		// zip mode writes once per flush; non-zip files were written every update
-				zos.close();	zos = null;
-				if(packFlush) 	{
-					destName = destPath + baseTimeStr + ".zip";		// write all data to single zip
-					packFlush = false;								// careful:  can't packFlush same source more than once!
-				}
-				else {
-					if(timeRelative) destName = destPath + baseTimeStr + File.separator + (blockTime-segmentTime)  + ".zip";
-					else			 destName = destPath + baseTimeStr + File.separator + blockTime  + ".zip";
-				}
-				CTinfo.debugPrint("flush to destName: "+destName);
+			boolean packed = packFlush;
+			boolean trim = (trimTime > 0 && blockTime > 0);			// trim old data (trimTime=0 if ftp Mode)
+			double trimAt = blockTime/(double)timeFactor - trimTime;	// relative to putData time, 
+			// use blockTime (less than thisFtime) as trim will only look at old block-times
 
-				if(baos.size() > 0) writeToStream(destName, baos.toByteArray());	
+			if(flushExecutor != null) queueFlush(packed, trim, trimAt);		// write, index, trim in background
+			else if(flushBlock != null) {		// parallel zip:  zip, write, index, trim queued entries now
+				FlushTask task = flushBlock;
+				flushBlock = null;
+				prepareFlush(task, packed, trim, trimAt);
+				task.write();
 			}
-			
-			if(trimTime > 0 && blockTime > 0) {					// trim old data (trimTime=0 if ftp Mode)
-				double trim = blockTime/(double)timeFactor - trimTime;	// relative to putData time, 
-				// use blockTime (less than thisFtime) as trim will only look at old block-times
-				CTinfo.debugPrint("trimming at: "+trim);
-				dotrim(trim);			
+			else {
+				if(zos != null) {		// zip mode writes once per flush; non-zip files were written every update
+					zos.close();	zos = null;
+					blockName();
+					if(baos.size() > 0) writeToStream(destName, baos.toByteArray());	
+				}
+
+				if(ctindex != null) indexBlock(packed);		// index after block is on disk
+				if(marker != null) commitMarkers(marker.takePending(), (zipFlag ? destName : null));
+				CTnotify.blockWritten(destPath);				// wake in-process subscribers
+
+				if(trim) {
+					CTinfo.debugPrint("trimming at: "+trimAt);
+					dotrim(trimAt);			
+				}
 			}
 
+			commitManifest();
 			lastFtime = thisFtime;				// remember last time flushed	
 			blockTime = 0;						// reset to new block folder	
 		} 
@@ -427,6 +558,55 @@ public class CTwriter {
 		} 
 	}
 	
+	// rewrite channel manifest if block added channel data.  best effort:  readers fall back to folder walk
+	private void commitManifest() {
+		if(manifest == null) return;
+		try {
+			if(manifest.commit() && marker != null) marker.touch();		// manifest rename is not newer data
+		} catch(IOException e) {
+			CTinfo.warnPrint("channel manifest write failed: "+e);
+		}
+	}
+	
+	// publish head/tail markers of block on disk.  best effort:  readers fall back to folder walk
+	private void commitMarkers(HashMap<String,CTmarker.Mark[]> marks, String zipName) {
+		try {
+			marker.commit(marks, (zipName != null && gzipFlag) ? (zipName + ".gz") : zipName);
+		} catch(IOException e) {
+			CTinfo.warnPrint("marker write failed: "+e);
+		}
+	}
+	
+	// set destName of zip block being flushed
+	private void blockName() {
+		if(packFlush) 	{
+			destName = destPath + baseTimeStr + ".zip";		// write all data to single zip
+			packFlush = false;								// careful:  can't packFlush same source more than once!
+		}
+		else {
+			if(timeRelative) destName = destPath + baseTimeStr + File.separator + (blockTime-segmentTime)  + ".zip";
+			else			 destName = destPath + baseTimeStr + File.separator + blockTime  + ".zip";
+		}
+		CTinfo.debugPrint("flush to destName: "+destName);
+	}
+	
+	// commit index records for just-flushed block, folder names match those of writeData/flush
+	private void indexBlock(boolean packed) throws IOException {
+		ctindex.commit(sourceTime, indexSegment(), indexBlockTime(), indexFlags(packed));
+	}
+	
+	private int indexFlags(boolean packed) {
+		int flags = 0;
+		if(zipFlag) 			flags |= CTindex.ZIP;
+		if(gzipFlag)			flags |= CTindex.GZIP;
+		if(packed)				flags |= CTindex.PACKED;
+		if(blocksPerSegment>0)	flags |= CTindex.SEGMENT;
+		return flags;
+	}
+	
+	private long indexSegment() 	{ return timeRelative ? (segmentTime-sourceTime) : segmentTime; }
+	private long indexBlockTime() 	{ return timeRelative ? (blockTime-segmentTime) : blockTime; }
+	
 	//------------------------------------------------------------------------------------------------
 	/*
     *
@@ -466,9 +646,9 @@ public class CTwriter {
 			}
 			
 			CTinfo.debugPrint("writeToStream: "+fname+", bytes: "+bdata.length);
-		} catch(Exception e) { 
-			System.err.println("writeToStream failed"); 
-			e.printStackTrace(); 
+		} catch(IOException e) { 
+			System.err.println("writeToStream failed: "+fname); 
+			throw e;				// caller skips index and markers of unwritten block
 		} 
 	}
 	
@@ -565,6 +745,11 @@ public class CTwriter {
 	
 //	private void writeData(long time, String outName, byte[] bdata) throws Exception {		// sync makes remote writes pace slow???
 	private synchronized void writeData(long time, String outName, byte[] bdata) throws Exception {
+		writeData(time, outName, bdata, time);
+	}
+	
+	// firstTime:  time of first point in data (block time for packed data)
+	private synchronized void writeData(long time, String outName, byte[] bdata, long firstTime) throws Exception {
 		
 		CTinfo.debugPrint("writeData: "+outName+" at time: "+time+", zipFlag: "+zipFlag+", blockTime: "+blockTime);
 		
@@ -596,19 +781,28 @@ public class CTwriter {
 				}
 			}
 			
+			if(manifestMode) {
+				if(manifest == null) manifest = new CTmanifest(destPath + baseTimeStr);
+				manifest.add(outName);
+			}
+			if(markerMode && marker == null) marker = CTmarker.forWriter(destPath);		// before first block on disk
+			
 //			if(todoBaseTime) setBaseTime(time);				// ensure baseTime initialized
 			
 			// new mode:  queue time, data arrays.  all time calcs and writes to disk on flush...
 			
-			if(ctcrypto!=null) {
-				try { bdata = ctcrypto.encrypt(bdata);	} catch(Exception ee) {
-					System.err.println("WARNING:  could not encrypt: "+outName);
-					throw ee;
-				}
-			}
+			boolean queueZip = zipFlag && (flushExecutor != null || zipParallel > 1 || zipCodec != null);	// flush encodes, encrypts, zips queued entries
+			if(ctcrypto!=null && !queueZip) bdata = encrypt(ctcrypto, outName, bdata);
 			
 			//  zip mode:  queue up data in ZipOutputStream
-			if(zipFlag) {
+			if(queueZip) {
+				String name = timeRelative ? ((time-blockTime) + "/" + outName) : (time + "/" + outName);
+				if(flushBlock == null) flushBlock = new FlushTask();
+				flushBlock.add(name, time / (timeFactor/1000), outName, time/(double)timeFactor, timeRelative?(time-blockTime):time, bdata.clone());
+				if(marker != null) marker.add(outName, firstTime/(double)timeFactor, time/(double)timeFactor, null, name);
+				CTinfo.debugPrint("QueueZip: "+name);
+			}
+			else if(zipFlag) {
 				if(zos == null) {    			
 					baos = new ByteArrayOutputStream();
 					zos = new ZipOutputStream(baos);
@@ -621,6 +815,7 @@ public class CTwriter {
 				
 				ZipEntry entry = new ZipEntry(name);
 				entry.setTime(time / (timeFactor/1000));     	// internal zipentry time; let it match folder-time
+				int zoffset = baos.size();				// entry offset in zip, for index
 				try {
 					zos.putNextEntry(entry);
 				} catch(IOException e) {
@@ -630,6 +825,8 @@ public class CTwriter {
 	
 				zos.write(bdata); 
 				zos.closeEntry();		// note: zip file not written until flush() called
+				if(ctindex != null) ctindex.add(outName, time/(double)timeFactor, timeRelative?(time-blockTime):time, zoffset, baos.size()-zoffset);
+				if(marker != null) marker.add(outName, firstTime/(double)timeFactor, time/(double)timeFactor, null, name);
 
 				CTinfo.debugPrint("PutZip: "+name);
 			}
@@ -647,6 +844,8 @@ public class CTwriter {
 
 				destName = dpath + File.separator + outName;
 				writeToStream(destName, bdata);
+				if(ctindex != null) ctindex.add(outName, time/(double)timeFactor, timeRelative?(time-blockTime):time, 0, bdata.length);
+				if(marker != null) marker.add(outName, firstTime/(double)timeFactor, time/(double)timeFactor, destName, null);
 				CTinfo.debugPrint("writeData: "+outName+" to: "+destName);
 			}
 		} catch(Exception e) {
@@ -656,6 +855,13 @@ public class CTwriter {
 		}
 	}
 
+	private static byte[] encrypt(CTcrypto crypto, String outName, byte[] bdata) throws Exception {
+		try { return crypto.encrypt(bdata);	} catch(Exception ee) {
+			System.err.println("WARNING:  could not encrypt: "+outName);
+			throw ee;
+		}
+	}
+
 	//------------------------------------------------------------------------------------------------
 	// putData:  put data in various forms to (zip) file
 	// these handle various binary formats in, non-packMode data is written as String format out
@@ -802,6 +1008,415 @@ public class CTwriter {
 		else		 return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
 	}
 	
+	//------------------------------------------------------------------------------------------------
+	// ingestData:  multi-producer alternative to putData.
+	// producers append to lock-free striped ring buffers; records are merged in time order and
+	// written via putData (same semantics) by whichever thread drains:  flush(), or a producer
+	// that finds its stripe half full.  A producer finding its stripe full drains or waits (backpressure).
+	
+	/**
+	 * Set ingest queue size.  Must be called before first ingestData().
+	 * @param stripes number of ring buffers (producer threads are spread across these)
+	 * @param capacity records per ring buffer
+	 */
+	public void setIngestCapacity(int stripes, int capacity) {
+		if(ingest != null) CTinfo.warnPrint("setIngestCapacity ignored, ingest already started");
+		ingestStripes = stripes;
+		ingestCapacity = capacity;
+	}
+	
+	/**
+	 * Queue data with explicit time, without locking the writer.  Caller must not modify bdata afterwards.
+	 * @param outName parameter name
+	 * @param time data time (sec)
+	 * @param bdata data
+	 */
+	public void ingestData(String outName, double time, byte[] bdata) {
+		ingest(outName, time, CTingest.BYTES, 0, bdata);
+	}
+	
+	public void ingestData(String outName, double time, double data) {
+		ingest(outName, time, CTingest.F64, Double.doubleToRawLongBits(data), null);
+	}
+	
+	public void ingestData(String outName, double time, float data) {
+		ingest(outName, time, CTingest.F32, Float.floatToRawIntBits(data), null);
+	}
+	
+	public void ingestData(String outName, double time, long data) {
+		ingest(outName, time, CTingest.I64, data, null);
+	}
+	
+	public void ingestData(String outName, double time, int data) {
+		ingest(outName, time, CTingest.I32, data, null);
+	}
+	
+	public void ingestData(String outName, double time, short data) {
+		ingest(outName, time, CTingest.I16, data, null);
+	}
+	
+	/**
+	 * @return number of ingested records dropped on write (e.g. time older than current block)
+	 */
+	public long getIngestDropped() {
+		return ingestDropped.get();
+	}
+	
+	private void ingest(String outName, double time, byte vtype, long value, byte[] bdata) {
+		CTingest q = ingest;
+		if(q == null) {
+			synchronized(draining) {					// one-time lazy create, not under writer lock
+				if(ingest == null) ingest = new CTingest(ingestStripes, ingestCapacity);
+				q = ingest;
+			}
+		}
+		int status;
+		while((status = q.offer(outName, time, vtype, value, bdata)) == CTingest.FULL) {
+			if(!drainIngest()) Thread.yield();			// full:  drain, or wait for other drainer
+		}
+		if(status == CTingest.HALF_FULL) drainIngest();
+	}
+	
+	// drain ingest queue unless another producer already is.  returns false if busy
+	private boolean drainIngest() {
+		if(!draining.compareAndSet(false, true)) return false;
+		try {
+			synchronized(this) { drainIngestLocked(); }
+		} finally {
+			draining.set(false);
+		}
+		return true;
+	}
+	
+	// write queued ingest records in time order via putData.  call with writer lock
+	private void drainIngestLocked() {
+		long saveTime = fTime;
+		inDrain = true;
+		CTingest q = ingest;
+		int n = q.drain();
+		try {
+			for(int k=0; k<n; k++) {
+				int i = q.order[k];
+				String name = q.chan[i];
+				long v = q.value[i];
+				setTime(q.time[i]);
+				if(fTime < blockTime) {					// late record (older than current block), would fail block write
+					if(ingestDropped.getAndIncrement() == 0) CTinfo.warnPrint("ingestData dropped late data: "+name+", time: "+q.time[i]);
+					continue;
+				}
+				try {
+					switch(q.type[i]) {
+					case CTingest.F64:	putData(name, Double.longBitsToDouble(v));	break;
+					case CTingest.F32:	putData(name, Float.intBitsToFloat((int)v));	break;
+					case CTingest.I64:	putData(name, v);							break;
+					case CTingest.I32:	putData(name, (int)v);						break;
+					case CTingest.I16:	putData(name, (short)v);					break;
+					default:			putData(name, q.bytes[i]);					break;
+					}
+				} catch(Exception e) {
+					if(ingestDropped.getAndIncrement() == 0) CTinfo.warnPrint("ingestData dropped: "+name+", "+e.getMessage());
+				}
+			}
+		} finally {
+			q.clear(n);
+			inDrain = false;
+			fTime = saveTime;
+		}
+	}
+	
+	//------------------------------------------------------------------------------------------------
+	// background flush:  flush() swaps out the finished block (O(1) under the writer lock) and queues it;
+	// a single background thread then encrypts and zips its entries, writes the file, commits index
+	// records and trims, in block order.  putData continues into the next block meanwhile.
+	
+	/**
+	 * Set background flush.  In zip mode, queued entries are encrypted, compressed and written to disk
+	 * by a background thread instead of the putData/flush caller.  In non-zip mode (files written at each putData),
+	 * index commit and trim are done in background.
+	 * <p>At most maxQueue blocks can be waiting; flush() blocks while the queue is full (backpressure).
+	 * Background write errors are reported by the next flush(); a block that fails to write is not indexed or marked.  Call close() to finish queued blocks before exit.
+	 * @param maxQueue max blocks queued for background flush; 0 to flush synchronously (default)
+	 * @param maxWait max time (msec) flush() waits for a queue slot before throwing IOException, 0 to wait indefinitely
+	 * @throws IOException if prior flush fails
+	 */
+	public void setFlushQueue(int maxQueue, long maxWait) throws IOException {
+		ExecutorService oldExecutor;
+		synchronized(this) {
+			flush();							// finish current block in current mode
+			oldExecutor = flushExecutor;
+			flushExecutor = null;
+		}
+		if(oldExecutor != null) {
+			awaitFlush(flushSlots, flushQueueMax);
+			oldExecutor.shutdown();
+		}
+		synchronized(this) {
+			flushQueueMax = maxQueue;
+			flushWaitMax = maxWait;
+			if(maxQueue > 0) {
+				flushSlots = new Semaphore(maxQueue);
+				flushExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "CTwriter flush: "+destPath);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+		}
+		checkFlushError();
+	}
+	
+	/**
+	 * Wait for queued background flushes to complete.  Does not flush current block.
+	 * @throws IOException if background flush failed
+	 */
+	public void awaitFlush() throws IOException {
+		Semaphore slots;
+		int max;
+		synchronized(this) {
+			if(flushExecutor == null) return;
+			slots = flushSlots;		max = flushQueueMax;
+		}
+		awaitFlush(slots, max);
+		checkFlushError();
+	}
+	
+	private static void awaitFlush(Semaphore slots, int max) throws IOException {
+		try {
+			slots.acquire(max);				// all slots free:  queue empty
+			slots.release(max);
+		} catch(InterruptedException e) {
+			throw new IOException("CTwriter interrupted waiting for flush");
+		}
+	}
+	
+	/**
+	 * @return number of blocks waiting for (or in) background flush
+	 */
+	public int getFlushQueued() {
+		return flushPending.size();
+	}
+	
+	/**
+	 * @return flush lag:  age (sec) of oldest block waiting for background flush, 0 if none
+	 */
+	public double getFlushLag() {
+		FlushTask t = flushPending.peek();
+		if(t == null) return 0.;
+		return Math.max(0, System.nanoTime() - t.queued) / 1.e9;
+	}
+	
+	/**
+	 * @return average background flush latency (sec), from flush() to block written
+	 */
+	public double getFlushLatency() {
+		long n = flushCount.get();
+		return (n > 0) ? (flushNanos.get() / (double)n / 1.e9) : 0.;
+	}
+	
+	/**
+	 * @return maximum background flush latency (sec)
+	 */
+	public double getFlushLatencyMax() {
+		return flushNanosMax / 1.e9;
+	}
+	
+	/**
+	 * @return number of blocks written by background flush
+	 */
+	public long getFlushCount() {
+		return flushCount.get();
+	}
+	
+	/**
+	 * @return number of times flush() waited for a full background flush queue
+	 */
+	public long getFlushWaits() {
+		return flushWaits.get();
+	}
+	
+	// throw (once) any background flush error
+	private void checkFlushError() throws IOException {
+		Exception e = flushError;
+		if(e != null) {
+			flushError = null;
+			throw new IOException("CT background flush failed: " + e.getMessage());
+		}
+	}
+	
+	// hand off current block to background flush.  call with writer lock
+	private void queueFlush(boolean packed, boolean trim, double trimAt) throws IOException {
+		FlushTask task = flushBlock;
+		if(task == null) {
+			if(blockTime == 0) return;					// nothing written since last flush
+			task = new FlushTask();						// non-zip:  index and trim only
+		}
+		
+		if(!flushSlots.tryAcquire()) {					// backpressure, block state left as-is on timeout
+			flushWaits.incrementAndGet();
+			try {
+				if(flushWaitMax > 0) {
+					if(!flushSlots.tryAcquire(flushWaitMax, TimeUnit.MILLISECONDS)) 
+						throw new IOException("CT flush queue full, waited msec: "+flushWaitMax);
+				}
+				else flushSlots.acquire();
+			} catch(InterruptedException e) {
+				throw new IOException("CTwriter interrupted waiting for flush queue");
+			}
+		}
+		
+		flushBlock = null;
+		prepareFlush(task, packed, trim, trimAt);
+		task.queued = System.nanoTime();
+		flushPending.add(task);
+		try {
+			flushExecutor.execute(task);
+		} catch(RuntimeException e) {					// e.g. rejected after shutdown
+			flushPending.remove(task);
+			flushSlots.release();
+			throw new IOException("CT flush queue: "+e);
+		}
+	}
+	
+	// capture block state for task.  call with writer lock
+	private void prepareFlush(FlushTask task, boolean packed, boolean trim, double trimAt) {
+		if(task.names.size() > 0) {
+			blockName();
+			task.destName = destName;
+		}
+		task.crypto = ctcrypto;
+		task.level = compressLevel;
+		task.parallel = zipParallel;
+		task.codec = zipCodec;
+		if(ctindex != null) {
+			task.index = ctindex.takePending();			// non-zip records; zip records added by task
+			task.source = sourceTime;
+			task.segment = indexSegment();
+			task.block = indexBlockTime();
+			task.flags = indexFlags(packed);
+		}
+		if(marker != null) {
+			task.marks = marker.takePending();
+			task.markZip = (zipFlag && task.destName != null) ? destName : null;
+		}
+		task.trim = trim;
+		task.trimAt = trimAt;
+	}
+	
+	// one block:  zip entries (zip mode), index records, trim
+	private class FlushTask implements Runnable {
+		final ArrayList<String> names = new ArrayList<String>();		// zip entry names
+		final ArrayList<byte[]> data = new ArrayList<byte[]>();
+		final ArrayList<long[]> times = new ArrayList<long[]>();		// {zip entry time, index point}
+		final ArrayList<String> chans = new ArrayList<String>();
+		final ArrayList<Double> ctimes = new ArrayList<Double>();		// index time (sec)
+		String destName = null;
+		CTcrypto crypto = null;
+		int level = 1;
+		int parallel = 1;
+		CTcodec codec = null;
+		ArrayList<Object[]> index = null;
+		HashMap<String,CTmarker.Mark[]> marks = null;
+		String markZip = null;
+		long source, segment, block;
+		int flags;
+		boolean trim = false;
+		double trimAt;
+		long queued;
+		
+		void add(String name, long ztime, String chan, double ctime, long point, byte[] bdata) {
+			names.add(name);	data.add(bdata);	times.add(new long[] {ztime, point});
+			chans.add(chan);	ctimes.add(ctime);
+		}
+		
+		public void run() {
+			try {
+				write();
+			} catch(Exception e) {
+				System.err.println("background flush failed: "+destName);
+				e.printStackTrace();
+				flushError = e;
+			} finally {
+				long dt = System.nanoTime() - queued;
+				flushNanos.addAndGet(dt);
+				if(dt > flushNanosMax) flushNanosMax = dt;		// single flush thread
+				flushCount.incrementAndGet();
+				flushPending.remove(this);
+				flushSlots.release();
+			}
+		}
+		
+		// write block, then index and trim.  failed write throws before index, markers and notify
+		void write() throws Exception {
+			if(names.size() > 0) {
+				byte[] zip = (parallel > 1 && names.size() <= CTzipBlock.MAX_ENTRIES) ? zipParallel() : zipBlock();
+				if(zip.length > 0) writeToStream(destName, zip);
+			}
+			if(index != null) ctindex.commit(index, source, segment, block, flags);		// index after block is on disk
+			if(marks != null) commitMarkers(marks, markZip);
+			CTnotify.blockWritten(destPath);
+			if(trim) {
+				CTinfo.debugPrint("trimming at: "+trimAt);
+				dotrim(trimAt);
+			}
+		}
+		
+		private byte[] zipParallel() throws Exception {
+			CTzipBlock zb = new CTzipBlock(level, parallel);
+			for(int i=0; i<names.size(); i++) {
+				byte[] bdata = data.get(i);
+				byte[] frame = (codec != null) ? CTcodec.encodeFrame(codec, bdata, CTinfo.fileType(chans.get(i))) : null;
+				if(frame != null) bdata = frame;
+				if(crypto != null) bdata = encrypt(crypto, chans.get(i), bdata);
+				zb.add(names.get(i), times.get(i)[0], bdata, (frame != null) ? CTcodec.extra(codec, crypto != null) : null);
+				data.set(i, null);
+			}
+			byte[] zip = zb.build();
+			if(index != null) {
+				for(int i=0; i<names.size(); i++) 
+					if(zb.offset(i) >= 0) index.add(CTindex.record(chans.get(i), ctimes.get(i), times.get(i)[1], zb.offset(i), zb.length(i)));
+			}
+			return zip;
+		}
+		
+		private byte[] zipBlock() throws Exception {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ZipOutputStream zout = new ZipOutputStream(bos);
+			zout.setLevel(level);
+			for(int i=0; i<names.size(); i++) {
+				byte[] bdata = data.get(i);
+				byte[] frame = (codec != null) ? CTcodec.encodeFrame(codec, bdata, CTinfo.fileType(chans.get(i))) : null;
+				if(frame != null) bdata = frame;
+				if(crypto != null) bdata = encrypt(crypto, chans.get(i), bdata);
+				ZipEntry entry = new ZipEntry(names.get(i));
+				entry.setTime(times.get(i)[0]);
+				if(frame != null) {						// codec frame:  stored, marked by extra field
+					CRC32 crc = new CRC32();
+					crc.update(bdata);
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(bdata.length);
+					entry.setCompressedSize(bdata.length);
+					entry.setCrc(crc.getValue());
+					entry.setExtra(CTcodec.extra(codec, crypto != null));
+				}
+				int zoffset = bos.size();
+				try {
+					zout.putNextEntry(entry);
+				} catch(IOException e) {
+					CTinfo.warnPrint("zip entry exception: "+e);
+					continue;
+				}
+				zout.write(bdata);
+				zout.closeEntry();
+				if(index != null) index.add(CTindex.record(chans.get(i), ctimes.get(i), times.get(i)[1], zoffset, bos.size()-zoffset));
+				data.set(i, null);
+			}
+			zout.close();
+			return bos.toByteArray();
+		}
+	}
+	
 	//------------------------------------------------------------------------------------------------
 	/**
 	 * put disk file to CT (zip) file
@@ -851,19 +1466,31 @@ public class CTwriter {
 		}
 		
 		File rootFolder = new File(destPath);
-		return deleteOldTimes(rootFolder, oldTime);
+		boolean status = deleteOldTimes(rootFolder, oldTime);
+		if(ctindex != null) ctindex.trim(oldTime);
+		if(rollup != null) rollup.trim(oldTime);
+		if(marker != null) marker.trim();
+		return status;
 	}
 	
 	private boolean deleteOldTimes(File rootFolder, double trimTime) throws IOException {
 		final double oldTime = trimTime;
 
-		Path directory = rootFolder.toPath();
+		final Path directory = rootFolder.toPath();
 		final boolean mydebug = false;
 		CTinfo.debugPrint(mydebug,"deleteOldTimes, trimTime: "+trimTime+", rootFolder: "+rootFolder);
 		try {
 			Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					if(!dir.equals(directory) && dir.getFileName().toString().startsWith("_")) 
+						return FileVisitResult.SKIP_SUBTREE;		// CT-hidden (index, rollups, markers keep their own)
+					return FileVisitResult.CONTINUE;
+				}
+
 				@Override
 				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if(file.getFileName().toString().equals(CTmanifest.MANIFEST_FILE)) return FileVisitResult.CONTINUE;	// kept with its segment
 					double ftime = CTinfo.fileTime(file.toString());
 					if(ftime > 0 && ftime < oldTime) {
 						CTinfo.debugPrint(mydebug,"delete file: "+file);
@@ -880,6 +1507,9 @@ public class CTwriter {
 
 				@Override
 				public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+					File[] remain = dir.toFile().listFiles();
+					if(remain.length == 1 && remain[0].getName().equals(CTmanifest.MANIFEST_FILE) && !dir.equals(directory)) 
+						remain[0].delete();							// manifest of otherwise empty segment
 					if(dir.toFile().listFiles().length == 0) {		// only delete empty dirs
 						CTinfo.debugPrint(mydebug,"delete dir: "+dir);
 						try {
@@ -909,6 +1539,9 @@ public class CTwriter {
 		try {
 			flush();
 			autoFlush(0,false);		// turn off async flush
+			setFlushQueue(0, 0);	// wait for, stop background flush
+			if(ctindex != null) ctindex.close();
+			if(rollup != null) rollup.close();
 		} catch(Exception e) {
 			System.err.println("Exception on close!");
 		}
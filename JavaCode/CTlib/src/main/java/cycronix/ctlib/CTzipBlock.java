@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * CloudTurbine zip block builder with parallel compression.
+ * <p>
+ * Entries are deflated (and CRC'd) independently on a fork-join pool, then assembled
+ * in order into a standard zip with sizes and CRC in each local header (no data descriptors).
+ * Compression level 0 stores entries uncompressed, as do entries with an extra field (e.g. CTcodec frames).
+ * Duplicate entry names are skipped with a warning (first kept), as with ZipOutputStream.
+ * Zip64 (over 65535 entries or 4GB) is not supported.
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+class CTzipBlock {
+
+	static final int MAX_ENTRIES = 0xffff;				// without Zip64
+	private static final int SPLIT_BYTES = 65536;		// min bytes per fork-join task
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final HashMap<Integer,ForkJoinPool> pools = new HashMap<Integer,ForkJoinPool>();
+
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		protected Deflater initialValue() { return new Deflater(Deflater.DEFAULT_COMPRESSION, true); }	// raw deflate as in zip
+	};
+
+	private final int level;
+	private final int parallelism;
+	private final ArrayList<String> names = new ArrayList<String>();
+	private final ArrayList<Long> times = new ArrayList<Long>();
+	private final ArrayList<byte[]> data = new ArrayList<byte[]>();
+	private final ArrayList<byte[]> extras = new ArrayList<byte[]>();
+
+	// per-entry results
+	private byte[][] zdata;
+	private int[] zlength;
+	private int[] crc;
+	private int[] offset;
+	private int[] length;
+
+	//---------------------------------------------------------------------------------
+	// constructor
+
+	/**
+	 * @param level compression level, 0 (stored) to 9
+	 * @param parallelism max threads compressing this block
+	 */
+	CTzipBlock(int level, int parallelism) {
+		this.level = level;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Add entry.  Data is referenced, not copied.
+	 * @param name entry name
+	 * @param time entry time (msec), as ZipEntry.setTime
+	 * @param bdata entry data
+	 */
+	void add(String name, long time, byte[] bdata) {
+		add(name, time, bdata, null);
+	}
+
+	/**
+	 * Add stored (uncompressed) entry with extra field, e.g. CTcodec frame
+	 * @param extra zip extra field, null for normal (compressed) entry
+	 */
+	void add(String name, long time, byte[] bdata, byte[] extra) {
+		names.add(name);	times.add(time);	data.add(bdata);	extras.add(extra);
+	}
+
+	int size() {
+		return names.size();
+	}
+
+	/**
+	 * @return offset of entry i (local header) in built zip, -1 if skipped
+	 */
+	int offset(int i) 	{ return offset[i]; }
+
+	/**
+	 * @return length of entry i (local header and data) in built zip
+	 */
+	int length(int i) 	{ return length[i]; }
+
+	//---------------------------------------------------------------------------------
+	/**
+	 * Compress entries in parallel and assemble zip
+	 * @return zip file bytes
+	 * @throws IOException if too many entries or too big
+	 */
+	byte[] build() throws IOException {
+		int n = names.size();
+		if(n > MAX_ENTRIES) throw new IOException("CTzipBlock, too many entries: "+n);
+		zdata = new byte[n][];		zlength = new int[n];	crc = new int[n];
+		offset = new int[n];		length = new int[n];
+
+		long[] cum = new long[n+1];					// cumulative input bytes, for task splitting
+		for(int i=0; i<n; i++) cum[i+1] = cum[i] + data.get(i).length;
+		if(parallelism > 1 && n > 1 && cum[n] > SPLIT_BYTES) 	pool(parallelism).invoke(new Compress(0, n, cum));
+		else 													compress(0, n);
+
+		// assemble:  local headers and data, then central directory
+		HashSet<String> seen = new HashSet<String>();
+		byte[][] bname = new byte[n][];
+		int[] dostime = new int[n];
+		Calendar cal = Calendar.getInstance();
+		long zsize = 22;
+		for(int i=0; i<n; i++) {
+			if(!seen.add(names.get(i))) {
+				CTinfo.warnPrint("zip entry exception: duplicate entry: "+names.get(i));
+				offset[i] = -1;
+				continue;
+			}
+			bname[i] = names.get(i).getBytes(UTF8);
+			dostime[i] = dosTime(cal, times.get(i));
+			zsize += 30 + 46 + 2*(bname[i].length + extraLength(i)) + zlength[i];
+		}
+		if(zsize > Integer.MAX_VALUE) throw new IOException("CTzipBlock, block too big: "+zsize);
+
+		ByteBuffer zip = ByteBuffer.allocate((int)zsize).order(ByteOrder.LITTLE_ENDIAN);
+		int nentry = 0;
+		for(int i=0; i<n; i++) {
+			if(offset[i] < 0) continue;
+			offset[i] = zip.position();
+			zip.putInt(0x04034b50).putShort((short)20).putShort((short)0x0800).putShort((short)method(i));
+			zip.putInt(dostime[i]).putInt(crc[i]).putInt(zlength[i]).putInt(data.get(i).length);
+			zip.putShort((short)bname[i].length).putShort((short)extraLength(i)).put(bname[i]);
+			if(extras.get(i) != null) zip.put(extras.get(i));
+			zip.put(zdata[i], 0, zlength[i]);
+			length[i] = zip.position() - offset[i];
+			nentry++;
+		}
+		int cenOffset = zip.position();
+		for(int i=0; i<n; i++) {
+			if(offset[i] < 0) continue;
+			zip.putInt(0x02014b50).putShort((short)20).putShort((short)20).putShort((short)0x0800).putShort((short)method(i));
+			zip.putInt(dostime[i]).putInt(crc[i]).putInt(zlength[i]).putInt(data.get(i).length);
+			zip.putShort((short)bname[i].length).putShort((short)extraLength(i)).putShort((short)0);	// name, extra, comment lengths
+			zip.putShort((short)0).putShort((short)0).putInt(0);										// disk, internal, external attributes
+			zip.putInt(offset[i]).put(bname[i]);
+			if(extras.get(i) != null) zip.put(extras.get(i));
+		}
+		Arrays.fill(zdata, null);
+		int cenSize = zip.position() - cenOffset;
+		zip.putInt(0x06054b50).putShort((short)0).putShort((short)0);
+		zip.putShort((short)nentry).putShort((short)nentry).putInt(cenSize).putInt(cenOffset).putShort((short)0);
+
+		if(zip.position() == zip.capacity()) return zip.array();
+		byte[] bzip = new byte[zip.position()];				// skipped duplicates
+		System.arraycopy(zip.array(), 0, bzip, 0, bzip.length);
+		return bzip;
+	}
+
+	private boolean stored(int i) {
+		return level == 0 || extras.get(i) != null;
+	}
+
+	private int method(int i) {
+		return stored(i) ? 0 : 8;		// STORED : DEFLATED
+	}
+
+	private int extraLength(int i) {
+		byte[] extra = extras.get(i);
+		return (extra == null) ? 0 : extra.length;
+	}
+
+	// compress entries [lo,hi)
+	private void compress(int lo, int hi) {
+		CRC32 crc32 = new CRC32();
+		for(int i=lo; i<hi; i++) {
+			byte[] in = data.get(i);
+			crc32.reset();
+			crc32.update(in, 0, in.length);
+			crc[i] = (int)crc32.getValue();
+			if(stored(i)) {
+				zdata[i] = in;		zlength[i] = in.length;
+				continue;
+			}
+			Deflater def = deflaters.get();
+			def.reset();
+			def.setLevel(level);
+			def.setInput(in, 0, in.length);
+			def.finish();
+			byte[] out = new byte[in.length + (in.length>>7) + 64];		// fits most; grows if not
+			int nout = 0;
+			while(!def.finished()) {
+				if(nout == out.length) {
+					byte[] bigger = new byte[2*out.length];
+					System.arraycopy(out, 0, bigger, 0, nout);
+					out = bigger;
+				}
+				nout += def.deflate(out, nout, out.length-nout);
+			}
+			zdata[i] = out;		zlength[i] = nout;
+		}
+	}
+
+	// fork-join split by input bytes
+	private class Compress extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final int lo, hi;
+		final long[] cum;
+
+		Compress(int lo, int hi, long[] cum) {
+			this.lo = lo;	this.hi = hi;	this.cum = cum;
+		}
+
+		protected void compute() {
+			if(hi-lo <= 1 || (cum[hi]-cum[lo]) <= SPLIT_BYTES) {
+				compress(lo, hi);
+				return;
+			}
+			long half = (cum[lo] + cum[hi]) / 2;			// split at byte midpoint
+			int mid = lo+1;
+			while(mid < hi-1 && cum[mid] < half) mid++;
+			invokeAll(new Compress(lo, mid, cum), new Compress(mid, hi, cum));
+		}
+	}
+
+	// shared pool per parallelism
+	private static ForkJoinPool pool(int parallelism) {
+		synchronized(pools) {
+			ForkJoinPool p = pools.get(parallelism);
+			if(p == null) {
+				p = new ForkJoinPool(parallelism);
+				pools.put(parallelism, p);
+			}
+			return p;
+		}
+	}
+
+	// java time (msec) to MS-DOS date/time, local time zone as ZipEntry
+	private static int dosTime(Calendar cal, long time) {
+		cal.setTimeInMillis(time);
+		int year = cal.get(Calendar.YEAR);
+		if(year < 1980) return (1 << 21) | (1 << 16);		// 1980-01-01
+		if(year > 2107) year = 2107;
+		return (year-1980) << 25 | (cal.get(Calendar.MONTH)+1) << 21 | cal.get(Calendar.DAY_OF_MONTH) << 16
+				| cal.get(Calendar.HOUR_OF_DAY) << 11 | cal.get(Calendar.MINUTE) << 5 | cal.get(Calendar.SECOND) >> 1;
+	}
+}
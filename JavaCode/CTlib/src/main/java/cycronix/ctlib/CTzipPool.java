@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package cycronix.ctlib;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipFile;
+
+/**
+ * CloudTurbine pool of open ZipFile handles.
+ * <p>
+ * Handles are reference counted:  acquire() before reading, release() when done.
+ * Any number of readers can use the same (thread-safe) ZipFile concurrently.
+ * When more than maxOpen files are open, idle (unreferenced) handles are closed,
+ * least recently used first.  Handles in use are never closed; the pool can
+ * temporarily exceed maxOpen until they are released.
+ * <p>
+ * @version 2026/10/18
+ *
+*/
+
+public class CTzipPool {
+
+	private final LinkedHashMap<String,Handle> handles = new LinkedHashMap<String,Handle>(16, 0.75f, true);	// access-ordered
+	private volatile int maxOpen;
+
+	private final AtomicLong opens = new AtomicLong();		// zip files opened
+	private final AtomicLong hits = new AtomicLong();		// acquired already-open handle
+	private final AtomicLong waits = new AtomicLong();		// waited on another thread's open of same file
+	private final AtomicLong closes = new AtomicLong();		// idle handles closed
+
+	//---------------------------------------------------------------------------------
+	// constructor
+
+	CTzipPool(int maxOpen) {
+		this.maxOpen = maxOpen;
+	}
+
+	//---------------------------------------------------------------------------------
+	/**
+	 * Reference-counted open zip file
+	 */
+	static class Handle {
+		private final String path;
+		private volatile ZipFile zipFile = null;
+		private int refs = 0;				// guarded by pool
+		private boolean opened = false;		// guarded by this
+		private IOException error = null;	// open failure, guarded by this
+
+		Handle(String path) { this.path = path; }
+
+		ZipFile zipFile() { return zipFile; }
+	}
+
+	//---------------------------------------------------------------------------------
+	/**
+	 * Get open handle for zip file, opening as needed.  Must be paired with release().
+	 * @param path zip file path
+	 * @return handle
+	 * @throws IOException if zip file cannot be opened
+	 */
+	Handle acquire(String path) throws IOException {
+		Handle h;
+		boolean created = false;
+		synchronized(handles) {
+			h = handles.get(path);
+			if(h == null) {
+				h = new Handle(path);
+				handles.put(path, h);
+				created = true;
+			}
+			h.refs++;
+		}
+
+		synchronized(h) {								// open outside pool lock; others wait on this handle only
+			if(!h.opened) {
+				if(!created) waits.incrementAndGet();
+				if(h.error == null) {
+					try {
+						h.zipFile = new ZipFile(path);
+						h.opened = true;
+						opens.incrementAndGet();
+						CTinfo.debugPrint("CTzipPool open: "+path);
+					} catch(IOException e) {
+						h.error = e;
+					}
+				}
+				if(h.error != null) {					// failed open (this or other waiting thread)
+					synchronized(handles) {
+						h.refs--;
+						if(handles.get(path) == h) handles.remove(path);
+					}
+					throw h.error;
+				}
+			}
+			else hits.incrementAndGet();
+		}
+		return h;
+	}
+
+	/**
+	 * Release handle from acquire().  Closes idle handles if over open-file budget.
+	 * @param h handle
+	 */
+	void release(Handle h) {
+		if(h == null) return;
+		ArrayList<Handle> idle = null;
+		synchronized(handles) {
+			h.refs--;
+			if(handles.size() > maxOpen) idle = removeIdle(handles.size() - maxOpen);
+		}
+		if(idle != null) closeAll(idle);				// close outside pool lock
+	}
+
+	// remove up to n idle (unreferenced, opened) handles, LRU first.  call with pool lock
+	private ArrayList<Handle> removeIdle(int n) {
+		ArrayList<Handle> idle = new ArrayList<Handle>();
+		Iterator<Map.Entry<String,Handle>> it = handles.entrySet().iterator();
+		while(n > 0 && it.hasNext()) {
+			Handle h = it.next().getValue();
+			if(h.refs == 0 && h.zipFile != null) {
+				it.remove();
+				idle.add(h);
+				n--;
+			}
+		}
+		return idle;
+	}
+
+	private void closeAll(ArrayList<Handle> idle) {
+		for(Handle h:idle) {
+			try { h.zipFile.close(); } catch(Exception e) {};
+			closes.incrementAndGet();
+			CTinfo.debugPrint("CTzipPool close: "+h.path);
+		}
+	}
+
+	//---------------------------------------------------------------------------------
+	// configuration and statistics
+
+	/**
+	 * Set open zip file budget.  Closes idle files as needed.
+	 * @param max max number of (idle) open zip files
+	 */
+	public void setMaxOpen(int max) {
+		maxOpen = max;
+		ArrayList<Handle> idle;
+		synchronized(handles) { idle = removeIdle(handles.size() - maxOpen); }
+		closeAll(idle);
+	}
+
+	public int getMaxOpen() 	{ return maxOpen; }
+
+	/**
+	 * Close all idle open zip files
+	 */
+	public void clear() {
+		ArrayList<Handle> idle;
+		synchronized(handles) { idle = removeIdle(handles.size()); }
+		closeAll(idle);
+	}
+
+	public long openCount() 	{ return opens.get(); }
+	public long hitCount() 		{ return hits.get(); }
+	public long waitCount() 	{ return waits.get(); }
+	public long closeCount() 	{ return closes.get(); }
+
+	public void resetStats() {
+		opens.set(0); hits.set(0); waits.set(0); closes.set(0);
+	}
+
+	/**
+	 * @return number of zip files currently open
+	 */
+	public int size() {
+		synchronized(handles) { return handles.size(); }
+	}
+
+	public String toString() {
+		return "ZipPool: open="+size()+"/"+maxOpen+", opens="+openCount()+", hits="+hitCount()
+				+", waits="+waitCount()+", closes="+closeCount();
+	}
+}
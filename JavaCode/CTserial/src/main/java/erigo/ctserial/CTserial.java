@@ -43,6 +43,7 @@ package erigo.ctserial;
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Scanner;
 
 import org.apache.commons.cli.*;
@@ -127,6 +128,8 @@ public class CTserial {
 		options.addOption(Option.builder("t").argName("trim-Time").hasArg().desc("trim (ring-buffer loop) time (sec); trimTime=0 (which is the default) for indefinite").build());
 		options.addOption(Option.builder("b").argName("baudrate").hasArg().desc(new String("baud rate; default = " + baudRateDefault)).build());
 		options.addOption(Option.builder("i").argName("input file").hasArg().desc("read input from a file rather than a serial port").build());
+		options.addOption(Option.builder("frame").argName("layout").hasArg().desc("read fixed-layout binary frames instead of CSV lines; layout is a list of channel:offset:type[:order][:scale] fields, types i8,u8,i16,u16,i32,u32,i64,f32,f64, order le (default) or be; channel suffix sets the CT type; \"@file\" reads the layout from a file; the -c channel list is not used").build());
+		options.addOption(Option.builder("framesync").argName("hex bytes").hasArg().desc("with -frame, each frame starts with this sync pattern (e.g. EB90), which is part of the layout offsets; used to find frame boundaries in the byte stream").build());
 		options.addOption("time_in_str", false, "the first entry in the received CSV string is the data time; in this case, do not include the time channel as the first entry in the specified channels list");
 		options.addOption("x", "debug", false, "debug mode");
 		options.addOption("z", "sim_mode", false, "turn on simulate mode (don't read serial port)");
@@ -181,6 +184,33 @@ public class CTserial {
 		}
 
 		debug = line.hasOption("debug");
+
+		CTframe frame = null;
+		byte[] frameSync = null;
+		if (line.hasOption("frame")) {
+			if (bFirstValIsTime || bSimulateMode) {
+				System.err.println("The \"frame\" option can't be used with \"time_in_str\" or simulate mode.");
+				return;
+			}
+			try {
+				frame = new CTframe(line.getOptionValue("frame"));
+				if (line.hasOption("framesync")) {
+					String syncStr = line.getOptionValue("framesync");
+					if (syncStr.startsWith("0x") || syncStr.startsWith("0X")) syncStr = syncStr.substring(2);
+					if ((syncStr.length() == 0) || ((syncStr.length() % 2) != 0)) throw new Exception("sync must be an even number of hex digits");
+					frameSync = new byte[syncStr.length()/2];
+					for (int i=0; i<frameSync.length; ++i) {
+						frameSync[i] = (byte)Integer.parseInt(syncStr.substring(2*i, 2*i+2), 16);
+					}
+				}
+			} catch (Exception e) {
+				System.err.println("Error in \"frame\" layout: " + e.getMessage());
+				return;
+			}
+			// channel names come from the frame layout
+			chanNames = new String[frame.size()];
+			for (int i=0; i<chanNames.length; ++i) chanNames[i] = frame.name(i);
+		}
 		
 		int baudrate = Integer.parseInt(line.getOptionValue("br",Integer.toString(baudRateDefault)));
 
@@ -215,7 +245,7 @@ public class CTserial {
 		}
 		
 		try {
-			serialRead = new SerialRead(inFileName, portStr, chanNames, dt, bFirstValIsTime, baudrate, bSimulateMode);
+			serialRead = new SerialRead(inFileName, portStr, chanNames, dt, bFirstValIsTime, baudrate, bSimulateMode, frame, frameSync);
 			serialReadThread = new Thread(serialRead);
 			serialReadThread.start();
 		} catch (Exception e) {
@@ -236,8 +266,10 @@ public class CTserial {
 		private SerialPort serPort = null;		// the serial port we are reading from
 		private Scanner scanner = null;			// to read lines from the serial port
 		private BufferedReader br = null;       // to read lines from file
+		private CTframe frame = null;           // binary frame layout (null for CSV lines)
+		private byte[] frameSync = null;        // optional frame sync pattern
 		
-		SerialRead(String inFileNameI, String portStrI, String[] chanNamesI, double dtI, boolean bFirstValIsTimeI, int baudrateI, boolean bSimulateModeI) throws Exception {
+		SerialRead(String inFileNameI, String portStrI, String[] chanNamesI, double dtI, boolean bFirstValIsTimeI, int baudrateI, boolean bSimulateModeI, CTframe frameI, byte[] frameSyncI) throws Exception {
 			inFileName = inFileNameI;
 			portStr = portStrI;
 			chanNames = chanNamesI;
@@ -245,6 +277,8 @@ public class CTserial {
 			bFirstValIsTime = bFirstValIsTimeI;
 			baudrate = baudrateI;
 			bSimulateMode = bSimulateModeI;
+			frame = frameI;
+			frameSync = frameSyncI;
 			
 			// Open serial port (if not in simulate mode and not reading from input file)
 			if (!bSimulateMode && (inFileName == null)) {
@@ -263,7 +297,7 @@ public class CTserial {
 				// Read from an input file
 				try {
 					inputStream = new FileInputStream(new File(inFileName));
-					br = new BufferedReader(new InputStreamReader(inputStream));
+					if (frame == null) br = new BufferedReader(new InputStreamReader(inputStream));
 				} catch (Exception e) {
 					e.printStackTrace();
 					return;
@@ -271,130 +305,14 @@ public class CTserial {
 			} else if (!bSimulateMode) {
 				// Read from serial port
 				inputStream = serPort.getInputStream();
-				scanner = new Scanner(inputStream);
+				if (frame == null) scanner = new Scanner(inputStream);
 			}
 			
 			try {
-				double oldtime = 0;
-				double time = 0;
-
-				int expectedNumCSVEntries = chanNames.length;
-				if (bFirstValIsTime) {
-					// Add one more for the time given as the first entry
-					expectedNumCSVEntries = chanNames.length + 1;
-				}
-				
-				// Variables for simulate mode
-				int loopIdx = 0;
-				int loopIdxDontReset = 0;
-				
-				// while(!bShutdown && ( bSimulateMode || scanner.hasNextLine() )) {
-				while(!bShutdown) {
-					if ( bSimulateMode && ((loopIdx%50) == 0) ) {
-						// To make "jumps" in the simulated data
-						loopIdx = 0;
-					}
-					if ( !bSimulateMode && (scanner != null) && !scanner.hasNextLine() ) {
-						// Wait for more input
-						while (!bShutdown) {
-							Thread.sleep(50);
-						}
-					}
-					String line = null;
-					if (!bSimulateMode && (scanner != null)) {
-						line = scanner.nextLine();
-					} else if (!bSimulateMode && (br != null)) {
-						line = br.readLine();
-					} else {
-						int new_time = (int)(loopIdxDontReset*dt);
-						line = new String("");
-						if (bFirstValIsTime) {
-						    line = new String(Integer.toString(new_time));
-						}
-						for (int i=0; i<chanNames.length; ++i) {
-							// Include a comma before next entry?
-							if ( (i>0) || ( (i==0) && (bFirstValIsTime) ) ) {
-								line = line + ",";
-							}
-							// Have different data for even and odd channels
-							if ((i%2)==0) {
-								// even channel
-								line = line + String.format("%7.3f", (i+1)*Math.sin((double)loopIdx));
-							} else {
-								// odd channel
-								line = line + String.format("%6.3f", 0.123*(i+1)*loopIdx);
-							}
-						}
-					}
-					if ( (line == null) || (line.trim().isEmpty()) ) {
-						continue;
-					}
-					// Make sure this new line has the correct number of entries
-					String[] chanDataStr = line.split(",");
-					
-					if (chanDataStr.length != expectedNumCSVEntries) {
-						if (debug) {
-							System.err.println("Received string with incorrect number of entries:\n" + line);
-						}
-					} else {
-						synchronized(ctw) {
-							if (bFirstValIsTime) {
-								// Use the first value in the serial string as the time
-								try {
-									time = Double.parseDouble(chanDataStr[0]);
-								} catch (NumberFormatException nfe) {
-									System.err.println("Got bogus time in serial string: " + chanDataStr[0] + "; skip line");
-									continue;
-								}
-							} else if (dt==0) {
-								// use current wall-clock time
-								time = System.currentTimeMillis();
-							} else {
-								// automatically paced data, just add dt with each loop
-								if (time==0) {
-									// initialize time
-									time = System.currentTimeMillis();
-								} else {
-									time += dt;
-								}
-							}
-						}
-
-						if (time <= oldtime) {
-							time=oldtime+1; // no dupes
-						}
-						oldtime = time;
-						
-						//if(debug) {
-							System.err.println("CTserial t: " + time + ", data string: " + line);
-						//}
-						
-						try {
-							synchronized(ctw) {
-								ctw.setTime((long)time);
-								for (int i=0; i<chanNames.length; ++i) {
-									// If this entry is numeric, putData as a number
-									String dataStr = chanDataStr[i];
-									double dataNum = 0.0;
-									try {
-										dataNum = Double.parseDouble(dataStr);
-										ctw.putData(chanNames[i], dataNum);
-									} catch (NumberFormatException nfe) {
-										// Put data as String
-										ctw.putData(chanNames[i], dataStr);
-									}
-								}
-							}
-						} catch(Exception e) {
-							e.printStackTrace(); // don't give up on putData exceptions
-						}
-						// For simulated data
-						++loopIdx;
-						++loopIdxDontReset;
-						if (bSimulateMode) {
-							Thread.sleep((int)dt);
-						}
-					}
+				if (frame != null) {
+					readFrames(inputStream);			// binary frames, until shutdown or end of input
+				} else {
+					readLines();						// CSV lines (or simulated data), until shutdown
 				}
 			} catch (Exception e) {
 				e.printStackTrace();
@@ -429,6 +347,203 @@ public class CTserial {
 			
 			System.err.println("SerialRead is exiting");
 		}
+		
+		//
+		// Read CSV lines (from serial port, input file or simulate mode) and put their values to CT
+		//
+		private void readLines() throws Exception {
+			double oldtime = 0;
+			double time = 0;
+
+			int expectedNumCSVEntries = chanNames.length;
+			if (bFirstValIsTime) {
+				// Add one more for the time given as the first entry
+				expectedNumCSVEntries = chanNames.length + 1;
+			}
+			
+			// Variables for simulate mode
+			int loopIdx = 0;
+			int loopIdxDontReset = 0;
+			
+			// while(!bShutdown && ( bSimulateMode || scanner.hasNextLine() )) {
+			while(!bShutdown) {
+				if ( bSimulateMode && ((loopIdx%50) == 0) ) {
+					// To make "jumps" in the simulated data
+					loopIdx = 0;
+				}
+				if ( !bSimulateMode && (scanner != null) && !scanner.hasNextLine() ) {
+					// Wait for more input
+					while (!bShutdown) {
+						Thread.sleep(50);
+					}
+				}
+				String line = null;
+				if (!bSimulateMode && (scanner != null)) {
+					line = scanner.nextLine();
+				} else if (!bSimulateMode && (br != null)) {
+					line = br.readLine();
+				} else {
+					int new_time = (int)(loopIdxDontReset*dt);
+					line = new String("");
+					if (bFirstValIsTime) {
+					    line = new String(Integer.toString(new_time));
+					}
+					for (int i=0; i<chanNames.length; ++i) {
+						// Include a comma before next entry?
+						if ( (i>0) || ( (i==0) && (bFirstValIsTime) ) ) {
+							line = line + ",";
+						}
+						// Have different data for even and odd channels
+						if ((i%2)==0) {
+							// even channel
+							line = line + String.format("%7.3f", (i+1)*Math.sin((double)loopIdx));
+						} else {
+							// odd channel
+							line = line + String.format("%6.3f", 0.123*(i+1)*loopIdx);
+						}
+					}
+				}
+				if ( (line == null) || (line.trim().isEmpty()) ) {
+					continue;
+				}
+				// Make sure this new line has the correct number of entries
+				String[] chanDataStr = line.split(",");
+				
+				if (chanDataStr.length != expectedNumCSVEntries) {
+					if (debug) {
+						System.err.println("Received string with incorrect number of entries:\n" + line);
+					}
+				} else {
+					synchronized(ctw) {
+						if (bFirstValIsTime) {
+							// Use the first value in the serial string as the time
+							try {
+								time = Double.parseDouble(chanDataStr[0]);
+							} catch (NumberFormatException nfe) {
+								System.err.println("Got bogus time in serial string: " + chanDataStr[0] + "; skip line");
+								continue;
+							}
+						} else if (dt==0) {
+							// use current wall-clock time
+							time = System.currentTimeMillis();
+						} else {
+							// automatically paced data, just add dt with each loop
+							if (time==0) {
+								// initialize time
+								time = System.currentTimeMillis();
+							} else {
+								time += dt;
+							}
+						}
+					}
+
+					if (time <= oldtime) {
+						time=oldtime+1; // no dupes
+					}
+					oldtime = time;
+					
+					//if(debug) {
+						System.err.println("CTserial t: " + time + ", data string: " + line);
+					//}
+					
+					try {
+						synchronized(ctw) {
+							ctw.setTime((long)time);
+							for (int i=0; i<chanNames.length; ++i) {
+								// If this entry is numeric, putData as a number
+								String dataStr = chanDataStr[i];
+								double dataNum = 0.0;
+								try {
+									dataNum = Double.parseDouble(dataStr);
+									ctw.putData(chanNames[i], dataNum);
+								} catch (NumberFormatException nfe) {
+									// Put data as String
+									ctw.putData(chanNames[i], dataStr);
+								}
+							}
+						}
+					} catch(Exception e) {
+						e.printStackTrace(); // don't give up on putData exceptions
+					}
+					// For simulated data
+					++loopIdx;
+					++loopIdxDontReset;
+					if (bSimulateMode) {
+						Thread.sleep((int)dt);
+					}
+				}
+			}
+		}
+		
+		//
+		// Read fixed-layout binary frames (the "-frame" option) and put their fields to CT
+		//
+		private void readFrames(InputStream inputStream) throws Exception {
+			int frameLength = frame.frameLength();
+			int syncLength = (frameSync == null) ? 0 : frameSync.length;
+			byte[] frameBytes = new byte[Math.max(frameLength, syncLength)];
+			ByteBuffer frameBuf = ByteBuffer.wrap(frameBytes);
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(inputStream));
+			double oldtime = 0;
+			double time = 0;
+			try {
+				while (!bShutdown) {
+					if (syncLength > 0) {
+						// find sync pattern:  slide window a byte at a time until it matches
+						dis.readFully(frameBytes, 0, syncLength);
+						int nskip = 0;
+						while (!bShutdown && !syncMatch(frameBytes)) {
+							System.arraycopy(frameBytes, 1, frameBytes, 0, syncLength-1);
+							frameBytes[syncLength-1] = dis.readByte();
+							++nskip;
+						}
+						if ( (nskip > 0) && debug ) {
+							System.err.println("Frame sync: skipped " + nskip + " bytes");
+						}
+						dis.readFully(frameBytes, syncLength, frameBytes.length-syncLength);
+					} else {
+						dis.readFully(frameBytes);
+					}
+
+					if (dt==0) {
+						// use current wall-clock time
+						time = System.currentTimeMillis();
+					} else if (time==0) {
+						// initialize time
+						time = System.currentTimeMillis();
+					} else {
+						// automatically paced data, just add dt with each frame
+						time += dt;
+					}
+					if (time <= oldtime) {
+						time=oldtime+1; // no dupes
+					}
+					oldtime = time;
+
+					if (debug) {
+						System.err.println("CTserial t: " + time + ", frame bytes: " + frameBytes.length);
+					}
+
+					try {
+						synchronized(ctw) {
+							ctw.setTime((long)time);
+							frame.put(ctw, frameBuf);
+						}
+					} catch(Exception e) {
+						e.printStackTrace(); // don't give up on putData exceptions
+					}
+				}
+			} catch (EOFException eof) {
+				System.err.println("End of input");
+			}
+		}
+
+		private boolean syncMatch(byte[] frameBytes) {
+			for (int i=0; i<frameSync.length; ++i) {
+				if (frameBytes[i] != frameSync[i]) return false;
+			}
+			return true;
+		}
 	}
 	
 } //end class CTserial
@@ -21,6 +21,9 @@ CTudp
 Capture UDP packets to CT files.  Will optionally split up and
 save the constituent channels from CSV strings.
 
+All ports are received on one thread (see UDPreceiver) and queued
+to a separate CT write thread, so flushes don't stall the sockets.
+
 Matt Miller, Cycronix
 John Wilson, Erigo Technologies
 
@@ -30,6 +33,8 @@ package cycronix.ctudp;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -51,6 +56,8 @@ public class CTudp {
 	String srcName = new String("CTudp");
 	static int numSock = 0;
 	CTwriter ctw;
+	UDPreceiver receiver;			// receives all ports, queues packets to CT write thread
+	int queueSize = 1024;			// max queued packets; more are dropped (counted) until CT write catches up
 	double exceptionVal = 0.0;      // When splitting up a given CSV string and an expected double val is bogus, use this value in its place
 	
 	//--------------------------------------------------------------------------------------------------------
@@ -63,6 +70,7 @@ public class CTudp {
 		String[] chanName = new String[32];
 		String defaultChanName = "udpchan";
 		String[] csvChanNames = null;
+		CTframe frame = null;
 		int ssNum[] = new int[32];
 		int defaultPort = 4445;
 		double dt[] = new double[32];
@@ -71,7 +79,7 @@ public class CTudp {
 
 		// For communicating with UDP server; we send a "keep alive" heartbeat message to this server
 		// and will receive UDP packets from this server
-		DatagramSocket clientSocket = null;  // This socket will be shared by UDPread and UDPHeartbeatTask classes
+		DatagramChannel clientChannel = null;  // This channel will be shared by UDPreceiver and UDPHeartbeatTask classes
 		InetAddress udpserverIP = null;
 		int udpserverPort = -1;
 		int heartbeatPeriod_msec = -1;
@@ -91,6 +99,7 @@ public class CTudp {
 		options.addOption(Option.builder("s").argName("source name").hasArg().desc("Name of source to write packets to; default = \"" + srcName + "\".").build());
 		options.addOption(Option.builder("c").argName("channel name").hasArg().desc("Name of channel to write packets to; default = \"" + defaultChanName + "\".").build());
 		options.addOption(Option.builder("csplit").argName("channel name(s)").hasArg().desc("Comma-separated list of channel names; split an incoming CSV string into a series of channels with the given names; supported channel name suffixes and their associated data types: .txt (string), .csv or no suffix (numeric), .f32 (32-bit floating point), .f64 (64-bit floating point).").build());
+		options.addOption(Option.builder("frame").argName("layout").hasArg().desc("Decode fixed-layout binary packets into channels; layout is a list of channel:offset:type[:order][:scale] fields, types i8,u8,i16,u16,i32,u32,i64,f32,f64, order le (default) or be; channel suffix sets the CT type (.f64, .f32, .i64, .i32, .i16, else numeric text); \"@file\" reads the layout from a file. Example: \"alt.f32:0:f32,temp.f64:4:i16:be:0.01\".").build());
 		options.addOption(Option.builder("e").argName("exception val").hasArg().desc("If a CSV string is being parsed (using the -csplit option) and there is an error saving a string component as a floating point value, use this \"exception value\" in its place; default = " + Double.toString(exceptionVal) + ".").build());
 		options.addOption(Option.builder("m").argName("multicast address").hasArg().desc("Multicast UDP address (224.0.0.1 to 239.255.255.255).").build());
 		options.addOption(Option.builder("p").argName("UDP port").hasArg().desc("Port number to listen for UDP packets on; default = " + Integer.toString(defaultPort) + ".").build());
@@ -100,6 +109,7 @@ public class CTudp {
 		options.addOption(Option.builder("udpserver").argName("IP,port,period_msec").hasArg().desc("Talk to a UDP server; send a periodic keep-alive message to the given IP:port at the specified period and receive packets from this server; not to be used with the \"-p\" option.").build());
 		options.addOption(Option.builder("testserver").argName("port,period_msec").hasArg().desc("Start a UDP server on the local machine to serve CSV strings at the specified period with the format specified by the \"-csplit\" option (if no \"-csplit\" option has been specified, a simple text message is output). The test server waits for a message from the client before starting packet flow. This feature can be used along with the \"-udpserver\" option for local/loopback testing (NOTE: make sure the server ports match).").build());
 		options.addOption(Option.builder("bps").argName("blocks_per_seg").hasArg().desc("Number of blocks per segment; specify 0 for no segments; default = " + Long.toString(blocksPerSegment) + ".").build());
+		options.addOption(Option.builder("q").argName("queue size").hasArg().desc("Max number of received packets queued for writing; packets arriving while the queue is full are dropped (and counted); default = " + Integer.toString(queueSize) + ".").build());
 		options.addOption("x", "debug", false, "Debug mode.");
 
 		// 2. Parse command line options
@@ -143,6 +153,23 @@ public class CTudp {
 			}
 		}
 
+		if (line.hasOption("frame")) {
+			if (line.hasOption("csplit")) {
+				System.err.println("Error: specify either \"-csplit\" or \"-frame\", not both.");
+				System.exit(0);
+			}
+			if (numChan > 1) {
+				System.err.println("Error: don't use the \"-frame\" option when receiving packets from multiple UDP ports.");
+				System.exit(0);
+			}
+			try {
+				frame = new CTframe(line.getOptionValue("frame"));
+			} catch (Exception e) {
+				System.err.println("Error in \"-frame\" layout: " + e.getMessage());
+				System.exit(0);
+			}
+		}
+
 		String exceptionValStr = line.getOptionValue("e",Double.toString(exceptionVal));
 		try {
 			exceptionVal = Double.parseDouble(exceptionValStr);
@@ -168,6 +195,8 @@ public class CTudp {
 
 		blocksPerSegment = Long.parseLong(line.getOptionValue("bps",Long.toString(blocksPerSegment)));
 
+		queueSize = Integer.parseInt(line.getOptionValue("q",Integer.toString(queueSize)));
+
 		if (line.hasOption("pack")) {
 			packMode = true;
 		}
@@ -259,6 +288,9 @@ public class CTudp {
 				System.err.println("UDPport[" + i + "]: " + ssNum[i]);
 			}
 		}
+		if (frame != null) {
+			System.err.println("\nIncoming binary packets will be decoded as:\n" + frame);
+		}
 		if (csvChanNames != null) {
 			System.err.println("\nIncoming csv strings will be split into the following channels:");
 			for(int i=0; i<(csvChanNames.length-1); ++i) {
@@ -286,14 +318,15 @@ public class CTudp {
 		//
 		if (udpserverIP != null) {
 			try {
-				// This DatagramSocket will be shared by UDPread and UDPHeartbeatTask classes
-				clientSocket = new DatagramSocket();
-			} catch (SocketException e) {
-				System.err.println("Error creating DatagramSocket:\n" + e);
+				// This DatagramChannel will be shared by UDPreceiver and UDPHeartbeatTask classes
+				clientChannel = DatagramChannel.open();
+				clientChannel.bind(null);				// receive on the port heartbeats are sent from
+			} catch (IOException e) {
+				System.err.println("Error creating DatagramChannel:\n" + e);
 				System.exit(0);
 			}
 			Timer time = new Timer();
-			UDPHeartbeatTask heartbeatTask = new UDPHeartbeatTask(clientSocket, udpserverIP, udpserverPort);
+			UDPHeartbeatTask heartbeatTask = new UDPHeartbeatTask(clientChannel, udpserverIP, udpserverPort);
 			time.schedule(heartbeatTask, 0, heartbeatPeriod_msec);
 		}
 
@@ -313,18 +346,35 @@ public class CTudp {
 		}
 
 		//
-		// start a thread for each port
-		// if we are talking to a UDP server, there is only 1 instance of UDPread
+		// start receiver:  one thread for all ports, queued to CT write thread
+		// if we are talking to a UDP server, there is only 1 port (the heartbeat channel)
 		//
-		if (clientSocket != null) {
-			System.err.println("Talk to UDP server at " + udpserverIP + ":" + udpserverPort);
-			new UDPread(clientSocket, chanName[0], csvChanNames, dt[0]).start();
-		} else {
-			for (int i = 0; i < numSock; i++) {
-				System.err.println("start thread for port: " + ssNum[i] + ", chan: " + chanName[i]);
-				new UDPread(ssNum[i], chanName[i], csvChanNames, dt[i]).start();
+		CSVsplit csvSplit = (csvChanNames == null) ? null : new CSVsplit(csvChanNames, exceptionVal);
+		UDPchan[] udpChans = null;
+		try {
+			receiver = new UDPreceiver(queueSize);
+			if (clientChannel != null) {
+				System.err.println("Talk to UDP server at " + udpserverIP + ":" + udpserverPort);
+				receiver.addChannel(clientChannel, "udpserver");
+				udpChans = new UDPchan[] { new UDPchan(chanName[0], csvSplit, frame, dt[0]) };
+			} else {
+				udpChans = new UDPchan[numSock];
+				if(multiCast != null) System.err.println("Multicast address: "+multiCast);
+				for (int i = 0; i < numSock; i++) {
+					System.err.println("listen on port: " + ssNum[i] + ", chan: " + chanName[i]);
+					receiver.addPort(ssNum[i], multiCast);
+					udpChans[i] = new UDPchan(chanName[i], csvSplit, frame, dt[i]);
+				}
 			}
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.exit(0);
 		}
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() { System.err.println(receiver.stats()); }
+		});
+		receiver.start();
+		new UDPwrite(udpChans).start();
 	}
 	
 	//--------------------------------------------------------------------------------------------------------
@@ -334,136 +384,181 @@ public class CTudp {
 	
 	double flushTime = 0;
 	long firstFlush = 0;								// sync multi-channels to first at start
-	private class UDPread extends Thread {
+	boolean newBlock = true;							// next put starts new block (flushTime moves up to it)
+
+	// CT write thread:  takes received packets off the queue, puts and flushes to CT
+	private class UDPwrite extends Thread {
+
+		private UDPchan[] udpChans;						// by receiver port index
+
+		UDPwrite(UDPchan[] udpChansI) {
+			super("CTudp-write");
+			udpChans = udpChansI;
+		}
+
+		public void run() {
+			while (true) {
+				UDPreceiver.Packet packet;
+				try {
+					packet = receiver.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (packet.data().hasRemaining()) udpChans[packet.port()].put(packet);
+				receiver.release(packet);
+			}
+		}
+	} // end private class UDPwrite
+
+	// per-port channel state and CT put logic (called from write thread)
+	private class UDPchan {
 
 		private String chanName;
-		private String[] csvChanNames = null;
-		private DatagramSocket ds=null; 				//listen for data here
-		private MulticastSocket ms=null;
+		private CSVsplit csvSplit = null;
+		private CTframe frame = null;
 		private double dt=0;
+		private double oldtime = 0;
+		private double time = 0;
 
-		UDPread(DatagramSocket clientSocketI, String chanNameI, String[] csvChanNamesI, double dtI) {
-			ds = clientSocketI;
+		UDPchan(String chanNameI, CSVsplit csvSplitI, CTframe frameI, double dtI) {
 			chanName = chanNameI;
-			csvChanNames = csvChanNamesI;
+			csvSplit = csvSplitI;
+			frame = frameI;
 			dt = dtI;
 		}
 
-		UDPread(int portI, String chanNameI, String[] csvChanNamesI, double dtI) {
-			chanName = chanNameI;
-			csvChanNames = csvChanNamesI;
-			dt = dtI;
+		void put(UDPreceiver.Packet packet) {
+			ByteBuffer data = packet.data();
+			int packetSize = data.remaining();
+			long arrivalTime = packet.time();
+			if(dt==0) 				time = arrivalTime;
+			else if(time==0) {
+				if(firstFlush == 0) time = firstFlush = arrivalTime;
+				else				time = firstFlush;
+			}
+			else 					time += dt;				// auto pace
+
+			if(time < flushTime) {
+				System.err.println("------------autoFlush skootch chan: "+chanName+", time: "+time+" -> "+flushTime);
+				time = flushTime;		// no backwards-going times
+			}
+
+			if(time <= oldtime) 	time=oldtime+1;			// no dupes
+			oldtime = time;
+			if(newBlock) {				// block starts here:  other channels' (queued) packets can't go before it
+				flushTime = time;
+				newBlock = false;
+			}
+
+			if(debug) System.err.println("CTudp chan: "+chanName+", bytes: "+packetSize+", t: "+time+", flushTime: "+flushTime);
 
-			// open port for incoming UDP
 			try {
-				if(multiCast != null) {
-					System.err.println("Multicast address: "+multiCast);
-					ms = new MulticastSocket(portI);
-					ms.joinGroup(InetAddress.getByName(multiCast));
+				ctw.setTime((long) time);
+				if (frame != null) {
+					// Decode binary packet fields into their channels
+					// (this is the "-frame" option)
+					if (!frame.put(ctw, data)) {
+						System.err.println("Received packet too short (" + packetSize + " bytes) for frame layout (" + frame.frameLength() + " bytes)");
+					}
+				} else if (csvSplit == null) {
+					// Put data for the default ("-c") channel
+					// This data is saved as byte array, which doesn't get packed
+					// Only do this if we aren't splitting up/saving the individual CSV components
+					ctw.putData(chanName, packet.bytes());		// copy:  CTwriter holds data until flush
+				} else {
+					// Split the incoming csv string up and save each channel
+					// (this is the "-csplit" option)
+					int nfield = csvSplit.put(ctw, data);
+					if (nfield != csvSplit.size()) {
+						System.err.println("Received string with incorrect number of csv entries (" + nfield + "), was expecting " + csvSplit.size());
+					}
 				}
-				else {
-					ds = new DatagramSocket(portI);
+				// long thisTime = System.currentTimeMillis();
+				if((time - flushTime) > autoFlushMillis) {
+					System.err.println("---CTudp flush: "+chanName+", t: "+time+", queued: "+receiver.pending());
+					if(debug) System.err.println(receiver.stats());
+					flushTime = time;
+					newBlock = true;
+					ctw.flush();			// on write thread:  receiver keeps reading meanwhile
 				}
-			} catch (Exception e) { e.printStackTrace(); }
+			} catch(Exception e) {
+				e.printStackTrace();			// dont give up on putData exceptions
+			}
 		}
-		
-		public void run() {
-			try {
-				DatagramPacket dp=new DatagramPacket(new byte[65536],65536);
-				double oldtime = 0;
-				double time = 0;
-				if(flushTime == 0) flushTime = System.currentTimeMillis();
-				
-				while (true) {	
-					if(ms!=null) ms.receive(dp);			// multicast	
-					else 		 ds.receive(dp);			// unicast
-
-					int packetSize = dp.getLength();
-					if (packetSize > 0) {
-						synchronized(ctw) {
-							if(dt==0) 				time = System.currentTimeMillis();
-							else if(time==0) {
-								if(firstFlush == 0) time = firstFlush = System.currentTimeMillis();
-								else				time = firstFlush;
-							}
-							else 					time += dt;				// auto pace
-						}
-						if(time < flushTime) {
-							System.err.println("------------autoFlush skootch chan: "+chanName+", time: "+time+" -> "+flushTime);
-							time = flushTime;		// no backwards-going times
-						}
-						
-						if(time <= oldtime) 	time=oldtime+1;			// no dupes
-						oldtime = time;
+	} // end private class UDPchan
 
-						if(debug) System.err.println("CTudp chan: "+chanName+", bytes: "+packetSize+", t: "+time+", flushTime: "+flushTime);
+	//
+	// "-csplit" decoder table:  channel types resolved once, fields parsed straight from packet bytes
+	//
+	private static class CSVsplit {
+
+		private static final int TEXT=0, F32=1, F64=2;
+
+		private final String[] names;
+		private final int[] types;
+		private final double exceptionVal;
+
+		// When we parsed the command line args, we made sure that the channel names
+		// will either have no suffix or will end in .txt, .csv, .f32, .f64
+		// - if chan name ends in .f64, put data as double
+		// - if chan name ends in .f32, put data as float
+		// - if chan name doesn't have a suffix or it ends in .txt or it ends in .csv, put data as string
+		CSVsplit(String[] namesI, double exceptionValI) {
+			names = namesI;
+			exceptionVal = exceptionValI;
+			types = new int[names.length];
+			for (int i=0; i<names.length; ++i) {
+				if (names[i].endsWith(".f64")) 		types[i] = F64;
+				else if (names[i].endsWith(".f32")) types[i] = F32;
+				else								types[i] = TEXT;		// let CT sort out the data type from the channel name extension
+			}
+		}
 
-						byte[] data=new byte[packetSize];		// truncate array to actual data got
-						System.arraycopy(dp.getData(),dp.getOffset(),data,0,packetSize);
+		int size() {
+			return names.length;
+		}
 
+		// put each field of CSV packet to its channel, as one batch (no flush splits the packet).
+		// returns number of fields;  nothing is put unless it matches the number of channels
+		int put(CTwriter ctw, ByteBuffer data) throws Exception {
+			int from = data.position(), to = data.limit();
+			int nfield = CTnumeric.csvCount(data, from, to);		// as String.split(",")
+			if (nfield != names.length) return nfield;
+
+			synchronized(ctw) {
+				for (int i=0; i<names.length; ++i) {
+					int fend = CTnumeric.csvEnd(data, from, to);
+					switch (types[i]) {
+					case F64:
+						double dval;
 						try {
-							synchronized(ctw) {
-								ctw.setTime((long) time);
-								if (csvChanNames == null) {
-									// Put data for the default ("-c") channel
-									// This data is saved as byte array, which doesn't get packed
-									// Only do this if we aren't splitting up/saving the individual CSV components
-									ctw.putData(chanName, data);
-								} else {
-									// Split the incoming csv string up and save each channel
-									// (this is the "-csplit" option)
-									String csvStr = new String(data);
-									String[] chanDataStr = csvStr.split(",");
-									if (chanDataStr.length != csvChanNames.length) {
-										System.err.println("Received string with incorrect number of csv entries (" + chanDataStr.length + "), was expecting " + csvChanNames.length);
-									} else {
-										for (int i=0; i<csvChanNames.length; ++i) {
-											// When we parsed the command line args, we made sure that the channel names
-											// will either have no suffix or will end in .txt, .csv, .f32, .f64
-											// - if chan name ends in .f64, put data as double
-											// - if chan name ends in .f32, put data as float
-											// - if chan name doesn't have a suffix or it ends in .txt or it ends in .csv, put data as string
-											String dataStr = chanDataStr[i];
-											if ( (!csvChanNames[i].endsWith(".f64")) && (!csvChanNames[i].endsWith(".f32")) ) {
-												// Put data as String, let CT sort out the data type depending on what the channel name extension is
-												ctw.putData(csvChanNames[i], dataStr);
-											} else if (csvChanNames[i].endsWith(".f32")) {
-												// Put data as float
-												try {
-													float dataNumF = Float.parseFloat(dataStr);
-													ctw.putData(csvChanNames[i], dataNumF);
-												} catch (NumberFormatException nfe) {
-													// Error parsing the data as float, put the default exceptionVal instead
-													ctw.putData(csvChanNames[i], (float)exceptionVal);
-												}
-											} else if (csvChanNames[i].endsWith(".f64")) {
-												// Put data as double
-												try {
-													double dataNumD = Double.parseDouble(dataStr);
-													ctw.putData(csvChanNames[i], dataNumD);
-												} catch (NumberFormatException nfe) {
-													// Error parsing the data as double, put the default exceptionVal instead
-													ctw.putData(csvChanNames[i], exceptionVal);
-												}
-											}
-										}
-									}
-								}
-								// long thisTime = System.currentTimeMillis();
-								if((time - flushTime) > autoFlushMillis) {
-									System.err.println("---CTudp flush: "+chanName+", t: "+time);
-									flushTime = time;
-									ctw.flush();
-								}
-							}
-						} catch(Exception e) {
-							e.printStackTrace();			// dont give up on putData exceptions
+							dval = CTnumeric.parseDouble(data, from, fend);
+						} catch (NumberFormatException nfe) {
+							dval = exceptionVal;		// Error parsing the data as double, put the default exceptionVal instead
 						}
-					}	
+						ctw.putData(names[i], dval);
+						break;
+					case F32:
+						float fval;
+						try {
+							fval = CTnumeric.parseFloat(data, from, fend);
+						} catch (NumberFormatException nfe) {
+							fval = (float)exceptionVal;
+						}
+						ctw.putData(names[i], fval);
+						break;
+					default:
+						byte[] b = new byte[fend-from];
+						for (int j=0; j<b.length; ++j) b[j] = data.get(from+j);
+						ctw.putData(names[i], new String(b));
+						break;
+					}
+					from = fend + 1;
 				}
-			} catch (Exception e) { e.printStackTrace(); }
+			}
+			return nfield;
 		}
-	} // end private class UDPread
+	} // end private class CSVsplit
 
 	//
 	// Class to issue a UDP "heartbeat" message to a UDP server
@@ -471,23 +566,22 @@ public class CTudp {
 	//
 	private class UDPHeartbeatTask extends TimerTask {
 
-		private DatagramSocket clientSocket = null;
+		private DatagramChannel clientChannel = null;
 		private InetAddress heartbeatIP = null;
 		private int heartbeatPort = 0;
 
-		public UDPHeartbeatTask(DatagramSocket clientSocketI, InetAddress heartbeatIPI, int heartbeatPortI) {
-			clientSocket = clientSocketI;
+		public UDPHeartbeatTask(DatagramChannel clientChannelI, InetAddress heartbeatIPI, int heartbeatPortI) {
+			clientChannel = clientChannelI;
 			heartbeatIP = heartbeatIPI;
 			heartbeatPort = heartbeatPortI;
 		}
 
 		public void run() {
 			byte[] sendData = "hello from CTudp".getBytes();
-			DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, heartbeatIP, heartbeatPort);
 			try {
-				clientSocket.send(sendPacket);
+				clientChannel.send(ByteBuffer.wrap(sendData), new InetSocketAddress(heartbeatIP, heartbeatPort));
 			} catch (IOException e) {
-				System.err.println("UDPHeartbeatTask.run(): error sending DatagramPacket:\n" + e);
+				System.err.println("UDPHeartbeatTask.run(): error sending datagram:\n" + e);
 			}
 			System.err.println("---Heartbeat @ " + System.currentTimeMillis());
 		}
@@ -3,13 +3,12 @@ package cycronix.ctudp;
 //---------------------------------------------------------------------------------	
 //CTudp:  capture UDP packets to CT files
 //Matt Miller, Cycronix
+//
+//Packets from all ports are merged into one time-ordered write stream (see TimeMerge):
+//a port's packets are written once every active port has passed their time.
+//A silent port stops holding back the others after the idle timeout.
 
-import java.io.ByteArrayOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.MulticastSocket;
-import java.net.SocketTimeoutException;
+import java.io.IOException;
 
 import cycronix.ctlib.*;
 
@@ -43,7 +42,10 @@ public class CTudp_SyncedWrite {
 	double autoFlush=1.;			// flush interval (sec)				
 	double trimTime;				// trimtime (sec)	
 	String srcName 	= 	new String("CTudp");
-	ByteArrayOutputStream[] UDPbuf;
+	long lateness = 0;				// allowed lateness (msec) of packets on any port
+	long idleTimeout = 500;			// port idle after this long (msec) without packets, no longer holds back others
+	int maxPending = 10000;			// max packets buffered for merge
+	UDPreceiver receiver;			// receives all ports, queues packets to merge/write thread
 	static int numSock = 0;
 
 	//--------------------------------------------------------------------------------------------------------
@@ -55,7 +57,7 @@ public class CTudp_SyncedWrite {
 	public CTudp_SyncedWrite(String[] arg) {
 		String[] 	chanName	=	new String[32];
 		int			ssNum[]		=	new int[32];
-		int	dt = 0;
+		int dt[] = new int[32];
 		int numChan = 0;
 		
 		try {
@@ -89,7 +91,22 @@ public class CTudp_SyncedWrite {
 			}
 			if (ah.checkFlag('d')) {
 				String sdt=ah.getOption('d');
-				if (sdt!=null) dt = Integer.parseInt(sdt);		// msec
+				if (sdt!=null) {
+					String[] sdts = sdt.split(",");
+					for(int i=0; i<sdts.length; i++) dt[i] = Integer.parseInt(sdts[i]);		// msec
+				}
+			}
+			if (ah.checkFlag('l')) {
+				String sl=ah.getOption('l');
+				if (sl!=null) lateness=Long.parseLong(sl);
+			}
+			if (ah.checkFlag('i')) {
+				String si=ah.getOption('i');
+				if (si!=null) idleTimeout=Long.parseLong(si);
+			}
+			if (ah.checkFlag('b')) {
+				String sb=ah.getOption('b');
+				if (sb!=null) maxPending=Integer.parseInt(sb);
 			}
 			if (ah.checkFlag('f')) {
 				String saf=ah.getOption('f');
@@ -119,8 +136,14 @@ public class CTudp_SyncedWrite {
 			System.err.println("                default : "+ssNum[0]);
 			System.err.println(" -m <multicast addr>     : multicast UDP address (224.0.0.1 to 239.255.255.255)");
 			System.err.println("                default : none");
-			System.err.println(" -d <fixed dt>          : fixed delta-time (msec) between frames (dt=0 for arrival-times");
-			System.err.println("                default : "+dt);
+			System.err.println(" -d <fixed dt>          : fixed delta-time (msec) between frames, per port (dt=0 for arrival-times)");
+			System.err.println("                default : "+dt[0]);
+			System.err.println(" -l <lateness (msec)>   : allowed lateness of packet times on any port");
+			System.err.println("                default : "+lateness);
+			System.err.println(" -i <idle (msec)>       : port idle timeout, stops holding back other ports (0 for never)");
+			System.err.println("                default : "+idleTimeout);
+			System.err.println(" -b <max buffered>      : max packets buffered for time merge");
+			System.err.println("                default : "+maxPending);
 			System.err.println(" -f <flush (sec)>       : flush interval (sec) (amount of data per zipfile)");
 			System.err.println("                default : "+autoFlush);
 			System.err.println(" -t <trimTime (sec)>  : trim (ring-buffer loop) time (sec) (trimTime=0 for indefinite)");
@@ -144,120 +167,82 @@ public class CTudp_SyncedWrite {
 			System.err.println("UDPport["+i+"]: " + ssNum[i]);
 		}
 
-		// start a thread for each port
-		UDPbuf = new ByteArrayOutputStream[numSock];
-		new UDPread0(ssNum[0], srcName, chanName, dt).start();			// base port (pace-setter)
-		for(int i=1; i<numSock; i++) new UDPread1(i, ssNum[i]).start();	// optional extra ports
+		// start receiver (all ports, one thread) and merge/write thread
+		try {
+			receiver = new UDPreceiver(1024);
+			if(multiCast != null) System.err.println("Multicast address: "+multiCast);
+			for(int i=0; i<numSock; i++) receiver.addPort(ssNum[i], multiCast);
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+		final TimeMerge<byte[]> merge = new TimeMerge<byte[]>(numSock, lateness, idleTimeout, maxPending);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() { System.err.println(receiver.stats()+"\n"+merge.stats()); }
+		});
+		receiver.start();
+		new UDPmerge(merge, srcName, chanName, dt).start();
 	}
 	
 	//--------------------------------------------------------------------------------------------------------
-	private class UDPread0 extends Thread {
+	// merge packets from all ports by time, write in time order
+	private class UDPmerge extends Thread {
 		
-		private int port = 0;
+		private static final long POLL_MSEC = 10;		// max wait for packets, advances idle ports
+		private TimeMerge<byte[]> merge;
 		private String srcName;
 		private String[] chanName;
-		private DatagramSocket ds=null; 				//listen for data here
-		private MulticastSocket ms=null;
-		private int dt=0;
+		private int[] dt;
+		private long[] inTime;			// latest packet time, by port
+		private long[] outTime;			// latest written time, by port
 		
-		UDPread0(int iport, String isrcName, String[] ichanName, int idt) {
-			port = iport;
+		UDPmerge(TimeMerge<byte[]> imerge, String isrcName, String[] ichanName, int[] idt) {
+			merge = imerge;
 			srcName = isrcName;
 			chanName = ichanName;
-
-			try {				//open port for incoming UDP
-				if(multiCast != null) {
-					System.err.println("Multicast address: "+multiCast);
-					ms = new MulticastSocket(port);
-					ms.joinGroup(InetAddress.getByName(multiCast));
-				}
-				else {
-					ds = new DatagramSocket(port); 
-//					ds.setSoTimeout(10);			//  non-blocking timeout
-				}
-			} catch (Exception e) { e.printStackTrace(); }
+			dt = idt;
+			inTime = new long[numSock];
+			outTime = new long[numSock];
 		}
 		
 		public void run() {
 			try {
-				DatagramPacket dp=new DatagramPacket(new byte[65536],65536);
-
 				// setup CTwriter
 				CTwriter ctw = new CTwriter(srcName,trimTime);	
 				ctw.setZipMode(zipMode);
 				CTinfo.setDebug(debug);
 				ctw.autoFlush(autoFlush);		// auto flush to zip once per interval (sec) of data
 
-				long oldtime = 0;
-				long time = 0;
-
-				UDPbuf[0] = new ByteArrayOutputStream(65536);
-
-				while (true) {	
-					if(ms!=null) ms.receive(dp);			// multicast	
-					else 		 ds.receive(dp);			// unicast
-
-					int packetSize = dp.getLength();
-					if (packetSize > 0) {
-						if(dt==0 || time==0) 	time = System.currentTimeMillis();
-						else 		time += dt;							// only first channel paces
-						if(time == oldtime) ++time;		// no dupes
-
-						System.err.println("CTudp bytes: "+dp.getLength()+", sender port: "+dp.getPort()+", t: "+time);
-						ctw.setTime(time);
-
-//						byte[] data=new byte[dp.getLength()];		// truncate array to actual data got
-//						System.arraycopy(dp.getData(),dp.getOffset(),data,0,dp.getLength());
-						UDPbuf[0].write(dp.getData(),dp.getOffset(),dp.getLength());
-
-						try {
-							synchronized(UDPbuf) {
-								for(int i=0; i<numSock; i++) {
-									if(UDPbuf.length>0)	{	// write data from other threads
-										ctw.putData(chanName[i], UDPbuf[i].toByteArray());	
-										UDPbuf[i].reset();
-									}
-								}
-							}
-						} catch(Exception e) {
-							e.printStackTrace();			// dont give up on putData exceptions
-						}
-						oldtime = time;
-					}	
-				}
-			} catch (Exception e) { e.printStackTrace(); }
-		}
-	}
-
-	//--------------------------------------------------------------------------------------------------------
-	private class UDPread1 extends Thread {
-		private DatagramSocket ds=null; 				//listen for data here
-		private int threadNum;
-		
-		UDPread1(int ithreadNum, int port) {
-			threadNum = ithreadNum;
-			try {				//open port for incoming UDP
-				ds = new DatagramSocket(port); 
-			} catch (Exception e) { e.printStackTrace(); }
-		}
-		
-		public void run() {
-			try {
-				DatagramPacket dp=new DatagramPacket(new byte[65536],65536);
-				UDPbuf[threadNum] = new ByteArrayOutputStream(65536);
-				
 				while (true) {
-					ds.receive(dp);			// unicast
-					int packetSize = dp.getLength();
-					if (packetSize > 0) {
-						System.err.println("CTudp bytes: "+dp.getLength()+", sender port: "+dp.getPort());
-
-//						byte[] data=new byte[dp.getLength()];		// truncate array to actual data got
-//						System.arraycopy(dp.getData(),dp.getOffset(),data,0,dp.getLength());
-						synchronized(this) {
-							UDPbuf[threadNum].write(dp.getData(),dp.getOffset(),packetSize);
+					UDPreceiver.Packet packet = receiver.poll(POLL_MSEC);
+					long now = System.currentTimeMillis();
+					if(packet != null) {
+						int port = packet.port();
+						if(packet.data().remaining() > 0) {
+							long time;
+							if(dt[port]==0 || inTime[port]==0) 	time = packet.time();
+							else 								time = inTime[port] + dt[port];
+							if(time <= inTime[port]) time = inTime[port] + 1;		// no dupes
+							inTime[port] = time;
+							if(debug) System.err.println("CTudp bytes: "+packet.data().remaining()+", UDPport["+port+"], t: "+time);
+							merge.add(port, time, packet.bytes(), now);
+						}
+						receiver.release(packet);
+					}
+
+					TimeMerge.Event<byte[]> e;
+					while((e = merge.poll(now)) != null) {
+						int port = e.stream();
+						long time = e.time();
+						if(time <= outTime[port]) time = outTime[port] + 1;		// late packet merged at last output time:  no dupes
+						outTime[port] = time;
+						try {
+							ctw.setTime(time);
+							ctw.putData(chanName[port], e.item());
+						} catch(Exception ee) {
+							ee.printStackTrace();			// dont give up on putData exceptions
 						}
-					}	
+					}
 				}
 			} catch (Exception e) { e.printStackTrace(); }
 		}
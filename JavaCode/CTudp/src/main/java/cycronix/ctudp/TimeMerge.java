@@ -0,0 +1,208 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/*
+
+TimeMerge
+
+Merge timestamped items from any number of input streams into one
+time-ordered output stream.
+
+Each stream has a low watermark:  the latest time it has delivered, less
+the allowed lateness.  Items are released in time order once every active
+stream's watermark has passed them, so no stream can later deliver an
+earlier time (within the lateness bound).
+
+A stream that delivers nothing for the idle timeout (wall clock) stops
+holding back the others until it delivers again.  An item that arrives
+behind already-released output (too late, or from a stream that was idle)
+is released at the last output time and counted as late.
+
+Buffering is bounded:  past maxPending items, the oldest is released ahead
+of the watermark (counted as forced).
+
+Items of one stream must be added in time order.  Not thread-safe:  add and
+poll from one (writer) thread.
+
+ */
+
+package cycronix.ctudp;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+public class TimeMerge<T> {
+
+	private final int nstream;
+	private final long lateness;			// allowed lateness (msec)
+	private final long idleTimeout;			// stream idle after this long without input (msec), 0 never
+	private final int maxPending;			// max buffered items
+
+	private final PriorityQueue<Event<T>> pending;
+	private final long[] maxTime;			// latest item time, by stream
+	private final long[] lastInput;			// wall clock time of latest item, by stream
+	private final long[] received, late, forced;
+	private long lastOut = Long.MIN_VALUE;	// time of latest released item
+	private long seq = 0;					// arrival order, breaks time ties
+
+	private boolean dirty = true;			// watermark cache
+	private long markNow = 0;
+	private long mark = Long.MIN_VALUE;
+
+	//--------------------------------------------------------------------------------------------------------
+	// merged item
+
+	public static class Event<T> {
+		final int stream;
+		long time;
+		final T item;
+		final long seq;
+
+		Event(int stream, long time, T item, long seq) {
+			this.stream = stream; this.time = time; this.item = item; this.seq = seq;
+		}
+
+		public int stream() 	{ return stream; }
+		public long time() 		{ return time; }
+		public T item() 		{ return item; }
+	}
+
+	//--------------------------------------------------------------------------------------------------------
+	// constructor
+
+	/**
+	 * @param nstream number of input streams (0 to nstream-1)
+	 * @param lateness allowed lateness (msec) of items on any one stream
+	 * @param idleTimeout a stream idle this long (wall clock msec) no longer holds back the others, 0 for never
+	 * @param maxPending max buffered items
+	 */
+	public TimeMerge(int nstream, long lateness, long idleTimeout, int maxPending) {
+		this.nstream = nstream;
+		this.lateness = Math.max(0, lateness);
+		this.idleTimeout = Math.max(0, idleTimeout);
+		this.maxPending = Math.max(1, maxPending);
+		maxTime = new long[nstream];
+		lastInput = new long[nstream];
+		received = new long[nstream];
+		late = new long[nstream];
+		forced = new long[nstream];
+		pending = new PriorityQueue<Event<T>>(64, new Comparator<Event<T>>() {
+			public int compare(Event<T> a, Event<T> b) {
+				if(a.time != b.time) return (a.time < b.time) ? -1 : 1;
+				return (a.seq < b.seq) ? -1 : ((a.seq == b.seq) ? 0 : 1);
+			}
+		});
+	}
+
+	//--------------------------------------------------------------------------------------------------------
+	// input
+
+	/**
+	 * Add item
+	 * @param stream input stream
+	 * @param time item time (msec)
+	 * @param item item
+	 * @param now wall clock time (msec)
+	 */
+	public void add(int stream, long time, T item, long now) {
+		if(received[stream] == 0 || time > maxTime[stream]) maxTime[stream] = time;
+		lastInput[stream] = now;
+		received[stream]++;
+		pending.add(new Event<T>(stream, time, item, seq++));
+		dirty = true;
+	}
+
+	//--------------------------------------------------------------------------------------------------------
+	// output
+
+	/**
+	 * Low watermark:  min over active streams of (latest time - lateness).
+	 * Long.MAX_VALUE if no stream is active.
+	 * @param now wall clock time (msec)
+	 */
+	public long watermark(long now) {
+		if(!dirty && now == markNow) return mark;
+		long m = Long.MAX_VALUE;
+		for(int i=0; i<nstream; i++) {
+			if(received[i] == 0) continue;										// not started
+			if(idleTimeout > 0 && (now - lastInput[i]) > idleTimeout) continue;	// idle
+			m = Math.min(m, maxTime[i] - lateness);
+		}
+		mark = m;
+		markNow = now;
+		dirty = false;
+		return m;
+	}
+
+	/**
+	 * Next item ready for output, in time order
+	 * @param now wall clock time (msec)
+	 * @return item, null if none ready
+	 */
+	public Event<T> poll(long now) {
+		Event<T> e = pending.peek();
+		if(e == null) return null;
+		if(e.time > watermark(now)) {
+			if(pending.size() <= maxPending) return null;
+			forced[e.stream]++;										// buffer full:  release early
+		}
+		return release(pending.poll());
+	}
+
+	/**
+	 * Next buffered item regardless of watermark, e.g. at shutdown
+	 * @return item, null if none
+	 */
+	public Event<T> flush() {
+		Event<T> e = pending.poll();
+		return (e == null) ? null : release(e);
+	}
+
+	private Event<T> release(Event<T> e) {
+		if(e.time < lastOut) {									// behind output:  late
+			late[e.stream]++;
+			e.time = lastOut;
+		}
+		lastOut = e.time;
+		return e;
+	}
+
+	/**
+	 * @return number of buffered items
+	 */
+	public int pending() {
+		return pending.size();
+	}
+
+	//--------------------------------------------------------------------------------------------------------
+	// statistics
+
+	public long received(int stream) 	{ return received[stream]; }
+	public long late(int stream) 		{ return late[stream]; }
+	public long forced(int stream) 		{ return forced[stream]; }
+
+	/**
+	 * @return one line per stream:  received, late, forced
+	 */
+	public String stats() {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<nstream; i++) {
+			if(sb.length() > 0) sb.append('\n');
+			sb.append("TimeMerge stream: ").append(i).append(", received: ").append(received[i])
+				.append(", late: ").append(late[i]).append(", forced: ").append(forced[i]);
+		}
+		sb.append(", pending: ").append(pending.size()).append("/").append(maxPending);
+		return sb.toString();
+	}
+}
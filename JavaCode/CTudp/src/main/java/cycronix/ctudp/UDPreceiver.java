@@ -0,0 +1,297 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/*
+
+UDPreceiver
+
+Receive UDP packets from any number of ports on one thread, using
+non-blocking DatagramChannels on a single Selector.  Packets are received
+into pooled direct buffers and handed to the consumer (CT writer) thread
+through a bounded queue, so a slow CT flush never stalls the sockets.
+When the queue is full, packets are read and dropped (counted) rather
+than left to overflow the kernel socket buffer.
+
+Per-port counters:  packets received, packets dropped, queue high-water mark.
+
+ */
+
+package cycronix.ctudp;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class UDPreceiver {
+
+	public static final int MAX_PACKET = 65536;		// buffer size, any UDP datagram fits
+	private static final int MAX_BURST = 64;		// max packets per port per select (fairness)
+	private static final int RCVBUF = 4*1024*1024;	// requested socket receive buffer (bytes)
+	private static final int SPARE_BUFFERS = 4;		// buffers held by consumer, beyond queue
+
+	private final Selector selector;
+	private final ArrayBlockingQueue<Packet> queue;
+	private final ArrayBlockingQueue<Packet> free;	// buffer pool
+	private final int maxBuffers;
+	private int nbuffer = 0;						// allocated, receive thread only
+	private final ByteBuffer scratch = ByteBuffer.allocateDirect(MAX_PACKET);	// drop target when full
+	private final ArrayList<Port> ports = new ArrayList<Port>();
+	private Thread thread = null;
+	private volatile boolean closed = false;
+
+	//--------------------------------------------------------------------------------------------------------
+	// received packet:  data is valid until release()
+
+	public static class Packet {
+		final ByteBuffer buffer;
+		int port;				// port index (see addPort)
+		long time;				// arrival time (msec)
+
+		Packet(ByteBuffer buffer) { this.buffer = buffer; }
+
+		public int port() 			{ return port; }
+		public long time() 			{ return time; }
+		public ByteBuffer data() 	{ return buffer; }
+
+		// copy of data
+		public byte[] bytes() {
+			byte[] b = new byte[buffer.remaining()];
+			buffer.duplicate().get(b);
+			return b;
+		}
+	}
+
+	// receiving channel and its counters (written by receive thread only)
+	private static class Port {
+		final int index;
+		final String label;
+		final DatagramChannel channel;
+		volatile long received = 0;
+		volatile long dropped = 0;
+		volatile int highWater = 0;
+
+		Port(int index, String label, DatagramChannel channel) {
+			this.index = index; this.label = label; this.channel = channel;
+		}
+	}
+
+	//--------------------------------------------------------------------------------------------------------
+	// constructor
+
+	public UDPreceiver(int queueSize) throws IOException {
+		queueSize = Math.max(1, queueSize);
+		selector = Selector.open();
+		queue = new ArrayBlockingQueue<Packet>(queueSize);
+		maxBuffers = queueSize + SPARE_BUFFERS;
+		free = new ArrayBlockingQueue<Packet>(maxBuffers);
+	}
+
+	//--------------------------------------------------------------------------------------------------------
+	// add ports (before start)
+
+	/**
+	 * Listen on UDP port
+	 * @param port port number
+	 * @param multiCast multicast group address, null for unicast
+	 * @return port index, as in Packet.port()
+	 */
+	public int addPort(int port, String multiCast) throws IOException {
+		DatagramChannel ch;
+		if(multiCast != null) {
+			ch = DatagramChannel.open(StandardProtocolFamily.INET);
+			ch.setOption(StandardSocketOptions.SO_REUSEADDR, true);		// as MulticastSocket
+			ch.bind(new InetSocketAddress(port));
+			ch.join(InetAddress.getByName(multiCast), multicastInterface());
+		}
+		else {
+			ch = DatagramChannel.open();
+			ch.bind(new InetSocketAddress(port));
+		}
+		return addChannel(ch, Integer.toString(port));
+	}
+
+	/**
+	 * Receive on existing (bound) channel, e.g. one also used to send
+	 * @param ch datagram channel
+	 * @param label name for statistics
+	 * @return port index, as in Packet.port()
+	 */
+	public int addChannel(DatagramChannel ch, String label) throws IOException {
+		try {
+			ch.setOption(StandardSocketOptions.SO_RCVBUF, RCVBUF);		// OS may cap
+		} catch(IOException e) {
+			System.err.println("UDPreceiver: cannot set receive buffer, port: "+label+", "+e);
+		}
+		ch.configureBlocking(false);
+		Port p = new Port(ports.size(), label, ch);
+		ch.register(selector, SelectionKey.OP_READ, p);
+		ports.add(p);
+		return p.index;
+	}
+
+	// multicast interface:  first up, non-loopback IPv4 interface that supports multicast, else loopback
+	private static NetworkInterface multicastInterface() throws IOException {
+		NetworkInterface loopback = null;
+		for(NetworkInterface ni:Collections.list(NetworkInterface.getNetworkInterfaces())) {
+			if(!ni.isUp() || !ni.supportsMulticast()) continue;
+			boolean ipv4 = false;
+			for(Enumeration<InetAddress> e=ni.getInetAddresses(); e.hasMoreElements();) {
+				if(e.nextElement() instanceof Inet4Address) ipv4 = true;
+			}
+			if(!ipv4) continue;
+			if(!ni.isLoopback()) return ni;
+			if(loopback == null) loopback = ni;
+		}
+		if(loopback == null) throw new IOException("no multicast network interface");
+		return loopback;
+	}
+
+	//--------------------------------------------------------------------------------------------------------
+	// receive thread
+
+	public void start() {
+		thread = new Thread(new Runnable() {
+			public void run() { receiveLoop(); }
+		}, "UDPreceiver");
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void receiveLoop() {
+		try {
+			while(!closed) {
+				selector.select(1000);
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while(it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if(key.isValid() && key.isReadable()) drain((Port)key.attachment());
+				}
+			}
+		} catch(Exception e) {
+			if(!closed) {
+				System.err.println("UDPreceiver error: "+e);
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// read available packets from port (up to MAX_BURST)
+	private void drain(Port port) throws IOException {
+		for(int n=0; n<MAX_BURST; n++) {
+			Packet p = free.poll();
+			if(p == null && nbuffer < maxBuffers) {
+				p = new Packet(ByteBuffer.allocateDirect(MAX_PACKET));
+				nbuffer++;
+			}
+			ByteBuffer b = (p != null) ? p.buffer : scratch;
+			b.clear();
+			if(port.channel.receive(b) == null) {		// nothing more
+				if(p != null) free.offer(p);
+				return;
+			}
+			if(p == null) {								// consumer behind:  drop
+				port.dropped++;
+				continue;
+			}
+			b.flip();
+			p.port = port.index;
+			p.time = System.currentTimeMillis();
+			if(!queue.offer(p)) {
+				port.dropped++;
+				free.offer(p);
+				continue;
+			}
+			port.received++;
+			int depth = queue.size();
+			if(depth > port.highWater) port.highWater = depth;
+		}
+	}
+
+	//--------------------------------------------------------------------------------------------------------
+	// consumer access
+
+	/**
+	 * Wait for next packet.  Return it with release() when done.
+	 */
+	public Packet take() throws InterruptedException {
+		return queue.take();
+	}
+
+	/**
+	 * Wait up to timeout for next packet
+	 * @return packet, null if none
+	 */
+	public Packet poll(long timeoutMsec) throws InterruptedException {
+		return queue.poll(timeoutMsec, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Return packet buffer to pool
+	 */
+	public void release(Packet p) {
+		if(p != null) free.offer(p);
+	}
+
+	/**
+	 * @return number of queued packets
+	 */
+	public int pending() {
+		return queue.size();
+	}
+
+	public void close() {
+		closed = true;
+		try { selector.close(); } catch(IOException e) {}
+		for(Port p:ports) {
+			try { p.channel.close(); } catch(IOException e) {}
+		}
+	}
+
+	//--------------------------------------------------------------------------------------------------------
+	// statistics
+
+	public long received(int port) 	{ return ports.get(port).received; }
+	public long dropped(int port) 	{ return ports.get(port).dropped; }
+	public int highWater(int port) 	{ return ports.get(port).highWater; }
+
+	/**
+	 * @return one line per port:  received, dropped, queue high-water mark
+	 */
+	public String stats() {
+		StringBuilder sb = new StringBuilder();
+		for(Port p:ports) {
+			if(sb.length() > 0) sb.append('\n');
+			sb.append("UDPreceiver port: ").append(p.label).append(", received: ").append(p.received)
+				.append(", dropped: ").append(p.dropped).append(", queue highWater: ").append(p.highWater)
+				.append("/").append(queue.remainingCapacity()+queue.size());
+		}
+		return sb.toString();
+	}
+}
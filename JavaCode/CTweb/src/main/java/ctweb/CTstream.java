@@ -0,0 +1,377 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+//---------------------------------------------------------------------------------
+// CTstream:  push new data to web clients as Server-Sent Events (SSE)
+
+// 10/18/2026	initial version
+
+/*
+ URL Syntax:
+
+ http://cloudturbine.net:/CT/Source/Channel?r=stream
+ http://cloudturbine.net:/CT/Source/Chan1,Chan2,*.f32?r=stream
+ http://cloudturbine.net:/CT/Source/?r=stream						(all channels)
+
+ Opens a text/event-stream (e.g. browser EventSource).  Each new data update is one event,
+ named by channel, with one "time,value" data line per point (as CSV fetch).
+ Binary channels (.jpg, .bin, .wav, ...) send one "time" data line per block; fetch the block with t=time.
+
+ New data is detected once per source (one CTsubscription, shared by all clients of the source,
+ following the union of their channels; binary channels are followed by time only, blocks not read),
+ formatted once, and fanned out to each client whose channels match.
+ Writes are non-blocking (servlet WriteListener), so a slow client does not hold up the others;
+ a client that falls too far behind is disconnected (EventSource reconnects).
+
+ */
+
+package ctweb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import cycronix.ctlib.CTdata;
+import cycronix.ctlib.CTinfo;
+import cycronix.ctlib.CTreader;
+import cycronix.ctlib.CTsubscription;
+
+//---------------------------------------------------------------------------------
+
+public class CTstream {
+
+	private static final int CLIENT_QUEUE = 256;			// max events queued per client, else disconnect
+	private static final long HEARTBEAT_MSEC = 10000;		// keep-alive comment, within connector idle timeout
+	private static final long POLL_MSEC = 1000;				// subscription poll (file systems without change events)
+	private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+	private static final HashMap<String,Feed> feeds = new HashMap<String,Feed>();		// by source
+	private static Thread heartbeat = null;
+
+	//---------------------------------------------------------------------------------
+	// open stream for request (called from CTServlet.doGet, response CORS headers already set)
+
+	/**
+	 * Start streaming new data of source channels to client
+	 * @param ctreader reader
+	 * @param request request, async supported
+	 * @param response response
+	 * @param source source name
+	 * @param chans comma-separated channel names or glob patterns, null or "*" for all
+	 * @param swap byte-swap binary numeric data
+	 */
+	static void open(CTreader ctreader, HttpServletRequest request, HttpServletResponse response,
+			String source, String chans, boolean swap) throws IOException {
+
+		response.setContentType("text/event-stream");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		response.setHeader("X-Accel-Buffering", "no");			// no proxy buffering
+
+		AsyncContext async = request.startAsync();
+		async.setTimeout(0);									// until client disconnects
+		final Client client = new Client(async, response.getOutputStream(), chans);
+		async.addListener(new AsyncListener() {
+			public void onComplete(AsyncEvent event) 	{ client.close(); }
+			public void onTimeout(AsyncEvent event) 	{ client.close(); }
+			public void onError(AsyncEvent event) 		{ client.close(); }
+			public void onStartAsync(AsyncEvent event) 	{ }
+		});
+		client.out.setWriteListener(client);					// non-blocking output from here on
+
+		Feed feed;
+		synchronized(feeds) {
+			if(heartbeat == null) start();
+			feed = feeds.get(source);
+			if(feed == null) {
+				feed = new Feed(ctreader, source, swap, chans);
+				feeds.put(source, feed);
+			}
+			client.feed = feed;
+			feed.clients.add(client);
+			feed.follow();
+		}
+		if(client.closed) remove(client);						// closed while opening
+		client.send(("retry: 2000\n\n").getBytes(StandardCharsets.UTF_8));		// commits response headers
+		if(CTweb.debug) System.err.println("CTstream open, source: "+source+", chans: "+chans+", clients: "+feed.clients.size());
+	}
+
+	// start heartbeat.  call with feeds lock
+	private static void start() {
+		heartbeat = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while(true) {
+						Thread.sleep(HEARTBEAT_MSEC);
+						ArrayList<Feed> flist;
+						synchronized(feeds) { flist = new ArrayList<Feed>(feeds.values()); }
+						for(Feed f:flist) for(Client c:f.clients) c.send(HEARTBEAT);
+					}
+				} catch(InterruptedException e) {}
+			}
+		}, "CTstream-heartbeat");
+		heartbeat.setDaemon(true);
+		heartbeat.start();
+	}
+
+	// remove client, close feed when last client of source leaves
+	private static void remove(Client client) {
+		Feed feed = client.feed;
+		if(feed == null) return;
+		synchronized(feeds) {
+			feed.clients.remove(client);
+			if(feed.clients.isEmpty() && feeds.get(feed.source) == feed) {
+				feeds.remove(feed.source);
+				feed.close();
+			}
+			else if(!feed.closed) feed.follow();
+		}
+		if(CTweb.debug) System.err.println("CTstream close, source: "+feed.source+", clients: "+feed.clients.size());
+	}
+
+	//---------------------------------------------------------------------------------
+	// Feed:  one subscription per source, fanned out to clients
+
+	private static class Feed implements Runnable {
+		final String source;
+		final boolean swap;
+		final CTsubscription sub;
+		final CopyOnWriteArrayList<Client> clients = new CopyOnWriteArrayList<Client>();
+		private String following;				// subscription channels (feeds lock)
+		volatile boolean closed = false;
+
+		Feed(CTreader ctreader, String source, boolean swap, String chans) {
+			this.source = source;
+			this.swap = swap;
+			following = unionChans(chans, null);
+			sub = ctreader.subscribe(source, following, 64, POLL_MSEC);
+			sub.setTimeOnly(true);								// binary blocks:  time only (see format)
+			Thread t = new Thread(this, "CTstream-"+source);
+			t.setDaemon(true);
+			t.start();
+		}
+
+		public void run() {
+			try {
+				while(!closed) {
+					CTsubscription.Update u = sub.poll(POLL_MSEC);
+					if(u == null) continue;
+					byte[] event = null;								// format once, if any client wants it
+					for(Client c:clients) {
+						if(!c.matches(u.getChan())) continue;
+						if(event == null) event = format(u.getChan(), u.getData(), swap);
+						if(event == null) break;
+						c.send(event);
+					}
+				}
+			} catch(Exception e) {
+				if(!closed) {
+					System.err.println("CTstream error, source: "+source+", "+e);
+					for(Client c:clients) c.close();
+				}
+			}
+		}
+
+		// follow union of client channels.  call with feeds lock
+		void follow() {
+			String chans = null;
+			for(Client c:clients) chans = unionChans(c.chans, chans);
+			if(chans == null || chans.equals(following)) return;
+			following = chans;
+			sub.setPattern(chans);
+			if(CTweb.debug) System.err.println("CTstream source: "+source+", following: "+chans);
+		}
+
+		void close() {
+			closed = true;
+			sub.close();
+		}
+	}
+
+	// union of comma-separated channel lists (names or globs), "*" for all
+	private static String unionChans(String chans, String union) {
+		if(chans == null || chans.length() == 0 || chans.equals("*") || "*".equals(union)) return "*";
+		LinkedHashSet<String> set = new LinkedHashSet<String>();
+		if(union != null) for(String c:union.split(",")) set.add(c);
+		for(String c:chans.split(",")) {
+			if(c.equals("*")) return "*";
+			if(c.length() > 0) set.add(c);
+		}
+		StringBuilder sb = new StringBuilder();
+		for(String c:set) {
+			if(sb.length() > 0) sb.append(',');
+			sb.append(c);
+		}
+		return (sb.length() == 0) ? "*" : sb.toString();
+	}
+
+	// SSE event:  one data line per point (time,value), or per block (time) for binary channels
+	private static byte[] format(String chan, CTdata tdata, boolean swap) {
+		tdata.setSwap(swap);
+		double[] time = tdata.getTime();
+		if(time == null || time.length == 0) return null;
+		char ftype = CTinfo.fileType(chan,'s');
+		boolean blocks = (ftype == 'B' || ftype == 'b' || chan.toLowerCase().endsWith(".wav"));
+		String[] strdata = blocks ? null : tdata.getDataAsString(ftype);
+
+		StringBuilder sb = new StringBuilder(64 + 32*time.length);
+		sb.append("event: ").append(chan).append('\n');
+		sb.append("id: ").append(CTweb.formatTime(time[time.length-1])).append('\n');
+		for(int i=0; i<time.length; i++) {
+			sb.append("data: ").append(CTweb.formatTime(time[i]));
+			if(strdata != null && i < strdata.length) sb.append(',').append(strdata[i].replace('\n', ' ').replace('\r', ' '));
+			sb.append('\n');
+		}
+		sb.append('\n');
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	//---------------------------------------------------------------------------------
+	// Client:  one event-stream connection.
+	// Output is non-blocking:  whichever thread finds the stream idle writes while the container
+	// reports it ready; once not ready, the container resumes with onWritePossible.
+
+	private static class Client implements WriteListener {
+		final AsyncContext async;
+		final ServletOutputStream out;
+		final String chans;
+		final Pattern chanPattern;				// null for all
+		final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(CLIENT_QUEUE);
+		Feed feed = null;
+		private boolean writing = false;		// a thread is writing (queue lock)
+		private boolean waiting = false;		// output not ready, container calls onWritePossible (queue lock)
+		private boolean unflushed = false;		// written since last flush (writing thread)
+		private boolean done = false;			// closed and removed (queue lock)
+		private volatile boolean closed = false;
+
+		Client(AsyncContext async, ServletOutputStream out, String chans) {
+			this.async = async;
+			this.out = out;
+			this.chans = chans;
+			this.chanPattern = chanPattern(chans);
+		}
+
+		boolean matches(String chan) {
+			return chanPattern == null || chanPattern.matcher(chan).matches();
+		}
+
+		// queue event, write now if output idle
+		void send(byte[] event) {
+			if(closed) return;
+			synchronized(queue) {
+				if(queue.offer(event)) {
+					if(writing || waiting) return;
+					writing = true;
+				}
+				else event = null;
+			}
+			if(event != null) write();
+			else {
+				System.err.println("CTstream: client too far behind, disconnected, source: "+(feed!=null?feed.source:""));
+				close();
+			}
+		}
+
+		// container:  output ready again
+		public void onWritePossible() {
+			synchronized(queue) {
+				if(writing) return;
+				if(!waiting && queue.isEmpty() && !unflushed) return;
+				waiting = false;
+				writing = true;
+			}
+			write();
+		}
+
+		public void onError(Throwable t) {
+			if(CTweb.debug) System.err.println("CTstream write: "+t);
+			close();
+		}
+
+		// write queued events while output is ready
+		private void write() {
+			try {
+				while(!closed) {
+					byte[] event;
+					synchronized(queue) {
+						if(!out.isReady()) {
+							writing = false;
+							waiting = true;
+							return;
+						}
+						event = queue.poll();
+						if(event == null && !unflushed) {
+							writing = false;
+							return;
+						}
+					}
+					if(event == null) {
+						unflushed = false;
+						out.flush();
+					}
+					else {
+						out.write(event);
+						unflushed = true;
+					}
+				}
+			} catch(Exception e) {						// client gone
+				if(CTweb.debug) System.err.println("CTstream write: "+e);
+				close();
+			}
+		}
+
+		void close() {
+			synchronized(queue) {
+				if(done) return;
+				done = closed = true;
+				queue.clear();
+			}
+			remove(this);
+			try { async.complete(); } catch(Exception e) {}		// already completed
+		}
+	}
+
+	// comma-separated names and globs ("*", "?") to regex, null for all
+	private static Pattern chanPattern(String chans) {
+		if(chans == null || chans.length() == 0 || chans.equals("*")) return null;
+		StringBuilder sb = new StringBuilder();
+		for(String c:chans.split(",")) {
+			if(c.length() == 0) continue;
+			if(sb.length() > 0) sb.append('|');
+			for(char ch:c.toCharArray()) {
+				if(ch == '*') 		sb.append(".*");
+				else if(ch == '?') 	sb.append('.');
+				else				sb.append(Pattern.quote(String.valueOf(ch)));
+			}
+		}
+		return Pattern.compile(sb.toString());
+	}
+}
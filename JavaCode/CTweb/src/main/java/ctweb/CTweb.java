@@ -36,6 +36,7 @@
  
  t		time		123456789					time relative to tref (sec)
  r		tref		absolute,newest,oldest		time reference
+ 			stream						push new data as Server-Sent Events (see CTstream)
  d		duration	100							time interval (sec)
  dt		datatype	s							format as string (s) default, binary (b), HTML (H)
  f		timefetch	t,d							f=t to fetch time-only (default time+data)
@@ -86,6 +87,7 @@ import org.eclipse.jetty.util.security.Constraint;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.server.Connector;
 
+import cycronix.ctlib.CTcache;
 import cycronix.ctlib.CTdata;
 import cycronix.ctlib.CTinfo;
 import cycronix.ctlib.CTreader;
@@ -115,12 +117,15 @@ public class CTweb {
 	private static String password=null;				// CTcrypto password
     private static int scaleImage=1;					// reduce image size by factor
     private static boolean fastSearch=false;			// fast channel search, reduces startup time 
+    private static long cacheMB=-1;						// on-heap data cache size (MB), -1 for default
+    private static long offHeapCacheMB=0;				// off-heap data cache size (MB), 0 for none
+    private static final long OFFHEAP_L1_MB=64;			// default on-heap cache size with off-heap cache
 	//---------------------------------------------------------------------------------	
 
     public static void main(String[] args) throws Exception {
 
     	if(args.length == 0) {
-    		System.err.println("CTweb -r -x -X -F -p <port> -P <sslport> -f <webfolder> -s <sourceFolder> -k <keystoreFile> -K <keystorePW> -a <authenticationFile> -S <scaleImage> rootFolder");
+    		System.err.println("CTweb -r -x -X -F -p <port> -P <sslport> -f <webfolder> -s <sourceFolder> -k <keystoreFile> -K <keystorePW> -a <authenticationFile> -S <scaleImage> -c <cacheMB> -C <offHeapCacheMB> rootFolder");
     	}
     	
      	int dirArg = 0;
@@ -138,11 +143,20 @@ public class CTweb {
      		if(args[dirArg].equals("-a"))	realmProps = args[++dirArg];
      		if(args[dirArg].equals("-S")) 	scaleImage = Integer.parseInt(args[++dirArg]);
      		if(args[dirArg].equals("-e"))	password = args[++dirArg];
+     		if(args[dirArg].equals("-c"))	cacheMB = Long.parseLong(args[++dirArg]);
+     		if(args[dirArg].equals("-C"))	offHeapCacheMB = Long.parseLong(args[++dirArg]);
 
      		dirArg++;
      	}
      	if(args.length > dirArg) rootFolder = args[dirArg++];
 
+     	// data cache tiers:  with an off-heap cache, keep the on-heap cache small (less GC)
+     	if(offHeapCacheMB > 0) {
+     		CTcache.setOffHeapCacheSize(offHeapCacheMB*1000000L);
+     		if(cacheMB < 0) cacheMB = OFFHEAP_L1_MB;
+     	}
+     	if(cacheMB >= 0) CTcache.setDataCacheSize(cacheMB*1000000L);
+
      	// If sourceFolder has been specified, make sure it exists
      	if ( (sourceFolder != null) && ( (new File(sourceFolder).exists() == false) || (new File(sourceFolder).isDirectory() == false) ) ) {
      		System.err.println("The source folder doesn't exist or isn't a directory.");
@@ -403,11 +417,17 @@ public class CTweb {
     			double duration=0., start=0.;
     			String reference="newest";			
     			String param;	char ftype='s';	  char fetch = 'b';
+    			int npoints=0;	String stat="mean";		// reduced-resolution fetch from source rollups (see CTwriter.setRollup)
+    			String aggStat=null;	double window=0.;	// windowed aggregate (see CTreader.getAggregate)
     			param = request.getParameter("d");	if(param != null) duration = Double.parseDouble(param);
     			param = request.getParameter("t");	if(param != null) { start = Double.parseDouble(param); reference="absolute"; }
     			param = request.getParameter("r");	if(param != null) reference = param;
     			param = request.getParameter("f");	if(param != null) fetch = param.charAt(0);
     			param = request.getParameter("dt");	if(param != null) ftype = param.charAt(0);
+    			param = request.getParameter("n");	if(param != null) npoints = Integer.parseInt(param);
+    			param = request.getParameter("s");	if(param != null) stat = param;
+    			param = request.getParameter("a");	if(param != null) aggStat = param;
+    			param = request.getParameter("w");	if(param != null) window = Double.parseDouble(param);
 
     			if(reference.equals("refresh")) {
     				ctreader.clearFileListCache();
@@ -415,6 +435,21 @@ public class CTweb {
     				return;
     			}
     			
+    			if(reference.equals("stream")) {								// push new data, Source/Chans or Source/ for all
+    				String source = (pathParts.length > 2) ? pathParts[2] : "";
+    				int nsource = pathInfo.endsWith("/") ? pathParts.length : pathParts.length-1;
+    				for(int i=3; i<nsource; i++) source += ("/"+pathParts[i]);		// multi-level source name
+    				String chans = pathInfo.endsWith("/") ? null : pathParts[pathParts.length-1];
+    				formResponse(response, null);		// add CORS header even for error response
+    				if(source.length() == 0 || !new File(rootFolder+File.separator+source).isDirectory()) {
+    					if(debug) System.err.println("No such source to stream: "+pathInfo);
+    					response.sendError(HttpServletResponse.SC_NOT_FOUND);
+    					return;
+    				}
+    				CTstream.open(ctreader, request, response, source, chans, swapFlag);
+    				return;
+    			}
+
     			if(pathInfo.equals(servletRoot+"/") || pathInfo.equals(rbnbRoot+"/")) pathInfo = servletRoot;		//  strip trailing slash
 
     			if(pathInfo.equals(servletRoot) || pathInfo.equals(rbnbRoot)) {			// Root level request for Sources
@@ -513,7 +548,15 @@ public class CTweb {
     				if(fetch == 't') 	ctreader.setTimeOnly(true);		// don't waste time/memory getting data...
     				else    			ctreader.setTimeOnly(false);
 
-    				CTdata tdata = ctreader.getData(source,chan,start,duration,reference);
+    				CTdata tdata;
+    				char chanType = CTinfo.fileType(chan,'s');
+    				if(aggStat != null) {		// one float64 value per window
+    					tdata = ctreader.getAggregate(source,chan,start,duration,reference,window,swapFlag).toCTdata(aggStat);
+    					if(tdata == null) System.err.println("Unrecognized aggregate: "+aggStat);
+    					chanType = 'F';
+    				}
+    				else if(npoints > 0)	tdata = ctreader.getData(source,chan,start,duration,reference,npoints,stat);		// rollup if too many points
+    				else			tdata = ctreader.getData(source,chan,start,duration,reference);
     				if(doProfile) System.err.println("doGet R time: "+((System.nanoTime()-startTime)/1000000.)+" ms, Memory Used MB: " + (double) (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / (1024*1024));
 
     				if(tdata == null) {		// empty response for WebTurbine compatibility
@@ -523,7 +566,7 @@ public class CTweb {
     					return;
     				}
     				else {
-    					tdata.setSwap(swapFlag);
+    					if(aggStat == null) tdata.setSwap(swapFlag);		// aggregates are little-endian
     					double time[] = tdata.getTime();
     					if(time == null) {
     						if(debug) System.err.println("Oops, got data but no time data?: "+pathInfo);
@@ -582,7 +625,7 @@ public class CTweb {
     					
     					// if(time.length == 0) System.err.println("CTweb warning: no data!");
     					if(numData > 0) {
-    						if(ftype == 's' /* && fetch=='b' */) ftype = CTinfo.fileType(chan,'s');	// over-ride for certain binary types
+    						if(ftype == 's' /* && fetch=='b' */) ftype = chanType;	// over-ride for certain binary types
     						if(fetch=='t') ftype ='s';								// time-only data returned as string
     						if(debug) System.err.println("getData: "+chan+"?t="+start+"&d="+duration+"&r="+reference+", ftype: "+ftype);
 
@@ -651,7 +694,7 @@ public class CTweb {
 
     							// HTML table format (for import to spreadsheets)
     						case 'H':			
-    							strdata = tdata.getDataAsString(CTinfo.fileType(chan,'s'));		// convert any/all numeric types to string
+    							strdata = tdata.getDataAsString(chanType);		// convert any/all numeric types to string
     							if(strdata != null) {
     								sbresp.append("<table id="+source+"/"+chan+">\n");
     								sbresp.append("<tr><th>Time</th><th>"+source+"/"+chan+"</th></tr>");
@@ -774,7 +817,7 @@ public class CTweb {
 		}
     }
     
-    private static String formatTime(double time) {
+    static String formatTime(double time) {
 		if(((long)time) == time) return(Long.toString((long)time));
 		else					 return Double.toString(time);		
 //		else					 return new DecimalFormat("0.000").format(time);		// loses precision